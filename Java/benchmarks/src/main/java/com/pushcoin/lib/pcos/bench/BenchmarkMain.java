@@ -0,0 +1,51 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the regular JMH command line and
+ * always attaches the GC profiler, so every run also reports allocation rate
+ * (gc.alloc.rate.norm is bytes allocated per operation).
+ */
+public final class BenchmarkMain
+{
+	private BenchmarkMain() {}
+
+	public static void main( String[] args ) throws Exception
+	{
+		CommandLineOptions cmd = new CommandLineOptions( args );
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats())
+		{
+			org.openjdk.jmh.Main.main( args );
+			return;
+		}
+
+		Options opts = new OptionsBuilder()
+			.parent( cmd )
+			.addProfiler( GCProfiler.class )
+			.build();
+		new Runner( opts ).run();
+	}
+}
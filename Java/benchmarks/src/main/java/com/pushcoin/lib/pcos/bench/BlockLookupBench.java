@@ -0,0 +1,88 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockKey;
+import com.pushcoin.lib.pcos.DocumentReader;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of DocumentReader.getBlock() on a message with many blocks, by name
+ * and by pre-encoded key. Scores are per lookup.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockLookupBench
+{
+	static final int LOOKUPS = Messages.MANY_BLOCKS_COUNT + 1;
+
+	DocumentReader reader_;
+	String[] names_ = new String[LOOKUPS];
+	BlockKey[] keys_ = new BlockKey[LOOKUPS];
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		reader_ = new DocumentReader( Messages.build(Messages.MANY_BLOCKS).toBytes() );
+		names_[0] = "Hd";
+		for (int i = 1; i < LOOKUPS; ++i) {
+			names_[i] = Messages.accountBlockName( i - 1 );
+		}
+		for (int i = 0; i < LOOKUPS; ++i) {
+			keys_[i] = BlockKey.of( names_[i] );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void byName( Blackhole bh ) throws PcosError
+	{
+		for (int i = 0; i < LOOKUPS; ++i) {
+			bh.consume( reader_.getBlock(names_[i]) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void byKey( Blackhole bh ) throws PcosError
+	{
+		for (int i = 0; i < LOOKUPS; ++i) {
+			bh.consume( reader_.getBlock(keys_[i]) );
+		}
+	}
+}
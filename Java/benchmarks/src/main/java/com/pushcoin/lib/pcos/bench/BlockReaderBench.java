@@ -0,0 +1,261 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockReader;
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-primitive decode cost. Every invocation parses BATCH values of one
+ * type from a pre-encoded block, so scores are reported per value.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockReaderBench
+{
+	static final int BATCH = 64;
+
+	static final int BYTES_LEN = 32;
+	static final String[] IDS = { "Hd", "Bo", "acct-1001", "USD", "settle", "EUR", "txn-00000042", "ok" };
+
+	long[] uintValues_ = Messages.sample( BATCH, 0, 1 << 21 );
+	long[] ulongValues_ = Messages.sample( BATCH, 0, 1L << 42 );
+	long[] longValues_ = Messages.sample( BATCH, -(1L << 20), 1L << 20 );
+
+	long[] uintDst_ = new long[BATCH];
+	double[] doubleDst_ = new double[BATCH];
+
+	byte[] byteIn_, boolIn_, bytesIn_, byteStrIn_, intIn_, uintIn_, longIn_, ulongIn_, doubleIn_, stringIn_;
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		byte[] payload = new byte[BYTES_LEN];
+		for (int i = 0; i < payload.length; ++i) {
+			payload[i] = (byte) i;
+		}
+
+		OutputBlock b0 = new BlockWriter("Bo"), b1 = new BlockWriter("Bo"), b2 = new BlockWriter("Bo"),
+			b3 = new BlockWriter("Bo"), b4 = new BlockWriter("Bo"), b5 = new BlockWriter("Bo"),
+			b6 = new BlockWriter("Bo"), b7 = new BlockWriter("Bo"), b8 = new BlockWriter("Bo"),
+			b9 = new BlockWriter("Bo");
+		for (int i = 0; i < BATCH; ++i)
+		{
+			b0.writeByte( i );
+			b1.writeBool( (i & 1) == 0 );
+			b2.writeBytes( payload );
+			b3.writeByteStr( payload );
+			b4.writeInt( (int) longValues_[i] );
+			b5.writeUint( uintValues_[i] );
+			b6.writeLong( longValues_[i] );
+			b7.writeUlong( ulongValues_[i] );
+			b8.writeDouble( i * 1.5 );
+			b9.writeString( IDS[i % IDS.length] );
+		}
+		byteIn_ = b0.toBytes(); boolIn_ = b1.toBytes(); bytesIn_ = b2.toBytes();
+		byteStrIn_ = b3.toBytes(); intIn_ = b4.toBytes(); uintIn_ = b5.toBytes();
+		longIn_ = b6.toBytes(); ulongIn_ = b7.toBytes(); doubleIn_ = b8.toBytes();
+		stringIn_ = b9.toBytes();
+	}
+
+	private static InputBlock reader( byte[] encoded )
+	{
+		return new BlockReader( encoded, 0, encoded.length, "Bo" );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readByte( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( byteIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readByte() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readBool( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( boolIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readBool() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readBytes( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( bytesIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readBytes(BYTES_LEN) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readByteStr( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( byteStrIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readByteStr(0) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readInt( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( intIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readInt() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readUint( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( uintIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readUint() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readLong( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( longIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readLong() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readUlong( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( ulongIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readUlong() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readDouble( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( doubleIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readDouble() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readString( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( stringIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readString(0) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readBytesView( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( bytesIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readBytesView(BYTES_LEN) );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readByteStrView( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( byteStrIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readByteStrView(0) );
+		}
+	}
+
+	/**
+	 * Hashes each string the way a lookup key would be, without decoding it.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readUtf8View( Blackhole bh ) throws PcosError
+	{
+		InputBlock in = reader( stringIn_ );
+		for (int i = 0; i < BATCH; ++i) {
+			bh.consume( in.readUtf8View(0).hashCode() );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long[] readUintArray() throws PcosError
+	{
+		reader( uintIn_ ).readUintArray( uintDst_, 0, BATCH );
+		return uintDst_;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public double[] readDoubleArray() throws PcosError
+	{
+		reader( doubleIn_ ).readDoubleArray( doubleDst_, 0, BATCH );
+		return doubleDst_;
+	}
+
+	static double[] doubles( int count )
+	{
+		double[] out = new double[count];
+		for (int i = 0; i < count; ++i) {
+			out[i] = i * 1.5;
+		}
+		return out;
+	}
+}
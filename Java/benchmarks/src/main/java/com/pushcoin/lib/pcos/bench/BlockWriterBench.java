@@ -0,0 +1,186 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-primitive encode cost. Every invocation writes BATCH values of one
+ * type into a fresh block, so scores are reported per value.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockWriterBench
+{
+	static final int BATCH = BlockReaderBench.BATCH;
+
+	long[] uintValues_ = Messages.sample( BATCH, 0, 1 << 21 );
+	long[] ulongValues_ = Messages.sample( BATCH, 0, 1L << 42 );
+	long[] longValues_ = Messages.sample( BATCH, -(1L << 20), 1L << 20 );
+	double[] doubleValues_ = BlockReaderBench.doubles( BATCH );
+	byte[] payload_ = new byte[BlockReaderBench.BYTES_LEN];
+	String[] ids_ = BlockReaderBench.IDS;
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeByte() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeByte( i );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeBool() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeBool( (i & 1) == 0 );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeBytes() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeBytes( payload_ );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeByteStr() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeByteStr( payload_ );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeInt() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeInt( (int) longValues_[i] );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeUint() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeUint( uintValues_[i] );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeLong() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeLong( longValues_[i] );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeUlong() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeUlong( ulongValues_[i] );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeDouble() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeDouble( i * 1.5 );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeString() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (int i = 0; i < BATCH; ++i) {
+			bo.writeString( ids_[i % ids_.length] );
+		}
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeUintArray() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeUintArray( uintValues_, 0, BATCH );
+		return bo.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long writeDoubleArray() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeDoubleArray( doubleValues_, 0, BATCH );
+		return bo.size();
+	}
+}
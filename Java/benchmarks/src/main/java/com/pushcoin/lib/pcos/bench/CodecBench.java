@@ -0,0 +1,188 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockReader;
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.schema.Codec;
+import com.pushcoin.lib.pcos.schema.Codecs;
+import com.pushcoin.lib.pcos.schema.PcosCodec;
+import com.pushcoin.lib.pcos.schema.PcosField;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runtime codecs (Codecs.forClass) against hand-written encode/decode
+ * calls for the same order message: Order gets a codec generated at build
+ * time, PlannedOrder, with private fields, runs on the reflective plan.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBench
+{
+	@PcosCodec
+	public static class Order
+	{
+		@PcosField(order = 0, type = "uint") long account;
+		@PcosField(order = 1) String symbol;
+		@PcosField(order = 2) long quantity;
+		@PcosField(order = 3) double price;
+		@PcosField(order = 4) boolean firm;
+		@PcosField(order = 5, length = 5) double[] ladder = new double[5];
+	}
+
+	@PcosCodec
+	public static class PlannedOrder
+	{
+		@PcosField(order = 0, type = "uint") private long account;
+		@PcosField(order = 1) private String symbol;
+		@PcosField(order = 2) private long quantity;
+		@PcosField(order = 3) private double price;
+		@PcosField(order = 4) private boolean firm;
+		@PcosField(order = 5, length = 5) private double[] ladder = new double[5];
+	}
+
+	Codec<Order> codec_;
+	Codec<PlannedOrder> planned_;
+	PlannedOrder plannedOrder_ = new PlannedOrder();
+	PlannedOrder plannedInto_ = new PlannedOrder();
+	Order order_ = new Order();
+	Order into_ = new Order();
+	byte[] encoded_;
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		codec_ = Codecs.forClass( Order.class );
+		order_.account = 100042;
+		order_.symbol = "EURUSD";
+		order_.quantity = -250000;
+		order_.price = 1.0842;
+		order_.firm = true;
+		for (int i = 0; i < order_.ladder.length; ++i) {
+			order_.ladder[i] = 1.08 + i * 0.0001;
+		}
+		BlockWriter hand = new BlockWriter( "Bo" );
+		encodeByHand( order_, hand );
+		encoded_ = hand.toBytes();
+
+		BlockWriter planned = new BlockWriter( "Bo" );
+		codec_.encode( order_, planned );
+		if (!Arrays.equals( encoded_, planned.toBytes() )) {
+			throw new IllegalStateException( "runtime codec and hand-written encoding disagree" );
+		}
+
+		planned_ = Codecs.forClass( PlannedOrder.class );
+		plannedOrder_.account = order_.account;
+		plannedOrder_.symbol = order_.symbol;
+		plannedOrder_.quantity = order_.quantity;
+		plannedOrder_.price = order_.price;
+		plannedOrder_.firm = order_.firm;
+		plannedOrder_.ladder = order_.ladder.clone();
+		BlockWriter reflective = new BlockWriter( "Bo" );
+		planned_.encode( plannedOrder_, reflective );
+		if (!Arrays.equals( encoded_, reflective.toBytes() )) {
+			throw new IllegalStateException( "planned codec and hand-written encoding disagree" );
+		}
+	}
+
+	static void encodeByHand(Order o, OutputBlock out) throws PcosError
+	{
+		out.writeUint( o.account );
+		out.writeString( o.symbol );
+		out.writeLong( o.quantity );
+		out.writeDouble( o.price );
+		out.writeBool( o.firm );
+		out.writeDoubleArray( o.ladder, 0, 5 );
+	}
+
+	static void decodeByHand(InputBlock in, Order o) throws PcosError
+	{
+		o.account = in.readUint();
+		o.symbol = in.readString( 0 );
+		o.quantity = in.readLong();
+		o.price = in.readDouble();
+		o.firm = in.readBool();
+		in.readDoubleArray( o.ladder, 0, 5 );
+	}
+
+	@Benchmark
+	public long encodeHandWritten() throws PcosError
+	{
+		BlockWriter out = new BlockWriter( "Bo", 64 );
+		encodeByHand( order_, out );
+		return out.size();
+	}
+
+	@Benchmark
+	public long encodeRuntimeCodec() throws PcosError
+	{
+		BlockWriter out = new BlockWriter( "Bo", 64 );
+		codec_.encode( order_, out );
+		return out.size();
+	}
+
+	@Benchmark
+	public long encodePlannedCodec() throws PcosError
+	{
+		BlockWriter out = new BlockWriter( "Bo", 64 );
+		planned_.encode( plannedOrder_, out );
+		return out.size();
+	}
+
+	@Benchmark
+	public Order decodeHandWritten() throws PcosError
+	{
+		decodeByHand( new BlockReader(encoded_, 0, encoded_.length, "Bo"), into_ );
+		return into_;
+	}
+
+	@Benchmark
+	public Order decodeRuntimeCodec() throws PcosError
+	{
+		codec_.decode( new BlockReader(encoded_, 0, encoded_.length, "Bo"), into_ );
+		return into_;
+	}
+
+	@Benchmark
+	public PlannedOrder decodePlannedCodec() throws PcosError
+	{
+		planned_.decode( new BlockReader(encoded_, 0, encoded_.length, "Bo"), plannedInto_ );
+		return plannedInto_;
+	}
+}
@@ -0,0 +1,80 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.DocumentHeader;
+import com.pushcoin.lib.pcos.DocumentReader;
+import com.pushcoin.lib.pcos.MessageDispatcher;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing cost: peeking at the header and picking a handler by message id,
+ * compared with building a full DocumentReader to learn the id.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBench
+{
+	@Param({ Messages.SMALL, Messages.MANY_BLOCKS, Messages.LARGE })
+	String shape;
+
+	byte[] encoded_;
+	DocumentHeader header_ = new DocumentHeader();
+	MessageDispatcher<String> dispatcher_ = new MessageDispatcher<String>( null );
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		encoded_ = Messages.build( shape ).toBytes();
+		dispatcher_.register( "Ping", "ping" )
+			.register( "AccountStatement", "statement" )
+			.register( "DocumentUpload", "upload" )
+			.register( "Settle", "settle" );
+	}
+
+	@Benchmark
+	public String peekAndRoute() throws PcosError
+	{
+		return dispatcher_.lookup( DocumentReader.peek(encoded_, 0, encoded_.length, header_) );
+	}
+
+	@Benchmark
+	public String parseForId() throws PcosError
+	{
+		return new DocumentReader( encoded_ ).getDocumentName();
+	}
+}
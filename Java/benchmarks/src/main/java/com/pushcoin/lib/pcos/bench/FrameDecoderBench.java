@@ -0,0 +1,85 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.DocumentReader;
+import com.pushcoin.lib.pcos.FrameDecoder;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting a stream of back-to-back messages arriving in TCP-segment
+ * sized pieces. Scores are per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameDecoderBench
+{
+	static final int MESSAGES = 64;
+	static final int SEGMENT = 1460;
+
+	@Param({ Messages.SMALL, Messages.MANY_BLOCKS })
+	String shape;
+
+	byte[] stream_;
+	FrameDecoder decoder_ = new FrameDecoder( 1 << 20 );
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		byte[] one = Messages.build( shape ).toBytes();
+		stream_ = new byte[one.length * MESSAGES];
+		for (int i = 0; i < MESSAGES; ++i) {
+			System.arraycopy( one, 0, stream_, i * one.length, one.length );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public long decode() throws PcosError
+	{
+		long acc = 0;
+		for (int off = 0; off < stream_.length; off += SEGMENT)
+		{
+			decoder_.feed( stream_, off, Math.min(SEGMENT, stream_.length - off) );
+			for (DocumentReader doc; (doc = decoder_.poll()) != null; ) {
+				acc += Messages.consume( shape, doc );
+			}
+		}
+		return acc;
+	}
+}
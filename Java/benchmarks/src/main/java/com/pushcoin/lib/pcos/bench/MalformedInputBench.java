@@ -0,0 +1,86 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.DecodeStatus;
+import com.pushcoin.lib.pcos.DocumentReader;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rejecting a truncated message (the block enumeration promises more data
+ * than arrived) through the throwing reset() and through tryParse().
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MalformedInputBench
+{
+	@Param({ Messages.SMALL, Messages.MANY_BLOCKS })
+	String shape;
+
+	byte[] truncated_;
+	DocumentReader reader_ = new DocumentReader();
+	DecodeStatus status_ = new DecodeStatus();
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		byte[] whole = Messages.build( shape ).toBytes();
+		truncated_ = Arrays.copyOf( whole, whole.length - 1 );
+	}
+
+	@Benchmark
+	public int throwing()
+	{
+		try {
+			reader_.reset( truncated_, 0, truncated_.length );
+			return 0;
+		}
+		catch (PcosError e) {
+			return e.getCode();
+		}
+	}
+
+	@Benchmark
+	public int status()
+	{
+		if (reader_.tryParse( truncated_, 0, truncated_.length, status_.clear() )) {
+			return 0;
+		}
+		return status_.error().code;
+	}
+}
@@ -0,0 +1,106 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.DocumentReader;
+import com.pushcoin.lib.pcos.OutputDocument;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.log.MessageLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Persisting small control messages: MessageLog.append() against
+ * toBytes() plus a FileOutputStream write, and a random read back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageLogBench
+{
+	File dir_;
+	MessageLog log_;
+	FileOutputStream file_;
+	OutputDocument doc_;
+	DocumentReader reader_ = new DocumentReader();
+	long next_;
+
+	@Setup
+	public void setUp() throws IOException, PcosError
+	{
+		dir_ = File.createTempFile( "pcos-log-bench", "" );
+		dir_.delete();
+		log_ = new MessageLog( dir_ );
+		file_ = new FileOutputStream( new File( dir_, "plain.out" ) );
+		doc_ = Messages.build( Messages.SMALL );
+		for (int i = 0; i < 100000; ++i) {
+			log_.append( doc_ );
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		log_.close();
+		file_.close();
+		for (File f : dir_.listFiles()) {
+			f.delete();
+		}
+		dir_.delete();
+	}
+
+	@Benchmark
+	public long append() throws IOException, PcosError
+	{
+		return log_.append( doc_ );
+	}
+
+	@Benchmark
+	public int fileOutputStream() throws IOException, PcosError
+	{
+		byte[] wire = doc_.toBytes();
+		file_.write( wire );
+		return wire.length;
+	}
+
+	@Benchmark
+	public long readRandom() throws PcosError
+	{
+		next_ = (next_ + 7919) % 100000;
+		return Messages.consume( Messages.SMALL, log_.read( next_, reader_ ) );
+	}
+}
@@ -0,0 +1,194 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.DocumentWriter;
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.InputDocument;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.OutputDocument;
+import com.pushcoin.lib.pcos.PcosError;
+
+/**
+ * Message shapes shared by the benchmarks, modelled after payment traffic:
+ * small control messages, messages with many blocks and large payloads.
+ */
+public final class Messages
+{
+	public static final String SMALL = "small";
+	public static final String MANY_BLOCKS = "manyBlocks";
+	public static final String LARGE = "large";
+
+	static final int MANY_BLOCKS_COUNT = 20;
+	static final int LARGE_BYTES_LEN = 64 * 1024;
+	static final int LARGE_STRING_LEN = 16 * 1024;
+
+	static final byte[] SIGNATURE = filled( 64 );
+	static final byte[] LARGE_BYTES = filled( LARGE_BYTES_LEN );
+	static final String LARGE_STRING = repeat( "Settlement memo ", LARGE_STRING_LEN );
+
+	private Messages() {}
+
+	/**
+	 * Builds a document of the given shape.
+	 */
+	public static OutputDocument build( String shape ) throws PcosError
+	{
+		if (SMALL.equals(shape)) {
+			return smallControl();
+		}
+		if (MANY_BLOCKS.equals(shape)) {
+			return manyBlocks();
+		}
+		if (LARGE.equals(shape)) {
+			return largePayload();
+		}
+		throw new IllegalArgumentException( "unknown message shape: " + shape );
+	}
+
+	/**
+	 * Reads back every field of a document produced by build().
+	 * Returns a value derived from the fields so that nothing is optimized away.
+	 */
+	public static long consume( String shape, InputDocument doc ) throws PcosError
+	{
+		if (SMALL.equals(shape)) {
+			return readHeader( doc.getBlock("Hd") );
+		}
+		if (MANY_BLOCKS.equals(shape))
+		{
+			long acc = readHeader( doc.getBlock("Hd") );
+			for (int i = 0; i < MANY_BLOCKS_COUNT; ++i) {
+				acc += readAccount( doc.getBlock(accountBlockName(i)) );
+			}
+			return acc;
+		}
+		if (LARGE.equals(shape))
+		{
+			long acc = readHeader( doc.getBlock("Hd") );
+			InputBlock bo = doc.getBlock("Bo");
+			acc += bo.readByteStr(0).length;
+			acc += bo.readString(0).length();
+			return acc;
+		}
+		throw new IllegalArgumentException( "unknown message shape: " + shape );
+	}
+
+	static OutputDocument smallControl() throws PcosError
+	{
+		OutputDocument doc = new DocumentWriter( "Ping" );
+		doc.addBlock( writeHeader() );
+		return doc;
+	}
+
+	static OutputDocument manyBlocks() throws PcosError
+	{
+		OutputDocument doc = new DocumentWriter( "AccountStatement" );
+		doc.addBlock( writeHeader() );
+		for (int i = 0; i < MANY_BLOCKS_COUNT; ++i)
+		{
+			OutputBlock blk = new BlockWriter( accountBlockName(i) );
+			blk.writeUint( 100000 + i );
+			blk.writeString( "Checking account #" + i );
+			blk.writeLong( -2500L * i );
+			blk.writeDouble( 1.25 * i );
+			blk.writeBool( (i & 1) == 0 );
+			doc.addBlock( blk );
+		}
+		return doc;
+	}
+
+	static OutputDocument largePayload() throws PcosError
+	{
+		OutputDocument doc = new DocumentWriter( "DocumentUpload" );
+		doc.addBlock( writeHeader() );
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeByteStr( LARGE_BYTES );
+		bo.writeString( LARGE_STRING );
+		doc.addBlock( bo );
+		return doc;
+	}
+
+	static String accountBlockName( int i )
+	{
+		return "A" + i;
+	}
+
+	private static OutputBlock writeHeader() throws PcosError
+	{
+		OutputBlock hd = new BlockWriter( "Hd" );
+		hd.writeByteStr( SIGNATURE );
+		hd.writeUlong( 1349000000000L );
+		hd.writeString( "session-7f3a" );
+		hd.writeUint( 42 );
+		return hd;
+	}
+
+	private static long readHeader( InputBlock hd ) throws PcosError
+	{
+		long acc = hd.readByteStr(0).length;
+		acc += hd.readUlong();
+		acc += hd.readString(0).length();
+		acc += hd.readUint();
+		return acc;
+	}
+
+	private static long readAccount( InputBlock blk ) throws PcosError
+	{
+		long acc = blk.readUint();
+		acc += blk.readString(0).length();
+		acc += blk.readLong();
+		acc += (long) blk.readDouble();
+		acc += blk.readBool() ? 1 : 0;
+		return acc;
+	}
+
+	private static byte[] filled( int len )
+	{
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; ++i) {
+			b[i] = (byte) (i * 31);
+		}
+		return b;
+	}
+
+	static String repeat( String s, int len )
+	{
+		char[] out = new char[len];
+		for (int i = 0; i < len; ++i) {
+			out[i] = s.charAt(i % s.length());
+		}
+		return new String(out);
+	}
+
+	static long[] sample( int count, long min, long max )
+	{
+		// deterministic spread of values, mostly 1-3 bytes on the wire
+		long[] out = new long[count];
+		long span = max - min;
+		long x = 0x9E3779B97F4A7C15L;
+		for (int i = 0; i < count; ++i)
+		{
+			x ^= x << 13; x ^= x >>> 7; x ^= x << 17;
+			out[i] = min + Math.abs(x % (span + 1));
+		}
+		return out;
+	}
+}
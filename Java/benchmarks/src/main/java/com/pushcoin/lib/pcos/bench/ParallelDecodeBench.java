@@ -0,0 +1,130 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.ArrayBlockDecoder;
+import com.pushcoin.lib.pcos.BlockDecoder;
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.DocumentWriter;
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.SharedDocument;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A document of 16 blocks, each an array of 4096 fixed-size records,
+ * decoded with SharedDocument.decodeBlocks() on the calling thread and on
+ * a pool of `threads` workers. Scores are per document.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelDecodeBench
+{
+	static final int BLOCKS = 16;
+	static final int RECORDS = 4096;
+	// double price, byte side
+	static final int RECORD_SIZE = 9;
+
+	static final Executor INLINE = new Executor() {
+		public void execute(Runnable task) {
+			task.run();
+		}
+	};
+
+	@Param({ "4" })
+	int threads;
+
+	SharedDocument doc_;
+	ExecutorService pool_;
+	Map<String, BlockDecoder<double[]>> decoders_ = new LinkedHashMap<String, BlockDecoder<double[]>>();
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		DocumentWriter doc = new DocumentWriter( "Batch" );
+		ArrayBlockDecoder<double[]> prices = new ArrayBlockDecoder<double[]>( RECORD_SIZE, 1024 ) {
+			protected double[] newResult(int count) {
+				return new double[count];
+			}
+			protected void decodeRange(InputBlock in, int from, int to, double[] result) throws PcosError
+			{
+				for (int i = from; i < to; ++i)
+				{
+					double v = in.readDouble();
+					result[i] = (in.readByte() == 1) ? -v : v;
+				}
+			}
+		};
+		for (int b = 0; b < BLOCKS; ++b)
+		{
+			BlockWriter bo = new BlockWriter( "Px" + b );
+			bo.writeUint( RECORDS );
+			for (int i = 0; i < RECORDS; ++i)
+			{
+				bo.writeDouble( i * 0.25 );
+				bo.writeByte( i & 1 );
+			}
+			doc.addBlock( bo );
+			decoders_.put( bo.name(), prices );
+		}
+		doc_ = new SharedDocument( doc.toBytes() );
+		pool_ = Executors.newFixedThreadPool( threads );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		pool_.shutdown();
+	}
+
+	@Benchmark
+	public Map<String, double[]> sequential() throws PcosError
+	{
+		return doc_.decodeBlocks( decoders_, INLINE );
+	}
+
+	@Benchmark
+	public Map<String, double[]> parallel() throws PcosError
+	{
+		return doc_.decodeBlocks( decoders_, pool_ );
+	}
+}
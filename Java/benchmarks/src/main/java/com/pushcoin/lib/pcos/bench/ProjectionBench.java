@@ -0,0 +1,109 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockReader;
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.schema.Codec;
+import com.pushcoin.lib.pcos.schema.Codecs;
+import com.pushcoin.lib.pcos.schema.DynamicRecord;
+import com.pushcoin.lib.pcos.schema.Projection;
+import com.pushcoin.lib.pcos.schema.Schema;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading two fields of a payment -- one past a long memo and a list of
+ * tags -- by projection, against decoding the whole record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProjectionBench
+{
+	static final String SCHEMA =
+		"type party { name : string; account : uint; };\n" +
+		"type payment { id : ulong; memo : string; tags : string[]; payer : party;" +
+		" payee : party; amount : long; fee : double; };";
+
+	Codec<DynamicRecord> codec_;
+	Projection projection_;
+	byte[] encoded_;
+	long acc_;
+
+	final Projection.Visitor visitor_ = new Projection.Visitor() {
+		@Override
+		public void field(int index, InputBlock in) throws PcosError
+		{
+			acc_ += (index == 0) ? in.readUint() : in.readLong();
+		}
+	};
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		Schema schema = new Schema().parse( SCHEMA, "payment.pcos" );
+		codec_ = Codecs.forType( schema, "payment" );
+		projection_ = Projection.of( schema, "payment", "payee.account", "amount" );
+
+		BlockWriter bo = new BlockWriter( "Bo" );
+		bo.writeUlong( 1349000000000L );
+		bo.writeString( Messages.repeat( "Settlement memo ", 512 ) );
+		bo.writeUint( 8 );
+		for (int i = 0; i < 8; ++i) {
+			bo.writeString( "tag-" + i );
+		}
+		bo.writeString( "Acme Payroll" ); bo.writeUint( 100042 );
+		bo.writeString( "J. Smith" ); bo.writeUint( 200077 );
+		bo.writeLong( -250000 );
+		bo.writeDouble( 0.25 );
+		encoded_ = bo.toBytes();
+	}
+
+	@Benchmark
+	public long projection() throws PcosError
+	{
+		acc_ = 0;
+		projection_.read( new BlockReader(encoded_, 0, encoded_.length, "Bo"), visitor_ );
+		return acc_;
+	}
+
+	@Benchmark
+	public long fullDecode() throws PcosError
+	{
+		DynamicRecord r = codec_.decode( new BlockReader(encoded_, 0, encoded_.length, "Bo") );
+		return (Long) ((DynamicRecord) r.get( "payee" )).get( "account" ) + (Long) r.get( "amount" );
+	}
+}
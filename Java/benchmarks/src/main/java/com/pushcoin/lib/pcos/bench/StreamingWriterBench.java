@@ -0,0 +1,109 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.BufferPool;
+import com.pushcoin.lib.pcos.DocumentWriter;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.OutputDocument;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.StreamingDocumentWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * An 8 MB export -- 16 blocks of 4096 records each -- built and sent to a
+ * stream, by DocumentWriter and by StreamingDocumentWriter held to 1 MB
+ * of memory. Run with -prof gc to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamingWriterBench
+{
+	static final int BLOCKS = 16;
+	static final int RECORDS = 4096;
+	static final byte[] RECORD = new byte[120];
+
+	final BufferPool pool_ = new BufferPool( 64, 1 << 20, 32 );
+
+	static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {}
+		@Override
+		public void write(byte[] b, int off, int len) {}
+	};
+
+	static void fill( OutputBlock blk ) throws PcosError
+	{
+		for (int i = 0; i < RECORDS; ++i)
+		{
+			blk.writeUint( i );
+			blk.writeByteStr( RECORD );
+		}
+	}
+
+	@Benchmark
+	public long documentWriter() throws PcosError, IOException
+	{
+		OutputDocument doc = new DocumentWriter( "Export" );
+		for (int b = 0; b < BLOCKS; ++b)
+		{
+			OutputBlock blk = new BlockWriter( "B" + b );
+			fill( blk );
+			doc.addBlock( blk );
+		}
+		byte[] wire = doc.toBytes();
+		DISCARD.write( wire );
+		return wire.length;
+	}
+
+	@Benchmark
+	public long streamingWriter() throws PcosError, IOException
+	{
+		StreamingDocumentWriter doc = new StreamingDocumentWriter( "Export", pool_, 64 * 1024, 1 << 20, null );
+		try
+		{
+			for (int b = 0; b < BLOCKS; ++b) {
+				fill( doc.addBlock( "B" + b ) );
+			}
+			return doc.writeTo( DISCARD );
+		}
+		finally
+		{
+			doc.close();
+		}
+	}
+}
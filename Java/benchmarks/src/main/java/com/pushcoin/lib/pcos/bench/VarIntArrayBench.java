@@ -0,0 +1,116 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockReader;
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk uint[] decoding against a loop of scalar reads, for arrays of
+ * 1-octet, 2-octet and mixed-width values. Setup fails unless both paths
+ * decode the same values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VarIntArrayBench
+{
+	static final int COUNT = 1024;
+
+	@Param({"1", "2", "mixed"})
+	String width;
+
+	byte[] encoded_;
+	long[] dst_ = new long[COUNT];
+
+	@Setup
+	public void setUp() throws PcosError
+	{
+		long[] values;
+		if ("1".equals(width)) {
+			values = Messages.sample( COUNT, 0, 127 );
+		}
+		else if ("2".equals(width)) {
+			values = Messages.sample( COUNT, 128, (1 << 14) - 1 );
+		}
+		else {
+			values = Messages.sample( COUNT, 0, 1 << 21 );
+		}
+
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeUintArray( values, 0, COUNT );
+		encoded_ = bo.toBytes();
+
+		long[] scalar = new long[COUNT];
+		InputBlock in = reader();
+		for (int i = 0; i < COUNT; ++i) {
+			scalar[i] = in.readUint();
+		}
+		reader().readUintArray( dst_, 0, COUNT );
+		if (!Arrays.equals( scalar, values ) || !Arrays.equals( dst_, values )) {
+			throw new IllegalStateException( "bulk and scalar decoding disagree for width " + width );
+		}
+	}
+
+	private InputBlock reader()
+	{
+		return new BlockReader( encoded_, 0, encoded_.length, "Bo" );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public long[] scalar() throws PcosError
+	{
+		InputBlock in = reader();
+		for (int i = 0; i < COUNT; ++i) {
+			dst_[i] = in.readUint();
+		}
+		return dst_;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public long[] bulk() throws PcosError
+	{
+		reader().readUintArray( dst_, 0, COUNT );
+		return dst_;
+	}
+}
@@ -0,0 +1,106 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.bench;
+
+import com.pushcoin.lib.pcos.BlockWriter;
+import com.pushcoin.lib.pcos.DocumentWriter;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.PooledWriter;
+import com.pushcoin.lib.pcos.WriterPool;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding the manyBlocks message into a reused array from four threads,
+ * with new writers per message and with writers from a shared WriterPool.
+ * Scores are per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class WriterPoolBench
+{
+	static final String[] NAMES = new String[Messages.MANY_BLOCKS_COUNT];
+	static final String[] LABELS = new String[Messages.MANY_BLOCKS_COUNT];
+	static
+	{
+		for (int i = 0; i < NAMES.length; ++i)
+		{
+			NAMES[i] = Messages.accountBlockName( i );
+			LABELS[i] = "Checking account #" + i;
+		}
+	}
+
+	final WriterPool pool_ = new WriterPool();
+
+	@State(Scope.Thread)
+	public static class Out
+	{
+		byte[] buf = new byte[4096];
+	}
+
+	@Benchmark
+	public int fresh(Out out) throws PcosError
+	{
+		DocumentWriter doc = new DocumentWriter( "AccountStatement" );
+		for (int i = 0; i < NAMES.length; ++i)
+		{
+			BlockWriter blk = new BlockWriter( NAMES[i] );
+			fill( blk, i );
+			doc.addBlock( blk );
+		}
+		return doc.writeTo( out.buf, 0 );
+	}
+
+	@Benchmark
+	public int pooled(Out out) throws PcosError
+	{
+		PooledWriter doc = pool_.acquire( "AccountStatement" );
+		for (int i = 0; i < NAMES.length; ++i) {
+			fill( doc.addBlock( NAMES[i] ), i );
+		}
+		int n = doc.writeTo( out.buf, 0 );
+		doc.release();
+		return n;
+	}
+
+	private static void fill(BlockWriter blk, int i) throws PcosError
+	{
+		blk.writeUint( 100000 + i );
+		blk.writeString( LABELS[i] );
+		blk.writeLong( -2500L * i );
+		blk.writeDouble( 1.25 * i );
+		blk.writeBool( (i & 1) == 0 );
+	}
+}
@@ -0,0 +1,197 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.maven;
+
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.schema.SchemaCompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Compiles the PCOS schema files (*.pcos) under sourceDirectory into Java
+ * codecs and adds the output to the project's compile sources.
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+public class GenerateMojo extends AbstractMojo
+{
+	@Parameter(defaultValue = "${project.basedir}/src/main/pcos")
+	private File sourceDirectory;
+
+	@Parameter(defaultValue = "${project.build.directory}/generated-sources/pcos")
+	private File outputDirectory;
+
+	/**
+	 * Package of the generated classes.
+	 */
+	@Parameter(required = true)
+	private String packageName;
+
+	@Parameter(defaultValue = "${project}", readonly = true, required = true)
+	private MavenProject project;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		List<File> schemas = new ArrayList<File>();
+		collect( sourceDirectory, schemas );
+		File stamp = new File( outputDirectory, STAMP );
+		String previous = readStamp( stamp );
+		if (schemas.isEmpty())
+		{
+			removeOutputs( stamp, previous );
+			getLog().info( "No PCOS schemas in " + sourceDirectory );
+			return;
+		}
+
+		String inputs = describe( schemas );
+		if (upToDate( stamp, previous, inputs, schemas ))
+		{
+			getLog().info( "PCOS codecs are up to date" );
+			project.addCompileSourceRoot( outputDirectory.getPath() );
+			return;
+		}
+
+		// codecs of schemas since removed or renamed would otherwise linger
+		removeOutputs( stamp, previous );
+		try
+		{
+			List<File> written = SchemaCompiler.compile( schemas, outputDirectory, packageName );
+			getLog().info( "Generated " + written.size() + " PCOS codecs from " + schemas.size() + " schema files" );
+			outputDirectory.mkdirs();
+			StringBuilder text = new StringBuilder( inputs ).append( OUTPUTS_ );
+			for (File f : written) {
+				text.append( outputDirectory.toPath().relativize( f.toPath() ) ).append( '\n' );
+			}
+			Files.write( stamp.toPath(), text.toString().getBytes( StandardCharsets.UTF_8 ) );
+		}
+		catch (PcosError e) {
+			throw new MojoFailureException( e.getMessage(), e );
+		}
+		catch (IOException e) {
+			throw new MojoExecutionException( "Cannot write PCOS codecs to " + outputDirectory, e );
+		}
+		project.addCompileSourceRoot( outputDirectory.getPath() );
+	}
+
+	/**
+	 * Stamp written after a successful run, listing the package and schemas
+	 * it was generated from, then OUTPUTS_ and the files written, relative
+	 * to outputDirectory.
+	 */
+	private static final String STAMP = ".pcos-generated";
+	private static final String OUTPUTS_ = "--\n";
+
+	private String describe(List<File> schemas)
+	{
+		StringBuilder b = new StringBuilder( packageName ).append( '\n' );
+		for (File f : schemas) {
+			b.append( f.getAbsolutePath() ).append( '\n' );
+		}
+		return b.toString();
+	}
+
+	/**
+	 * True if the stamp matches the current inputs and is newer than every
+	 * schema, so that an unchanged build does not recompile the codecs.
+	 */
+	private static boolean upToDate(File stamp, String previous, String inputs, List<File> schemas)
+	{
+		if (previous == null || !previous.startsWith( inputs + OUTPUTS_ )) {
+			return false;
+		}
+		long generatedAt = stamp.lastModified();
+		for (File f : schemas)
+		{
+			if (f.lastModified() >= generatedAt) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Contents of the stamp, or null if there is none.
+	 */
+	private static String readStamp(File stamp)
+	{
+		if (!stamp.isFile()) {
+			return null;
+		}
+		try {
+			return new String( Files.readAllBytes( stamp.toPath() ), StandardCharsets.UTF_8 );
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes the files the previous run recorded in its stamp, then the stamp.
+	 */
+	private void removeOutputs(File stamp, String previous) throws MojoExecutionException
+	{
+		int at = (previous != null) ? previous.indexOf( "\n" + OUTPUTS_ ) : -1;
+		if (at >= 0)
+		{
+			for (String name : previous.substring( at + 1 + OUTPUTS_.length() ).split( "\n" ))
+			{
+				File f = new File( outputDirectory, name );
+				if (name.length() > 0 && f.isFile() && !f.delete()) {
+					throw new MojoExecutionException( "Cannot delete stale PCOS codec " + f );
+				}
+			}
+		}
+		if (stamp.isFile() && !stamp.delete()) {
+			throw new MojoExecutionException( "Cannot delete " + stamp );
+		}
+	}
+
+	private static void collect(File dir, List<File> out)
+	{
+		File[] entries = dir.listFiles();
+		if (entries == null) {
+			return;
+		}
+		// sorted so that generated sources do not depend on directory order
+		Arrays.sort( entries );
+		for (File f : entries)
+		{
+			if (f.isDirectory()) {
+				collect( f, out );
+			}
+			else if (f.getName().endsWith( ".pcos" )) {
+				out.add( f );
+			}
+		}
+	}
+}
@@ -0,0 +1,685 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * InputBlock reading straight from a MemorySegment, typically off-heap
+ * memory from an Arena. Offsets are longs, so a block may exceed 2 GB;
+ * readingPosition() and size() saturate at Integer.MAX_VALUE, position()
+ * and length() do not.
+ *
+ * Values are decoded in place; only readBytes(), readByteStr() and
+ * readString() copy onto the heap, as they return heap objects.
+ */
+public class SegmentBlockReader implements InputBlock
+{
+	static final ValueLayout.OfDouble DOUBLE_BE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+	private static final ValueLayout.OfLong LONG_BE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+	private static final String MALFORMED_ERR_ = "run out of input bytes - incomplete or corrupted message";
+	// after a word of mixed widths, bytes readVarIntArray() decodes value by value
+	private static final int MIXED_RUN_ = 64;
+	// values decoded in bulk without a bounds check of their own; counted with assertions enabled only, for the tests
+	static long batchedValues_;
+
+	private MemorySegment input_;
+	private long offset_, end_;
+	private String name_;
+
+	/**
+	 * Reads the whole segment as one block.
+	 */
+	public SegmentBlockReader(MemorySegment input, String name)
+	{
+		reset(input, name);
+	}
+
+	/**
+	 * Re-points this reader at another block.
+	 */
+	public void reset(MemorySegment input, String name)
+	{
+		input_ = input;
+		offset_ = 0;
+		end_ = input.byteSize();
+		name_ = name;
+	}
+
+	public long position()
+	{
+		return offset_;
+	}
+
+	public long length()
+	{
+		return end_;
+	}
+
+	@Override
+	public boolean inspect( Inspector inspector ) throws PcosError {
+		byte[] copy = readAhead(end_ - offset_);
+		return inspector.inspect(copy, 0, copy.length);
+	}
+
+	@Override
+	public boolean readBool() throws PcosError
+	{
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws PcosError
+	{
+		if (end_ - offset_ > 0)
+		{
+			return input_.get(ValueLayout.JAVA_BYTE, offset_++);
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public byte[] readBytes(long length) throws PcosError
+	{
+		if (length == 0) {
+			return null;
+		}
+		byte[] val = readAhead(length);
+		offset_ += length;
+		return val;
+	}
+
+	@Override
+	public void readBytes(byte[] dst, int off, int len) throws PcosError
+	{
+		if (end_ - offset_ >= len)
+		{
+			MemorySegment.copy(input_, ValueLayout.JAVA_BYTE, offset_, dst, off, len);
+			offset_ += len;
+			return;
+		}
+
+		throw malformed();
+	}
+
+	/**
+	 * Copy of the next length bytes, without moving past them.
+	 */
+	private byte[] readAhead(long length) throws PcosError
+	{
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "value exceeds 2 GB" );
+		}
+		if (end_ - offset_ >= length)
+		{
+			byte[] val = new byte[(int) length];
+			MemorySegment.copy(input_, ValueLayout.JAVA_BYTE, offset_, val, 0, val.length);
+			return val;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipBytes(long length) throws PcosError
+	{
+		if (length >= 0 && end_ - offset_ >= length)
+		{
+			offset_ += length;
+			return;
+		}
+
+		throw malformed();
+	}
+
+	/**
+	 * The next length bytes as a segment of the same memory.
+	 */
+	public MemorySegment readSegment(long length) throws PcosError
+	{
+		if (length >= 0 && end_ - offset_ >= length)
+		{
+			MemorySegment val = input_.asSlice(offset_, length);
+			offset_ += length;
+			return val;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public ByteBuffer readBytesView(long length) throws PcosError
+	{
+		if (length == 0) {
+			return null;
+		}
+		checkView(length);
+		return readSegment(length).asByteBuffer().asReadOnlyBuffer();
+	}
+
+	/**
+	 * A ByteBuffer cannot cover more than 2 GB; a block this size cannot be viewed.
+	 */
+	private static void checkView(long length) throws PcosError
+	{
+		if (length > Integer.MAX_VALUE) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "view exceeds 2 GB" );
+		}
+	}
+
+	@Override
+	public void skipVarInt() throws PcosError
+	{
+		long pos = offset_;
+		final long limit = Math.min(end_, pos + WireFormat.MAX_VARINT_SIZE);
+		while (pos < limit)
+		{
+			if (input_.get(ValueLayout.JAVA_BYTE, pos++) >= 0)
+			{
+				offset_ = pos;
+				return;
+			}
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipByteStr() throws PcosError
+	{
+		skipBytes(readUint());
+	}
+
+	@Override
+	public void skipDouble() throws PcosError
+	{
+		skipBytes(WireFormat.DOUBLE_SIZE);
+	}
+
+	@Override
+	public byte[] readByteStr(long maxlen) throws PcosError
+	{
+		return readBytes(readByteStrLength(maxlen));
+	}
+
+	@Override
+	public ByteBuffer readByteStrView(long maxlen) throws PcosError
+	{
+		return readBytesView(readByteStrLength(maxlen));
+	}
+
+	private long readByteStrLength(long maxlen) throws PcosError
+	{
+		long length = readUint();
+		if (maxlen != 0 && length > maxlen)
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input byte-sequence exceeds max length" );
+		return length;
+	}
+
+	@Override
+	public double readDouble() throws PcosError
+	{
+		if (end_ - offset_ >= WireFormat.DOUBLE_SIZE)
+		{
+			double val = input_.get(DOUBLE_BE, offset_);
+			offset_ += WireFormat.DOUBLE_SIZE;
+			return val;
+		}
+
+		throw malformed();
+	}
+
+	private long readVarInt( int max_octets ) throws PcosError
+	{
+		final MemorySegment input = input_;
+		long pos = offset_;
+		final long limit = Math.min(end_, pos + max_octets);
+		long val = 0;
+		while (pos < limit)
+		{
+			int octet = input.get(ValueLayout.JAVA_BYTE, pos++);
+			val |= (octet & 0x7f);
+			// check if there is more...
+			if ( (octet & 0x80) == 0 )
+			{
+				offset_ = pos;
+				return val;
+			}
+			val <<= 7;
+		}
+
+		// ran out of input or octets allowed for the type
+		throw malformed();
+	}
+
+	@Override
+	public int readInt() throws PcosError
+	{
+		// signed int is encoded as unsigned int
+		long val = readUint();
+		// ..but requires un-ZigZag
+		return (int) ((val >> 1) ^ (-(val & 1)));
+	}
+
+	@Override
+	public long readUint() throws PcosError
+	{
+		return readVarInt( 5 ); // 5 => max bytes uint can take on the wire
+	}
+
+	@Override
+	public long readLong() throws PcosError
+	{
+		// signed int is encoded as unsigned int
+		long val = readUlong();
+		// ..but requires un-ZigZag
+		return (val >>> 1) ^ (-(val & 1));
+	}
+
+	@Override
+	public long readUlong() throws PcosError
+	{
+		return readVarInt( 10 ); // 10 => max bytes ulong can take on the wire
+	}
+
+	@Override
+	public void readIntArray(int[] dst, int off, int count) throws PcosError
+	{
+		final int end = off + count;
+		int i = off;
+		while (i < end)
+		{
+			// as many values as fit in the rest of the block at 5 octets each need no check of their own
+			int chunk = (int) Math.min( end - i, (end_ - offset_) / 5 );
+			if (chunk == 0)
+			{
+				dst[i++] = readInt();
+				continue;
+			}
+			for (final int stop = i + chunk; i < stop; ++i)
+			{
+				long val = readVarIntUnchecked( 5 );
+				dst[i] = (int) ((val >> 1) ^ (-(val & 1)));
+			}
+			assert (batchedValues_ += chunk) > 0;
+		}
+	}
+
+	@Override
+	public void readUintArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 5 );
+	}
+
+	@Override
+	public void readLongArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 10 );
+		for (int i = off; i < off + count; ++i)
+		{
+			long val = dst[i];
+			dst[i] = (val >>> 1) ^ (-(val & 1));
+		}
+	}
+
+	@Override
+	public void readUlongArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 10 );
+	}
+
+	@Override
+	public void readDoubleArray(double[] dst, int off, int count) throws PcosError
+	{
+		long size = (long) count * WireFormat.DOUBLE_SIZE;
+		if (size > end_ - offset_) {
+			throw malformed();
+		}
+		MemorySegment.copy(input_, DOUBLE_BE, offset_, dst, off, count);
+		offset_ += size;
+	}
+
+	@Override
+	public int readIntVarArray(int[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readIntArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUintVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUintArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readLongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readLongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUlongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUlongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readDoubleVarArray(double[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readDoubleArray( dst, off, count );
+		return count;
+	}
+
+	private int readArrayLength(int room) throws PcosError
+	{
+		long count = readUint();
+		if (count > room)
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input array exceeds destination length" );
+		return (int) count;
+	}
+
+	/**
+	 * As in BlockReader: whole words of 1-octet or 2-octet values are split
+	 * at once with one bounds check per word; after a word of other widths
+	 * the next MIXED_RUN_ bytes are read value by value.
+	 */
+	private void readVarIntArray(long[] dst, int off, int count, int max_octets) throws PcosError
+	{
+		final MemorySegment input = input_;
+		final int end = off + count;
+		final long limit = end_;
+		long pos = offset_;
+		int i = off;
+		while (end - i >= 4 && limit - pos >= 8)
+		{
+			long word = input.get( LONG_BE, pos );
+			long cont = word & 0x8080808080808080L;
+			if (cont == 0 && end - i >= 8)
+			{
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					dst[i++] = (word >>> shift) & 0x7f;
+				}
+				pos += 8;
+				assert (batchedValues_ += 8) > 0;
+			}
+			else if (cont == 0x8000800080008000L)
+			{
+				for (int shift = 48; shift >= 0; shift -= 16) {
+					dst[i++] = ((word >>> (shift + 1)) & 0x3f80) | ((word >>> shift) & 0x7f);
+				}
+				pos += 8;
+				assert (batchedValues_ += 4) > 0;
+			}
+			else
+			{
+				offset_ = pos;
+				i = readMixedRun( dst, i, end, max_octets );
+				pos = offset_;
+			}
+		}
+		offset_ = pos;
+		while (i < end) {
+			dst[i++] = readVarInt( max_octets );
+		}
+	}
+
+	/**
+	 * Values starting in the MIXED_RUN_ bytes at offset_, into dst from i;
+	 * returns the next index.
+	 */
+	private int readMixedRun(long[] dst, int i, int end, int max_octets) throws PcosError
+	{
+		final long stop = offset_ + MIXED_RUN_;
+		if (max_octets == 5)
+		{
+			while (i < end && offset_ < stop) {
+				dst[i++] = readUint();
+			}
+		}
+		else
+		{
+			while (i < end && offset_ < stop) {
+				dst[i++] = readUlong();
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Decodes a varint the caller has made sure is within bounds.
+	 */
+	private long readVarIntUnchecked( int max_octets ) throws PcosError
+	{
+		final MemorySegment input = input_;
+		final long pos = offset_;
+		int octet = input.get(ValueLayout.JAVA_BYTE, pos);
+		if (octet >= 0)
+		{
+			offset_ = pos + 1;
+			return octet;
+		}
+		long val = octet & 0x7f;
+		for (int i = 1; i < max_octets; ++i)
+		{
+			octet = input.get(ValueLayout.JAVA_BYTE, pos + i);
+			val = (val << 7) | (octet & 0x7f);
+			if (octet >= 0)
+			{
+				offset_ = pos + i + 1;
+				return val;
+			}
+		}
+		// too many octets for the type
+		throw malformed();
+	}
+
+	@Override
+	public String readString(long maxlen) throws PcosError
+	{
+		return WireFormat.decodeUtf8( readByteStr( maxlen ) );
+	}
+
+	@Override
+	public Utf8View readUtf8View(long maxlen) throws PcosError
+	{
+		long length = readByteStrLength( maxlen );
+		if (length == 0) {
+			return null;
+		}
+		checkView(length);
+		return new Utf8View( readBytesView( length ), 0, (int) length );
+	}
+
+	@Override
+	public boolean tryReadBool(DecodeStatus status)
+	{
+		return tryReadByte(status) != 0;
+	}
+
+	@Override
+	public byte tryReadByte(DecodeStatus status)
+	{
+		if (end_ - offset_ > 0 && status.ok())
+		{
+			return input_.get(ValueLayout.JAVA_BYTE, offset_++);
+		}
+
+		return (byte) fail(status);
+	}
+
+	@Override
+	public int tryReadInt(DecodeStatus status)
+	{
+		long val = tryReadUint(status);
+		return (int) ((val >> 1) ^ (-(val & 1)));
+	}
+
+	@Override
+	public long tryReadUint(DecodeStatus status)
+	{
+		return tryReadVarInt(5, status);
+	}
+
+	@Override
+	public long tryReadLong(DecodeStatus status)
+	{
+		long val = tryReadUlong(status);
+		return (val >>> 1) ^ (-(val & 1));
+	}
+
+	@Override
+	public long tryReadUlong(DecodeStatus status)
+	{
+		return tryReadVarInt(10, status);
+	}
+
+	@Override
+	public double tryReadDouble(DecodeStatus status)
+	{
+		if (end_ - offset_ >= WireFormat.DOUBLE_SIZE && status.ok())
+		{
+			double val = input_.get(DOUBLE_BE, offset_);
+			offset_ += WireFormat.DOUBLE_SIZE;
+			return val;
+		}
+
+		return fail(status);
+	}
+
+	@Override
+	public boolean trySkipBytes(long length, DecodeStatus status)
+	{
+		if (length >= 0 && end_ - offset_ >= length && status.ok())
+		{
+			offset_ += length;
+			return true;
+		}
+
+		fail(status);
+		return false;
+	}
+
+	@Override
+	public byte[] tryReadBytes(long length, DecodeStatus status)
+	{
+		if (length < 0 || end_ - offset_ < length) {
+			fail(status);
+		}
+		else if (length > Integer.MAX_VALUE - 8) {
+			status.fail(PcosErrorCode.ERR_ARG_OUT_OF_RANGE, readingPosition(), "value exceeds 2 GB");
+		}
+		if (length == 0 || !status.ok()) {
+			return null;
+		}
+		byte[] val = new byte[(int) length];
+		MemorySegment.copy(input_, ValueLayout.JAVA_BYTE, offset_, val, 0, val.length);
+		offset_ += length;
+		return val;
+	}
+
+	@Override
+	public byte[] tryReadByteStr(long maxlen, DecodeStatus status)
+	{
+		return tryReadBytes(tryReadByteStrLength(maxlen, status), status);
+	}
+
+	@Override
+	public String tryReadString(long maxlen, DecodeStatus status)
+	{
+		return WireFormat.decodeUtf8( tryReadByteStr( maxlen, status ) );
+	}
+
+	private long tryReadByteStrLength(long maxlen, DecodeStatus status)
+	{
+		int at = readingPosition();
+		long length = tryReadUint(status);
+		if (maxlen != 0 && length > maxlen)
+		{
+			status.fail( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, at, "input byte-sequence exceeds max length" );
+			return 0;
+		}
+		return length;
+	}
+
+	private long tryReadVarInt( int max_octets, DecodeStatus status )
+	{
+		if (status.ok())
+		{
+			final MemorySegment input = input_;
+			long pos = offset_;
+			final long limit = Math.min(end_, pos + max_octets);
+			long val = 0;
+			while (pos < limit)
+			{
+				int octet = input.get(ValueLayout.JAVA_BYTE, pos++);
+				val |= (octet & 0x7f);
+				if ( (octet & 0x80) == 0 )
+				{
+					offset_ = pos;
+					return val;
+				}
+				val <<= 7;
+			}
+		}
+
+		return fail(status);
+	}
+
+	private int fail(DecodeStatus status)
+	{
+		status.fail(PcosErrorCode.ERR_MALFORMED_MESSAGE, readingPosition(), MALFORMED_ERR_);
+		return 0;
+	}
+
+	@Override
+	public int readingPosition()
+	{
+		return (int) Math.min( offset_, Integer.MAX_VALUE );
+	}
+
+	@Override
+	public String name()
+	{
+		return name_;
+	}
+
+	@Override
+	public int size()
+	{
+		return (int) Math.min( end_, Integer.MAX_VALUE );
+	}
+
+	private static PcosError malformed()
+	{
+		return PcosError.stackless( PcosErrorCode.ERR_MALFORMED_MESSAGE, MALFORMED_ERR_ );
+	}
+}
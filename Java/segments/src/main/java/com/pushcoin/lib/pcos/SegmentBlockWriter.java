@@ -0,0 +1,313 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+
+/**
+ * OutputBlock encoding straight into memory from an Arena, off the heap
+ * for native arenas.
+ *
+ * The buffer grows by allocating a larger segment from the same arena;
+ * the one it replaces stays allocated until the arena is closed, so size
+ * initialCapacity for the expected block. Closing the arena releases the
+ * memory of every writer allocated from it at once, after which they must
+ * not be used.
+ */
+public class SegmentBlockWriter implements OutputBlock
+{
+	private static final int DEFAULT_CAPACITY_ = 256;
+
+	private final String name_;
+	private final Arena arena_;
+	private MemorySegment buf_;
+	private long pos_;
+
+	public SegmentBlockWriter( String blockName, Arena arena )
+	{
+		this( blockName, arena, DEFAULT_CAPACITY_ );
+	}
+
+	public SegmentBlockWriter( String blockName, Arena arena, long initialCapacity )
+	{
+		name_ = blockName;
+		arena_ = arena;
+		buf_ = arena.allocate( Math.max(initialCapacity, 1) );
+	}
+
+	@Override
+	public String name()
+	{
+		return name_;
+	}
+
+	@Override
+	public long size()
+	{
+		return pos_;
+	}
+
+	/**
+	 * Discards written data but keeps the memory for the next message.
+	 */
+	public void reset()
+	{
+		pos_ = 0;
+	}
+
+	/**
+	 * Written bytes, as a slice of the arena memory.
+	 */
+	public MemorySegment segment()
+	{
+		return buf_.asSlice( 0, pos_ );
+	}
+
+	@Override
+	public void writeBool(boolean b) throws PcosError
+	{
+		writeByte( b ? 1 : 0 );
+	}
+
+	@Override
+	public void writeByte(int v) throws PcosError
+	{
+		ensureCapacity( 1 );
+		buf_.set( ValueLayout.JAVA_BYTE, pos_++, (byte) v );
+	}
+
+	@Override
+	public void writeBytes(byte[] v) throws PcosError
+	{
+		writeBytes( v, 0, v.length );
+	}
+
+	@Override
+	public void writeBytes(byte[] v, int off, int len) throws PcosError
+	{
+		ensureCapacity( len );
+		MemorySegment.copy( v, off, buf_, ValueLayout.JAVA_BYTE, pos_, len );
+		pos_ += len;
+	}
+
+	@Override
+	public void writeByteStr(byte[] s) throws PcosError
+	{
+		if (s == null) {
+			writeUint( 0 );
+			return;
+		}
+		writeUint( s.length );
+		writeBytes( s, 0, s.length );
+	}
+
+	@Override
+	public void writeDouble(double v) throws PcosError
+	{
+		ensureCapacity( WireFormat.DOUBLE_SIZE );
+		buf_.set( SegmentBlockReader.DOUBLE_BE, pos_, v );
+		pos_ += WireFormat.DOUBLE_SIZE;
+	}
+
+	/**
+	 * Encodes UTF-8 straight into the segment.
+	 */
+	@Override
+	public void writeString(String s) throws PcosError
+	{
+		if (s == null) {
+			writeUint( 0 );
+			return;
+		}
+		int len = WireFormat.utf8Length( s );
+		writeUint( len );
+		ensureCapacity( len );
+		final MemorySegment buf = buf_;
+		long pos = pos_;
+		final int n = s.length();
+		for (int i = 0; i < n; ++i)
+		{
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf.set( ValueLayout.JAVA_BYTE, pos++, (byte) c );
+			}
+			else
+			{
+				// rare enough to go through the array encoder
+				byte[] rest = WireFormat.encodeUtf8( s.substring(i) );
+				MemorySegment.copy( rest, 0, buf, ValueLayout.JAVA_BYTE, pos, rest.length );
+				pos += rest.length;
+				break;
+			}
+		}
+		pos_ = pos;
+	}
+
+	@Override
+	public void writeInt(int val) throws PcosError
+	{
+		// ZigZag, so that small negative values stay short
+		writeVarInt( ((val << 1) ^ (val >> 31)) & 0xffffffffL );
+	}
+
+	@Override
+	public void writeUint(long val) throws PcosError
+	{
+		writeVarInt( val );
+	}
+
+	@Override
+	public void writeLong(long val) throws PcosError
+	{
+		writeVarInt( (val << 1) ^ (val >> 63) );
+	}
+
+	@Override
+	public void writeUlong(long v) throws PcosError
+	{
+		writeVarInt( v );
+	}
+
+	@Override
+	public void writeIntArray( int[] src, int off, int count ) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			writeInt( src[i] );
+		}
+	}
+
+	@Override
+	public void writeUintArray( long[] src, int off, int count ) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			writeUint( src[i] );
+		}
+	}
+
+	@Override
+	public void writeLongArray( long[] src, int off, int count ) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			writeLong( src[i] );
+		}
+	}
+
+	@Override
+	public void writeUlongArray( long[] src, int off, int count ) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			writeUlong( src[i] );
+		}
+	}
+
+	@Override
+	public void writeDoubleArray( double[] src, int off, int count ) throws PcosError
+	{
+		long size = (long) count * WireFormat.DOUBLE_SIZE;
+		ensureCapacity( size );
+		MemorySegment.copy( src, off, buf_, SegmentBlockReader.DOUBLE_BE, pos_, count );
+		pos_ += size;
+	}
+
+	@Override
+	public void writeIntVarArray( int[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeIntArray( src, off, count );
+	}
+
+	@Override
+	public void writeUintVarArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeUintArray( src, off, count );
+	}
+
+	@Override
+	public void writeLongVarArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeLongArray( src, off, count );
+	}
+
+	@Override
+	public void writeUlongVarArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeUlongArray( src, off, count );
+	}
+
+	@Override
+	public void writeDoubleVarArray( double[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeDoubleArray( src, off, count );
+	}
+
+	/**
+	 * Big-endian groups of 7 bits, the continuation bit set on all but the last.
+	 */
+	private void writeVarInt( long val ) throws PcosError
+	{
+		int size = WireFormat.varIntSize( val );
+		ensureCapacity( size );
+		final MemorySegment buf = buf_;
+		long pos = pos_;
+		for (int shift = 7 * (size - 1); shift > 0; shift -= 7) {
+			buf.set( ValueLayout.JAVA_BYTE, pos++, (byte) (0x80 | ((val >>> shift) & 0x7f)) );
+		}
+		buf.set( ValueLayout.JAVA_BYTE, pos++, (byte) (val & 0x7f) );
+		pos_ = pos;
+	}
+
+	/**
+	 * Copies the written bytes onto the heap.
+	 */
+	@Override
+	public byte[] toBytes() throws PcosError
+	{
+		return segment().toArray( ValueLayout.JAVA_BYTE );
+	}
+
+	/**
+	 * Read-only view of the written bytes, sharing the arena memory.
+	 */
+	@Override
+	public ByteBuffer asByteBuffer() throws PcosError
+	{
+		return segment().asByteBuffer().asReadOnlyBuffer();
+	}
+
+	private void ensureCapacity( long extra ) throws PcosError
+	{
+		long needed = pos_ + extra;
+		if (needed > buf_.byteSize())
+		{
+			if (needed > Integer.MAX_VALUE) {
+				throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "block exceeds 2 GB" );
+			}
+			MemorySegment grown = arena_.allocate( Math.min( Integer.MAX_VALUE, Math.max(needed, buf_.byteSize() << 1) ) );
+			MemorySegment.copy( buf_, 0, grown, 0, pos_ );
+			buf_ = grown;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Whole messages in Arena memory. With SegmentBlockWriters, a message is
+ * encoded, sent and received without its bytes ever crossing the heap;
+ * closing the arena frees a whole batch of messages at once.
+ */
+public final class SegmentDocuments
+{
+	private SegmentDocuments() {}
+
+	/**
+	 * Serializes the message into a segment allocated from arena.
+	 */
+	public static MemorySegment encode( OutputDocument doc, Arena arena ) throws PcosError
+	{
+		MemorySegment message = arena.allocate( doc.size() );
+		doc.writeTo( message.asByteBuffer() );
+		return message;
+	}
+
+	/**
+	 * Parses the message in a segment of up to 2 GB into a reused reader.
+	 * Its blocks read straight from the segment, which must stay alive
+	 * while the document is in use.
+	 */
+	public static DocumentReader decode( MemorySegment message, DocumentReader into ) throws PcosError
+	{
+		return into.reset( message.asByteBuffer() );
+	}
+
+	/**
+	 * Writes the message to a channel in blocking mode, directly from the
+	 * segment. Returns the number of bytes written.
+	 */
+	public static long write( MemorySegment message, WritableByteChannel channel ) throws IOException
+	{
+		ByteBuffer src = message.asByteBuffer();
+		long total = 0;
+		while (src.hasRemaining()) {
+			total += channel.write( src );
+		}
+		return total;
+	}
+}
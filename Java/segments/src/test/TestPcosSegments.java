@@ -0,0 +1,239 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+import com.pushcoin.lib.pcos.*;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/**
+ * Checks of the MemorySegment classes, for JDK 22+. Runs like TestPcos:
+ * java -ea -cp ../target/classes:target/classes:... TestPcosSegments
+ */
+public class TestPcosSegments
+{
+	static final String text = "Zürich € 😀 ok";
+
+	private static void fill( OutputBlock bo ) throws PcosError
+	{
+		bo.writeBool( true );
+		bo.writeByte( 200 );
+		bo.writeByteStr( new byte[] { 1, 2, 3 } );
+		bo.writeInt( -123456 );
+		bo.writeUint( 4000000000L );
+		bo.writeLong( Long.MIN_VALUE );
+		bo.writeUlong( -1L );
+		bo.writeDouble( -2.75 );
+		bo.writeString( "plain" );
+		bo.writeString( text );
+		bo.writeDoubleVarArray( new double[] { 1.5, 2.5, 3.5 }, 0, 3 );
+		bo.writeIntVarArray( new int[] { -1, 0, 1 << 30 }, 0, 3 );
+	}
+
+	private static void check( InputBlock in ) throws PcosError
+	{
+		assert in.readBool();
+		assert in.readByte() == (byte) 200;
+		assert Arrays.equals( in.readByteStr( 0 ), new byte[] { 1, 2, 3 } );
+		assert in.readInt() == -123456;
+		assert in.readUint() == 4000000000L;
+		assert in.readLong() == Long.MIN_VALUE;
+		assert in.readUlong() == -1L;
+		assert in.readDouble() == -2.75;
+		assert "plain".equals( in.readUtf8View( 0 ).toString() );
+		assert text.equals( in.readString( 0 ) );
+		double[] d = new double[4];
+		assert in.readDoubleVarArray( d, 1 ) == 3 && d[3] == 3.5;
+		int[] n = new int[3];
+		assert in.readIntVarArray( n, 0 ) == 3 && n[2] == 1 << 30;
+	}
+
+	/**
+	 * Read number op, through the throwing API if st is null.
+	 */
+	private static Object parityRead( InputBlock in, int op, DecodeStatus st ) throws PcosError
+	{
+		switch (op)
+		{
+		case 0: return st == null ? in.readBool() : in.tryReadBool( st );
+		case 1: return st == null ? in.readByte() : in.tryReadByte( st );
+		case 2: return st == null ? in.readBytes( 4 ) : in.tryReadBytes( 4, st );
+		case 3: return st == null ? in.readByteStr( 2 ) : in.tryReadByteStr( 2, st );
+		case 4: return st == null ? in.readInt() : in.tryReadInt( st );
+		case 5: return st == null ? in.readUint() : in.tryReadUint( st );
+		case 6: return st == null ? in.readLong() : in.tryReadLong( st );
+		case 7: return st == null ? in.readUlong() : in.tryReadUlong( st );
+		case 8: return st == null ? in.readDouble() : in.tryReadDouble( st );
+		case 9: return st == null ? in.readString( 2 ) : in.tryReadString( 2, st );
+		default:
+			if (st == null)
+			{
+				in.skipBytes( 4 );
+				return true;
+			}
+			return in.trySkipBytes( 4, st );
+		}
+	}
+
+	public static void main( String[] args ) throws Exception
+	{
+		BlockWriter heap = new BlockWriter( "Bo" );
+		fill( heap );
+
+		MemorySegment message;
+		try (Arena arena = Arena.ofConfined())
+		{
+			// tiny initial capacity, so the writer has to grow
+			SegmentBlockWriter bo = new SegmentBlockWriter( "Bo", arena, 4 );
+			fill( bo );
+			assert Arrays.equals( bo.toBytes(), heap.toBytes() );
+			check( new SegmentBlockReader( bo.segment(), "Bo" ) );
+			check( new BlockReader( heap.toBytes(), 0, (int) heap.size(), "Bo" ) );
+
+			OutputDocument doc = new DocumentWriter( "Test" );
+			doc.addBlock( bo );
+			message = SegmentDocuments.encode( doc, arena );
+			assert message.isNative() && message.byteSize() == doc.size();
+			DocumentReader reader = SegmentDocuments.decode( message, new DocumentReader() );
+			check( reader.getBlock( "Bo" ) );
+
+			SegmentBlockReader in = new SegmentBlockReader( bo.segment(), "Bo" );
+			in.skipBytes( 2 );
+			in.skipByteStr();
+			in.skipVarInt();
+			assert in.readUint() == 4000000000L;
+			try {
+				in.skipBytes( in.length() );
+				assert false;
+			}
+			catch (PcosError e) {
+				assert e.getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code;
+			}
+
+			// a negative length is as malformed as one past the end
+			try {
+				in.readSegment( -1 );
+				assert false;
+			}
+			catch (PcosError e) {
+				assert e.getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code;
+			}
+			assert in.readSegment( 0 ).byteSize() == 0;
+
+			DecodeStatus st = new DecodeStatus();
+			assert in.trySkipBytes( in.length() - in.position(), st ) && st.ok();
+			assert in.tryReadUint( st ) == 0 && st.error() == PcosErrorCode.ERR_MALFORMED_MESSAGE && st.offset() == in.length();
+		}
+
+		// bulk arrays: words of 1- and 2-octet values, then mixed widths
+		long[] values = new long[200];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = (i < 64) ? i : (i < 128) ? 300 + i : -i * 1000003L;
+		}
+		BlockWriter arrays = new BlockWriter( "Bo" );
+		arrays.writeUlongArray( values, 0, values.length );
+		arrays.writeLongArray( values, 0, values.length );
+		arrays.writeIntArray( new int[] { -1, 70000 }, 0, 2 );
+		SegmentBlockReader bulk = new SegmentBlockReader( MemorySegment.ofArray( arrays.toBytes() ), "Bo" );
+		long[] decoded = new long[values.length];
+		bulk.readUlongArray( decoded, 0, values.length );
+		assert Arrays.equals( decoded, values );
+		bulk.readLongArray( decoded, 0, values.length );
+		assert Arrays.equals( decoded, values );
+		int[] ints = new int[2];
+		bulk.readIntArray( ints, 0, 2 );
+		assert ints[0] == -1 && ints[1] == 70000 && bulk.position() == bulk.length();
+
+		// the batched paths run for arrays filling their block to the last byte
+		java.lang.reflect.Field batched = SegmentBlockReader.class.getDeclaredField( "batchedValues_" );
+		batched.setAccessible( true );
+		long[] small = new long[512];
+		int[] smallInts = new int[512];
+		for (int i = 0; i < small.length; ++i) {
+			small[i] = i % 128;
+			smallInts[i] = i % 64;
+		}
+		BlockWriter packed = new BlockWriter( "Bo" );
+		packed.writeUintArray( small, 0, small.length );
+		packed.writeIntArray( smallInts, 0, smallInts.length );
+		SegmentBlockReader sp = new SegmentBlockReader( MemorySegment.ofArray( packed.toBytes() ), "Bo" );
+		batched.setLong( null, 0 );
+		long[] backs = new long[small.length];
+		int[] backInts = new int[smallInts.length];
+		sp.readUintArray( backs, 0, backs.length );
+		sp.readIntArray( backInts, 0, backInts.length );
+		assert Arrays.equals( backs, small ) && Arrays.equals( backInts, smallInts );
+		assert batched.getLong( null ) >= small.length + smallInts.length - 4;
+
+		// non-throwing strings and byte-sequences
+		BlockWriter strs = new BlockWriter( "Bo" );
+		strs.writeBool( true ); strs.writeByteStr( new byte[] { 4, 5 } ); strs.writeString( text ); strs.writeString( "too long" );
+		SegmentBlockReader sin = new SegmentBlockReader( MemorySegment.ofArray( strs.toBytes() ), "Bo" );
+		DecodeStatus st = new DecodeStatus();
+		assert sin.tryReadBool( st ) && Arrays.equals( sin.tryReadByteStr( 0, st ), new byte[] { 4, 5 } );
+		assert sin.tryReadString( 0, st ).equals( text ) && st.ok();
+		int at = sin.readingPosition();
+		assert sin.tryReadString( 7, st ) == null && st.error() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE && st.offset() == at;
+		assert sin.tryReadBytes( 9, st.clear() ) == null && st.error() == PcosErrorCode.ERR_MALFORMED_MESSAGE;
+		assert Arrays.equals( sin.tryReadBytes( 8, st.clear() ), "too long".getBytes( "US-ASCII" ) ) && st.ok();
+
+		// throwing and non-throwing reads agree on every failure, as in TestPcos
+		byte[][] inputs = {
+			{},
+			{ (byte) 0x80 },
+			{ (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1 },
+			{ (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1 },
+			{ 5, 'a', 'b' },
+			{ 3, 'a', 'b', 'c' },
+			{ 1, 2, 3, 4, 5, 6, 7 },
+		};
+		for (byte[] wire : inputs)
+		{
+			for (int op = 0; op < 11; ++op)
+			{
+				SegmentBlockReader thrown = new SegmentBlockReader( MemorySegment.ofArray( wire ), "Bo" );
+				Object expected = null;
+				PcosError error = null;
+				try {
+					expected = parityRead( thrown, op, null );
+				}
+				catch (PcosError e) {
+					error = e;
+				}
+				SegmentBlockReader tried = new SegmentBlockReader( MemorySegment.ofArray( wire ), "Bo" );
+				Object actual = parityRead( tried, op, st.clear() );
+				assert tried.readingPosition() == thrown.readingPosition();
+				if (error != null) {
+					assert !st.ok() && st.error().code == error.getCode() && error.getMessage().equals( st.reason() );
+				}
+				else {
+					assert st.ok() && Arrays.deepEquals( new Object[] { expected }, new Object[] { actual } );
+				}
+			}
+		}
+
+		// the arena took the whole batch with it
+		try {
+			new SegmentBlockReader( message, "Bo" ).readByte();
+			assert false;
+		}
+		catch (IllegalStateException e) {
+		}
+		System.out.println( "All checks out!" );
+	}
+}
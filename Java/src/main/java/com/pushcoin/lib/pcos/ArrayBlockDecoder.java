@@ -0,0 +1,92 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+/**
+ * Decoder of a block holding an array of fixed-size elements: the uint
+ * element count followed by the elements, elementSize octets each.
+ *
+ * Because every element's offset is known from its index, the array can
+ * be decoded in independent ranges. SharedDocument.decodeBlocks() splits
+ * it into ranges of about elementsPerTask elements, decoded concurrently
+ * into one result made by newResult(). Ranges never overlap, so results
+ * such as plain arrays need no locking. Schema.wireSize() tells whether a
+ * compound type has a fixed size.
+ */
+public abstract class ArrayBlockDecoder<T> implements BlockDecoder<T>
+{
+	private final int elementSize_;
+	private final int elementsPerTask_;
+
+	protected ArrayBlockDecoder(int elementSize, int elementsPerTask)
+	{
+		if (elementSize <= 0 || elementsPerTask <= 0) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "Element size and elements per task must be positive" );
+		}
+		elementSize_ = elementSize;
+		elementsPerTask_ = elementsPerTask;
+	}
+
+	public final int elementSize()
+	{
+		return elementSize_;
+	}
+
+	public final int elementsPerTask()
+	{
+		return elementsPerTask_;
+	}
+
+	/**
+	 * Result for an array of count elements, filled in by decodeRange().
+	 */
+	protected abstract T newResult(int count);
+
+	/**
+	 * Decodes elements [from, to) into result; in is positioned at element
+	 * from and holds exactly those elements.
+	 */
+	protected abstract void decodeRange(InputBlock in, int from, int to, T result) throws PcosError;
+
+	/**
+	 * Decodes the whole array on the calling thread.
+	 */
+	@Override
+	public T decode(InputBlock in) throws PcosError
+	{
+		int count = count( in );
+		T result = newResult( count );
+		decodeRange( in, 0, count, result );
+		return result;
+	}
+
+	/**
+	 * Reads the element count, checking it against the block size.
+	 */
+	final int count(InputBlock in) throws PcosError
+	{
+		int start = in.readingPosition();
+		long count = in.readUint();
+		long expected = (long) elementSize_ * count;
+		if (count > Integer.MAX_VALUE || expected != in.size() - (in.readingPosition() - start)) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Block '" + in.name() + "' does not hold " + count + " elements of " + elementSize_ + " octets" );
+		}
+		return (int) count;
+	}
+}
@@ -0,0 +1,71 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+/**
+ * Pre-encoded block name for InputDocument.getBlock(BlockKey).
+ *
+ * Block names are fixed per message type, so keys are typically created once
+ * and kept in static fields; looking a block up by key neither decodes nor
+ * encodes any names.
+ */
+public final class BlockKey
+{
+	private final String name_;
+	final byte[] utf8;
+	final int hash;
+
+	public BlockKey(String name) throws PcosError
+	{
+		if (name == null || name.length() == 0) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "block name cannot be empty" );
+		}
+		name_ = name;
+		utf8 = WireFormat.encodeUtf8( name );
+		hash = WireFormat.hash( utf8, 0, utf8.length );
+	}
+
+	public static BlockKey of(String name) throws PcosError
+	{
+		return new BlockKey( name );
+	}
+
+	public String name()
+	{
+		return name_;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return (o instanceof BlockKey) && name_.equals( ((BlockKey) o).name_ );
+	}
+
+	@Override
+	public String toString()
+	{
+		return name_;
+	}
+}
@@ -20,26 +20,58 @@ package com.pushcoin.lib.pcos;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.io.UnsupportedEncodingException;
 
 public class BlockReader implements InputBlock 
 {
-	private final int TYPE_WIRE_SIZE_DOUBLE = 8;
-	private final String MALFORMED_ERR_ = "run out of input bytes - incomplete or corrupted message";
-	private final PcosError malformed_ = new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, MALFORMED_ERR_ );
-	private final byte[] input_;
-	private final int end_, beg_;
-	private final String name_;
+	private static final int TYPE_WIRE_SIZE_DOUBLE = 8;
+	private static final String MALFORMED_ERR_ = "run out of input bytes - incomplete or corrupted message";
+	private byte[] input_;
+	private int end_, beg_;
+	private String name_;
+	// UTF-8 name, decoded into name_ on first use
+	private byte[] nameSrc_;
+	private int nameOff_, nameLen_;
 	private int offset_;
+
+	// after a word of mixed widths, bytes readVarIntArray() decodes value by value
+	private static final int MIXED_RUN_ = 64;
+	// values decoded in bulk without a bounds check of their own; counted with assertions enabled only, for the tests
+	static long batchedValues_;
 	
 	public BlockReader(byte[] input, int offset, int len, String name)
+	{
+		reset(input, offset, len, name);
+	}
+
+	/**
+	 * Unbound cursor, to be pointed at a block with reset().
+	 */
+	BlockReader()
+	{
+		input_ = WireFormat.EMPTY;
+	}
+
+	/**
+	 * Re-points this reader at another block, so one instance can serve
+	 * any number of messages.
+	 */
+	public void reset(byte[] input, int offset, int len, String name)
 	{
 		input_ = input;
 		beg_ = offset;
 		end_ = beg_ + len;
 		name_ = name;
+		nameSrc_ = null;
 		offset_ = offset;
 	}
+
+	void reset(byte[] input, int offset, int len, byte[] nameSrc, int nameOff, int nameLen)
+	{
+		reset(input, offset, len, null);
+		nameSrc_ = nameSrc;
+		nameOff_ = nameOff;
+		nameLen_ = nameLen;
+	}
 	
 	@Override
 	public boolean inspect( Inspector inspector ) throws PcosError {
@@ -60,7 +92,7 @@ public class BlockReader implements InputBlock
 			return input_[offset_++];
 		}
 
-		throw malformed_;
+		throw malformed();
 	}
 
 	@Override
@@ -76,49 +108,182 @@ public class BlockReader implements InputBlock
 			return val;
 		}
 
-		throw malformed_;
+		throw malformed();
+	}
+
+	@Override
+	public void readBytes(byte[] dst, int off, int len) throws PcosError
+	{
+		if (end_ - offset_ >= len)
+		{
+			System.arraycopy(input_, offset_, dst, off, len);
+			offset_ += len;
+			return;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipBytes(long length) throws PcosError
+	{
+		if (end_ - offset_ >= length)
+		{
+			offset_ += length;
+			return;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public ByteBuffer readBytesView(long length) throws PcosError
+	{
+		if (length == 0) {
+			return null;
+		}
+		if (end_ - offset_ >= length)
+		{
+			ByteBuffer val = ByteBuffer.wrap(input_, offset_, (int) length).slice().asReadOnlyBuffer();
+			offset_ += length;
+			return val;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipVarInt() throws PcosError
+	{
+		int pos = offset_;
+		final int limit = Math.min(end_, pos + WireFormat.MAX_VARINT_SIZE);
+		while (pos < limit)
+		{
+			if (input_[pos++] >= 0)
+			{
+				offset_ = pos;
+				return;
+			}
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipByteStr() throws PcosError
+	{
+		skipBytes(readUint());
+	}
+
+	@Override
+	public void skipDouble() throws PcosError
+	{
+		skipBytes(TYPE_WIRE_SIZE_DOUBLE);
 	}
 
 	@Override
 	public byte[] readByteStr(long maxlen) throws PcosError
+	{
+		return readBytes(readByteStrLength(maxlen));
+	}
+
+	@Override
+	public ByteBuffer readByteStrView(long maxlen) throws PcosError
+	{
+		return readBytesView(readByteStrLength(maxlen));
+	}
+
+	private long readByteStrLength(long maxlen) throws PcosError
 	{
 		long length = readUint();
 		if (maxlen != 0 && length > maxlen)
 			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input byte-sequence exceeds max length" );
-		return readBytes(length);
+		return length;
 	}
 
 	@Override
 	public double readDouble() throws PcosError
 	{
-		return ByteBuffer.wrap(readBytes(TYPE_WIRE_SIZE_DOUBLE)).getDouble();
+		if (end_ - offset_ >= TYPE_WIRE_SIZE_DOUBLE)
+		{
+			long bits = WireFormat.getLong(input_, offset_);
+			offset_ += TYPE_WIRE_SIZE_DOUBLE;
+			return Double.longBitsToDouble(bits);
+		}
+
+		throw malformed();
 	}
 
 	private long readVarInt( int max_octets ) throws PcosError
 	{
+		// with a full varint worth of input left there is no need to check bounds per octet
+		if (end_ - offset_ >= max_octets) {
+			return readVarIntUnchecked( max_octets );
+		}
+
+		final byte[] input = input_;
+		int pos = offset_;
+		final int limit = Math.min(end_, pos + max_octets);
 		long val = 0;
-		boolean seen_end = false;
-		while (max_octets > 0)
+		while (pos < limit)
 		{
-			int octet = readByte();
+			int octet = input[pos++];
 			val |= (octet & 0x7f); 
 			// check if there is more...
-			seen_end = ( (octet & 0x80) == 0 );
-			if (seen_end) {
-				break;
-			}
-			else
+			if ( (octet & 0x80) == 0 )
 			{
-				val <<= 7;
-				max_octets--;
+				offset_ = pos;
+				return val;
 			}
+			val <<= 7;
 		}
 
-		if (!seen_end) {
-			throw malformed_;
+		// ran out of input or octets allowed for the type
+		throw malformed();
+	}
+
+	/**
+	 * Decodes a varint the caller has made sure is within bounds, i.e. at
+	 * least max_octets bytes remain. The common 1 to 3 octet values are unrolled.
+	 */
+	private long readVarIntUnchecked( int max_octets ) throws PcosError
+	{
+		final byte[] input = input_;
+		final int pos = offset_;
+		int octet = input[pos];
+		if (octet >= 0)
+		{
+			offset_ = pos + 1;
+			return octet;
+		}
+		long val = octet & 0x7f;
+		octet = input[pos+1];
+		if (octet >= 0)
+		{
+			offset_ = pos + 2;
+			return (val << 7) | octet;
+		}
+		val = (val << 7) | (octet & 0x7f);
+		octet = input[pos+2];
+		if (octet >= 0)
+		{
+			offset_ = pos + 3;
+			return (val << 7) | octet;
 		}
+		val = (val << 7) | (octet & 0x7f);
 
-		return val;
+		for (int i = 3; i < max_octets; ++i)
+		{
+			octet = input[pos+i];
+			val = (val << 7) | (octet & 0x7f);
+			if (octet >= 0)
+			{
+				offset_ = pos + i + 1;
+				return val;
+			}
+		}
+		// too many octets for the type
+		throw malformed();
 	}
 
 	@Override
@@ -142,29 +307,369 @@ public class BlockReader implements InputBlock
 		// signed int is encoded as unsigned int
 		long val = readUlong();
 		// ..but requires un-ZigZag
-		return (val >> 1) ^ (-(val & 1));
+		return (val >>> 1) ^ (-(val & 1));
 	}
 
 	@Override
 	public long readUlong() throws PcosError
 	{
-		return readVarInt( 10 ); // 5 => max bytes uint can take on the wire
+		return readVarInt( 10 ); // 10 => max bytes ulong can take on the wire
+	}
+
+	@Override
+	public void readIntArray(int[] dst, int off, int count) throws PcosError
+	{
+		final int end = off + count;
+		int i = off;
+		while (i < end)
+		{
+			// as many values as fit in the rest of the block at 5 octets each need no check of their own
+			int chunk = Math.min( end - i, (end_ - offset_) / 5 );
+			if (chunk == 0)
+			{
+				dst[i++] = readInt();
+				continue;
+			}
+			for (final int stop = i + chunk; i < stop; ++i)
+			{
+				long val = readVarIntUnchecked( 5 );
+				dst[i] = (int) ((val >> 1) ^ (-(val & 1)));
+			}
+			assert (batchedValues_ += chunk) > 0;
+		}
+	}
+
+	@Override
+	public void readUintArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 5 );
+	}
+
+	@Override
+	public void readLongArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 10 );
+		for (int i = off; i < off + count; ++i)
+		{
+			long val = dst[i];
+			dst[i] = (val >>> 1) ^ (-(val & 1));
+		}
+	}
+
+	@Override
+	public void readUlongArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 10 );
+	}
+
+	@Override
+	public void readDoubleArray(double[] dst, int off, int count) throws PcosError
+	{
+		if (!fits( count, TYPE_WIRE_SIZE_DOUBLE )) {
+			throw malformed();
+		}
+		final byte[] input = input_;
+		int pos = offset_;
+		for (int i = off; i < off + count; ++i, pos += TYPE_WIRE_SIZE_DOUBLE) {
+			dst[i] = Double.longBitsToDouble( WireFormat.getLong(input, pos) );
+		}
+		offset_ = pos;
+	}
+
+	@Override
+	public int readIntVarArray(int[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readIntArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUintVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUintArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readLongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readLongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUlongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUlongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readDoubleVarArray(double[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readDoubleArray( dst, off, count );
+		return count;
+	}
+
+	/**
+	 * Element count of a variable-length array, which must fit the room left in the destination.
+	 */
+	private int readArrayLength(int room) throws PcosError
+	{
+		long count = readUint();
+		if (count > room)
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input array exceeds destination length" );
+		return (int) count;
+	}
+
+	/**
+	 * Decodes 8 input bytes at a time where the continuation bits allow:
+	 * a word of 1-octet values yields 8 values, a word of 2-octet values
+	 * yields 4. Other widths are decoded value by value for MIXED_RUN_
+	 * bytes before the next word is tried, so that wide values do not pay
+	 * for a word load each; those and the values in the last 8 bytes, or
+	 * the last 3, are read with a bounds check each, as readUint() does.
+	 */
+	private void readVarIntArray(long[] dst, int off, int count, int max_octets) throws PcosError
+	{
+		final byte[] input = input_;
+		final int end = off + count;
+		final int limit = end_;
+		int pos = offset_;
+		int i = off;
+		while (end - i >= 4 && limit - pos >= 8)
+		{
+			long word = WireFormat.getLong( input, pos );
+			long cont = word & 0x8080808080808080L;
+			if (cont == 0 && end - i >= 8)
+			{
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					dst[i++] = (word >>> shift) & 0x7f;
+				}
+				pos += 8;
+				assert (batchedValues_ += 8) > 0;
+			}
+			else if (cont == 0x8000800080008000L)
+			{
+				for (int shift = 48; shift >= 0; shift -= 16) {
+					dst[i++] = ((word >>> (shift + 1)) & 0x3f80) | ((word >>> shift) & 0x7f);
+				}
+				pos += 8;
+				assert (batchedValues_ += 4) > 0;
+			}
+			else
+			{
+				offset_ = pos;
+				i = readMixedRun( dst, i, end, max_octets );
+				pos = offset_;
+			}
+		}
+		offset_ = pos;
+		while (i < end) {
+			dst[i++] = readVarInt( max_octets );
+		}
+	}
+
+	/**
+	 * Values starting in the MIXED_RUN_ bytes at offset_, into dst from i;
+	 * returns the next index.
+	 */
+	private int readMixedRun(long[] dst, int i, int end, int max_octets) throws PcosError
+	{
+		final int stop = offset_ + MIXED_RUN_;
+		if (max_octets == 5)
+		{
+			while (i < end && offset_ < stop) {
+				dst[i++] = readUint();
+			}
+		}
+		else
+		{
+			while (i < end && offset_ < stop) {
+				dst[i++] = readUlong();
+			}
+		}
+		return i;
+	}
+
+	private boolean fits(int count, int width)
+	{
+		return (long) count * width <= end_ - offset_;
 	}
 
 	@Override
 	public String readString(long maxlen) throws PcosError
 	{
-		try
+		// decoded straight out of the input, without an intermediate byte[]
+		long length = readByteStrLength( maxlen );
+		skipBytes( length );
+		return WireFormat.decodeUtf8( input_, offset_ - (int) length, (int) length );
+	}
+
+	@Override
+	public Utf8View readUtf8View(long maxlen) throws PcosError
+	{
+		long length = readByteStrLength( maxlen );
+		if (length == 0) {
+			return null;
+		}
+		skipBytes( length );
+		return new Utf8View( input_, offset_ - (int) length, (int) length );
+	}
+
+	@Override
+	public boolean tryReadBool(DecodeStatus status)
+	{
+		return tryReadByte(status) != 0;
+	}
+
+	@Override
+	public byte tryReadByte(DecodeStatus status)
+	{
+		if (end_ - offset_ > 0 && status.ok())
+		{
+			return input_[offset_++];
+		}
+
+		return (byte) fail(status);
+	}
+
+	@Override
+	public int tryReadInt(DecodeStatus status)
+	{
+		long val = tryReadUint(status);
+		return (int) ((val >> 1) ^ (-(val & 1)));
+	}
+
+	@Override
+	public long tryReadUint(DecodeStatus status)
+	{
+		return tryReadVarInt(5, status);
+	}
+
+	@Override
+	public long tryReadLong(DecodeStatus status)
+	{
+		long val = tryReadUlong(status);
+		return (val >>> 1) ^ (-(val & 1));
+	}
+
+	@Override
+	public long tryReadUlong(DecodeStatus status)
+	{
+		return tryReadVarInt(10, status);
+	}
+
+	@Override
+	public double tryReadDouble(DecodeStatus status)
+	{
+		if (end_ - offset_ >= TYPE_WIRE_SIZE_DOUBLE && status.ok())
+		{
+			long bits = WireFormat.getLong(input_, offset_);
+			offset_ += TYPE_WIRE_SIZE_DOUBLE;
+			return Double.longBitsToDouble(bits);
+		}
+
+		return fail(status);
+	}
+
+	@Override
+	public boolean trySkipBytes(long length, DecodeStatus status)
+	{
+		if (length >= 0 && end_ - offset_ >= length && status.ok())
+		{
+			offset_ += length;
+			return true;
+		}
+
+		fail(status);
+		return false;
+	}
+
+	@Override
+	public byte[] tryReadBytes(long length, DecodeStatus status)
+	{
+		if (length >= 0 && end_ - offset_ >= length && status.ok())
 		{
-			byte[] encoded_str = readByteStr( maxlen );
-			if (encoded_str == null) {
+			if (length == 0) {
 				return null;
 			}
-			return new String(encoded_str, ProtocolTag.PROTOCOL_CHARSET);
+			byte[] val = Arrays.copyOfRange(input_, offset_, (int) (offset_ + length));
+			offset_ += length;
+			return val;
 		}
-		catch (UnsupportedEncodingException e)	{
-			throw new PcosError( PcosErrorCode.ERR_BAD_CHAR_ENCODING, "input string decoding error" );
+
+		fail(status);
+		return null;
+	}
+
+	@Override
+	public byte[] tryReadByteStr(long maxlen, DecodeStatus status)
+	{
+		return tryReadBytes(tryReadByteStrLength(maxlen, status), status);
+	}
+
+	@Override
+	public String tryReadString(long maxlen, DecodeStatus status)
+	{
+		long length = tryReadByteStrLength( maxlen, status );
+		if (!trySkipBytes( length, status )) {
+			return null;
+		}
+		return WireFormat.decodeUtf8( input_, offset_ - (int) length, (int) length );
+	}
+
+	private long tryReadByteStrLength(long maxlen, DecodeStatus status)
+	{
+		int at = offset_;
+		long length = tryReadUint(status);
+		if (maxlen != 0 && length > maxlen)
+		{
+			status.fail( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, at, "input byte-sequence exceeds max length" );
+			return 0;
 		}
+		return length;
+	}
+
+	private long tryReadVarInt( int max_octets, DecodeStatus status )
+	{
+		if (status.ok())
+		{
+			final byte[] input = input_;
+			int pos = offset_;
+			// single-octet values -- most lengths and counts -- need no loop
+			if (pos < end_ && input[pos] >= 0)
+			{
+				offset_ = pos + 1;
+				return input[pos];
+			}
+			final int limit = Math.min(end_, pos + max_octets);
+			long val = 0;
+			while (pos < limit)
+			{
+				int octet = input[pos++];
+				val |= (octet & 0x7f);
+				if ( (octet & 0x80) == 0 )
+				{
+					offset_ = pos;
+					return val;
+				}
+				val <<= 7;
+			}
+		}
+
+		return fail(status);
+	}
+
+	private int fail(DecodeStatus status)
+	{
+		status.fail(PcosErrorCode.ERR_MALFORMED_MESSAGE, offset_, MALFORMED_ERR_);
+		return 0;
 	}
 
 	@Override
@@ -176,6 +681,9 @@ public class BlockReader implements InputBlock
 	@Override
 	public String name() 
 	{
+		if (name_ == null && nameSrc_ != null) {
+			name_ = WireFormat.decodeUtf8(nameSrc_, nameOff_, nameLen_);
+		}
 		return name_;
 	}
 
@@ -184,4 +692,9 @@ public class BlockReader implements InputBlock
 	{
 		return end_ - beg_;
 	}
+
+	private static PcosError malformed()
+	{
+		return PcosError.stackless( PcosErrorCode.ERR_MALFORMED_MESSAGE, MALFORMED_ERR_ );
+	}
 }
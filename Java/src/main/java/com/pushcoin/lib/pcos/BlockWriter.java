@@ -18,31 +18,75 @@
 	
 package com.pushcoin.lib.pcos;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+/**
+ * OutputBlock encoding straight into a growable byte array.
+ *
+ * The array may come from a BufferPool, in which case release() hands it
+ * back once the block has been sent, so steady-state encoding allocates nothing.
+ */
 public class BlockWriter implements OutputBlock 
 {
-	private final String name_;
-	private final PcosError malformed_ = new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "serialization error" );
-	private DataOutputStream output_;
-	private ByteArrayOutputStream streambuf_;
+	private static final int DEFAULT_CAPACITY_ = 32;
+	private static final int DEFAULT_CHUNK_ = 8 * 1024;
+	private static final byte[] EMPTY_ = new byte[0];
 
+	private String name_;
+	// UTF-8 name, encoded on first use
+	private byte[] encodedName_;
+	private final BufferPool pool_;
+	private final OutputStream sink_;
+	private byte[] buf_;
+	private int pos_;
+	// bytes already passed on to sink_
+	private long flushed_;
+
+	/**
+	 * Writes are passed on to dst a chunk at a time, and by flush();
+	 * toBytes() is not available.
+	 */
 	public BlockWriter( String blockName, OutputStream dst )
+	{
+		this( blockName, dst, DEFAULT_CHUNK_ );
+	}
+
+	/**
+	 * Buffers at most chunkSize octets; larger fields go to dst directly.
+	 */
+	public BlockWriter( String blockName, OutputStream dst, int chunkSize )
 	{
 		name_ = blockName;
-		output_ = new DataOutputStream( dst );
+		pool_ = null;
+		sink_ = dst;
+		buf_ = new byte[ Math.max(chunkSize, WireFormat.MAX_VARINT_SIZE) ];
 	}
 
 	public BlockWriter( String blockName )
 	{
-		name_ = blockName;	
-		streambuf_ = new ByteArrayOutputStream();
-		output_ = new DataOutputStream( streambuf_ );
+		this( blockName, DEFAULT_CAPACITY_ );
+	}
+
+	public BlockWriter( String blockName, int initialCapacity )
+	{
+		name_ = blockName;
+		pool_ = null;
+		sink_ = null;
+		buf_ = new byte[ Math.max(initialCapacity, 1) ];
+	}
+
+	/**
+	 * Buffers are taken from pool on first write and returned by release().
+	 */
+	public BlockWriter( String blockName, BufferPool pool )
+	{
+		name_ = blockName;
+		pool_ = pool;
+		sink_ = null;
+		buf_ = EMPTY_;
 	}
 
 	@Override
@@ -51,52 +95,128 @@ public class BlockWriter implements OutputBlock
 		return name_;
 	}
 
-	@Override
-	public int size() 
+	byte[] encodedName()
 	{
-		return output_.size();
+		if (encodedName_ == null) {
+			encodedName_ = WireFormat.encodeUtf8( name_ );
+		}
+		return encodedName_;
 	}
 
 	@Override
-	public void writeBool(boolean b) throws PcosError 
+	public long size() 
 	{
-		try
+		return flushed_ + pos_;
+	}
+
+	/**
+	 * Discards written data but keeps the buffer for the next message.
+	 */
+	public void reset()
+	{
+		pos_ = 0;
+		flushed_ = 0;
+	}
+
+	/**
+	 * Like reset(), and the block takes a new name.
+	 */
+	public void reset( String blockName )
+	{
+		reset();
+		if (!blockName.equals( name_ ))
 		{
-			output_.writeBoolean(b);
-		} catch (IOException e)	{
-			throw malformed_;
+			name_ = blockName;
+			encodedName_ = null;
 		}
 	}
 
-	@Override
-	public void writeByte(int v) throws PcosError 
+	/**
+	 * Discards written data and returns the buffer to the pool, if any.
+	 * The writer stays usable; it acquires a new buffer on the next write.
+	 */
+	public void release()
 	{
-		try
+		reset();
+		if (pool_ != null && buf_ != EMPTY_)
 		{
-			output_.write(v);
-		} catch (IOException e)	{
-			throw malformed_;
+			pool_.release( buf_ );
+			buf_ = EMPTY_;
+		}
+	}
+
+	/**
+	 * Like release(), but also drops a buffer not taken from a pool.
+	 */
+	void trim()
+	{
+		release();
+		if (sink_ == null) {
+			buf_ = EMPTY_;
 		}
 	}
 
+	/**
+	 * Octets held by the buffer, written or not.
+	 */
+	int capacity()
+	{
+		return buf_.length;
+	}
+
+	/**
+	 * The backing array; valid bytes are [0, size()). It is exposed without
+	 * copying and is only valid until the next write, reset() or release().
+	 */
+	public byte[] array() throws PcosError
+	{
+		checkBuffered();
+		return buf_;
+	}
+
+	@Override
+	public void writeBool(boolean b) throws PcosError 
+	{
+		writeByte( b ? 1 : 0 );
+	}
+
+	@Override
+	public void writeByte(int v) throws PcosError 
+	{
+		ensureCapacity( 1 );
+		buf_[pos_++] = (byte) v;
+	}
+
 	@Override
 	public void writeBytes(byte[] v) throws PcosError 
 	{
-		try {
-			output_.write(v);
-		} catch (IOException e)	{
-			throw malformed_;
+		writeBytes( v, 0, v.length );
+	}
+
+	@Override
+	public void writeBytes(byte[] v, int off, int len) throws PcosError 
+	{
+		if (sink_ != null && len > buf_.length - pos_)
+		{
+			// larger than what is left of the chunk: straight to the sink
+			drain();
+			for (int n; len > 0; off += n, len -= n)
+			{
+				n = Math.min( len, buf_.length );
+				send( v, off, n );
+			}
+			return;
 		}
+		ensureCapacity( len );
+		System.arraycopy( v, off, buf_, pos_, len );
+		pos_ += len;
 	}
 
 	@Override
 	public void writeDouble(double v) throws PcosError 
 	{
-		try {
-			output_.writeDouble(v);
-		} catch (IOException e)	{
-			throw malformed_;
-		}
+		ensureCapacity( WireFormat.DOUBLE_SIZE );
+		pos_ = WireFormat.putDouble( buf_, pos_, v );
 	}
 
 	@Override
@@ -115,16 +235,41 @@ public class BlockWriter implements OutputBlock
 	@Override
 	public void writeString(String s) throws PcosError 
 	{
-		try
+		if (s == null)
+		{
+			writeUint(0);
+			return;
+		}
+		/* PCOS uses UTF-8 encoding on the wire; encoded in place, after the length */
+		int length = WireFormat.utf8Length( s );
+		if (sink_ != null && WireFormat.MAX_VARINT_SIZE + length > buf_.length - pos_)
 		{
-			/* PCOS uses UTF-8 encoding on the wire */
-			byte[] encoded_str = null;
-			if (s != null) {
-				encoded_str = s.getBytes(ProtocolTag.PROTOCOL_CHARSET);
+			writeVarInt( length );
+			writeUtf8Chunked( s );
+			return;
+		}
+		ensureCapacity( WireFormat.MAX_VARINT_SIZE + length );
+		pos_ = WireFormat.putVarInt( buf_, pos_, length );
+		pos_ = WireFormat.putUtf8( buf_, pos_, s );
+	}
+
+	/**
+	 * Encodes s through the chunk buffer, at most three octets per char.
+	 */
+	private void writeUtf8Chunked( String s ) throws PcosError
+	{
+		final int n = s.length();
+		for (int from = 0; from < n; )
+		{
+			if (buf_.length - pos_ < 6) {
+				drain();
+			}
+			int to = Math.min( n, from + (buf_.length - pos_) / 3 );
+			if (to < n && Character.isHighSurrogate( s.charAt(to - 1) )) {
+				--to;
 			}
-			writeByteStr(encoded_str);
-		} catch (UnsupportedEncodingException e)	{
-			throw new PcosError( PcosErrorCode.ERR_BAD_CHAR_ENCODING, "output string encoding error" );
+			pos_ = WireFormat.putUtf8( buf_, pos_, s, from, to );
+			from = to;
 		}
 	}
 
@@ -132,8 +277,7 @@ public class BlockWriter implements OutputBlock
 	public void writeInt(int val) throws PcosError 
 	{
 		// signed numbers are converted to unsigned according to ZigZag
-		long zz = ( (val << 1) ^ (val >> 31) );
-		writeVarInt( zz );
+		writeVarInt( zigzag(val) );
 	}
 
 	@Override
@@ -146,8 +290,7 @@ public class BlockWriter implements OutputBlock
 	public void writeLong(long val) throws PcosError 
 	{
 		// signed numbers are converted to unsigned according to ZigZag
-		long zz = ( (val << 1) ^ (val >> 63) );
-		writeVarInt( zz );
+		writeVarInt( zigzag(val) );
 	}
 
 	@Override
@@ -156,52 +299,238 @@ public class BlockWriter implements OutputBlock
 		writeVarInt(v);
 	}
 	
-	private final int VARINT_BUFF_POS_LAST_ = 9;
-	private byte[] varIntBuf_ = new byte[ VARINT_BUFF_POS_LAST_+1 ];
-	
-	private void writeVarInt( long val ) throws PcosError
+	@Override
+	public void writeIntArray( int[] src, int off, int count ) throws PcosError
 	{
-		int pos = VARINT_BUFF_POS_LAST_;
-		while (val > 0x7f)
+		long size = 0;
+		for (int i = off; i < off + count; ++i) {
+			size += WireFormat.varIntSize( zigzag(src[i]) );
+		}
+		if (!reserve( size ))
 		{
-			int octet = (int) (val & 0x7f);
-			// first one doesn't need continuation bit --
-			// after reversing it will be last
-			if ( pos !=  VARINT_BUFF_POS_LAST_ )	{
-				octet |= 0x80;
+			for (int i = off; i < off + count; ++i) {
+				writeVarInt( zigzag(src[i]) );
 			}
-
-			varIntBuf_[pos--] = (byte) octet;
-			val >>= 7;
+			return;
+		}
+		final byte[] buf = buf_;
+		int pos = pos_;
+		for (int i = off; i < off + count; ++i) {
+			pos = WireFormat.putVarInt( buf, pos, zigzag(src[i]) );
 		}
+		pos_ = pos;
+	}
+
+	@Override
+	public void writeUintArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeVarIntArray( src, off, count, false );
+	}
+
+	@Override
+	public void writeLongArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeVarIntArray( src, off, count, true );
+	}
+
+	@Override
+	public void writeUlongArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeVarIntArray( src, off, count, false );
+	}
 
-		// deal with last (or only) octet
-		if ( pos ==  VARINT_BUFF_POS_LAST_ ) 
+	@Override
+	public void writeDoubleArray( double[] src, int off, int count ) throws PcosError
+	{
+		if (!reserve( (long) count * WireFormat.DOUBLE_SIZE ))
 		{
-			try	{
-				output_.write( (int) val );
-			} catch (IOException e)	{
-				throw malformed_;
+			for (int i = off; i < off + count; ++i) {
+				writeDouble( src[i] );
 			}
+			return;
+		}
+		final byte[] buf = buf_;
+		int pos = pos_;
+		for (int i = off; i < off + count; ++i) {
+			pos = WireFormat.putDouble( buf, pos, src[i] );
 		}
-		else 
+		pos_ = pos;
+	}
+
+	@Override
+	public void writeIntVarArray( int[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeIntArray( src, off, count );
+	}
+
+	@Override
+	public void writeUintVarArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeUintArray( src, off, count );
+	}
+
+	@Override
+	public void writeLongVarArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeLongArray( src, off, count );
+	}
+
+	@Override
+	public void writeUlongVarArray( long[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeUlongArray( src, off, count );
+	}
+
+	@Override
+	public void writeDoubleVarArray( double[] src, int off, int count ) throws PcosError
+	{
+		writeUint( count );
+		writeDoubleArray( src, off, count );
+	}
+
+	/**
+	 * Sizes the whole batch first, so the buffer grows at most once.
+	 * In stream mode a batch larger than the chunk goes value by value.
+	 */
+	private void writeVarIntArray( long[] src, int off, int count, boolean signed ) throws PcosError
+	{
+		long size = 0;
+		for (int i = off; i < off + count; ++i) {
+			size += WireFormat.varIntSize( signed ? zigzag(src[i]) : src[i] );
+		}
+		if (!reserve( size ))
 		{
-			val |= 0x80;
-			varIntBuf_[pos] = (byte)val;
-			try {
-				output_.write(varIntBuf_, pos, varIntBuf_.length - pos);
-			} catch (IOException e)	{
-				throw malformed_;
+			for (int i = off; i < off + count; ++i) {
+				writeVarInt( signed ? zigzag(src[i]) : src[i] );
 			}
+			return;
+		}
+		final byte[] buf = buf_;
+		int pos = pos_;
+		for (int i = off; i < off + count; ++i) {
+			pos = WireFormat.putVarInt( buf, pos, signed ? zigzag(src[i]) : src[i] );
 		}
+		pos_ = pos;
+	}
+
+	private static long zigzag( int val )
+	{
+		// the 32-bit result is unsigned, hence the mask
+		return ( (val << 1) ^ (val >> 31) ) & 0xffffffffL;
+	}
+
+	private static long zigzag( long val )
+	{
+		return (val << 1) ^ (val >> 63);
+	}
+
+	private void writeVarInt( long val ) throws PcosError
+	{
+		ensureCapacity( WireFormat.MAX_VARINT_SIZE );
+		pos_ = WireFormat.putVarInt( buf_, pos_, val );
 	}
 
 	@Override
 	public byte[] toBytes() throws PcosError
 	{
-		if (streambuf_ != null) {
-			return streambuf_.toByteArray();
+		checkBuffered();
+		return Arrays.copyOf( buf_, pos_ );
+	}
+
+	/**
+	 * Read-only view of the written bytes, sharing the backing array.
+	 */
+	@Override
+	public ByteBuffer asByteBuffer() throws PcosError
+	{
+		checkBuffered();
+		return ByteBuffer.wrap( buf_, 0, pos_ ).asReadOnlyBuffer();
+	}
+
+	private void checkBuffered() throws PcosError
+	{
+		if (sink_ != null) {
+			throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "no access to the underlying datastore" );
+		}
+	}
+
+	/**
+	 * Makes room for an array batch of size octets. False if, in stream
+	 * mode, the batch is larger than the chunk and has to be split.
+	 */
+	private boolean reserve( long size ) throws PcosError
+	{
+		if (sink_ != null)
+		{
+			if (size > buf_.length - pos_) {
+				drain();
+			}
+			return size <= buf_.length;
+		}
+		if (size < 0 || size > Integer.MAX_VALUE - pos_) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "array does not fit in a block" );
+		}
+		ensureCapacity( (int) size );
+		return true;
+	}
+
+	/**
+	 * In stream mode extra never exceeds the chunk; a full chunk is drained.
+	 */
+	private void ensureCapacity( int extra ) throws PcosError
+	{
+		if (sink_ != null)
+		{
+			if (extra > buf_.length - pos_) {
+				drain();
+			}
+			return;
+		}
+		int needed = pos_ + extra;
+		if (needed > buf_.length)
+		{
+			int capacity = Math.max( needed, Math.max(buf_.length << 1, DEFAULT_CAPACITY_) );
+			byte[] grown = (pool_ != null) ? pool_.acquire( capacity ) : new byte[capacity];
+			System.arraycopy( buf_, 0, grown, 0, pos_ );
+			if (pool_ != null && buf_ != EMPTY_) {
+				pool_.release( buf_ );
+			}
+			buf_ = grown;
+		}
+	}
+
+	/**
+	 * In stream mode, passes buffered bytes on to the sink; size() is
+	 * unaffected. Does nothing for a buffered block.
+	 */
+	public void flush() throws PcosError
+	{
+		if (sink_ != null) {
+			drain();
+		}
+	}
+
+	private void drain() throws PcosError
+	{
+		if (pos_ > 0)
+		{
+			send( buf_, 0, pos_ );
+			pos_ = 0;
+		}
+	}
+
+	private void send( byte[] v, int off, int len ) throws PcosError
+	{
+		try {
+			sink_.write( v, off, len );
+		}
+		catch (IOException e) {
+			throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "cannot write block " + name_, e );
 		}
-		throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "no access to the underlying datastore" );
+		flushed_ += len;
 	}
 }
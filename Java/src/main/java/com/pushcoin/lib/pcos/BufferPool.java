@@ -0,0 +1,105 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+/**
+ * Pool of byte arrays backing BlockWriters.
+ *
+ * Arrays come in power-of-two sizes between minSize and maxSize; each size
+ * keeps up to buffersPerSize free arrays. Requests above maxSize are served
+ * with plain allocations and dropped on release. Safe for concurrent use.
+ */
+public class BufferPool
+{
+	private final int minShift_, maxShift_;
+	private final byte[][][] free_;
+	private final int[] count_;
+
+	public BufferPool()
+	{
+		this( 64, 1 << 20, 32 );
+	}
+
+	public BufferPool( int minSize, int maxSize, int buffersPerSize )
+	{
+		if (minSize <= 0 || maxSize < minSize || maxSize > (1 << 30) || buffersPerSize < 0) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "invalid buffer pool limits" );
+		}
+		minShift_ = shiftFor( minSize );
+		maxShift_ = shiftFor( maxSize );
+		free_ = new byte[maxShift_ - minShift_ + 1][buffersPerSize][];
+		count_ = new int[free_.length];
+	}
+
+	/**
+	 * Returns an array of at least the requested capacity. Contents are undefined.
+	 */
+	public byte[] acquire( int capacity )
+	{
+		int shift = Math.max( minShift_, shiftFor(capacity) );
+		if (shift > maxShift_) {
+			return new byte[capacity];
+		}
+		int cls = shift - minShift_;
+		byte[][] stack = free_[cls];
+		synchronized (stack)
+		{
+			int n = count_[cls];
+			if (n > 0)
+			{
+				byte[] buf = stack[--n];
+				stack[n] = null;
+				count_[cls] = n;
+				return buf;
+			}
+		}
+		return new byte[1 << shift];
+	}
+
+	/**
+	 * Hands an array back. Arrays which did not come from acquire(), or which
+	 * would overflow the pool, are left to the garbage collector.
+	 */
+	public void release( byte[] buf )
+	{
+		if (buf == null || Integer.bitCount(buf.length) != 1) {
+			return;
+		}
+		int shift = shiftFor( buf.length );
+		if (shift < minShift_ || shift > maxShift_) {
+			return;
+		}
+		int cls = shift - minShift_;
+		byte[][] stack = free_[cls];
+		synchronized (stack)
+		{
+			int n = count_[cls];
+			if (n < stack.length)
+			{
+				stack[n] = buf;
+				count_[cls] = n + 1;
+			}
+		}
+	}
+
+	private static int shiftFor( int capacity )
+	{
+		return capacity <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros( capacity - 1 );
+	}
+}
@@ -0,0 +1,725 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * InputBlock reading straight from a ByteBuffer (heap, direct or read-only).
+ *
+ * Offsets are absolute buffer indexes; the buffer's own position, limit and
+ * byte order are never modified, so one buffer can back many readers.
+ */
+public class ByteBufferBlockReader implements InputBlock
+{
+	private static final int TYPE_WIRE_SIZE_DOUBLE = 8;
+	private static final String MALFORMED_ERR_ = "run out of input bytes - incomplete or corrupted message";
+	private ByteBuffer input_;
+	private int end_, beg_;
+	private String name_;
+	// UTF-8 name, decoded into name_ on first use
+	private byte[] nameSrc_;
+	private int nameOff_, nameLen_;
+	private int offset_;
+
+	// after a word of mixed widths, bytes readVarIntArray() decodes value by value
+	private static final int MIXED_RUN_ = 64;
+	// values decoded in bulk without a bounds check of their own; counted with assertions enabled only, for the tests
+	static long batchedValues_;
+
+	/**
+	 * Reads bytes between the buffer's current position and its limit.
+	 */
+	public ByteBufferBlockReader(ByteBuffer input, String name)
+	{
+		this(input, input.position(), input.remaining(), name);
+	}
+
+	public ByteBufferBlockReader(ByteBuffer input, int offset, int len, String name)
+	{
+		reset(input, offset, len, name);
+	}
+
+	/**
+	 * Unbound cursor, to be pointed at a block with reset().
+	 */
+	ByteBufferBlockReader()
+	{
+	}
+
+	/**
+	 * Re-points this reader at another block, so one instance can serve
+	 * any number of messages.
+	 */
+	public void reset(ByteBuffer input, int offset, int len, String name)
+	{
+		input_ = input;
+		beg_ = offset;
+		end_ = beg_ + len;
+		name_ = name;
+		nameSrc_ = null;
+		offset_ = offset;
+	}
+
+	void reset(ByteBuffer input, int offset, int len, byte[] nameSrc, int nameOff, int nameLen)
+	{
+		reset(input, offset, len, null);
+		nameSrc_ = nameSrc;
+		nameOff_ = nameOff;
+		nameLen_ = nameLen;
+	}
+
+	/**
+	 * Direct and read-only buffers have no accessible array, in which case
+	 * the inspected region is copied.
+	 */
+	@Override
+	public boolean inspect( Inspector inspector ) throws PcosError {
+		if (input_.hasArray()) {
+			return inspector.inspect(input_.array(), input_.arrayOffset() + offset_, end_ - offset_);
+		}
+		byte[] copy = new byte[end_ - offset_];
+		copyTo(copy, offset_);
+		return inspector.inspect(copy, 0, copy.length);
+	}
+
+	@Override
+	public boolean readBool() throws PcosError
+	{
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws PcosError
+	{
+		if (end_ - offset_ > 0)
+		{
+			return input_.get(offset_++);
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public byte[] readBytes(long length) throws PcosError
+	{
+		if (length == 0) {
+			return null;
+		}
+		if (end_ - offset_ >= length)
+		{
+			byte[] val = new byte[(int) length];
+			copyTo(val, offset_);
+			offset_ += length;
+			return val;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void readBytes(byte[] dst, int off, int len) throws PcosError
+	{
+		if (end_ - offset_ >= len)
+		{
+			ByteBuffer view = input_.duplicate();
+			view.position(offset_);
+			view.get(dst, off, len);
+			offset_ += len;
+			return;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipBytes(long length) throws PcosError
+	{
+		if (end_ - offset_ >= length)
+		{
+			offset_ += length;
+			return;
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public ByteBuffer readBytesView(long length) throws PcosError
+	{
+		if (length == 0) {
+			return null;
+		}
+		if (end_ - offset_ >= length)
+		{
+			ByteBuffer val = input_.asReadOnlyBuffer();
+			val.limit(offset_ + (int) length).position(offset_);
+			offset_ += length;
+			return val.slice();
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipVarInt() throws PcosError
+	{
+		int pos = offset_;
+		final int limit = Math.min(end_, pos + WireFormat.MAX_VARINT_SIZE);
+		while (pos < limit)
+		{
+			if (input_.get(pos++) >= 0)
+			{
+				offset_ = pos;
+				return;
+			}
+		}
+
+		throw malformed();
+	}
+
+	@Override
+	public void skipByteStr() throws PcosError
+	{
+		skipBytes(readUint());
+	}
+
+	@Override
+	public void skipDouble() throws PcosError
+	{
+		skipBytes(TYPE_WIRE_SIZE_DOUBLE);
+	}
+
+	@Override
+	public byte[] readByteStr(long maxlen) throws PcosError
+	{
+		return readBytes(readByteStrLength(maxlen));
+	}
+
+	@Override
+	public ByteBuffer readByteStrView(long maxlen) throws PcosError
+	{
+		return readBytesView(readByteStrLength(maxlen));
+	}
+
+	private long readByteStrLength(long maxlen) throws PcosError
+	{
+		long length = readUint();
+		if (maxlen != 0 && length > maxlen)
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input byte-sequence exceeds max length" );
+		return length;
+	}
+
+	@Override
+	public double readDouble() throws PcosError
+	{
+		if (end_ - offset_ >= TYPE_WIRE_SIZE_DOUBLE)
+		{
+			// assembled by hand: PCOS doubles are big-endian regardless of buffer order
+			long bits = 0;
+			for (int i = 0; i < TYPE_WIRE_SIZE_DOUBLE; ++i) {
+				bits = (bits << 8) | (input_.get(offset_++) & 0xff);
+			}
+			return Double.longBitsToDouble(bits);
+		}
+
+		throw malformed();
+	}
+
+	private long readVarInt( int max_octets ) throws PcosError
+	{
+		final ByteBuffer input = input_;
+		int pos = offset_;
+		final int limit = Math.min(end_, pos + max_octets);
+		long val = 0;
+		while (pos < limit)
+		{
+			int octet = input.get(pos++);
+			val |= (octet & 0x7f);
+			// check if there is more...
+			if ( (octet & 0x80) == 0 )
+			{
+				offset_ = pos;
+				return val;
+			}
+			val <<= 7;
+		}
+
+		// ran out of input or octets allowed for the type
+		throw malformed();
+	}
+
+	@Override
+	public int readInt() throws PcosError
+	{
+		// signed int is encoded as unsigned int
+		long val = readUint();
+		// ..but requires un-ZigZag
+		return (int) ((val >> 1) ^ (-(val & 1)));
+	}
+
+	@Override
+	public long readUint() throws PcosError
+	{
+		return readVarInt( 5 ); // 5 => max bytes uint can take on the wire
+	}
+
+	@Override
+	public long readLong() throws PcosError
+	{
+		// signed int is encoded as unsigned int
+		long val = readUlong();
+		// ..but requires un-ZigZag
+		return (val >>> 1) ^ (-(val & 1));
+	}
+
+	@Override
+	public long readUlong() throws PcosError
+	{
+		return readVarInt( 10 ); // 10 => max bytes ulong can take on the wire
+	}
+
+	@Override
+	public void readIntArray(int[] dst, int off, int count) throws PcosError
+	{
+		final int end = off + count;
+		int i = off;
+		while (i < end)
+		{
+			// as many values as fit in the rest of the block at 5 octets each need no check of their own
+			int chunk = Math.min( end - i, (end_ - offset_) / 5 );
+			if (chunk == 0)
+			{
+				dst[i++] = readInt();
+				continue;
+			}
+			for (final int stop = i + chunk; i < stop; ++i)
+			{
+				long val = readVarIntUnchecked( 5 );
+				dst[i] = (int) ((val >> 1) ^ (-(val & 1)));
+			}
+			assert (batchedValues_ += chunk) > 0;
+		}
+	}
+
+	@Override
+	public void readUintArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 5 );
+	}
+
+	@Override
+	public void readLongArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 10 );
+		for (int i = off; i < off + count; ++i)
+		{
+			long val = dst[i];
+			dst[i] = (val >>> 1) ^ (-(val & 1));
+		}
+	}
+
+	@Override
+	public void readUlongArray(long[] dst, int off, int count) throws PcosError
+	{
+		readVarIntArray( dst, off, count, 10 );
+	}
+
+	@Override
+	public void readDoubleArray(double[] dst, int off, int count) throws PcosError
+	{
+		if (!fits( count, TYPE_WIRE_SIZE_DOUBLE )) {
+			throw malformed();
+		}
+		final ByteBuffer input = input_;
+		final boolean swap = input.order() != ByteOrder.BIG_ENDIAN;
+		int pos = offset_;
+		for (int i = off; i < off + count; ++i, pos += TYPE_WIRE_SIZE_DOUBLE)
+		{
+			long bits = input.getLong(pos);
+			dst[i] = Double.longBitsToDouble( swap ? Long.reverseBytes(bits) : bits );
+		}
+		offset_ = pos;
+	}
+
+	@Override
+	public int readIntVarArray(int[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readIntArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUintVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUintArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readLongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readLongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUlongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUlongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readDoubleVarArray(double[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readDoubleArray( dst, off, count );
+		return count;
+	}
+
+	private int readArrayLength(int room) throws PcosError
+	{
+		long count = readUint();
+		if (count > room)
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input array exceeds destination length" );
+		return (int) count;
+	}
+
+	/**
+	 * As in BlockReader: whole words of 1-octet or 2-octet values are split
+	 * at once with one bounds check per word; after a word of other widths
+	 * the next MIXED_RUN_ bytes are read value by value.
+	 */
+	private void readVarIntArray(long[] dst, int off, int count, int max_octets) throws PcosError
+	{
+		final ByteBuffer input = input_;
+		final boolean swap = input.order() != ByteOrder.BIG_ENDIAN;
+		final int end = off + count;
+		final int limit = end_;
+		int pos = offset_;
+		int i = off;
+		while (end - i >= 4 && limit - pos >= 8)
+		{
+			long word = input.getLong( pos );
+			if (swap) {
+				word = Long.reverseBytes( word );
+			}
+			long cont = word & 0x8080808080808080L;
+			if (cont == 0 && end - i >= 8)
+			{
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					dst[i++] = (word >>> shift) & 0x7f;
+				}
+				pos += 8;
+				assert (batchedValues_ += 8) > 0;
+			}
+			else if (cont == 0x8000800080008000L)
+			{
+				for (int shift = 48; shift >= 0; shift -= 16) {
+					dst[i++] = ((word >>> (shift + 1)) & 0x3f80) | ((word >>> shift) & 0x7f);
+				}
+				pos += 8;
+				assert (batchedValues_ += 4) > 0;
+			}
+			else
+			{
+				offset_ = pos;
+				i = readMixedRun( dst, i, end, max_octets );
+				pos = offset_;
+			}
+		}
+		offset_ = pos;
+		while (i < end) {
+			dst[i++] = readVarInt( max_octets );
+		}
+	}
+
+	/**
+	 * Values starting in the MIXED_RUN_ bytes at offset_, into dst from i;
+	 * returns the next index.
+	 */
+	private int readMixedRun(long[] dst, int i, int end, int max_octets) throws PcosError
+	{
+		final int stop = offset_ + MIXED_RUN_;
+		if (max_octets == 5)
+		{
+			while (i < end && offset_ < stop) {
+				dst[i++] = readUint();
+			}
+		}
+		else
+		{
+			while (i < end && offset_ < stop) {
+				dst[i++] = readUlong();
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Decodes a varint the caller has made sure is within bounds.
+	 */
+	private long readVarIntUnchecked( int max_octets ) throws PcosError
+	{
+		final ByteBuffer input = input_;
+		final int pos = offset_;
+		int octet = input.get(pos);
+		if (octet >= 0)
+		{
+			offset_ = pos + 1;
+			return octet;
+		}
+		long val = octet & 0x7f;
+		for (int i = 1; i < max_octets; ++i)
+		{
+			octet = input.get(pos + i);
+			val = (val << 7) | (octet & 0x7f);
+			if (octet >= 0)
+			{
+				offset_ = pos + i + 1;
+				return val;
+			}
+		}
+		// too many octets for the type
+		throw malformed();
+	}
+
+	private boolean fits(int count, int width)
+	{
+		return (long) count * width <= end_ - offset_;
+	}
+
+	@Override
+	public String readString(long maxlen) throws PcosError
+	{
+		if (!input_.hasArray()) {
+			return WireFormat.decodeUtf8( readByteStr( maxlen ) );
+		}
+		// decoded straight out of the backing array, without an intermediate byte[]
+		long length = readByteStrLength( maxlen );
+		skipBytes( length );
+		return WireFormat.decodeUtf8( input_.array(), input_.arrayOffset() + offset_ - (int) length, (int) length );
+	}
+
+	@Override
+	public Utf8View readUtf8View(long maxlen) throws PcosError
+	{
+		long length = readByteStrLength( maxlen );
+		if (length == 0) {
+			return null;
+		}
+		skipBytes( length );
+		if (input_.hasArray()) {
+			return new Utf8View( input_.array(), input_.arrayOffset() + offset_ - (int) length, (int) length );
+		}
+		return new Utf8View( input_, offset_ - (int) length, (int) length );
+	}
+
+	@Override
+	public boolean tryReadBool(DecodeStatus status)
+	{
+		return tryReadByte(status) != 0;
+	}
+
+	@Override
+	public byte tryReadByte(DecodeStatus status)
+	{
+		if (end_ - offset_ > 0 && status.ok())
+		{
+			return input_.get(offset_++);
+		}
+
+		return (byte) fail(status);
+	}
+
+	@Override
+	public int tryReadInt(DecodeStatus status)
+	{
+		long val = tryReadUint(status);
+		return (int) ((val >> 1) ^ (-(val & 1)));
+	}
+
+	@Override
+	public long tryReadUint(DecodeStatus status)
+	{
+		return tryReadVarInt(5, status);
+	}
+
+	@Override
+	public long tryReadLong(DecodeStatus status)
+	{
+		long val = tryReadUlong(status);
+		return (val >>> 1) ^ (-(val & 1));
+	}
+
+	@Override
+	public long tryReadUlong(DecodeStatus status)
+	{
+		return tryReadVarInt(10, status);
+	}
+
+	@Override
+	public double tryReadDouble(DecodeStatus status)
+	{
+		if (end_ - offset_ >= TYPE_WIRE_SIZE_DOUBLE && status.ok())
+		{
+			long bits = 0;
+			for (int i = 0; i < TYPE_WIRE_SIZE_DOUBLE; ++i) {
+				bits = (bits << 8) | (input_.get(offset_++) & 0xff);
+			}
+			return Double.longBitsToDouble(bits);
+		}
+
+		return fail(status);
+	}
+
+	@Override
+	public boolean trySkipBytes(long length, DecodeStatus status)
+	{
+		if (length >= 0 && end_ - offset_ >= length && status.ok())
+		{
+			offset_ += length;
+			return true;
+		}
+
+		fail(status);
+		return false;
+	}
+
+	@Override
+	public byte[] tryReadBytes(long length, DecodeStatus status)
+	{
+		if (length >= 0 && end_ - offset_ >= length && status.ok())
+		{
+			if (length == 0) {
+				return null;
+			}
+			byte[] val = new byte[(int) length];
+			copyTo(val, offset_);
+			offset_ += length;
+			return val;
+		}
+
+		fail(status);
+		return null;
+	}
+
+	@Override
+	public byte[] tryReadByteStr(long maxlen, DecodeStatus status)
+	{
+		return tryReadBytes(tryReadByteStrLength(maxlen, status), status);
+	}
+
+	@Override
+	public String tryReadString(long maxlen, DecodeStatus status)
+	{
+		if (!input_.hasArray()) {
+			return WireFormat.decodeUtf8( tryReadByteStr( maxlen, status ) );
+		}
+		long length = tryReadByteStrLength( maxlen, status );
+		if (!trySkipBytes( length, status )) {
+			return null;
+		}
+		return WireFormat.decodeUtf8( input_.array(), input_.arrayOffset() + offset_ - (int) length, (int) length );
+	}
+
+	private long tryReadByteStrLength(long maxlen, DecodeStatus status)
+	{
+		int at = readingPosition();
+		long length = tryReadUint(status);
+		if (maxlen != 0 && length > maxlen)
+		{
+			status.fail( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, at, "input byte-sequence exceeds max length" );
+			return 0;
+		}
+		return length;
+	}
+
+	private long tryReadVarInt( int max_octets, DecodeStatus status )
+	{
+		if (status.ok())
+		{
+			final ByteBuffer input = input_;
+			int pos = offset_;
+			final int limit = Math.min(end_, pos + max_octets);
+			long val = 0;
+			while (pos < limit)
+			{
+				int octet = input.get(pos++);
+				val |= (octet & 0x7f);
+				if ( (octet & 0x80) == 0 )
+				{
+					offset_ = pos;
+					return val;
+				}
+				val <<= 7;
+			}
+		}
+
+		return fail(status);
+	}
+
+	private int fail(DecodeStatus status)
+	{
+		status.fail(PcosErrorCode.ERR_MALFORMED_MESSAGE, offset_, MALFORMED_ERR_);
+		return 0;
+	}
+
+	@Override
+	public int readingPosition()
+	{
+		return offset_;
+	}
+
+	@Override
+	public String name()
+	{
+		if (name_ == null && nameSrc_ != null) {
+			name_ = WireFormat.decodeUtf8(nameSrc_, nameOff_, nameLen_);
+		}
+		return name_;
+	}
+
+	@Override
+	public int size()
+	{
+		return end_ - beg_;
+	}
+
+	private static PcosError malformed()
+	{
+		return PcosError.stackless( PcosErrorCode.ERR_MALFORMED_MESSAGE, MALFORMED_ERR_ );
+	}
+
+	/**
+	 * Bulk copy starting at an absolute index, leaving input_ untouched.
+	 */
+	private void copyTo(byte[] dst, int from)
+	{
+		ByteBuffer view = input_.duplicate();
+		view.position(from);
+		view.get(dst);
+	}
+}
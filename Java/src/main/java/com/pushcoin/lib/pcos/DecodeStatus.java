@@ -0,0 +1,109 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+/**
+ * Outcome of the non-throwing tryXxx decode calls, for input where
+ * malformed data is routine and exceptions would cost too much.
+ *
+ * A status starts out ok. The first failure records its error code, the
+ * input offset at which the failing read started (as readingPosition()
+ * reports it) and a reason; later failures leave these unchanged. tryXxx
+ * calls on a failed status do nothing and return 0 or false, so a run of
+ * reads can be checked once at the end. Reuse an instance with clear();
+ * it is not thread-safe.
+ */
+public final class DecodeStatus
+{
+	private PcosErrorCode error_;
+	private int offset_;
+	private String reason_;
+
+	public boolean ok()
+	{
+		return error_ == null;
+	}
+
+	/**
+	 * The first error, or null while ok.
+	 */
+	public PcosErrorCode error()
+	{
+		return error_;
+	}
+
+	public int offset()
+	{
+		return offset_;
+	}
+
+	public String reason()
+	{
+		return reason_;
+	}
+
+	public DecodeStatus clear()
+	{
+		error_ = null;
+		offset_ = 0;
+		reason_ = null;
+		return this;
+	}
+
+	/**
+	 * Records a failure unless one is recorded already. Always returns
+	 * false, so a decoder can end with return status.fail(...).
+	 */
+	public boolean fail(PcosErrorCode error, int offset, String reason)
+	{
+		if (error_ == null)
+		{
+			error_ = error;
+			offset_ = offset;
+			reason_ = reason;
+		}
+		return false;
+	}
+
+	/**
+	 * Throws the recorded failure as a PcosError, if any. The error has no
+	 * stack trace, so checking a failed decode stays cheap.
+	 */
+	public void check() throws PcosError
+	{
+		if (error_ != null) {
+			throw PcosError.stackless( error_, reason_ );
+		}
+	}
+
+	/**
+	 * Moves a failure just recorded by a reader of a slice of the input to
+	 * the position it has in the whole input.
+	 */
+	void relocate(int offset)
+	{
+		offset_ = offset;
+	}
+
+	@Override
+	public String toString()
+	{
+		return ok() ? "ok" : error_ + " at " + offset_ + ": " + reason_;
+	}
+}
@@ -0,0 +1,160 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+/**
+ * What DocumentReader.peek() learns about a message without parsing it:
+ * flags, message id, block count and where the data-segment starts.
+ *
+ * Instances are meant to be reused; peeking into one allocates nothing.
+ */
+public class DocumentHeader
+{
+	private final BlockReader cursor_ = new BlockReader();
+	private final HeaderParser parser_ = new HeaderParser();
+	private final DecodeStatus status_ = new DecodeStatus();
+	private byte[] input_ = WireFormat.EMPTY;
+	private int offset_;
+	private byte flags_;
+	private int messageIdOffset_, messageIdLength_;
+	private long blockCount_;
+	private int dataOffset_;
+	private long messageLength_;
+
+	// last message id handed out by getMessageId()
+	private byte[] lastId_ = new byte[16];
+	private int lastIdLength_ = -1;
+	private String lastIdString_;
+
+	/**
+	 * Reads header and data-segment enumeration of the message found in
+	 * input[offset, offset+length). Block data is not touched.
+	 */
+	void parse(byte[] input, int offset, int length) throws PcosError
+	{
+		if (input == null || length < ProtocolTag.MIN_MESSAGE_LENGTH) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Empty or truncated message");
+		}
+		BlockReader in = cursor_;
+		in.reset( input, offset, length, "Hd" );
+		HeaderParser header = parser_;
+		header.reset( offset );
+		if (!header.parse( in, offset + length, false, status_.clear() )) {
+			throw new PcosError( status_.error(), status_.reason() );
+		}
+
+		input_ = input;
+		offset_ = offset;
+		flags_ = header.flags();
+		messageIdOffset_ = header.idOffset();
+		messageIdLength_ = header.idLength();
+		blockCount_ = header.blockCount();
+		dataOffset_ = header.position();
+		messageLength_ = header.messageLength();
+	}
+
+	public byte[] getInput()
+	{
+		return input_;
+	}
+
+	/**
+	 * Where the message starts within getInput().
+	 */
+	public int getOffset()
+	{
+		return offset_;
+	}
+
+	public byte getFlags()
+	{
+		return flags_;
+	}
+
+	/**
+	 * Position of the UTF-8 message id within getInput().
+	 */
+	public int getMessageIdOffset()
+	{
+		return messageIdOffset_;
+	}
+
+	public int getMessageIdLength()
+	{
+		return messageIdLength_;
+	}
+
+	public long getBlockCount()
+	{
+		return blockCount_;
+	}
+
+	/**
+	 * Position of the first block within getInput().
+	 */
+	public int getDataOffset()
+	{
+		return dataOffset_;
+	}
+
+	/**
+	 * Size of the whole message according to its enumeration, which can be
+	 * more than what was peeked at when the message is incomplete.
+	 */
+	public long getMessageLength()
+	{
+		return messageLength_;
+	}
+
+	public boolean messageIdEquals(byte[] utf8)
+	{
+		return utf8.length == messageIdLength_
+			&& WireFormat.bytesEqual(input_, messageIdOffset_, utf8, 0, messageIdLength_);
+	}
+
+	/**
+	 * Message id as an interned String. Consecutive messages with the same
+	 * id share one instance without decoding it again.
+	 */
+	public String getMessageId()
+	{
+		if (messageIdLength_ == 0) {
+			return null;
+		}
+		if (lastIdLength_ != messageIdLength_
+			|| !WireFormat.bytesEqual(input_, messageIdOffset_, lastId_, 0, messageIdLength_))
+		{
+			if (lastId_.length < messageIdLength_) {
+				lastId_ = new byte[messageIdLength_];
+			}
+			System.arraycopy(input_, messageIdOffset_, lastId_, 0, messageIdLength_);
+			lastIdLength_ = messageIdLength_;
+			lastIdString_ = WireFormat.decodeUtf8(input_, messageIdOffset_, messageIdLength_).intern();
+		}
+		return lastIdString_;
+	}
+
+	/**
+	 * Hash of the raw message id, as used by MessageDispatcher.
+	 */
+	int messageIdHash()
+	{
+		return WireFormat.hash(input_, messageIdOffset_, messageIdLength_);
+	}
+}
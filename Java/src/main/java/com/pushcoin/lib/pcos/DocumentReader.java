@@ -18,36 +18,67 @@
 
 package com.pushcoin.lib.pcos;
 
-import java.util.AbstractList;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
 
+/**
+ * Parses a PCOS message and gives access to its blocks.
+ *
+ * A reader can be re-pointed at further messages with reset(). The block
+ * directory and the block readers it hands out are kept and reused, so a
+ * long-lived instance (one per thread or connection) parses messages without
+ * allocating. Blocks returned by getBlock() are only valid until the next reset().
+ */
 public class DocumentReader implements InputDocument 
 {
-	private String magic_;
+	private static final String MAGIC_ = "PCOS";
+	private static final int INITIAL_BLOCKS_ = 8;
+
 	private byte pcosFlags_;
-	private String documentName_;
 	private long blockCount_;
-	private Map<String, InputBlock> blocks_ = new TreeMap<String, InputBlock>();
+	private int messageLength_;
 
-	private final class BlockMeta 
-	{
-		public long length;
-		public String name;
-	}
+	// Names are UTF-8 byte ranges within names_, which is the input array or,
+	// for buffers without one, a copy of the header in headerCopy_.
+	private byte[] names_ = WireFormat.EMPTY;
+	private byte[] headerCopy_ = WireFormat.EMPTY;
+	private int documentNameOff_, documentNameLen_;
+	private String documentName_;
+
+	// Block directory, in order of appearance
+	private int[] nameOffsets_ = new int[INITIAL_BLOCKS_];
+	private int[] nameLengths_ = new int[INITIAL_BLOCKS_];
+	private int[] blockOffsets_ = new int[INITIAL_BLOCKS_];
+	private int[] blockLengths_ = new int[INITIAL_BLOCKS_];
+	private InputBlock[] cursors_ = new InputBlock[INITIAL_BLOCKS_];
+	private int[] nameHashes_ = new int[INITIAL_BLOCKS_];
+	private Map<String, InputBlock> blocks_;
+
+	// Open-addressed index over the directory: slot holds block index + 1,
+	// or 0 when empty. Sized to a power of two at least twice the block count.
+	private int[] slots_ = new int[INITIAL_BLOCKS_ * 2];
+	private int slotMask_;
+
+	private final DirectoryParser parser_ = new DirectoryParser();
+	private final BlockReader arrayHeader_ = new BlockReader();
+	private ByteBufferBlockReader bufferHeader_;
+	private DecodeStatus status_;
 
 	@Override
 	public String getMagic()
 	{
-		return magic_;
+		return MAGIC_;
 	}
 
 	@Override
 	public String getDocumentName()
 	{
+		if (documentName_ == null) {
+			documentName_ = WireFormat.decodeUtf8(names_, documentNameOff_, documentNameLen_);
+		}
 		return documentName_;
 	}
 
@@ -57,10 +88,45 @@ public class DocumentReader implements InputDocument
 		return blockCount_;
 	}
 
+	/**
+	 * Protocol flags of the message; the reader does not interpret them.
+	 */
+	public byte getFlags()
+	{
+		return pcosFlags_;
+	}
+
+	/**
+	 * Bytes the parsed message takes, header included. Anything in the
+	 * input past that belongs to the next message.
+	 */
+	public int getMessageLength()
+	{
+		return messageLength_;
+	}
+
+	/**
+	 * Built on first call after each reset().
+	 */
 	@Override
 	public Map<String, InputBlock> getBlocks() 
 	{
-		return Collections.unmodifiableMap(blocks_);
+		if (blocks_ == null)
+		{
+			Map<String, InputBlock> blocks = new TreeMap<String, InputBlock>();
+			for (int i = 0; i < blockCount_; ++i) {
+				blocks.put( cursors_[i].name(), cursors_[i] );
+			}
+			blocks_ = Collections.unmodifiableMap(blocks);
+		}
+		return blocks_;
+	}
+
+	/**
+	 * Empty reader, to be pointed at messages with reset().
+	 */
+	public DocumentReader()
+	{
 	}
 
 	public DocumentReader(byte[] input, int length) throws PcosError
@@ -68,7 +134,7 @@ public class DocumentReader implements InputDocument
 		if (input == null || input.length < ProtocolTag.MIN_MESSAGE_LENGTH) {
 			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Empty or truncated message");
 		}
-		parseBytes(input, length);
+		parseBytes(input, 0, length);
 	}
 
 	public DocumentReader(byte[] input) throws PcosError
@@ -76,69 +142,364 @@ public class DocumentReader implements InputDocument
 		if (input == null || input.length < ProtocolTag.MIN_MESSAGE_LENGTH) {
 			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Empty or truncated message");
 		}
-		parseBytes(input, input.length);
+		parseBytes(input, 0, input.length);
+	}
+
+	public DocumentReader(byte[] input, int offset, int length) throws PcosError
+	{
+		reset(input, offset, length);
+	}
+
+	/**
+	 * Parses the message between the buffer's position and limit without
+	 * copying it. Blocks read straight from the buffer, which must stay
+	 * unchanged while the document is in use; its position is not modified.
+	 */
+	public DocumentReader(ByteBuffer input) throws PcosError
+	{
+		reset(input);
+	}
+
+	/**
+	 * Parses the message found in input[offset, offset+length), replacing
+	 * whatever this reader held before.
+	 */
+	public DocumentReader reset(byte[] input, int offset, int length) throws PcosError
+	{
+		DecodeStatus status = status();
+		if (!tryParse(input, offset, length, status)) {
+			throw new PcosError( status.error(), status.reason() );
+		}
+		return this;
+	}
+
+	/**
+	 * Non-throwing reset(byte[], int, int): if the message is malformed,
+	 * records why and where in status and returns false; the reader must
+	 * then not be read until a parse succeeds. Does nothing on a failed
+	 * status.
+	 */
+	public boolean tryParse(byte[] input, int offset, int length, DecodeStatus status)
+	{
+		if (!status.ok()) {
+			return false;
+		}
+		if (input == null || length < ProtocolTag.MIN_MESSAGE_LENGTH) {
+			return status.fail( PcosErrorCode.ERR_MALFORMED_MESSAGE, offset, "Empty or truncated message" );
+		}
+		return parseBytes(input, offset, length, status);
+	}
+
+	/**
+	 * Parses the message between the buffer's position and limit, replacing
+	 * whatever this reader held before. See DocumentReader(ByteBuffer).
+	 */
+	public DocumentReader reset(ByteBuffer input) throws PcosError
+	{
+		DecodeStatus status = status();
+		if (!tryParse(input, status)) {
+			throw new PcosError( status.error(), status.reason() );
+		}
+		return this;
+	}
+
+	/**
+	 * Non-throwing reset(ByteBuffer); see tryParse(byte[], int, int, DecodeStatus).
+	 * Offsets in status are buffer indexes.
+	 */
+	public boolean tryParse(ByteBuffer input, DecodeStatus status)
+	{
+		if (!status.ok()) {
+			return false;
+		}
+		if (input == null || input.remaining() < ProtocolTag.MIN_MESSAGE_LENGTH) {
+			return status.fail( PcosErrorCode.ERR_MALFORMED_MESSAGE, input == null ? 0 : input.position(), "Empty or truncated message" );
+		}
+		if (input.hasArray())
+		{
+			if (parseBytes(input.array(), input.arrayOffset() + input.position(), input.remaining(), status)) {
+				return true;
+			}
+			status.relocate(status.offset() - input.arrayOffset());
+			return false;
+		}
+
+		if (bufferHeader_ == null) {
+			bufferHeader_ = new ByteBufferBlockReader();
+		}
+		bufferHeader_.reset(input, input.position(), input.remaining(), "Hd");
+		int data_offset = parse(bufferHeader_, input.limit(), status);
+		if (data_offset < 0) {
+			return false;
+		}
+
+		// keep a copy of the (short) header so that names can be compared and
+		// decoded as byte ranges; block data stays in the buffer
+		int header_len = data_offset - input.position();
+		if (headerCopy_.length < header_len) {
+			headerCopy_ = new byte[header_len];
+		}
+		ByteBuffer view = input.duplicate();
+		view.get(headerCopy_, 0, header_len);
+		names_ = headerCopy_;
+		documentNameOff_ -= input.position();
+
+		for (int i = 0; i < blockCount_; ++i)
+		{
+			nameOffsets_[i] -= input.position();
+			ByteBufferBlockReader cursor = (cursors_[i] instanceof ByteBufferBlockReader)
+				? (ByteBufferBlockReader) cursors_[i] : new ByteBufferBlockReader();
+			cursor.reset(input, blockOffsets_[i], blockLengths_[i], names_, nameOffsets_[i], nameLengths_[i]);
+			cursors_[i] = cursor;
+		}
+		buildIndex();
+		return true;
+	}
+
+	/**
+	 * Validates the magic of the message in input[offset, offset+length)
+	 * and reads its flags, id and block enumeration into header, without creating a
+	 * DocumentReader. Meant for routing, see MessageDispatcher.
+	 */
+	public static DocumentHeader peek(byte[] input, int offset, int length, DocumentHeader header) throws PcosError
+	{
+		header.parse(input, offset, length);
+		return header;
 	}
 
 	@Override
 	public InputBlock getBlock(String name) throws PcosError 
 	{
-		InputBlock blk = blocks_.get(name);
-		if (blk == null)
-			throw new PcosError( PcosErrorCode.ERR_BLOCK_NOT_FOUND, "Block not found in PCOS message: " + name);
-		return blk;
+		int hash = WireFormat.utf8Hash(name);
+		for (int slot = mix(hash) & slotMask_; slots_[slot] != 0; slot = (slot + 1) & slotMask_)
+		{
+			int i = slots_[slot] - 1;
+			if (nameHashes_[i] == hash && WireFormat.utf8Equals(names_, nameOffsets_[i], nameLengths_[i], name)) {
+				return cursors_[i];
+			}
+		}
+		throw new PcosError( PcosErrorCode.ERR_BLOCK_NOT_FOUND, "Block not found in PCOS message: " + name);
+	}
+
+	@Override
+	public InputBlock getBlock(BlockKey key) throws PcosError 
+	{
+		int i = find(key.utf8, 0, key.utf8.length, key.hash);
+		if (i < 0)
+			throw new PcosError( PcosErrorCode.ERR_BLOCK_NOT_FOUND, "Block not found in PCOS message: " + key.name());
+		return cursors_[i];
+	}
+
+	/**
+	 * Looks a block up by its UTF-8 encoded name in utf8[offset, offset+length).
+	 */
+	public InputBlock getBlock(byte[] utf8, int offset, int length) throws PcosError 
+	{
+		int i = find(utf8, offset, length, WireFormat.hash(utf8, offset, length));
+		if (i < 0)
+			throw new PcosError( PcosErrorCode.ERR_BLOCK_NOT_FOUND, "Block not found in PCOS message: " + WireFormat.decodeUtf8(utf8, offset, length));
+		return cursors_[i];
 	}
 
-	private void parseBytes(byte[] input, final int length) throws PcosError
+	// Directory entries, copied out by SharedDocument. Offsets index the
+	// input array, or the buffer if it has none.
+	int blockOffset(int i)
 	{
-		InputBlock inblock = new BlockReader( input, 0, length, "Hd" );
-		// read PCOS magic
-		byte[] magic = inblock.readBytes( ProtocolTag.PROTOCOL_MAGIC_LEN );
-		if (! Arrays.equals(ProtocolTag.PROTOCOL_MAGIC, magic))
-			throw new PcosError( PcosErrorCode.ERR_BAD_MAGIC, "Not a PCOS message; bad magic" );
-		magic_ = new String(magic);
+		return blockOffsets_[i];
+	}
 
-		// protocol flags
-		pcosFlags_ = inblock.readByte();
+	int blockLength(int i)
+	{
+		return blockLengths_[i];
+	}
 
-		// message (doc) name
-		documentName_ = inblock.readString( ProtocolTag.MAX_MESSAGE_ID_LEN );
-		
-		// block count
-		blockCount_ = inblock.readUint();
+	String blockName(int i)
+	{
+		return cursors_[i].name();
+	}
 
-		// Enumerating blocks is a two-pass process -- first, we get their names and lengths,
-		// then we can arrive at the beginning of the data segment.
-		AbstractList<BlockMeta> stageBlocks = new ArrayList<BlockMeta>();
-		
-		// Pass One: enumerate blocks
-		for (int i = 0; i < blockCount_; ++i)
+	/**
+	 * Returns the directory index of the named block, or -1.
+	 */
+	private int find(byte[] utf8, int offset, int length, int hash)
+	{
+		for (int slot = mix(hash) & slotMask_; slots_[slot] != 0; slot = (slot + 1) & slotMask_)
 		{
-			BlockMeta blk = new BlockMeta();
-			blk.name = inblock.readString( ProtocolTag.MAX_BLOCK_ID_LENGTH );
-			if (blk.name == null) {
-				throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "PCOS-block without a name" );
+			int i = slots_[slot] - 1;
+			if (nameHashes_[i] == hash && nameLengths_[i] == length
+				&& WireFormat.bytesEqual(names_, nameOffsets_[i], utf8, offset, length)) {
+				return i;
 			}
-			blk.length = inblock.readUint();
-			stageBlocks.add(blk);
 		}
+		return -1;
+	}
+
+	/**
+	 * Indexes the directory by name; a repeated name maps to its last block.
+	 */
+	private void buildIndex()
+	{
+		int count = (int) blockCount_;
+		int capacity = Math.max(INITIAL_BLOCKS_, Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1);
+		if (slots_.length < capacity) {
+			slots_ = new int[capacity];
+		}
+		else {
+			Arrays.fill(slots_, 0, capacity, 0);
+		}
+		slotMask_ = capacity - 1;
+
+		for (int i = 0; i < count; ++i)
+		{
+			int hash = WireFormat.hash(names_, nameOffsets_[i], nameLengths_[i]);
+			nameHashes_[i] = hash;
+			int slot = mix(hash) & slotMask_;
+			while (slots_[slot] != 0)
+			{
+				int j = slots_[slot] - 1;
+				if (nameHashes_[j] == hash && nameLengths_[j] == nameLengths_[i]
+					&& WireFormat.bytesEqual(names_, nameOffsets_[j], names_, nameOffsets_[i], nameLengths_[i])) {
+					break;
+				}
+				slot = (slot + 1) & slotMask_;
+			}
+			slots_[slot] = i + 1;
+		}
+	}
+
+	private static int mix(int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+
+	private void parseBytes(byte[] input, int offset, final int length) throws PcosError
+	{
+		DecodeStatus status = status();
+		if (!parseBytes(input, offset, length, status)) {
+			throw new PcosError( status.error(), status.reason() );
+		}
+	}
+
+	private boolean parseBytes(byte[] input, int offset, final int length, DecodeStatus status)
+	{
+		arrayHeader_.reset( input, offset, length, "Hd" );
+		if (parse( arrayHeader_, offset + length, status ) < 0) {
+			return false;
+		}
+		names_ = input;
+
+		for (int i = 0; i < blockCount_; ++i)
+		{
+			BlockReader cursor = (cursors_[i] instanceof BlockReader)
+				? (BlockReader) cursors_[i] : new BlockReader();
+			cursor.reset(input, blockOffsets_[i], blockLengths_[i], input, nameOffsets_[i], nameLengths_[i]);
+			cursors_[i] = cursor;
+		}
+		buildIndex();
+		return true;
+	}
+
+	/**
+	 * Fills in the block directory with positions relative to the header
+	 * reader's input. Returns where the data-segment starts, or -1 with the
+	 * failure recorded in status.
+	 */
+	private int parse(InputBlock inblock, final int end, DecodeStatus status)
+	{
+		blockCount_ = 0;
+		messageLength_ = 0;
+		slotMask_ = 0;
+		slots_[0] = 0;
+		blocks_ = null;
+		documentName_ = null;
+
+		final int start = inblock.readingPosition();
+		parser_.reset( start );
+		parser_.end_ = end;
+		if (!parser_.parse( inblock, end, false, status )) {
+			return -1;
+		}
+		pcosFlags_ = parser_.flags();
+		documentNameOff_ = parser_.idOffset();
+		documentNameLen_ = parser_.idLength();
 
 		// at this point remember where data-segment starts,
 		// which is the location of the first block
-		int block_offset = inblock.readingPosition();
+		final int data_offset = parser_.position();
+		long block_offset = data_offset;
+		final long block_count = parser_.blockCount();
 
-		// Pass Two: populate block positions within payload
-		for (BlockMeta blk : stageBlocks)
+		// populate block positions within payload
+		for (int i = 0; i < block_count; ++i)
 		{
-			// store the block meta-record in the directory
-			blocks_.put( blk.name, new BlockReader(input, block_offset, (int)blk.length, blk.name) );
+			blockOffsets_[i] = (int) block_offset;
 
 			// update position for the next block
-			block_offset += blk.length;
+			block_offset += blockLengths_[i];
 		}
 			
-		if ( block_offset > length ) {
-			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Incomplete message or wrong block-meta info -- blocks couldn't fit in the received payload" );
+		if ( block_offset > end ) {
+			status.fail( PcosErrorCode.ERR_MALFORMED_MESSAGE, data_offset, "Incomplete message or wrong block-meta info -- blocks couldn't fit in the received payload" );
+			return -1;
 		}
+		blockCount_ = block_count;
+		messageLength_ = (int) (block_offset - start);
+		return data_offset;
 	}
 
+	/**
+	 * Records the enumeration in the block directory as it is parsed.
+	 */
+	private final class DirectoryParser extends HeaderParser
+	{
+		// end of the input; a block cannot be longer
+		int end_;
+
+		@Override
+		boolean block(int index, int nameOffset, int nameLength, long length, int at, DecodeStatus status)
+		{
+			if (length > end_) {
+				return status.fail( PcosErrorCode.ERR_MALFORMED_MESSAGE, at, "Incomplete message or wrong block-meta info -- blocks couldn't fit in the received payload" );
+			}
+			ensureDirectoryCapacity(index + 1);
+			nameOffsets_[index] = nameOffset;
+			nameLengths_[index] = nameLength;
+			blockLengths_[index] = (int) length;
+			return true;
+		}
+	}
+
+	/**
+	 * Holder for the throwing entry points, cleared for each parse.
+	 */
+	private DecodeStatus status()
+	{
+		if (status_ == null) {
+			status_ = new DecodeStatus();
+		}
+		return status_.clear();
+	}
+
+	private void ensureDirectoryCapacity(int count)
+	{
+		if (count > cursors_.length)
+		{
+			int capacity = Math.max(count, cursors_.length << 1);
+			nameOffsets_ = grow(nameOffsets_, capacity);
+			nameLengths_ = grow(nameLengths_, capacity);
+			blockOffsets_ = grow(blockOffsets_, capacity);
+			blockLengths_ = grow(blockLengths_, capacity);
+			nameHashes_ = grow(nameHashes_, capacity);
+			InputBlock[] cursors = new InputBlock[capacity];
+			System.arraycopy(cursors_, 0, cursors, 0, cursors_.length);
+			cursors_ = cursors;
+		}
+	}
+
+	private static int[] grow(int[] a, int capacity)
+	{
+		int[] grown = new int[capacity];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
 }
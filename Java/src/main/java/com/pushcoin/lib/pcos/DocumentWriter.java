@@ -19,22 +19,39 @@
 package com.pushcoin.lib.pcos;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.util.AbstractList;
 import java.util.ArrayList;
 
 public class DocumentWriter implements OutputDocument
 {
 	private	AbstractList<OutputBlock> blocks_ = new ArrayList<OutputBlock>();
-	private final String name_;
+	// UTF-8 block names, encoded once when the block is added
+	private	AbstractList<byte[]> blockNames_ = new ArrayList<byte[]>();
+	private String name_;
+	private byte[] encodedName_;
 	
 	public DocumentWriter( String name ) throws PcosError
 	{
-		if ( name.length() > ProtocolTag.MAX_MESSAGE_ID_LEN ) {
-			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "invalid message-ID" );
-		}
+		checkName( name );
 		name_ = name;
+		encodedName_ = encode( name );
+	}
+
+	/**
+	 * Drops all blocks and renames the message, so the writer can be reused.
+	 */
+	public void reset( String name ) throws PcosError
+	{
+		if (!name.equals( name_ ))
+		{
+			checkName( name );
+			encodedName_ = encode( name );
+			name_ = name;
+		}
+		blocks_.clear();
+		blockNames_.clear();
 	}
 		
 	@Override
@@ -47,59 +64,200 @@ public class DocumentWriter implements OutputDocument
 	public void addBlock(OutputBlock b) throws PcosError
 	{
 		blocks_.add( b );
+		blockNames_.add( (b instanceof BlockWriter) ? ((BlockWriter) b).encodedName() : encode( b.name() ) );
 	}
 
 	/**
 	 * Computes total size of all blocks.
 	 */
-	private int calcDataSegmentSize()
+	long calcDataSegmentSize()
 	{
-		int size = 0;
+		long size = 0;
 		for (OutputBlock b : blocks_) {
 			size += b.size();
 		}
 		return size;
 	}
 
+	/**
+	 * Size of the message header and data-segment enumeration.
+	 */
+	int calcHeaderSize()
+	{
+		int size = ProtocolTag.PROTOCOL_MAGIC_LEN + 1;
+		size += WireFormat.byteStrSize( encodedName_ );
+		size += WireFormat.varIntSize( blocks_.size() );
+		for (int i = 0; i < blocks_.size(); ++i)
+		{
+			size += WireFormat.byteStrSize( blockNames_.get(i) );
+			size += WireFormat.varIntSize( blocks_.get(i).size() );
+		}
+		return size;
+	}
+
+	/**
+	 * Exact number of bytes the serialized message takes.
+	 */
+	@Override
+	public int size()
+	{
+		long size = calcHeaderSize() + calcDataSegmentSize();
+		if (size > Integer.MAX_VALUE) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "message exceeds 2 GB" );
+		}
+		return (int) size;
+	}
+
 	/**
 	 * 	Returns PCOS byte-array.
 	 */
 	@Override
 	public byte[] toBytes() throws PcosError
 	{
-		// allocate buffer for storing wire data
-		ByteArrayOutputStream ostream = new ByteArrayOutputStream( 128 );
-		BlockWriter writer = new BlockWriter("??", ostream);
+		byte[] out = new byte[ size() ];
+		writeTo( out, 0 );
+		return out;
+	}
+
+	/**
+	 * Serializes the message into dst starting at offset, in a single pass.
+	 * Returns the number of bytes written.
+	 */
+	@Override
+	public int writeTo(byte[] dst, int offset) throws PcosError
+	{
+		int size = size();
+		if (dst.length - offset < size) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "output buffer too small for the message" );
+		}
 
+		int pos = writeHeader( dst, offset );
+
+		// block data
+		for (OutputBlock blk : blocks_)
+		{
+			// bounded by size() above
+			int len = (int) blk.size();
+			if (blk instanceof BlockWriter) {
+				System.arraycopy( ((BlockWriter) blk).array(), 0, dst, pos, len );
+			}
+			else {
+				blk.asByteBuffer().get( dst, pos, len );
+			}
+			pos += len;
+		}
+		return size;
+	}
+
+	/**
+	 * Serializes the message at the buffer's position, which is advanced
+	 * past the message.
+	 */
+	@Override
+	public void writeTo(ByteBuffer dst) throws PcosError
+	{
+		if (dst.hasArray())
+		{
+			int written = writeTo( dst.array(), dst.arrayOffset() + dst.position() );
+			dst.position( dst.position() + written );
+			return;
+		}
+
+		if (dst.remaining() < size()) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "output buffer too small for the message" );
+		}
+
+		byte[] header = new byte[ calcHeaderSize() ];
+		writeHeader( header, 0 );
+		dst.put( header );
+
+		// block data
+		for (OutputBlock blk : blocks_)
+		{
+			if (blk instanceof BlockWriter) {
+				dst.put( ((BlockWriter) blk).array(), 0, (int) blk.size() );
+			}
+			else {
+				dst.put( blk.asByteBuffer() );
+			}
+		}
+	}
+
+	/**
+	 * Sends the header followed by every block's own buffer in vectored writes,
+	 * without assembling the message. Keeps writing until the whole message is
+	 * out, so it is meant for channels in blocking mode.
+	 * Returns the number of bytes written.
+	 */
+	@Override
+	public long writeTo(GatheringByteChannel channel) throws IOException, PcosError
+	{
+		byte[] header = new byte[ calcHeaderSize() ];
+		writeHeader( header, 0 );
+
+		ByteBuffer[] srcs = new ByteBuffer[ blocks_.size() + 1 ];
+		srcs[0] = ByteBuffer.wrap( header );
+		long remaining = header.length;
+		for (int i = 0; i < blocks_.size(); ++i)
+		{
+			srcs[i+1] = blocks_.get(i).asByteBuffer();
+			remaining += srcs[i+1].remaining();
+		}
+
+		long total = 0;
+		int first = 0;
+		while (total < remaining)
+		{
+			total += channel.write( srcs, first, srcs.length - first );
+			// skip over buffers which were fully sent
+			while (first < srcs.length && !srcs[first].hasRemaining()) {
+				++first;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Writes message header and data-segment enumeration.
+	 * Returns the position following them.
+	 */
+	int writeHeader(byte[] dst, int pos)
+	{
 		// protocol magic
-		writer.writeBytes( ProtocolTag.PROTOCOL_MAGIC );
-		
+		System.arraycopy( ProtocolTag.PROTOCOL_MAGIC, 0, dst, pos, ProtocolTag.PROTOCOL_MAGIC_LEN );
+		pos += ProtocolTag.PROTOCOL_MAGIC_LEN;
+
 		// protocol flags
-		writer.writeByte( ProtocolTag.PROTOCOL_FLAGS );
+		dst[pos++] = ProtocolTag.PROTOCOL_FLAGS;
 
 		// message identifier
-		writer.writeString( name_ );
+		pos = WireFormat.putByteStr( dst, pos, encodedName_ );
 
 		// number of blocks
-		writer.writeUint( blocks_.size() );
+		pos = WireFormat.putVarInt( dst, pos, blocks_.size() );
 
 		// block-metas
-		for (OutputBlock blk : blocks_)
+		for (int i = 0; i < blocks_.size(); ++i)
 		{
 			// block name
-			writer.writeString( blk.name() );
-			
+			pos = WireFormat.putByteStr( dst, pos, blockNames_.get(i) );
+
 			// block size
-			writer.writeUint( blk.size() );
+			pos = WireFormat.putVarInt( dst, pos, blocks_.get(i).size() );
 		}
+		return pos;
+	}
 
-		// block data
-		for (OutputBlock blk : blocks_) {
-			writer.writeBytes( blk.toBytes() );
+	private static void checkName(String name) throws PcosError
+	{
+		if ( name.length() > ProtocolTag.MAX_MESSAGE_ID_LEN ) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "invalid message-ID" );
 		}
-		
-		// return the byte array with PCOS message inside
-		return ostream.toByteArray();
 	}
 
+	private static byte[] encode(String s)
+	{
+		/* PCOS uses UTF-8 encoding on the wire */
+		return WireFormat.encodeUtf8( s );
+	}
 }
@@ -0,0 +1,242 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Cuts a stream of back-to-back PCOS messages into documents, as bytes
+ * arrive in arbitrary pieces.
+ *
+ * PCOS has no outer length prefix; the message length is known once the
+ * header and block enumeration have been read. The decoder parses those
+ * incrementally, resuming where the previous piece ended, so partial reads
+ * cost no rescanning. Complete messages are parsed in place by a reused
+ * DocumentReader; nothing is copied beyond getting bytes into the decoder.
+ *
+ * One decoder per connection. Meant for non-blocking I/O loops: feed it
+ * whatever a read returned, then poll() until it returns null. Not
+ * thread-safe. After an error the stream cannot be resynchronized and the
+ * decoder should be dropped along with the connection.
+ */
+public class FrameDecoder
+{
+	private static final int INITIAL_CAPACITY_ = 256;
+	private static final int MIN_READ_ = 512;
+	private static final int HEAD_LEN_ = ProtocolTag.PROTOCOL_MAGIC_LEN + 1;
+
+	private final int maxMessageLength_;
+	private final DocumentReader reader_ = new DocumentReader();
+	private final HeaderParser header_ = new HeaderParser();
+	private final BlockReader cursor_ = new BlockReader();
+	private final DecodeStatus status_ = new DecodeStatus();
+
+	// Buffered stream: message being decoded starts at start_ and bytes up
+	// to limit_ are valid; header_ has parsed it up to header_.position().
+	private byte[] buf_;
+	private ByteBuffer readView_;
+	private int start_, limit_;
+
+	private long messageLength_ = -1;
+
+	public FrameDecoder(int maxMessageLength)
+	{
+		this(maxMessageLength, INITIAL_CAPACITY_);
+	}
+
+	/**
+	 * The buffer starts at initialCapacity and grows up to maxMessageLength
+	 * as longer messages come in; messages declaring more are rejected
+	 * before any of their data is buffered.
+	 */
+	public FrameDecoder(int maxMessageLength, int initialCapacity)
+	{
+		maxMessageLength_ = maxMessageLength;
+		buf_ = new byte[Math.max(initialCapacity, HEAD_LEN_)];
+		readView_ = ByteBuffer.wrap(buf_);
+	}
+
+	/**
+	 * Appends all of src's remaining bytes. Throws, like poll(), if the
+	 * message under way turns out longer than maxMessageLength.
+	 */
+	public void feed(ByteBuffer src) throws PcosError
+	{
+		while (src.hasRemaining())
+		{
+			int n = makeRoom(src.remaining());
+			src.get(buf_, limit_, n);
+			limit_ += n;
+		}
+	}
+
+	public void feed(byte[] src, int offset, int length) throws PcosError
+	{
+		while (length > 0)
+		{
+			int n = makeRoom(length);
+			System.arraycopy(src, offset, buf_, limit_, n);
+			limit_ += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Reads from the channel straight into the decoder's buffer, asking for
+	 * at least what the current message still needs. Returns what the
+	 * channel's read() returned: 0 when a non-blocking channel had nothing
+	 * and -1 at end of stream.
+	 */
+	public int readFrom(ReadableByteChannel channel) throws IOException
+	{
+		ensureRoom((int) Math.max(MIN_READ_, Math.min(bytesNeeded(), maxMessageLength_)));
+		readView_.limit(buf_.length).position(limit_);
+		int n = channel.read(readView_);
+		if (n > 0) {
+			limit_ += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Next complete message, or null if more bytes are needed. The document
+	 * is valid until the next call to poll(), feed() or readFrom().
+	 */
+	public DocumentReader poll() throws PcosError
+	{
+		advance();
+		if (messageLength_ < 0 || limit_ - start_ < messageLength_) {
+			return null;
+		}
+		int length = (int) messageLength_;
+		reader_.reset(buf_, start_, length);
+		start_ += length;
+		header_.reset(start_);
+		messageLength_ = -1;
+		return reader_;
+	}
+
+	/**
+	 * Bytes still missing from the current message. Exact once its block
+	 * enumeration has been read; before that, the least that must arrive
+	 * for the header parse to make progress.
+	 */
+	public long bytesNeeded()
+	{
+		if (messageLength_ >= 0) {
+			return Math.max(messageLength_ - (limit_ - start_), 0);
+		}
+		return header_.needed(limit_ - header_.position());
+	}
+
+	/**
+	 * Length of the current message, or -1 while its enumeration is incomplete.
+	 */
+	public long messageLength()
+	{
+		return messageLength_;
+	}
+
+	/**
+	 * Bytes buffered and not yet returned as part of a message.
+	 */
+	public int buffered()
+	{
+		return limit_ - start_;
+	}
+
+	/**
+	 * Parses as much of the header as has arrived.
+	 */
+	private void advance() throws PcosError
+	{
+		if (messageLength_ >= 0) {
+			return;
+		}
+		int from = header_.position();
+		cursor_.reset(buf_, from, limit_ - from, "Hd");
+		if (header_.parse(cursor_, limit_, true, status_.clear()))
+		{
+			messageLength_ = header_.messageLength();
+			if (messageLength_ > maxMessageLength_) {
+				throw tooLong(messageLength_);
+			}
+			return;
+		}
+		if (!status_.ok()) {
+			throw new PcosError( status_.error(), status_.reason() );
+		}
+		long length = Math.max(header_.position() - start_, header_.dataLength());
+		if (length > maxMessageLength_) {
+			throw tooLong(length);
+		}
+	}
+
+	private PcosError tooLong(long length)
+	{
+		return new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "message of " + length + " bytes exceeds the limit of " + maxMessageLength_ );
+	}
+
+	/**
+	 * Makes room for up to len more bytes and returns how many fit. A full
+	 * buffer grows only after the message under way has been checked
+	 * against maxMessageLength, and at most doubles, so one large feed
+	 * cannot allocate for a message that is refused anyway.
+	 */
+	private int makeRoom(int len) throws PcosError
+	{
+		if (buf_.length == limit_)
+		{
+			advance();
+			ensureRoom(Math.min(len, Math.max(buf_.length, MIN_READ_)));
+		}
+		return Math.min(len, buf_.length - limit_);
+	}
+
+	/**
+	 * Makes room for len more bytes, first by dropping messages already
+	 * returned, then by growing the buffer.
+	 */
+	private void ensureRoom(int len)
+	{
+		if (start_ == limit_)
+		{
+			header_.shift(-start_);
+			start_ = limit_ = 0;
+		}
+		if (buf_.length - limit_ >= len) {
+			return;
+		}
+		int pending = limit_ - start_;
+		byte[] dst = buf_;
+		if (pending + len > buf_.length)
+		{
+			dst = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) buf_.length << 1, (long) pending + len))];
+			readView_ = ByteBuffer.wrap(dst);
+		}
+		System.arraycopy(buf_, start_, dst, 0, pending);
+		buf_ = dst;
+		header_.shift(-start_);
+		limit_ = pending;
+		start_ = 0;
+	}
+}
@@ -0,0 +1,305 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+/**
+ * Reads a message header -- magic, flags, message id and block enumeration
+ * -- for every reader of the package, so that they all accept the same
+ * messages. Flags are handed on unchecked, as DocumentReader always has;
+ * acting on them is up to the caller.
+ *
+ * The parse is resumable: given part of a header, it stops before the
+ * first field that has not fully arrived and carries on from there when
+ * called again with more input. Positions are reading positions of the
+ * input. Not thread-safe.
+ */
+class HeaderParser
+{
+	private static final int LEAD_LEN_ = ProtocolTag.PROTOCOL_MAGIC_LEN + 1;
+	private static final int MAX_UINT_LEN_ = 5;
+
+	// Parse stages, in wire order
+	private static final int LEAD_ = 0;
+	private static final int ID_LENGTH_ = 1;
+	private static final int ID_ = 2;
+	private static final int BLOCK_COUNT_ = 3;
+	private static final int NAME_LENGTH_ = 4;
+	private static final int NAME_ = 5;
+	private static final int BLOCK_LENGTH_ = 6;
+	private static final int DONE_ = 7;
+
+	private int stage_ = LEAD_;
+	private int start_, position_;
+	// length of the id or block name being skipped
+	private int skip_;
+	private byte flags_;
+	private int idOffset_, idLength_;
+	private long blockCount_, blocksRead_;
+	private int nameOffset_;
+	private long dataLength_;
+
+	/**
+	 * Starts over with a message at the given position.
+	 */
+	void reset(int start)
+	{
+		stage_ = LEAD_;
+		start_ = position_ = start;
+		flags_ = 0;
+		idOffset_ = idLength_ = 0;
+		blockCount_ = blocksRead_ = 0;
+		dataLength_ = 0;
+	}
+
+	/**
+	 * Called for each block of the enumeration, in order, with its name as
+	 * a range of the input; at is where its length field starts. Returning
+	 * false stops the parse, with the reason recorded in status.
+	 */
+	boolean block(int index, int nameOffset, int nameLength, long length, int at, DecodeStatus status)
+	{
+		return true;
+	}
+
+	/**
+	 * Parses on from position(), reading from in up to end, and returns
+	 * true once the enumeration is complete. On false, status has failed
+	 * or, if partial, the input ended early: call again with in reset to
+	 * start at position() once more has arrived. Without partial, input
+	 * ending early is an error. Does nothing on a failed status.
+	 */
+	@SuppressWarnings("fallthrough")
+	boolean parse(InputBlock in, int end, boolean partial, DecodeStatus status)
+	{
+		int at = in.readingPosition();
+		long v;
+		// stages fall through to the next as each completes
+		switch (status.ok() ? stage_ : -1)
+		{
+			case LEAD_:
+				if ((partial && end - at < LEAD_LEN_) || !readLead( in, at, status )) {
+					return false;
+				}
+				at += LEAD_LEN_;
+				position_ = at;
+				stage_ = ID_LENGTH_;
+
+			case ID_LENGTH_:
+				if ((v = readLength( in, at, end, ProtocolTag.MAX_MESSAGE_ID_LEN, partial, status )) < 0) {
+					return false;
+				}
+				idLength_ = skip_ = (int) v;
+				position_ = at = in.readingPosition();
+				stage_ = ID_;
+
+			case ID_:
+				if ((partial && end - at < skip_) || !in.trySkipBytes( skip_, status )) {
+					return false;
+				}
+				idOffset_ = at;
+				position_ = at += skip_;
+				stage_ = BLOCK_COUNT_;
+
+			case BLOCK_COUNT_:
+				if ((v = readLength( in, at, end, Long.MAX_VALUE, partial, status )) < 0) {
+					return false;
+				}
+				blockCount_ = v;
+				position_ = in.readingPosition();
+				stage_ = NAME_LENGTH_;
+
+			case NAME_LENGTH_:
+			case NAME_:
+			case BLOCK_LENGTH_:
+				return enumerate( in, end, partial, status );
+
+			case DONE_:
+				return true;
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Checks the magic and reads the flags.
+	 */
+	private boolean readLead(InputBlock in, int at, DecodeStatus status)
+	{
+		for (int i = 0; i < ProtocolTag.PROTOCOL_MAGIC_LEN; ++i)
+		{
+			if (in.tryReadByte( status ) != ProtocolTag.PROTOCOL_MAGIC[i]) {
+				return status.fail( PcosErrorCode.ERR_BAD_MAGIC, at, "Not a PCOS message; bad magic" );
+			}
+		}
+		flags_ = in.tryReadByte( status );
+		return status.ok();
+	}
+
+	/**
+	 * Parses the rest of the block enumeration, keeping the parse state in
+	 * locals until it stops.
+	 */
+	private boolean enumerate(InputBlock in, int end, boolean partial, DecodeStatus status)
+	{
+		int stage = stage_;
+		int at = position_;
+		long index = blocksRead_;
+		for (; index < blockCount_; ++index)
+		{
+			long v;
+			if (stage == NAME_LENGTH_)
+			{
+				if ((v = readLength( in, at, end, ProtocolTag.MAX_BLOCK_ID_LENGTH, partial, status )) <= 0)
+				{
+					if (v == 0) {
+						status.fail( PcosErrorCode.ERR_MALFORMED_MESSAGE, at, "PCOS-block without a name" );
+					}
+					break;
+				}
+				skip_ = (int) v;
+				at = in.readingPosition();
+				stage = NAME_;
+			}
+			if (stage == NAME_)
+			{
+				if ((partial && end - at < skip_) || !in.trySkipBytes( skip_, status )) {
+					break;
+				}
+				nameOffset_ = at;
+				at += skip_;
+				stage = BLOCK_LENGTH_;
+			}
+			if ((v = readLength( in, at, end, Long.MAX_VALUE, partial, status )) < 0
+				|| !block( (int) index, nameOffset_, skip_, v, at, status )) {
+				break;
+			}
+			dataLength_ += v;
+			at = in.readingPosition();
+			stage = NAME_LENGTH_;
+		}
+
+		position_ = at;
+		blocksRead_ = index;
+		if (index < blockCount_)
+		{
+			stage_ = stage;
+			return false;
+		}
+		stage_ = DONE_;
+		return true;
+	}
+
+	/**
+	 * Reads a uint of up to maxlen, or returns -1. A partial uint -- fewer
+	 * octets than a uint can take, all with the continuation bit set -- is
+	 * not an error when more input may follow.
+	 */
+	private static long readLength(InputBlock in, int at, int end, long maxlen, boolean partial, DecodeStatus status)
+	{
+		long v = in.tryReadUint( status );
+		if (!status.ok())
+		{
+			if (partial && end - at < MAX_UINT_LEN_) {
+				status.clear();
+			}
+			return -1;
+		}
+		if (v > maxlen)
+		{
+			status.fail( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, at, "input byte-sequence exceeds max length" );
+			return -1;
+		}
+		return v;
+	}
+
+	/**
+	 * Least number of bytes past position() the parse needs to make
+	 * progress, given that available have arrived.
+	 */
+	int needed(int available)
+	{
+		switch (stage_)
+		{
+			case LEAD_: return Math.max( LEAD_LEN_ - available, 1 );
+			case ID_: case NAME_: return Math.max( skip_ - available, 1 );
+			default: return 1;
+		}
+	}
+
+	/**
+	 * Moves the positions parsed so far, after the input they refer to was moved by delta.
+	 */
+	void shift(int delta)
+	{
+		start_ += delta;
+		position_ += delta;
+		idOffset_ += delta;
+		nameOffset_ += delta;
+	}
+
+	boolean done()
+	{
+		return stage_ == DONE_;
+	}
+
+	/**
+	 * Where the parse stopped; the data-segment once done().
+	 */
+	int position()
+	{
+		return position_;
+	}
+
+	byte flags()
+	{
+		return flags_;
+	}
+
+	int idOffset()
+	{
+		return idOffset_;
+	}
+
+	int idLength()
+	{
+		return idLength_;
+	}
+
+	long blockCount()
+	{
+		return blockCount_;
+	}
+
+	/**
+	 * Sum of the block lengths enumerated so far.
+	 */
+	long dataLength()
+	{
+		return dataLength_;
+	}
+
+	/**
+	 * Header and data of the message, once done().
+	 */
+	long messageLength()
+	{
+		return position_ - start_ + dataLength_;
+	}
+}
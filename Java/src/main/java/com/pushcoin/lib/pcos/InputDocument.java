@@ -27,4 +27,5 @@ public interface InputDocument
 	long getBlockCount();
 	Map<String, InputBlock> getBlocks();
 	InputBlock getBlock(String name) throws PcosError;
+	InputBlock getBlock(BlockKey key) throws PcosError;
 }
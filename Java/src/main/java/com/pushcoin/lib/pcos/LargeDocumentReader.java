@@ -0,0 +1,243 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a PCOS message stored in a file, of any size.
+ *
+ * Only the header and block enumeration are read on construction; block
+ * offsets and lengths are kept as longs, so neither blocks nor the message
+ * are limited to 2 GB. Blocks are PagedBlockReaders which map the file a
+ * page at a time as they are read, so a multi-gigabyte message can be
+ * browsed by block name while only a few pages are ever mapped.
+ */
+public class LargeDocumentReader implements InputDocument
+{
+	public static final int DEFAULT_PAGE_SIZE = 64 * 1024 * 1024;
+
+	private static final String MAGIC_ = "PCOS";
+	// header reads start at this size and double until the enumeration fits
+	private static final int HEADER_CHUNK_ = 64 * 1024;
+	private static final int MAX_HEADER_ = 16 * 1024 * 1024;
+
+	private final FileChannel channel_;
+	private final int pageSize_;
+	private String documentName_;
+	private int blockCount_;
+	private String[] names_;
+	private long[] offsets_, lengths_;
+	// directory index by name; a repeated name maps to its last block
+	private final Map<String, Integer> index_ = new HashMap<String, Integer>();
+	private long messageLength_;
+	private Map<String, InputBlock> blocks_;
+
+	public LargeDocumentReader(FileChannel channel) throws PcosError, IOException
+	{
+		this(channel, 0, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Reads the header of the message starting at the given position of
+	 * the channel. Blocks are mapped pageSize bytes at a time.
+	 */
+	public LargeDocumentReader(FileChannel channel, long position, int pageSize) throws PcosError, IOException
+	{
+		if (pageSize <= 0) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "invalid page size" );
+		}
+		channel_ = channel;
+		pageSize_ = pageSize;
+
+		final long available = channel.size() - position;
+		if (available < ProtocolTag.MIN_MESSAGE_LENGTH) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Empty or truncated message");
+		}
+		byte[] header = new byte[(int) Math.min(available, HEADER_CHUNK_)];
+		DirectoryParser parser = new DirectoryParser();
+		DecodeStatus status = new DecodeStatus();
+		for (;;)
+		{
+			readFully(channel, position, header);
+			parser.reset(header, 0);
+			// a truncated enumeration may just need a longer read
+			if (parser.parse(new BlockReader(header, 0, header.length, "Hd"), header.length, true, status)) {
+				break;
+			}
+			if (!status.ok()) {
+				throw new PcosError( status.error(), status.reason() );
+			}
+			if (header.length == available || header.length >= MAX_HEADER_) {
+				throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "run out of input bytes - incomplete or corrupted message" );
+			}
+			header = new byte[(int) Math.min(Math.min(available, MAX_HEADER_), (long) header.length << 1)];
+		}
+
+		int header_length = parser.position();
+		documentName_ = WireFormat.decodeUtf8(header, parser.idOffset(), parser.idLength());
+		blockCount_ = (int) parser.blockCount();
+		long offset = position + header_length;
+		offsets_ = new long[blockCount_];
+		for (int i = 0; i < blockCount_; ++i)
+		{
+			offsets_[i] = offset;
+			offset += lengths_[i];
+		}
+		messageLength_ = parser.messageLength();
+		if (messageLength_ > available) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Incomplete message or wrong block-meta info -- blocks couldn't fit in the received payload" );
+		}
+	}
+
+	/**
+	 * Fills in the block directory, with names decoded as they are parsed.
+	 */
+	private final class DirectoryParser extends HeaderParser
+	{
+		private byte[] header_;
+
+		void reset(byte[] header, int start)
+		{
+			reset( start );
+			header_ = header;
+			index_.clear();
+			names_ = new String[16];
+			lengths_ = new long[16];
+		}
+
+		@Override
+		boolean block(int index, int nameOffset, int nameLength, long length, int at, DecodeStatus status)
+		{
+			if (index == names_.length)
+			{
+				names_ = Arrays.copyOf( names_, index << 1 );
+				lengths_ = Arrays.copyOf( lengths_, index << 1 );
+			}
+			names_[index] = WireFormat.decodeUtf8( header_, nameOffset, nameLength );
+			lengths_[index] = length;
+			index_.put( names_[index], index );
+			return true;
+		}
+	}
+
+	private static void readFully(FileChannel channel, long position, byte[] dst) throws IOException, PcosError
+	{
+		ByteBuffer buf = ByteBuffer.wrap(dst);
+		while (buf.hasRemaining())
+		{
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "Empty or truncated message");
+			}
+		}
+	}
+
+	@Override
+	public String getMagic()
+	{
+		return MAGIC_;
+	}
+
+	@Override
+	public String getDocumentName()
+	{
+		return documentName_;
+	}
+
+	@Override
+	public long getBlockCount()
+	{
+		return blockCount_;
+	}
+
+	/**
+	 * Bytes the message takes, header included.
+	 */
+	public long getMessageLength()
+	{
+		return messageLength_;
+	}
+
+	/**
+	 * Block names, in order of appearance.
+	 */
+	public String[] getBlockNames()
+	{
+		return Arrays.copyOf( names_, blockCount_ );
+	}
+
+	public long getBlockLength(String name) throws PcosError
+	{
+		return lengths_[find( name )];
+	}
+
+	/**
+	 * Built on first call; its blocks share reading positions with each other only.
+	 */
+	@Override
+	public Map<String, InputBlock> getBlocks()
+	{
+		if (blocks_ == null)
+		{
+			Map<String, InputBlock> blocks = new TreeMap<String, InputBlock>();
+			for (int i = 0; i < blockCount_; ++i) {
+				blocks.put( names_[i], cursor( i ) );
+			}
+			blocks_ = Collections.unmodifiableMap( blocks );
+		}
+		return blocks_;
+	}
+
+	/**
+	 * A new cursor at the start of the named block; a repeated name
+	 * refers to its last block. Nothing is mapped until it is read.
+	 */
+	@Override
+	public PagedBlockReader getBlock(String name) throws PcosError
+	{
+		return cursor( find( name ) );
+	}
+
+	@Override
+	public PagedBlockReader getBlock(BlockKey key) throws PcosError
+	{
+		return getBlock( key.name() );
+	}
+
+	private PagedBlockReader cursor(int i)
+	{
+		return new PagedBlockReader( channel_, offsets_[i], lengths_[i], pageSize_, names_[i] );
+	}
+
+	private int find(String name) throws PcosError
+	{
+		Integer i = index_.get( name );
+		if (i != null) {
+			return i;
+		}
+		throw new PcosError( PcosErrorCode.ERR_BLOCK_NOT_FOUND, "Block not found in PCOS message: " + name );
+	}
+}
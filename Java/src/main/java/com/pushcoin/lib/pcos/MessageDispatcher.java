@@ -0,0 +1,127 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+/**
+ * Maps message ids to handlers using a table keyed by the raw UTF-8 id, so
+ * routing a peeked message neither decodes its id nor parses its blocks.
+ *
+ * Lookups are lock-free; register() rebuilds the table and may be called
+ * concurrently with lookups, although it is meant for start-up.
+ */
+public class MessageDispatcher<H>
+{
+	private static final class Table
+	{
+		final byte[][] ids;
+		final int[] hashes;
+		final Object[] handlers;
+		final int mask;
+
+		Table(int capacity)
+		{
+			ids = new byte[capacity][];
+			hashes = new int[capacity];
+			handlers = new Object[capacity];
+			mask = capacity - 1;
+		}
+	}
+
+	private final H fallback_;
+	private volatile Table table_ = new Table(1);
+	private int count_;
+
+	/**
+	 * @param fallback returned for messages without a registered handler; may be null
+	 */
+	public MessageDispatcher(H fallback)
+	{
+		fallback_ = fallback;
+	}
+
+	public synchronized MessageDispatcher<H> register(String messageId, H handler) throws PcosError
+	{
+		// the limit is on the wire, in UTF-8 bytes
+		if (messageId == null || messageId.length() == 0 || WireFormat.utf8Length(messageId) > ProtocolTag.MAX_MESSAGE_ID_LEN) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "invalid message-ID" );
+		}
+		Table old = table_;
+		Table table = new Table(Integer.highestOneBit((count_ + 1) * 4 - 1) << 1);
+		for (int i = 0; i < old.ids.length; ++i)
+		{
+			if (old.ids[i] != null) {
+				insert(table, old.ids[i], old.hashes[i], old.handlers[i]);
+			}
+		}
+		byte[] id = messageId.getBytes(WireFormat.UTF8);
+		if (insert(table, id, WireFormat.hash(id, 0, id.length), handler)) {
+			++count_;
+		}
+		table_ = table;
+		return this;
+	}
+
+	/**
+	 * Handler for the message whose header was peeked, or the fallback.
+	 */
+	@SuppressWarnings("unchecked")
+	public H lookup(DocumentHeader header)
+	{
+		Table table = table_;
+		byte[] input = header.getInput();
+		int off = header.getMessageIdOffset();
+		int len = header.getMessageIdLength();
+		int hash = header.messageIdHash();
+		for (int slot = mix(hash) & table.mask; table.ids[slot] != null; slot = (slot + 1) & table.mask)
+		{
+			byte[] id = table.ids[slot];
+			if (table.hashes[slot] == hash && id.length == len && WireFormat.bytesEqual(id, 0, input, off, len)) {
+				return (H) table.handlers[slot];
+			}
+		}
+		return fallback_;
+	}
+
+	/**
+	 * Returns true if id was not in the table yet.
+	 */
+	private static boolean insert(Table table, byte[] id, int hash, Object handler)
+	{
+		int slot = mix(hash) & table.mask;
+		while (table.ids[slot] != null)
+		{
+			byte[] other = table.ids[slot];
+			if (table.hashes[slot] == hash && other.length == id.length && WireFormat.bytesEqual(other, 0, id, 0, id.length))
+			{
+				table.handlers[slot] = handler;
+				return false;
+			}
+			slot = (slot + 1) & table.mask;
+		}
+		table.ids[slot] = id;
+		table.hashes[slot] = hash;
+		table.handlers[slot] = handler;
+		return true;
+	}
+
+	private static int mix(int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+}
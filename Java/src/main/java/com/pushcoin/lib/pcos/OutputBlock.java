@@ -18,12 +18,15 @@
 
 package com.pushcoin.lib.pcos;
 
+import java.nio.ByteBuffer;
+
 public interface OutputBlock 
 {
 	// Parsers for primitives
 	void writeBool( boolean b ) throws PcosError;
 	void writeByte( int v ) throws PcosError;
 	void writeBytes( byte[] v ) throws PcosError;
+	void writeBytes( byte[] v, int off, int len ) throws PcosError;
 	void writeByteStr( byte[] v ) throws PcosError;
 	void writeInt(int val) throws PcosError; 
 	void writeUint(long val) throws PcosError;
@@ -32,7 +35,24 @@ public interface OutputBlock
 	void writeDouble( double v ) throws PcosError;
 	void writeString( String s ) throws PcosError;
 
+	// Arrays of primitives, encoded in bulk. The VarArray forms prefix
+	// the elements with their uint count.
+	void writeIntArray( int[] src, int off, int count ) throws PcosError;
+	void writeUintArray( long[] src, int off, int count ) throws PcosError;
+	void writeLongArray( long[] src, int off, int count ) throws PcosError;
+	void writeUlongArray( long[] src, int off, int count ) throws PcosError;
+	void writeDoubleArray( double[] src, int off, int count ) throws PcosError;
+	void writeIntVarArray( int[] src, int off, int count ) throws PcosError;
+	void writeUintVarArray( long[] src, int off, int count ) throws PcosError;
+	void writeLongVarArray( long[] src, int off, int count ) throws PcosError;
+	void writeUlongVarArray( long[] src, int off, int count ) throws PcosError;
+	void writeDoubleVarArray( double[] src, int off, int count ) throws PcosError;
+
 	String name();
-	int size();
+	// Octets written so far, including any already passed on to a stream.
+	long size();
 	byte[] toBytes() throws PcosError;
+
+	// Written bytes without copying -- position 0, limit size().
+	ByteBuffer asByteBuffer() throws PcosError;
 }
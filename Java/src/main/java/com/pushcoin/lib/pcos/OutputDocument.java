@@ -18,9 +18,19 @@
 
 package com.pushcoin.lib.pcos;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
 public interface OutputDocument 
 {
 	String getDocumentName();
 	void addBlock(OutputBlock b) throws PcosError;
 	byte[] toBytes() throws PcosError;
+
+	// Exact size of the serialized message, for use with writeTo().
+	int size();
+	int writeTo(byte[] dst, int offset) throws PcosError;
+	void writeTo(ByteBuffer dst) throws PcosError;
+	long writeTo(GatheringByteChannel channel) throws IOException, PcosError;
 }
@@ -0,0 +1,512 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * InputBlock over a region of a file of any size, with long offsets.
+ *
+ * Nothing is read up front. The file is mapped one page at a time around
+ * the reading position; a value running past the current page moves the
+ * page to start at that value, and a value longer than a page is mapped on
+ * its own. Reads go through a ByteBufferBlockReader over the current page.
+ *
+ * readingPosition() and size() are relative to the start of the block and
+ * saturate at Integer.MAX_VALUE; position() and length() give the exact
+ * values.
+ */
+public class PagedBlockReader implements InputBlock
+{
+	private static final String MALFORMED_ERR_ = "run out of input bytes - incomplete or corrupted message";
+
+	private final FileChannel channel_;
+	private final long start_, length_;
+	private final int pageSize_;
+	private final String name_;
+
+	// current page, at pageStart_ within the block; null until first read
+	private final ByteBufferBlockReader page_ = new ByteBufferBlockReader();
+	private boolean mapped_;
+	private long pageStart_;
+	private int pageLength_;
+	// reading position while no page is mapped
+	private long position_;
+
+	public PagedBlockReader(FileChannel channel, long start, long length, int pageSize, String name)
+	{
+		channel_ = channel;
+		start_ = start;
+		length_ = length;
+		pageSize_ = pageSize;
+		name_ = name;
+	}
+
+	/**
+	 * Reading position relative to the start of the block.
+	 */
+	public long position()
+	{
+		return mapped_ ? pageStart_ + page_.readingPosition() : position_;
+	}
+
+	public long length()
+	{
+		return length_;
+	}
+
+	/**
+	 * Moves the reading position, relative to the start of the block.
+	 */
+	public void seek(long position) throws PcosError
+	{
+		if (position < 0 || position > length_) {
+			throw malformed();
+		}
+		unmap(position);
+	}
+
+	private long remaining()
+	{
+		return length_ - position();
+	}
+
+	/**
+	 * Makes the next n bytes, or what is left of the block if less, readable
+	 * from the current page.
+	 */
+	private ByteBufferBlockReader page(long n) throws PcosError
+	{
+		long pos = position();
+		long want = Math.min(n, length_ - pos);
+		if (mapped_ && pageStart_ + pageLength_ - pos >= want) {
+			return page_;
+		}
+		if (want > Integer.MAX_VALUE) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "value exceeds 2 GB" );
+		}
+		int len = (int) Math.min(Math.max(want, pageSize_), length_ - pos);
+		try {
+			ByteBuffer map = channel_.map(FileChannel.MapMode.READ_ONLY, start_ + pos, len);
+			page_.reset(map, 0, len, name_);
+		}
+		catch (IOException e) {
+			throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "cannot map " + name_ + ": " + e );
+		}
+		mapped_ = true;
+		pageStart_ = pos;
+		pageLength_ = len;
+		return page_;
+	}
+
+	private void unmap(long position)
+	{
+		mapped_ = false;
+		position_ = position;
+	}
+
+	private void checkRemaining(long n) throws PcosError
+	{
+		if (n < 0 || n > remaining()) {
+			throw malformed();
+		}
+	}
+
+	@Override
+	public boolean inspect( Inspector inspector ) throws PcosError {
+		return page(remaining()).inspect(inspector);
+	}
+
+	@Override
+	public boolean readBool() throws PcosError
+	{
+		return page(1).readBool();
+	}
+
+	@Override
+	public byte readByte() throws PcosError
+	{
+		return page(1).readByte();
+	}
+
+	@Override
+	public byte[] readBytes(long length) throws PcosError
+	{
+		checkRemaining(length);
+		return page(length).readBytes(length);
+	}
+
+	@Override
+	public void readBytes(byte[] dst, int off, int len) throws PcosError
+	{
+		checkRemaining(len);
+		page(len).readBytes(dst, off, len);
+	}
+
+	@Override
+	public ByteBuffer readBytesView(long length) throws PcosError
+	{
+		checkRemaining(length);
+		return page(length).readBytesView(length);
+	}
+
+	@Override
+	public void skipBytes(long length) throws PcosError
+	{
+		checkRemaining(length);
+		long target = position() + length;
+		if (mapped_ && target <= pageStart_ + pageLength_) {
+			page_.skipBytes(length);
+		}
+		else {
+			unmap(target);
+		}
+	}
+
+	@Override
+	public void skipVarInt() throws PcosError
+	{
+		page(WireFormat.MAX_VARINT_SIZE).skipVarInt();
+	}
+
+	@Override
+	public void skipByteStr() throws PcosError
+	{
+		skipBytes(readUint());
+	}
+
+	@Override
+	public void skipDouble() throws PcosError
+	{
+		skipBytes(WireFormat.DOUBLE_SIZE);
+	}
+
+	@Override
+	public byte[] readByteStr(long maxlen) throws PcosError
+	{
+		return readBytes(readByteStrLength(maxlen));
+	}
+
+	@Override
+	public ByteBuffer readByteStrView(long maxlen) throws PcosError
+	{
+		return readBytesView(readByteStrLength(maxlen));
+	}
+
+	private long readByteStrLength(long maxlen) throws PcosError
+	{
+		long length = readUint();
+		if (maxlen != 0 && length > maxlen)
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input byte-sequence exceeds max length" );
+		return length;
+	}
+
+	@Override
+	public double readDouble() throws PcosError
+	{
+		return page(WireFormat.DOUBLE_SIZE).readDouble();
+	}
+
+	@Override
+	public int readInt() throws PcosError
+	{
+		return page(5).readInt();
+	}
+
+	@Override
+	public long readUint() throws PcosError
+	{
+		return page(5).readUint();
+	}
+
+	@Override
+	public long readLong() throws PcosError
+	{
+		return page(WireFormat.MAX_VARINT_SIZE).readLong();
+	}
+
+	@Override
+	public long readUlong() throws PcosError
+	{
+		return page(WireFormat.MAX_VARINT_SIZE).readUlong();
+	}
+
+	@Override
+	public void readIntArray(int[] dst, int off, int count) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			dst[i] = readInt();
+		}
+	}
+
+	@Override
+	public void readUintArray(long[] dst, int off, int count) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			dst[i] = readUint();
+		}
+	}
+
+	@Override
+	public void readLongArray(long[] dst, int off, int count) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			dst[i] = readLong();
+		}
+	}
+
+	@Override
+	public void readUlongArray(long[] dst, int off, int count) throws PcosError
+	{
+		for (int i = off; i < off + count; ++i) {
+			dst[i] = readUlong();
+		}
+	}
+
+	@Override
+	public void readDoubleArray(double[] dst, int off, int count) throws PcosError
+	{
+		long size = (long) count * WireFormat.DOUBLE_SIZE;
+		checkRemaining(size);
+		if (size <= pageSize_) {
+			page(size).readDoubleArray(dst, off, count);
+			return;
+		}
+		for (int i = off; i < off + count; ++i) {
+			dst[i] = readDouble();
+		}
+	}
+
+	@Override
+	public int readIntVarArray(int[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readIntArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUintVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUintArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readLongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readLongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readUlongVarArray(long[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readUlongArray( dst, off, count );
+		return count;
+	}
+
+	@Override
+	public int readDoubleVarArray(double[] dst, int off) throws PcosError
+	{
+		int count = readArrayLength( dst.length - off );
+		readDoubleArray( dst, off, count );
+		return count;
+	}
+
+	private int readArrayLength(int room) throws PcosError
+	{
+		long count = readUint();
+		if (count > room)
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "input array exceeds destination length" );
+		return (int) count;
+	}
+
+	@Override
+	public String readString(long maxlen) throws PcosError
+	{
+		return WireFormat.decodeUtf8( readByteStr( maxlen ) );
+	}
+
+	@Override
+	public Utf8View readUtf8View(long maxlen) throws PcosError
+	{
+		long length = readByteStrLength( maxlen );
+		checkRemaining( length );
+		if (length == 0) {
+			return null;
+		}
+		ByteBuffer view = page( length ).readBytesView( length );
+		return new Utf8View( view, 0, (int) length );
+	}
+
+	@Override
+	public boolean tryReadBool(DecodeStatus status)
+	{
+		return tryReadByte(status) != 0;
+	}
+
+	@Override
+	public byte tryReadByte(DecodeStatus status)
+	{
+		if (!status.ok()) {
+			return 0;
+		}
+		long position = position();
+		byte val = page(1).tryReadByte(status);
+		return status.ok() ? val : (byte) failedAt(status, position);
+	}
+
+	@Override
+	public int tryReadInt(DecodeStatus status)
+	{
+		long val = tryReadUint(status);
+		return (int) ((val >> 1) ^ (-(val & 1)));
+	}
+
+	@Override
+	public long tryReadUint(DecodeStatus status)
+	{
+		if (!status.ok()) {
+			return 0;
+		}
+		long position = position();
+		long val = page(5).tryReadUint(status);
+		return status.ok() ? val : failedAt(status, position);
+	}
+
+	@Override
+	public long tryReadLong(DecodeStatus status)
+	{
+		long val = tryReadUlong(status);
+		return (val >>> 1) ^ (-(val & 1));
+	}
+
+	@Override
+	public long tryReadUlong(DecodeStatus status)
+	{
+		if (!status.ok()) {
+			return 0;
+		}
+		long position = position();
+		long val = page(WireFormat.MAX_VARINT_SIZE).tryReadUlong(status);
+		return status.ok() ? val : failedAt(status, position);
+	}
+
+	@Override
+	public double tryReadDouble(DecodeStatus status)
+	{
+		if (!status.ok()) {
+			return 0;
+		}
+		long position = position();
+		double val = page(WireFormat.DOUBLE_SIZE).tryReadDouble(status);
+		return status.ok() ? val : failedAt(status, position);
+	}
+
+	@Override
+	public boolean trySkipBytes(long length, DecodeStatus status)
+	{
+		if (length < 0 || length > remaining()) {
+			status.fail(PcosErrorCode.ERR_MALFORMED_MESSAGE, readingPosition(), MALFORMED_ERR_);
+		}
+		if (!status.ok()) {
+			return false;
+		}
+		skipBytes(length);
+		return true;
+	}
+
+	@Override
+	public byte[] tryReadBytes(long length, DecodeStatus status)
+	{
+		if (length < 0 || length > remaining()) {
+			status.fail(PcosErrorCode.ERR_MALFORMED_MESSAGE, readingPosition(), MALFORMED_ERR_);
+		}
+		else if (length > Integer.MAX_VALUE) {
+			status.fail(PcosErrorCode.ERR_ARG_OUT_OF_RANGE, readingPosition(), "value exceeds 2 GB");
+		}
+		if (!status.ok()) {
+			return null;
+		}
+		return page(length).readBytes(length);
+	}
+
+	@Override
+	public byte[] tryReadByteStr(long maxlen, DecodeStatus status)
+	{
+		return tryReadBytes(tryReadByteStrLength(maxlen, status), status);
+	}
+
+	@Override
+	public String tryReadString(long maxlen, DecodeStatus status)
+	{
+		return WireFormat.decodeUtf8( tryReadByteStr( maxlen, status ) );
+	}
+
+	private long tryReadByteStrLength(long maxlen, DecodeStatus status)
+	{
+		int at = readingPosition();
+		long length = tryReadUint(status);
+		if (maxlen != 0 && length > maxlen)
+		{
+			status.fail( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, at, "input byte-sequence exceeds max length" );
+			return 0;
+		}
+		return length;
+	}
+
+	/**
+	 * The page reader reports offsets within the page; moves the failure to
+	 * its position in the block.
+	 */
+	private static long failedAt(DecodeStatus status, long position)
+	{
+		status.relocate((int) Math.min(position, Integer.MAX_VALUE));
+		return 0;
+	}
+
+	@Override
+	public int readingPosition()
+	{
+		return (int) Math.min( position(), Integer.MAX_VALUE );
+	}
+
+	@Override
+	public String name()
+	{
+		return name_;
+	}
+
+	@Override
+	public int size()
+	{
+		return (int) Math.min( length_, Integer.MAX_VALUE );
+	}
+
+	private static PcosError malformed()
+	{
+		return PcosError.stackless( PcosErrorCode.ERR_MALFORMED_MESSAGE, MALFORMED_ERR_ );
+	}
+}
@@ -32,7 +32,38 @@ public class PcosError extends RuntimeException
 		code_ = ercode.code;
 	}
 
+	public PcosError(PcosErrorCode ercode, String reason, Throwable cause)
+	{
+		super(reason, cause);
+		code_ = ercode.code;
+	}
+
 	public int getCode() {
 		return code_;
 	}
+
+	/**
+	 * Error without a stack trace, for failures which are routine on the hot
+	 * path (truncated or corrupted input) and cheap to create only when thrown.
+	 */
+	static PcosError stackless(PcosErrorCode ercode, String reason)
+	{
+		return new Stackless(ercode, reason);
+	}
+
+	private static final class Stackless extends PcosError
+	{
+		private static final long serialVersionUID = 1L;
+
+		Stackless(PcosErrorCode ercode, String reason)
+		{
+			super(ercode, reason);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace()
+		{
+			return this;
+		}
+	}
 }
@@ -29,7 +29,8 @@ public enum PcosErrorCode
 	ERR_BAD_MAGIC(102),
 	ERR_ARG_OUT_OF_RANGE(103),
 	ERR_BLOCK_NOT_FOUND(104),
-	ERR_BAD_CHAR_ENCODING(105);
+	ERR_BAD_CHAR_ENCODING(105),
+	ERR_BAD_SCHEMA(106);
 	
 	public int code;
 	
@@ -0,0 +1,96 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.util.ArrayList;
+
+/**
+ * DocumentWriter taken from a WriterPool. Its blocks come from addBlock(name)
+ * and are kept, buffers included, for the next message after release().
+ * Neither the document nor its blocks may be used once released.
+ */
+public final class PooledWriter extends DocumentWriter
+{
+	private final WriterPool pool_;
+	private final ArrayList<BlockWriter> spare_ = new ArrayList<BlockWriter>();
+	// blocks of spare_ handed out for the current message
+	private int used_;
+	// set while the writer sits in the pool
+	boolean idle_;
+
+	PooledWriter(WriterPool pool, String name) throws PcosError
+	{
+		super( name );
+		pool_ = pool;
+	}
+
+	/**
+	 * Adds a new, empty block to the message and returns it for writing.
+	 */
+	public BlockWriter addBlock(String name) throws PcosError
+	{
+		BlockWriter b;
+		if (used_ < spare_.size())
+		{
+			b = spare_.get( used_ );
+			b.reset( name );
+		}
+		else
+		{
+			b = new BlockWriter( name );
+			spare_.add( b );
+		}
+		++used_;
+		addBlock( b );
+		return b;
+	}
+
+	/**
+	 * Hands the writer back to its pool.
+	 */
+	public void release() throws PcosError
+	{
+		pool_.release( this );
+	}
+
+	void recycle(String name) throws PcosError
+	{
+		reset( name );
+		used_ = 0;
+	}
+
+	/**
+	 * Octets held by the block buffers.
+	 */
+	long retainedBytes()
+	{
+		long bytes = 0;
+		for (int i = 0; i < spare_.size(); ++i) {
+			bytes += spare_.get( i ).capacity();
+		}
+		return bytes;
+	}
+
+	void trim()
+	{
+		for (int i = 0; i < spare_.size(); ++i) {
+			spare_.get( i ).trim();
+		}
+	}
+}
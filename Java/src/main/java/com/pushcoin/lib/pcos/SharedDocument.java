@@ -0,0 +1,339 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parsed PCOS message which any number of threads can read at once.
+ *
+ * The message is parsed once; the block directory is immutable from then
+ * on. Each getBlock() call returns a new cursor at the start of the block,
+ * owned by the caller, so threads never share reading positions and need
+ * no locking. Cursors read the input in place; it must not change while
+ * the document is in use.
+ */
+public final class SharedDocument implements InputDocument
+{
+	private static final String MAGIC_ = "PCOS";
+
+	private final byte[] array_;
+	private final ByteBuffer buffer_;
+	private final String documentName_;
+	private final String[] names_;
+	private final int[] offsets_, lengths_;
+	private final int messageLength_;
+	// block index by name; a repeated name maps to its last block
+	private final Map<String, Integer> index_;
+
+	public SharedDocument(byte[] input) throws PcosError
+	{
+		this(input, 0, input.length);
+	}
+
+	public SharedDocument(byte[] input, int offset, int length) throws PcosError
+	{
+		this(new DocumentReader(input, offset, length), input, null);
+	}
+
+	/**
+	 * Parses the message between the buffer's position and limit, which
+	 * are left as they are. The buffer is read with absolute gets only, so
+	 * concurrent cursors do not disturb each other.
+	 */
+	public SharedDocument(ByteBuffer input) throws PcosError
+	{
+		this(new DocumentReader(input), input.hasArray() ? input.array() : null, input.hasArray() ? null : input);
+	}
+
+	private SharedDocument(DocumentReader parsed, byte[] array, ByteBuffer buffer)
+	{
+		array_ = array;
+		buffer_ = buffer;
+		documentName_ = parsed.getDocumentName();
+		messageLength_ = parsed.getMessageLength();
+		int count = (int) parsed.getBlockCount();
+		names_ = new String[count];
+		offsets_ = new int[count];
+		lengths_ = new int[count];
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < count; ++i)
+		{
+			names_[i] = parsed.blockName(i);
+			offsets_[i] = parsed.blockOffset(i);
+			lengths_[i] = parsed.blockLength(i);
+			index.put(names_[i], i);
+		}
+		index_ = index;
+	}
+
+	@Override
+	public String getMagic()
+	{
+		return MAGIC_;
+	}
+
+	@Override
+	public String getDocumentName()
+	{
+		return documentName_;
+	}
+
+	@Override
+	public long getBlockCount()
+	{
+		return names_.length;
+	}
+
+	/**
+	 * Bytes the message takes, header included.
+	 */
+	public int getMessageLength()
+	{
+		return messageLength_;
+	}
+
+	/**
+	 * A new map of new cursors on every call.
+	 */
+	@Override
+	public Map<String, InputBlock> getBlocks()
+	{
+		Map<String, InputBlock> blocks = new TreeMap<String, InputBlock>();
+		for (int i = 0; i < names_.length; ++i) {
+			blocks.put( names_[i], cursor( i ) );
+		}
+		return Collections.unmodifiableMap( blocks );
+	}
+
+	/**
+	 * A new cursor at the start of the named block.
+	 */
+	@Override
+	public InputBlock getBlock(String name) throws PcosError
+	{
+		Integer i = index_.get( name );
+		if (i == null) {
+			throw new PcosError( PcosErrorCode.ERR_BLOCK_NOT_FOUND, "Block not found in PCOS message: " + name );
+		}
+		return cursor( i );
+	}
+
+	@Override
+	public InputBlock getBlock(BlockKey key) throws PcosError
+	{
+		return getBlock( key.name() );
+	}
+
+	/**
+	 * Decodes the named blocks concurrently on executor and returns the
+	 * results keyed by block name, in the order of decoders.
+	 *
+	 * Each block is a task of its own; an ArrayBlockDecoder's array is
+	 * further split into ranges. Every task writes only its own result slot
+	 * and the calling thread waits for all of them, so results are gathered
+	 * without locking. All blocks are looked up before any task is started,
+	 * and tasks the executor rejects run on the calling thread. The first
+	 * error raised by a decoder is rethrown once all tasks have finished.
+	 */
+	public <T> Map<String, T> decodeBlocks(Map<String, ? extends BlockDecoder<? extends T>> decoders, Executor executor) throws PcosError
+	{
+		int count = decoders.size();
+		String[] names = new String[count];
+		Object[] results = new Object[count];
+		List<Task> tasks = new ArrayList<Task>();
+
+		int slot = 0;
+		for (Map.Entry<String, ? extends BlockDecoder<? extends T>> e : decoders.entrySet())
+		{
+			Integer i = index_.get( e.getKey() );
+			if (i == null) {
+				throw new PcosError( PcosErrorCode.ERR_BLOCK_NOT_FOUND, "Block not found in PCOS message: " + e.getKey() );
+			}
+			names[slot] = e.getKey();
+			if (e.getValue() instanceof ArrayBlockDecoder) {
+				split( i, (ArrayBlockDecoder<?>) e.getValue(), results, slot, tasks );
+			}
+			else {
+				tasks.add( new BlockTask( cursor( i ), e.getValue(), results, slot ) );
+			}
+			++slot;
+		}
+
+		CountDownLatch done = new CountDownLatch( tasks.size() );
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (Task task : tasks)
+		{
+			task.done_ = done;
+			task.failure_ = failure;
+			try {
+				executor.execute( task );
+			}
+			catch (RejectedExecutionException e) {
+				task.run();
+			}
+		}
+		awaitUninterruptibly( done );
+
+		Throwable error = failure.get();
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		}
+		if (error != null) {
+			throw (Error) error;
+		}
+		Map<String, T> decoded = new LinkedHashMap<String, T>();
+		for (int i = 0; i < count; ++i)
+		{
+			@SuppressWarnings("unchecked")
+			T value = (T) results[i];
+			decoded.put( names[i], value );
+		}
+		return decoded;
+	}
+
+	/**
+	 * Reads the element count and queues one task per range of the array.
+	 */
+	private <R> void split(int block, ArrayBlockDecoder<R> decoder, Object[] results, int slot, List<Task> tasks) throws PcosError
+	{
+		InputBlock in = cursor( block );
+		int start = in.readingPosition();
+		int count = decoder.count( in );
+		R result = decoder.newResult( count );
+		results[slot] = result;
+		int first = offsets_[block] + (in.readingPosition() - start);
+		int size = decoder.elementSize();
+		for (int from = 0; from < count; )
+		{
+			int to = (int) Math.min( count, (long) from + decoder.elementsPerTask() );
+			tasks.add( new RangeTask<R>( slice( block, first + from * size, (to - from) * size ), decoder, from, to, result ) );
+			from = to;
+		}
+	}
+
+	private static void awaitUninterruptibly(CountDownLatch latch)
+	{
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				latch.await();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Unit of decodeBlocks() work; the latch and the error holder are set
+	// before the task is handed to the executor.
+	private static abstract class Task implements Runnable
+	{
+		CountDownLatch done_;
+		AtomicReference<Throwable> failure_;
+
+		abstract void decode() throws PcosError;
+
+		public final void run()
+		{
+			try {
+				decode();
+			}
+			catch (Throwable e) {
+				failure_.compareAndSet( null, e );
+			}
+			finally {
+				done_.countDown();
+			}
+		}
+	}
+
+	private static final class BlockTask extends Task
+	{
+		private final InputBlock in_;
+		private final BlockDecoder<?> decoder_;
+		private final Object[] results_;
+		private final int slot_;
+
+		BlockTask(InputBlock in, BlockDecoder<?> decoder, Object[] results, int slot)
+		{
+			in_ = in;
+			decoder_ = decoder;
+			results_ = results;
+			slot_ = slot;
+		}
+
+		void decode() throws PcosError
+		{
+			results_[slot_] = decoder_.decode( in_ );
+		}
+	}
+
+	private static final class RangeTask<R> extends Task
+	{
+		private final InputBlock in_;
+		private final ArrayBlockDecoder<R> decoder_;
+		private final int from_, to_;
+		private final R result_;
+
+		RangeTask(InputBlock in, ArrayBlockDecoder<R> decoder, int from, int to, R result)
+		{
+			in_ = in;
+			decoder_ = decoder;
+			from_ = from;
+			to_ = to;
+			result_ = result;
+		}
+
+		void decode() throws PcosError
+		{
+			decoder_.decodeRange( in_, from_, to_, result_ );
+		}
+	}
+
+	private InputBlock cursor(int i)
+	{
+		return slice( i, offsets_[i], lengths_[i] );
+	}
+
+	private InputBlock slice(int i, int offset, int length)
+	{
+		if (array_ != null) {
+			return new BlockReader( array_, offset, length, names_[i] );
+		}
+		return new ByteBufferBlockReader( buffer_, offset, length, names_[i] );
+	}
+}
@@ -0,0 +1,225 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only byte store holding up to memoryLimit bytes in fixed-size
+ * chunks and the rest in a temp file. Bytes come back out in order via
+ * transferTo(), as often as needed, until close().
+ */
+final class Spool extends OutputStream
+{
+	private final BufferPool pool_;
+	private final int chunkSize_;
+	private final long memoryLimit_;
+	private final File tempDir_;
+
+	// full chunks kept in memory, then the file, then the partial chunk
+	private final List<byte[]> chunks_ = new ArrayList<byte[]>();
+	private long inMemory_;
+	private File file_;
+	private RandomAccessFile raf_;
+	private FileChannel channel_;
+	private long inFile_;
+	private byte[] tail_;
+	private int tailLength_;
+
+	Spool(BufferPool pool, int chunkSize, long memoryLimit, File tempDir)
+	{
+		pool_ = pool;
+		chunkSize_ = chunkSize;
+		memoryLimit_ = memoryLimit;
+		tempDir_ = tempDir;
+	}
+
+	long size()
+	{
+		return inMemory_ + inFile_ + tailLength_;
+	}
+
+	/**
+	 * Whether part of the data went to the temp file.
+	 */
+	boolean spilled()
+	{
+		return file_ != null;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if (tail_ == null || tailLength_ == tail_.length) {
+			nextChunk();
+		}
+		tail_[tailLength_++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] src, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			if (tail_ == null || tailLength_ == tail_.length) {
+				nextChunk();
+			}
+			int n = Math.min(len, tail_.length - tailLength_);
+			System.arraycopy(src, off, tail_, tailLength_, n);
+			tailLength_ += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Files the full tail chunk -- in memory while under the limit, in the
+	 * temp file after that -- and makes room for more.
+	 */
+	private void nextChunk() throws IOException
+	{
+		if (tail_ == null)
+		{
+			tail_ = acquire();
+			return;
+		}
+		if (file_ == null && inMemory_ + tail_.length <= memoryLimit_)
+		{
+			chunks_.add(tail_);
+			inMemory_ += tail_.length;
+			tail_ = acquire();
+		}
+		else
+		{
+			if (file_ == null)
+			{
+				file_ = File.createTempFile("pcos-", ".spool", tempDir_);
+				raf_ = new RandomAccessFile(file_, "rw");
+				channel_ = raf_.getChannel();
+			}
+			ByteBuffer src = ByteBuffer.wrap(tail_, 0, tailLength_);
+			while (src.hasRemaining()) {
+				inFile_ += channel_.write(src, inFile_);
+			}
+		}
+		tailLength_ = 0;
+	}
+
+	private byte[] acquire()
+	{
+		return (pool_ != null) ? pool_.acquire(chunkSize_) : new byte[chunkSize_];
+	}
+
+	/**
+	 * Writes every byte to a channel in blocking mode. The file part is
+	 * handed over with FileChannel.transferTo(), which the OS may do without
+	 * copying through the heap.
+	 */
+	void transferTo(WritableByteChannel out) throws IOException
+	{
+		for (byte[] chunk : chunks_) {
+			writeFully(out, ByteBuffer.wrap(chunk));
+		}
+		for (long pos = 0; pos < inFile_; ) {
+			pos += channel_.transferTo(pos, inFile_ - pos, out);
+		}
+		if (tail_ != null) {
+			writeFully(out, ByteBuffer.wrap(tail_, 0, tailLength_));
+		}
+	}
+
+	/**
+	 * Writes every byte to a stream. The file part is copied through one
+	 * chunk-sized buffer.
+	 */
+	void transferTo(OutputStream out) throws IOException
+	{
+		for (byte[] chunk : chunks_) {
+			out.write(chunk);
+		}
+		if (inFile_ > 0)
+		{
+			byte[] copy = acquire();
+			try
+			{
+				ByteBuffer view = ByteBuffer.wrap(copy);
+				for (long pos = 0; pos < inFile_; )
+				{
+					view.clear();
+					int n = channel_.read(view, pos);
+					out.write(copy, 0, n);
+					pos += n;
+				}
+			}
+			finally
+			{
+				if (pool_ != null) {
+					pool_.release(copy);
+				}
+			}
+		}
+		if (tail_ != null) {
+			out.write(tail_, 0, tailLength_);
+		}
+	}
+
+	static void writeFully(WritableByteChannel out, ByteBuffer src) throws IOException
+	{
+		while (src.hasRemaining()) {
+			out.write(src);
+		}
+	}
+
+	/**
+	 * Returns the chunks to the pool and deletes the temp file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (pool_ != null)
+		{
+			for (byte[] chunk : chunks_) {
+				pool_.release(chunk);
+			}
+			pool_.release(tail_);
+		}
+		chunks_.clear();
+		tail_ = null;
+		inMemory_ = inFile_ = tailLength_ = 0;
+		if (file_ != null)
+		{
+			try {
+				raf_.close();
+			}
+			finally
+			{
+				file_.delete();
+				file_ = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Builds messages too large to hold in memory as a whole.
+ *
+ * The enumeration of block lengths precedes the data, so a DocumentWriter
+ * keeps every block in memory until the end. This writer instead streams
+ * each block, as it is written, into a spool of fixed-size chunks which
+ * moves on to a temp file once memoryLimit is reached. The header is
+ * produced last and sent ahead of the spooled data by writeTo(). Heap use
+ * stays at memoryLimit plus one chunk whatever the size of the document.
+ *
+ * Blocks are written one after another: a block is complete once the
+ * next one is added. close() frees the chunks and deletes the temp file.
+ */
+public class StreamingDocumentWriter implements Closeable
+{
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	public static final long DEFAULT_MEMORY_LIMIT = 4L * 1024 * 1024;
+
+	private final DocumentWriter header_;
+	private final Spool spool_;
+	private BlockWriter current_;
+	private long currentStart_;
+
+	public StreamingDocumentWriter( String name ) throws PcosError
+	{
+		this( name, null, DEFAULT_CHUNK_SIZE, DEFAULT_MEMORY_LIMIT, null );
+	}
+
+	/**
+	 * Chunks come from pool, if given. Data beyond memoryLimit goes to a temp
+	 * file in tempDir, or the default temporary-file directory if null.
+	 */
+	public StreamingDocumentWriter( String name, BufferPool pool, int chunkSize, long memoryLimit, File tempDir ) throws PcosError
+	{
+		if (chunkSize <= 0 || memoryLimit < 0) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "invalid spool limits" );
+		}
+		header_ = new DocumentWriter( name );
+		spool_ = new Spool( pool, chunkSize, memoryLimit, tempDir );
+	}
+
+	public String getDocumentName()
+	{
+		return header_.getDocumentName();
+	}
+
+	/**
+	 * Starts the next block, which completes the previous one. Values written
+	 * to the returned block are spooled right away.
+	 */
+	public OutputBlock addBlock( String name ) throws PcosError
+	{
+		completeBlock();
+		BlockWriter blk = new BlockWriter( name, spool_ );
+		header_.addBlock( blk );
+		current_ = blk;
+		currentStart_ = spool_.size();
+		return blk;
+	}
+
+	/**
+	 * Exact number of bytes the serialized message takes.
+	 */
+	public long size() throws PcosError
+	{
+		completeBlock();
+		return header_.calcHeaderSize() + spool_.size();
+	}
+
+	/**
+	 * Whether the spooled data outgrew memoryLimit and went to a temp file.
+	 */
+	public boolean spilled()
+	{
+		return spool_.spilled();
+	}
+
+	/**
+	 * Sends header and spooled blocks. Returns the number of bytes written.
+	 */
+	public long writeTo( OutputStream out ) throws IOException, PcosError
+	{
+		byte[] header = header();
+		out.write( header );
+		spool_.transferTo( out );
+		return header.length + spool_.size();
+	}
+
+	/**
+	 * Sends header and spooled blocks to a channel in blocking mode.
+	 * Returns the number of bytes written.
+	 */
+	public long writeTo( WritableByteChannel channel ) throws IOException, PcosError
+	{
+		byte[] header = header();
+		Spool.writeFully( channel, ByteBuffer.wrap( header ) );
+		spool_.transferTo( channel );
+		return header.length + spool_.size();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		spool_.close();
+	}
+
+	private byte[] header() throws PcosError
+	{
+		completeBlock();
+		byte[] header = new byte[ header_.calcHeaderSize() ];
+		header_.writeHeader( header, 0 );
+		return header;
+	}
+
+	/**
+	 * Blocks share the spool, so anything written to an earlier block after
+	 * the current one was added would end up inside the current one, or be
+	 * left in the earlier block's chunk and missing from the spool.
+	 */
+	private void completeBlock() throws PcosError
+	{
+		if (current_ == null) {
+			return;
+		}
+		current_.flush();
+		if (current_.size() != spool_.size() - currentStart_ || header_.calcDataSegmentSize() != spool_.size()) {
+			throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "block '" + current_.name() + "' was interleaved with another block" );
+		}
+	}
+}
@@ -0,0 +1,197 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8 string read off the wire, left in place in the message buffer.
+ *
+ * Characters are decoded on first use of the CharSequence methods; hashing,
+ * equality and contentEquals() work on the raw bytes, so a view that is only
+ * compared or forwarded is never decoded. A view is only valid for as long as
+ * the buffer it was read from is left unmodified.
+ */
+public final class Utf8View implements CharSequence
+{
+	// exactly one of array_ and buffer_ is set; off_ is an absolute index into it
+	private final byte[] array_;
+	private final ByteBuffer buffer_;
+	private final int off_, len_;
+	private String decoded_;
+	private int hash_;
+
+	Utf8View(byte[] src, int off, int len)
+	{
+		array_ = src;
+		buffer_ = null;
+		off_ = off;
+		len_ = len;
+	}
+
+	Utf8View(ByteBuffer src, int off, int len)
+	{
+		array_ = null;
+		buffer_ = src;
+		off_ = off;
+		len_ = len;
+	}
+
+	/**
+	 * Number of UTF-8 bytes, as opposed to length() which counts characters.
+	 */
+	public int byteLength()
+	{
+		return len_;
+	}
+
+	/**
+	 * Read-only view of the UTF-8 bytes.
+	 */
+	public ByteBuffer asByteBuffer()
+	{
+		if (array_ != null) {
+			return ByteBuffer.wrap( array_, off_, len_ ).slice().asReadOnlyBuffer();
+		}
+		ByteBuffer view = buffer_.asReadOnlyBuffer();
+		view.limit( off_ + len_ ).position( off_ );
+		return view.slice();
+	}
+
+	/**
+	 * True if the bytes are the UTF-8 encoding of s.
+	 */
+	public boolean contentEquals(String s)
+	{
+		if (s == null) {
+			return false;
+		}
+		if (array_ != null) {
+			return WireFormat.utf8Equals( array_, off_, len_, s );
+		}
+		if (decoded_ != null) {
+			return decoded_.equals( s );
+		}
+		byte[] encoded = s.getBytes( WireFormat.UTF8 );
+		if (encoded.length != len_) {
+			return false;
+		}
+		for (int i = 0; i < len_; ++i)
+		{
+			if (buffer_.get(off_+i) != encoded[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int length()
+	{
+		return toString().length();
+	}
+
+	@Override
+	public char charAt(int index)
+	{
+		return toString().charAt( index );
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end)
+	{
+		return toString().subSequence( start, end );
+	}
+
+	@Override
+	public String toString()
+	{
+		if (decoded_ == null)
+		{
+			if (array_ != null) {
+				decoded_ = new String( array_, off_, len_, WireFormat.UTF8 );
+			}
+			else
+			{
+				byte[] copy = new byte[len_];
+				for (int i = 0; i < len_; ++i) {
+					copy[i] = buffer_.get(off_+i);
+				}
+				decoded_ = new String( copy, WireFormat.UTF8 );
+			}
+		}
+		return decoded_;
+	}
+
+	/**
+	 * Hash of the UTF-8 bytes; for ASCII content it equals String.hashCode().
+	 */
+	@Override
+	public int hashCode()
+	{
+		int h = hash_;
+		if (h == 0 && len_ != 0)
+		{
+			if (array_ != null) {
+				h = WireFormat.hash( array_, off_, len_ );
+			}
+			else
+			{
+				for (int i = 0; i < len_; ++i) {
+					h = 31 * h + buffer_.get(off_+i);
+				}
+			}
+			hash_ = h;
+		}
+		return h;
+	}
+
+	/**
+	 * Two views are equal when their UTF-8 bytes are.
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof Utf8View)) {
+			return false;
+		}
+		Utf8View other = (Utf8View) o;
+		if (len_ != other.len_ || hashCode() != other.hashCode()) {
+			return false;
+		}
+		if (array_ != null && other.array_ != null) {
+			return WireFormat.bytesEqual( array_, off_, other.array_, other.off_, len_ );
+		}
+		for (int i = 0; i < len_; ++i)
+		{
+			if (byteAt(i) != other.byteAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte byteAt(int i)
+	{
+		return (array_ != null) ? array_[off_+i] : buffer_.get(off_+i);
+	}
+}
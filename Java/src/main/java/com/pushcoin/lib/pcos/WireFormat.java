@@ -0,0 +1,334 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.nio.charset.Charset;
+
+/**
+ * Encoding and decoding primitives shared by readers and writers,
+ * operating on plain byte arrays.
+ */
+final class WireFormat
+{
+	static final int MAX_VARINT_SIZE = 10;
+	static final int DOUBLE_SIZE = 8;
+
+	static final byte[] EMPTY = new byte[0];
+	static final Charset UTF8 = Charset.forName( ProtocolTag.PROTOCOL_CHARSET );
+
+	private WireFormat() {}
+
+	/**
+	 * Number of octets the varint encoding of val takes. Values are treated
+	 * as unsigned, so negative ones take the full MAX_VARINT_SIZE.
+	 */
+	static int varIntSize( long val )
+	{
+		// 7 payload bits per octet
+		return (64 - Long.numberOfLeadingZeros( val | 1 ) + 6) / 7;
+	}
+
+	/**
+	 * Big-endian varint: the first octet carries the most significant bits,
+	 * every octet but the last has its continuation bit set.
+	 * Returns the position following the varint.
+	 */
+	static int putVarInt( byte[] dst, int pos, long val )
+	{
+		// short values dominate on the wire -- handle them without a loop
+		if ((val & ~0x7fL) == 0)
+		{
+			dst[pos] = (byte) val;
+			return pos + 1;
+		}
+		if ((val & ~0x3fffL) == 0)
+		{
+			dst[pos] = (byte) ((val >>> 7) | 0x80);
+			dst[pos+1] = (byte) (val & 0x7f);
+			return pos + 2;
+		}
+		if ((val & ~0x1fffffL) == 0)
+		{
+			dst[pos] = (byte) ((val >>> 14) | 0x80);
+			dst[pos+1] = (byte) ((val >>> 7) | 0x80);
+			dst[pos+2] = (byte) (val & 0x7f);
+			return pos + 3;
+		}
+
+		// length first, then octets front to back
+		for (int shift = 7 * (varIntSize( val ) - 1); shift > 0; shift -= 7) {
+			dst[pos++] = (byte) ((val >>> shift) | 0x80);
+		}
+		dst[pos] = (byte) (val & 0x7f);
+		return pos + 1;
+	}
+
+	static int putDouble( byte[] dst, int pos, double v )
+	{
+		long bits = Double.doubleToLongBits( v );
+		dst[pos] = (byte) (bits >>> 56);
+		dst[pos+1] = (byte) (bits >>> 48);
+		dst[pos+2] = (byte) (bits >>> 40);
+		dst[pos+3] = (byte) (bits >>> 32);
+		dst[pos+4] = (byte) (bits >>> 24);
+		dst[pos+5] = (byte) (bits >>> 16);
+		dst[pos+6] = (byte) (bits >>> 8);
+		dst[pos+7] = (byte) bits;
+		return pos + 8;
+	}
+
+	/**
+	 * Big-endian 8-byte value starting at pos; bounds are checked by the caller.
+	 */
+	static long getLong( byte[] src, int pos )
+	{
+		return ((long) src[pos] << 56)
+			| ((long) (src[pos+1] & 0xff) << 48)
+			| ((long) (src[pos+2] & 0xff) << 40)
+			| ((long) (src[pos+3] & 0xff) << 32)
+			| ((long) (src[pos+4] & 0xff) << 24)
+			| ((src[pos+5] & 0xff) << 16)
+			| ((src[pos+6] & 0xff) << 8)
+			| (src[pos+7] & 0xff);
+	}
+
+	/**
+	 * Length-prefixed byte-string; null is written as an empty one.
+	 */
+	static int putByteStr( byte[] dst, int pos, byte[] s )
+	{
+		if (s == null) {
+			return putVarInt( dst, pos, 0 );
+		}
+		pos = putVarInt( dst, pos, s.length );
+		System.arraycopy( s, 0, dst, pos, s.length );
+		return pos + s.length;
+	}
+
+	static int byteStrSize( byte[] s )
+	{
+		return (s == null) ? 1 : varIntSize( s.length ) + s.length;
+	}
+
+	/**
+	 * Number of octets in the UTF-8 encoding of s. An unpaired surrogate
+	 * counts as one octet, matching the '?' String.getBytes() substitutes.
+	 */
+	static int utf8Length( String s )
+	{
+		final int n = s.length();
+		int i = 0;
+		while (i < n && s.charAt(i) < 0x80) {
+			++i;
+		}
+		int len = i;
+		for (; i < n; ++i)
+		{
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				len += 1;
+			}
+			else if (c < 0x800) {
+				len += 2;
+			}
+			else if (!isSurrogate( c )) {
+				len += 3;
+			}
+			else if (isPair( s, i ))
+			{
+				len += 4;
+				++i;
+			}
+			else {
+				len += 1;
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Encodes s as UTF-8 at pos; dst must have room for utf8Length(s) octets.
+	 * Returns the position following the string.
+	 */
+	static int putUtf8( byte[] dst, int pos, String s )
+	{
+		return putUtf8( dst, pos, s, 0, s.length() );
+	}
+
+	/**
+	 * Encodes chars [from, n) of s; n must not split a surrogate pair.
+	 */
+	static int putUtf8( byte[] dst, int pos, String s, int from, int n )
+	{
+		int i = from;
+		// ASCII prefix -- for most identifiers, the whole string
+		for (char c; i < n && (c = s.charAt(i)) < 0x80; ++i) {
+			dst[pos++] = (byte) c;
+		}
+		for (; i < n; ++i)
+		{
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				dst[pos++] = (byte) c;
+			}
+			else if (c < 0x800)
+			{
+				dst[pos++] = (byte) (0xc0 | (c >> 6));
+				dst[pos++] = (byte) (0x80 | (c & 0x3f));
+			}
+			else if (!isSurrogate( c ))
+			{
+				dst[pos++] = (byte) (0xe0 | (c >> 12));
+				dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				dst[pos++] = (byte) (0x80 | (c & 0x3f));
+			}
+			else if (isPair( s, i ))
+			{
+				int cp = Character.toCodePoint( c, s.charAt(++i) );
+				dst[pos++] = (byte) (0xf0 | (cp >> 18));
+				dst[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				dst[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				dst[pos++] = (byte) (0x80 | (cp & 0x3f));
+			}
+			else {
+				dst[pos++] = (byte) '?';
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * UTF-8 encoding of s in an exact-size array; null stays null.
+	 */
+	static byte[] encodeUtf8( String s )
+	{
+		if (s == null) {
+			return null;
+		}
+		byte[] encoded = new byte[utf8Length( s )];
+		putUtf8( encoded, 0, s );
+		return encoded;
+	}
+
+	private static boolean isSurrogate( char c )
+	{
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	// high surrogate at i followed by a low one
+	private static boolean isPair( String s, int i )
+	{
+		return Character.isHighSurrogate( s.charAt(i) )
+			&& i + 1 < s.length() && Character.isLowSurrogate( s.charAt(i+1) );
+	}
+
+	/**
+	 * Decodes a UTF-8 byte-string; an empty one decodes to null, as in readString().
+	 */
+	static String decodeUtf8( byte[] src, int off, int len )
+	{
+		return (len == 0) ? null : new String( src, off, len, UTF8 );
+	}
+
+	static String decodeUtf8( byte[] src )
+	{
+		return (src == null) ? null : decodeUtf8( src, 0, src.length );
+	}
+
+	/**
+	 * Compares UTF-8 bytes with a string without decoding the bytes.
+	 */
+	static boolean utf8Equals( byte[] src, int off, int len, String s )
+	{
+		int n = s.length();
+		if (n > len) {
+			return false;
+		}
+		int i = 0;
+		for (; i < n; ++i)
+		{
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			if (src[off+i] != c) {
+				return false;
+			}
+		}
+		if (i == n) {
+			return n == len;
+		}
+
+		// non-ASCII: compare against the encoded remainder
+		byte[] tail = s.substring(i).getBytes( UTF8 );
+		if (tail.length != len - i) {
+			return false;
+		}
+		for (int j = 0; j < tail.length; ++j)
+		{
+			if (src[off+i+j] != tail[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hash of a UTF-8 byte range; for ASCII names it equals String.hashCode().
+	 */
+	static int hash( byte[] src, int off, int len )
+	{
+		int h = 0;
+		for (int i = off; i < off + len; ++i) {
+			h = 31 * h + src[i];
+		}
+		return h;
+	}
+
+	/**
+	 * Same as hash() over the UTF-8 encoding of s. Encodes only when s
+	 * contains non-ASCII characters.
+	 */
+	static int utf8Hash( String s )
+	{
+		int h = 0;
+		for (int i = 0; i < s.length(); ++i)
+		{
+			char c = s.charAt(i);
+			if (c >= 0x80)
+			{
+				byte[] encoded = s.getBytes( UTF8 );
+				return hash( encoded, 0, encoded.length );
+			}
+			h = 31 * h + c;
+		}
+		return h;
+	}
+
+	static boolean bytesEqual( byte[] a, int aoff, byte[] b, int boff, int len )
+	{
+		for (int i = 0; i < len; ++i)
+		{
+			if (a[aoff+i] != b[boff+i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,220 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of reusable document writers for many encoding threads.
+ *
+ * Each thread keeps the writer it released last and gets it back from the
+ * next acquire() without any synchronization. Further writers go to a
+ * shared overflow of sharedSlots slots, filled and emptied by compare-and-set
+ * starting at a slot picked by the thread's identity hash; when the probed
+ * slots are full, the writer is left to the garbage collector. A writer
+ * holding more than maxRetainedBytes of buffers is trimmed on release, so
+ * one huge message does not pin its buffers forever.
+ *
+ * Counters are kept for monitoring. retainedBytes() also counts writers
+ * cached by threads that have since ended.
+ */
+public final class WriterPool
+{
+	private static final int PROBES_ = 4;
+
+	private final long maxRetained_;
+	private final AtomicReferenceArray<PooledWriter> shared_;
+	private final int mask_;
+	private final ThreadLocal<PooledWriter[]> local_ = new ThreadLocal<PooledWriter[]>() {
+		@Override
+		protected PooledWriter[] initialValue() {
+			return new PooledWriter[1];
+		}
+	};
+
+	private final AtomicLong acquired_ = new AtomicLong();
+	private final AtomicLong localHits_ = new AtomicLong();
+	private final AtomicLong sharedHits_ = new AtomicLong();
+	private final AtomicLong trimmed_ = new AtomicLong();
+	private final AtomicLong dropped_ = new AtomicLong();
+	private final AtomicLong retained_ = new AtomicLong();
+
+	public WriterPool()
+	{
+		this( 64 * 1024, 64 );
+	}
+
+	/**
+	 * sharedSlots is rounded up to a power of two.
+	 */
+	public WriterPool(int maxRetainedBytes, int sharedSlots)
+	{
+		if (maxRetainedBytes < 0 || sharedSlots <= 0 || sharedSlots > (1 << 20)) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "invalid writer pool limits" );
+		}
+		int slots = Integer.highestOneBit( sharedSlots );
+		if (slots < sharedSlots) {
+			slots <<= 1;
+		}
+		maxRetained_ = maxRetainedBytes;
+		shared_ = new AtomicReferenceArray<PooledWriter>( slots );
+		mask_ = slots - 1;
+	}
+
+	/**
+	 * An empty writer for message messageId; hand it back with release().
+	 */
+	public PooledWriter acquire(String messageId) throws PcosError
+	{
+		acquired_.incrementAndGet();
+		PooledWriter[] local = local_.get();
+		PooledWriter w = local[0];
+		if (w != null)
+		{
+			local[0] = null;
+			localHits_.incrementAndGet();
+		}
+		else if ((w = takeShared()) != null) {
+			sharedHits_.incrementAndGet();
+		}
+		else {
+			return new PooledWriter( this, messageId );
+		}
+		w.idle_ = false;
+		retained_.addAndGet( -w.retainedBytes() );
+		w.recycle( messageId );
+		return w;
+	}
+
+	void release(PooledWriter w) throws PcosError
+	{
+		if (w.idle_) {
+			throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "writer released twice" );
+		}
+		w.idle_ = true;
+		long bytes = w.retainedBytes();
+		if (bytes > maxRetained_)
+		{
+			w.trim();
+			bytes = w.retainedBytes();
+			trimmed_.incrementAndGet();
+		}
+		retained_.addAndGet( bytes );
+
+		PooledWriter[] local = local_.get();
+		if (local[0] == null) {
+			local[0] = w;
+		}
+		else if (!putShared( w ))
+		{
+			retained_.addAndGet( -bytes );
+			dropped_.incrementAndGet();
+		}
+	}
+
+	private PooledWriter takeShared()
+	{
+		int start = stripe();
+		for (int i = 0; i < PROBES_ && i <= mask_; ++i)
+		{
+			int slot = (start + i) & mask_;
+			PooledWriter w = shared_.get( slot );
+			if (w != null && shared_.compareAndSet( slot, w, null )) {
+				return w;
+			}
+		}
+		return null;
+	}
+
+	private boolean putShared(PooledWriter w)
+	{
+		int start = stripe();
+		for (int i = 0; i < PROBES_ && i <= mask_; ++i)
+		{
+			int slot = (start + i) & mask_;
+			if (shared_.get( slot ) == null && shared_.compareAndSet( slot, null, w )) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int stripe()
+	{
+		return System.identityHashCode( Thread.currentThread() ) & mask_;
+	}
+
+	/**
+	 * Calls to acquire().
+	 */
+	public long acquired()
+	{
+		return acquired_.get();
+	}
+
+	/**
+	 * Acquires served by the calling thread's own cached writer.
+	 */
+	public long localHits()
+	{
+		return localHits_.get();
+	}
+
+	/**
+	 * Acquires served from the shared overflow.
+	 */
+	public long sharedHits()
+	{
+		return sharedHits_.get();
+	}
+
+	/**
+	 * Share of acquires served without creating a writer, from 0 to 1.
+	 */
+	public double hitRate()
+	{
+		long acquired = acquired_.get();
+		return acquired == 0 ? 0 : (double) (localHits_.get() + sharedHits_.get()) / acquired;
+	}
+
+	/**
+	 * Releases which dropped the buffers of a writer over maxRetainedBytes.
+	 */
+	public long trimmed()
+	{
+		return trimmed_.get();
+	}
+
+	/**
+	 * Released writers left to the garbage collector for want of a free slot.
+	 */
+	public long dropped()
+	{
+		return dropped_.get();
+	}
+
+	/**
+	 * Buffer octets held by idle writers in the pool.
+	 */
+	public long retainedBytes()
+	{
+		return retained_.get();
+	}
+}
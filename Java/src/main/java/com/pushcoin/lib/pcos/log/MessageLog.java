@@ -0,0 +1,328 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.log;
+
+import com.pushcoin.lib.pcos.DocumentReader;
+import com.pushcoin.lib.pcos.OutputDocument;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.PcosErrorCode;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only log of PCOS messages in memory-mapped segment files.
+ *
+ * Messages are stored as they go over the wire, back to back, and numbered
+ * by a sequence starting at 0. A segment is rolled once the next message
+ * does not fit; its file is named after the sequence number of its first
+ * message. Reads and replay parse messages in place through DocumentReader,
+ * straight over the mapped files -- no read calls and no copies.
+ *
+ * Each segment records the end of its committed data, updated after every
+ * message is fully written. On open, segments are walked from the start
+ * using the block enumerations, which must lead up to that end; a message
+ * torn by a crash lies past it and is wiped. Should the recorded end itself
+ * be lost, the walk stops at the first message that does not parse or
+ * whose blocks run past the file.
+ *
+ * Not thread-safe. Appends reach the OS page cache right away, which
+ * survives the process crashing; flush() forces them to disk, which
+ * survives the machine crashing.
+ */
+public final class MessageLog implements Closeable
+{
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	public static final int DEFAULT_INDEX_INTERVAL = 16;
+
+	/**
+	 * Receives messages during replay. The document is only valid during the call.
+	 */
+	public interface Visitor
+	{
+		void visit(long sequence, DocumentReader doc) throws PcosError;
+	}
+
+	private final File dir_;
+	private final int segmentSize_;
+	private final int indexInterval_;
+	private final TreeMap<Long, Segment> segments_ = new TreeMap<Long, Segment>();
+	private Segment active_;
+	private ByteBuffer activeView_;
+
+	// by message id, the first sequence numbers of the runs of indexInterval
+	// messages within a segment in which the id occurs, ascending
+	private final Map<String, long[]> byId_ = new HashMap<String, long[]>();
+	private final Visitor indexer_ = new Visitor() {
+		@Override
+		public void visit(long sequence, DocumentReader doc)
+		{
+			indexId( doc.getDocumentName(), sequence );
+		}
+	};
+
+	// used by read()
+	private final DocumentReader reader_ = new DocumentReader();
+
+	public MessageLog(File dir) throws IOException, PcosError
+	{
+		this( dir, DEFAULT_SEGMENT_SIZE, DEFAULT_INDEX_INTERVAL );
+	}
+
+	/**
+	 * Opens the log in dir, creating it if needed. New segments are
+	 * segmentSize bytes, which also bounds the size of a message (less a
+	 * few bytes of segment header). Every
+	 * indexInterval-th message position is kept in memory; reads walk at
+	 * most indexInterval - 1 messages from there. The id index likewise
+	 * keeps one entry per id and run of indexInterval messages it occurs
+	 * in, rather than one per message; find() walks the runs.
+	 */
+	public MessageLog(File dir, int segmentSize, int indexInterval) throws IOException, PcosError
+	{
+		if (segmentSize <= Segment.HEADER_SIZE || indexInterval <= 0) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "invalid message log limits" );
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException( "cannot create message log directory " + dir );
+		}
+		dir_ = dir;
+		segmentSize_ = segmentSize;
+		indexInterval_ = indexInterval;
+
+		File[] files = dir.listFiles( new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name)
+			{
+				return name.endsWith( Segment.SUFFIX );
+			}
+		} );
+		Arrays.sort( files );
+
+		DocumentReader reader = new DocumentReader();
+		for (File f : files)
+		{
+			// active while recovered, for the id index
+			Segment s = Segment.open( f, indexInterval );
+			segments_.put( s.base, s );
+			active_ = s;
+			s.recover( s.view, reader, indexer_ );
+		}
+		if (active_ == null) {
+			roll( 0 );
+		}
+		activeView_ = active_.map.duplicate();
+	}
+
+	/**
+	 * Sequence number the next appended message gets.
+	 */
+	public long nextSequence()
+	{
+		return active_.base + active_.count;
+	}
+
+	/**
+	 * Appends a message; returns its sequence number.
+	 */
+	public long append(OutputDocument doc) throws IOException, PcosError
+	{
+		int length = doc.size();
+		prepare( length );
+		activeView_.limit( active_.end + length ).position( active_.end );
+		doc.writeTo( activeView_ );
+		indexId( doc.getDocumentName(), nextSequence() );
+		active_.appended( length );
+		return nextSequence() - 1;
+	}
+
+	/**
+	 * Appends an encoded message found in message[offset, offset+length),
+	 * such as one just received. It must be a single, complete message.
+	 */
+	public long append(byte[] message, int offset, int length) throws IOException, PcosError
+	{
+		reader_.reset( message, offset, length );
+		if (reader_.getMessageLength() != length) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "input holds more than one message" );
+		}
+		prepare( length );
+		activeView_.limit( active_.end + length ).position( active_.end );
+		activeView_.put( message, offset, length );
+		indexId( reader_.getDocumentName(), nextSequence() );
+		active_.appended( length );
+		return nextSequence() - 1;
+	}
+
+	/**
+	 * Points into at the message with the given sequence number and
+	 * returns it. The document reads straight from the mapped file.
+	 */
+	public DocumentReader read(long sequence, DocumentReader into) throws PcosError
+	{
+		Map.Entry<Long, Segment> e = segments_.floorEntry( sequence );
+		if (e == null || sequence - e.getKey() >= e.getValue().count) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "no message with sequence number " + sequence );
+		}
+		Segment s = e.getValue();
+		s.read( (int) (sequence - s.base), s.view, into );
+		return into;
+	}
+
+	/**
+	 * Sequence numbers of the messages with the given id, ascending.
+	 */
+	public long[] find(final String messageId) throws PcosError
+	{
+		long[] runs = byId_.get( messageId );
+		if (runs == null) {
+			return new long[0];
+		}
+		final long[][] found = { new long[(int) runs[0]] };
+		final int[] n = { 0 };
+		Visitor matcher = new Visitor() {
+			@Override
+			public void visit(long sequence, DocumentReader doc)
+			{
+				if (messageId.equals( doc.getDocumentName() ))
+				{
+					if (n[0] == found[0].length) {
+						found[0] = Arrays.copyOf( found[0], n[0] << 1 );
+					}
+					found[0][n[0]++] = sequence;
+				}
+			}
+		};
+		DocumentReader reader = new DocumentReader();
+		for (int i = 1; i <= (int) runs[0]; ++i)
+		{
+			Segment s = segments_.floorEntry( runs[i] ).getValue();
+			walk( s, runs[i], Math.min( runs[i] + indexInterval_, s.base + s.count ), reader, matcher );
+		}
+		return Arrays.copyOf( found[0], n[0] );
+	}
+
+	/**
+	 * Passes every message from the given sequence number on to visitor, in
+	 * order, through one DocumentReader.
+	 */
+	public void replay(long fromSequence, Visitor visitor) throws PcosError
+	{
+		DocumentReader reader = new DocumentReader();
+		Map.Entry<Long, Segment> first = segments_.floorEntry( fromSequence );
+		for (Segment s : segments_.tailMap( first != null ? first.getKey() : fromSequence ).values())
+		{
+			if (s.count == 0) {
+				continue;
+			}
+			long seq = Math.max( fromSequence, s.base );
+			if (seq - s.base < s.count) {
+				walk( s, seq, s.base + s.count, reader, visitor );
+			}
+		}
+	}
+
+	/**
+	 * Passes messages [from, to) of segment s on to visitor, through reader.
+	 */
+	private static void walk(Segment s, long from, long to, DocumentReader reader, Visitor visitor) throws PcosError
+	{
+		ByteBuffer view = s.map.duplicate();
+		s.read( (int) (from - s.base), view, reader );
+		int pos = view.position();
+		for (long seq = from; ; )
+		{
+			visitor.visit( seq, reader );
+			pos += reader.getMessageLength();
+			if (++seq == to) {
+				return;
+			}
+			Segment.parse( pos, s.end, view, reader );
+		}
+	}
+
+	/**
+	 * Forces appended messages to disk.
+	 */
+	public void flush()
+	{
+		active_.map.force();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		flush();
+		for (Segment s : segments_.values()) {
+			s.close();
+		}
+		segments_.clear();
+	}
+
+	private void prepare(int length) throws IOException, PcosError
+	{
+		if (length > segmentSize_ - Segment.HEADER_SIZE) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "message of " + length + " bytes exceeds the segment size" );
+		}
+		if (active_.capacity() - active_.end < length)
+		{
+			active_.map.force();
+			roll( nextSequence() );
+			activeView_ = active_.map.duplicate();
+		}
+	}
+
+	private void roll(long base) throws IOException
+	{
+		active_ = Segment.create( dir_, base, segmentSize_, indexInterval_ );
+		segments_.put( base, active_ );
+	}
+
+	/**
+	 * Adds a message of the active segment to the id index, unless its run
+	 * is listed already; slot 0 of each array holds the count.
+	 */
+	private void indexId(String messageId, long sequence)
+	{
+		long run = sequence - (sequence - active_.base) % indexInterval_;
+		long[] runs = byId_.get( messageId );
+		if (runs == null) {
+			runs = new long[4];
+			byId_.put( messageId, runs );
+		}
+		int n = (int) runs[0];
+		if (n > 0 && runs[n] == run) {
+			return;
+		}
+		if (n + 1 == runs.length)
+		{
+			runs = Arrays.copyOf( runs, runs.length << 1 );
+			byId_.put( messageId, runs );
+		}
+		runs[n + 1] = run;
+		runs[0] = n + 1;
+	}
+}
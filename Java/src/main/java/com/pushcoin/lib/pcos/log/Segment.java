@@ -0,0 +1,185 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.log;
+
+import com.pushcoin.lib.pcos.DocumentReader;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * One mapped file of a MessageLog: a HEADER_SIZE header holding the end of
+ * committed data, then PCOS messages back to back, then zeros up to the end
+ * of the file.
+ *
+ * Positions of every indexInterval-th message are kept in a sparse index;
+ * the ones in between are found by walking the enumerations from there.
+ */
+final class Segment
+{
+	static final String SUFFIX = ".pcos";
+	static final int HEADER_SIZE = 8;
+
+	final File file;
+	// sequence number of the first message
+	final long base;
+	private final RandomAccessFile raf_;
+	final MappedByteBuffer map;
+	// bounds of this view are moved around by MessageLog.read()
+	final ByteBuffer view;
+	// positions of messages base, base + interval, base + 2 * interval, ...
+	private final int interval_;
+	private int[] sparse_ = new int[16];
+	int count;
+	int end = HEADER_SIZE;
+
+	private Segment(File file, long base, RandomAccessFile raf, MappedByteBuffer map, int interval)
+	{
+		this.file = file;
+		this.base = base;
+		raf_ = raf;
+		this.map = map;
+		view = map.duplicate();
+		interval_ = interval;
+	}
+
+	static Segment create(File dir, long base, int size, int interval) throws IOException
+	{
+		File file = new File(dir, fileName(base));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(size);
+		return new Segment(file, base, raf, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size), interval);
+	}
+
+	static Segment open(File file, int interval) throws IOException
+	{
+		String name = file.getName();
+		long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		return new Segment(file, base, raf, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()), interval);
+	}
+
+	static String fileName(long base)
+	{
+		return String.format("%020d", base) + SUFFIX;
+	}
+
+	int capacity()
+	{
+		return map.capacity();
+	}
+
+	/**
+	 * Records a message of the given length written at end.
+	 */
+	void appended(int length)
+	{
+		if (count % interval_ == 0)
+		{
+			int k = count / interval_;
+			if (k == sparse_.length) {
+				sparse_ = Arrays.copyOf(sparse_, k << 1);
+			}
+			sparse_[k] = end;
+		}
+		++count;
+		end += length;
+		// stored last: a message only counts once all of it is in
+		map.putInt(0, end);
+	}
+
+	/**
+	 * Points reader at the message with the given index within this segment,
+	 * using view as the reader's buffer.
+	 */
+	void read(int index, ByteBuffer view, DocumentReader reader) throws PcosError
+	{
+		int pos = sparse_[index / interval_];
+		for (int i = index - index % interval_; ; ++i)
+		{
+			parse(pos, end, view, reader);
+			if (i == index) {
+				return;
+			}
+			pos += reader.getMessageLength();
+		}
+	}
+
+	static void parse(int pos, int limit, ByteBuffer view, DocumentReader reader) throws PcosError
+	{
+		view.limit(limit).position(pos);
+		reader.reset(view);
+	}
+
+	/**
+	 * Walks the messages from the start of the file up to the committed end,
+	 * indexing each. Their enumerations must lead exactly there; if they
+	 * do not, or the committed end is unreadable, data ends at the first
+	 * message which does not parse or whose blocks run past it. Whatever
+	 * follows -- a message torn by a crash -- is wiped. Returns whether
+	 * anything had to be wiped.
+	 */
+	boolean recover(ByteBuffer view, DocumentReader reader, MessageLog.Visitor visitor) throws PcosError
+	{
+		final int committed = map.getInt(0);
+		final int limit = (committed >= HEADER_SIZE && committed <= capacity()) ? committed : capacity();
+		while (end < limit && map.get(end) != 0)
+		{
+			try {
+				parse(end, limit, view, reader);
+			}
+			catch (PcosError e) {
+				break;
+			}
+			visitor.visit(base + count, reader);
+			appended(reader.getMessageLength());
+		}
+		map.putInt(0, end);
+		if (end == committed && (end == capacity() || map.get(end) == 0)) {
+			return false;
+		}
+		clearTail();
+		return true;
+	}
+
+	/**
+	 * Zeros everything past the end of data, so that what a torn write left
+	 * there cannot be mistaken for part of a later message.
+	 */
+	private void clearTail()
+	{
+		byte[] zeros = new byte[4096];
+		ByteBuffer view = map.duplicate();
+		view.position(end);
+		while (view.hasRemaining()) {
+			view.put(zeros, 0, Math.min(zeros.length, view.remaining()));
+		}
+	}
+
+	void close() throws IOException
+	{
+		raf_.close();
+	}
+}
@@ -0,0 +1,40 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+
+/**
+ * Encodes and decodes values of one type. Codecs are immutable and may be
+ * shared between threads.
+ */
+public interface Codec<T>
+{
+	void encode(T value, OutputBlock out) throws PcosError;
+
+	T decode(InputBlock in) throws PcosError;
+
+	/**
+	 * Decodes into an existing instance, reusing the arrays and nested
+	 * values it holds where their size allows.
+	 */
+	void decode(InputBlock in, T into) throws PcosError;
+}
@@ -0,0 +1,665 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Writes a Codec at build time for each class marked PcosCodec, which
+ * Codecs.forClass then uses in place of a runtime plan. The codec of
+ * pkg.Outer$Inner is pkg.Outer_Inner_PcosCodec.
+ *
+ * The processor is opt-in: it is not registered as a service, so javac
+ * only runs it when named with -processor. Classes the generated code
+ * cannot reach -- private fields or constructors, inaccessible types --
+ * and classes the runtime plan rejects are left to the plan, which
+ * reports any error.
+ *
+ * Of the three ways to a codec, this one and the plan (Plans) start from
+ * annotated Java classes: the plan works for any such class at runtime,
+ * this one only for classes it can reach and at about half the cost; the
+ * two are checked against each other by the tests. JavaGenerator starts
+ * from a schema file instead and writes the message classes themselves.
+ */
+@SupportedAnnotationTypes("com.pushcoin.lib.pcos.schema.PcosCodec")
+public class CodecProcessor extends AbstractProcessor
+{
+	static final String SUFFIX = "_PcosCodec";
+
+	private final Set<String> written_ = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion()
+	{
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round)
+	{
+		// PcosCodec is inherited, so subclasses of a marked class are included
+		for (TypeElement t : ElementFilter.typesIn( round.getElementsAnnotatedWith( PcosCodec.class ) ))
+		{
+			if (t.getKind() != ElementKind.CLASS) {
+				processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "PCOS: @PcosCodec applies to classes only", t );
+			}
+			else if (fields( t ).isEmpty()) {
+				processingEnv.getMessager().printMessage( Diagnostic.Kind.WARNING, "PCOS: " + t.getQualifiedName() + " has no PcosField fields", t );
+			}
+			else {
+				generate( t );
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Codec class name for a binary class name, as Codecs.forClass looks it up.
+	 */
+	static String codecName(String binaryName)
+	{
+		int dot = binaryName.lastIndexOf( '.' );
+		return binaryName.substring( 0, dot + 1 ) + binaryName.substring( dot + 1 ).replace( '$', '_' ) + SUFFIX;
+	}
+
+	private void generate(TypeElement type)
+	{
+		String name = codecName( processingEnv.getElementUtils().getBinaryName( type ).toString() );
+		if (!written_.add( name )) {
+			return;
+		}
+		String source;
+		try {
+			source = new CodecSource( type, name ).source();
+		}
+		catch (Skip e)
+		{
+			processingEnv.getMessager().printMessage( Diagnostic.Kind.NOTE,
+				"PCOS: " + type.getQualifiedName() + " is left to the runtime codec: " + e.getMessage(), type );
+			return;
+		}
+
+		try
+		{
+			Writer out = processingEnv.getFiler().createSourceFile( name, type ).openWriter();
+			try {
+				out.write( source );
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "PCOS: cannot write " + name + ": " + e, type );
+		}
+	}
+
+	/**
+	 * PcosField fields of a class and its superclasses, in wire order.
+	 */
+	private List<VariableElement> fields(TypeElement type)
+	{
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		for (TypeElement c = type; c != null; c = superclass( c ))
+		{
+			for (VariableElement f : ElementFilter.fieldsIn( c.getEnclosedElements() ))
+			{
+				if (f.getAnnotation( PcosField.class ) != null) {
+					fields.add( f );
+				}
+			}
+		}
+		// stable, like the sort in Plans
+		Collections.sort( fields, new Comparator<VariableElement>() {
+			public int compare(VariableElement a, VariableElement b) {
+				int x = a.getAnnotation( PcosField.class ).order(), y = b.getAnnotation( PcosField.class ).order();
+				return (x < y) ? -1 : (x == y) ? 0 : 1;
+			}
+		});
+		return fields;
+	}
+
+	private static TypeElement superclass(TypeElement c)
+	{
+		TypeMirror s = c.getSuperclass();
+		if (s.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		TypeElement e = (TypeElement) ((DeclaredType) s).asElement();
+		return e.getQualifiedName().contentEquals( "java.lang.Object" ) ? null : e;
+	}
+
+	private static String qualifiedName(TypeMirror declared)
+	{
+		return ((TypeElement) ((DeclaredType) declared).asElement()).getQualifiedName().toString();
+	}
+
+	/**
+	 * Reason a class is left to the runtime plan.
+	 */
+	private static final class Skip extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		Skip(String reason)
+		{
+			super( reason );
+		}
+	}
+
+	private enum Kind { SCALAR, BYTES, BOOLS, NUMBERS, OBJECTS, COMPOUND }
+
+	/**
+	 * One field as the runtime plan would carry it.
+	 */
+	private static final class Member
+	{
+		String name;
+		Kind kind;
+		// of the field, or of its elements
+		Primitive primitive;
+		// Java type of the array elements
+		String component;
+		// index of the nested codec, for compounds
+		int codec = -1;
+		int length;
+		boolean optional;
+	}
+
+	/**
+	 * Source of the codec for one class.
+	 */
+	private final class CodecSource
+	{
+		private final TypeElement type_;
+		private final String name_;
+		private final PackageElement package_;
+		private final List<Member> members_ = new ArrayList<Member>();
+		// Java types of nested compounds, by codec index
+		private final Map<String, Integer> codecs_ = new LinkedHashMap<String, Integer>();
+
+		CodecSource(TypeElement type, String name) throws Skip
+		{
+			type_ = type;
+			name_ = name;
+			package_ = processingEnv.getElementUtils().getPackageOf( type );
+			checkOwner();
+			Set<String> names = new HashSet<String>();
+			int order = Integer.MIN_VALUE;
+			for (VariableElement f : fields( type ))
+			{
+				Member m = member( f );
+				if (!names.add( m.name )) {
+					throw new Skip( "field " + m.name + " hides another PcosField" );
+				}
+				int o = f.getAnnotation( PcosField.class ).order();
+				if (!members_.isEmpty() && o == order) {
+					throw new Skip( "two fields have order " + o );
+				}
+				order = o;
+				members_.add( m );
+			}
+		}
+
+		private void checkOwner() throws Skip
+		{
+			if (type_.getModifiers().contains( Modifier.ABSTRACT )) {
+				throw new Skip( "the class is abstract" );
+			}
+			if (!type_.getTypeParameters().isEmpty()) {
+				throw new Skip( "the class is generic" );
+			}
+			if (type_.getNestingKind() == NestingKind.MEMBER && !type_.getModifiers().contains( Modifier.STATIC )) {
+				throw new Skip( "the class is not static" );
+			}
+			if (!accessible( type_ )) {
+				throw new Skip( "the class is not accessible from its package" );
+			}
+			for (ExecutableElement c : ElementFilter.constructorsIn( type_.getEnclosedElements() ))
+			{
+				if (c.getParameters().isEmpty() && !c.getModifiers().contains( Modifier.PRIVATE )) {
+					return;
+				}
+			}
+			throw new Skip( "the class has no non-private no-argument constructor" );
+		}
+
+		/**
+		 * True if code in the codec's package can name the type.
+		 */
+		private boolean accessible(TypeElement t)
+		{
+			boolean local = processingEnv.getElementUtils().getPackageOf( t ).equals( package_ );
+			for (Element e = t; e instanceof TypeElement; e = e.getEnclosingElement())
+			{
+				NestingKind nesting = ((TypeElement) e).getNestingKind();
+				Set<Modifier> m = e.getModifiers();
+				if ((nesting != NestingKind.TOP_LEVEL && nesting != NestingKind.MEMBER)
+					|| m.contains( Modifier.PRIVATE ) || (!local && !m.contains( Modifier.PUBLIC ))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private Member member(VariableElement f) throws Skip
+		{
+			PcosField ann = f.getAnnotation( PcosField.class );
+			Member m = new Member();
+			m.name = f.getSimpleName().toString();
+			m.length = ann.length();
+			m.optional = ann.optional();
+
+			Set<Modifier> mods = f.getModifiers();
+			if (mods.contains( Modifier.STATIC ) || mods.contains( Modifier.FINAL )) {
+				throw new Skip( "field " + m.name + " is static or final" );
+			}
+			boolean local = processingEnv.getElementUtils().getPackageOf( f ).equals( package_ );
+			if (mods.contains( Modifier.PRIVATE ) || (!local && !mods.contains( Modifier.PUBLIC ))) {
+				throw new Skip( "field " + m.name + " is not accessible from the codec" );
+			}
+
+			TypeMirror t = f.asType();
+			if (t.getKind().isPrimitive())
+			{
+				m.primitive = primitive( t, ann.type() );
+				if (m.optional || m.primitive == null) {
+					throw new Skip( "field " + m.name + " has no runtime codec either" );
+				}
+				m.kind = Kind.SCALAR;
+				return m;
+			}
+			if ((m.length != 0 && t.getKind() != TypeKind.ARRAY) || m.length < 0) {
+				throw new Skip( "field " + m.name + " has a bad length" );
+			}
+			if (t.getKind() != TypeKind.ARRAY)
+			{
+				m.primitive = primitive( t, ann.type() );
+				if (m.primitive != null) {
+					m.kind = Kind.SCALAR;
+				}
+				else
+				{
+					m.kind = Kind.COMPOUND;
+					m.codec = compound( t, m );
+				}
+				return m;
+			}
+
+			TypeMirror component = ((ArrayType) t).getComponentType();
+			m.component = (component.getKind() == TypeKind.DECLARED) ? qualifiedName( component ) : component.toString();
+			m.primitive = primitive( component, ann.type() );
+			if (component.getKind().isPrimitive())
+			{
+				if (m.primitive == Primitive.BYTE) {
+					m.kind = Kind.BYTES;
+				}
+				else if (m.primitive == Primitive.BOOL) {
+					m.kind = Kind.BOOLS;
+				}
+				else if (m.primitive != null && m.primitive.bulk) {
+					m.kind = Kind.NUMBERS;
+				}
+				else {
+					throw new Skip( "field " + m.name + " has no runtime codec either" );
+				}
+				return m;
+			}
+			m.kind = Kind.OBJECTS;
+			if (m.primitive == null) {
+				m.codec = compound( component, m );
+			}
+			return m;
+		}
+
+		/**
+		 * PCOS primitive of a Java type, or null for a compound; follows Plans.primitive.
+		 */
+		private Primitive primitive(TypeMirror t, String declared) throws Skip
+		{
+			String name = t.getKind().isPrimitive() ? t.toString() : (t.getKind() == TypeKind.DECLARED) ? qualifiedName( t ) : "";
+			Primitive p;
+			if (name.equals( "int" ) || name.equals( "java.lang.Integer" )) {
+				p = Primitive.INT;
+			}
+			else if (name.equals( "long" ) || name.equals( "java.lang.Long" )) {
+				p = Primitive.LONG;
+			}
+			else if (name.equals( "double" ) || name.equals( "java.lang.Double" )) {
+				p = Primitive.DOUBLE;
+			}
+			else if (name.equals( "boolean" ) || name.equals( "java.lang.Boolean" )) {
+				p = Primitive.BOOL;
+			}
+			else if (name.equals( "byte" ) || name.equals( "java.lang.Byte" )) {
+				p = Primitive.BYTE;
+			}
+			else if (name.equals( "java.lang.String" )) {
+				p = Primitive.STRING;
+			}
+			else
+			{
+				if (declared.length() > 0) {
+					throw new Skip( "type \"" + declared + "\" does not fit " + t );
+				}
+				return null;
+			}
+
+			if (declared.length() > 0 && !declared.equals( p.keyword ))
+			{
+				Primitive d = Primitive.forKeyword( declared );
+				if (d == null || !d.javaType.equals( p.javaType )) {
+					throw new Skip( "type \"" + declared + "\" does not fit " + t );
+				}
+				p = d;
+			}
+			return p;
+		}
+
+		/**
+		 * Index of the nested codec for a compound type.
+		 */
+		private int compound(TypeMirror t, Member m) throws Skip
+		{
+			if (t.getKind() != TypeKind.DECLARED || !((DeclaredType) t).getTypeArguments().isEmpty()) {
+				throw new Skip( "field " + m.name + " has an unsupported type" );
+			}
+			TypeElement e = (TypeElement) ((DeclaredType) t).asElement();
+			if (e.getKind() != ElementKind.CLASS || fields( e ).isEmpty() || !accessible( e )) {
+				throw new Skip( "field " + m.name + " has an unsupported type" );
+			}
+			String name = e.getQualifiedName().toString();
+			Integer index = codecs_.get( name );
+			if (index == null) {
+				codecs_.put( name, index = codecs_.size() );
+			}
+			return index;
+		}
+
+		String source()
+		{
+			String owner = type_.getQualifiedName().toString();
+			String simple = name_.substring( name_.lastIndexOf( '.' ) + 1 );
+			boolean fixed = false, variable = false;
+			for (Member m : members_)
+			{
+				if (m.kind != Kind.SCALAR && m.kind != Kind.COMPOUND)
+				{
+					fixed |= m.length > 0;
+					variable |= m.length == 0;
+				}
+			}
+
+			JavaGenerator.Code c = new JavaGenerator.Code();
+			c.line( 0, "// Generated by the PCOS annotation processor from " + owner + ". Do not edit." );
+			c.line( 0, "" );
+			if (!package_.isUnnamed())
+			{
+				c.line( 0, "package " + package_.getQualifiedName() + ";" );
+				c.line( 0, "" );
+			}
+			c.line( 0, "import com.pushcoin.lib.pcos.InputBlock;" );
+			c.line( 0, "import com.pushcoin.lib.pcos.OutputBlock;" );
+			c.line( 0, "import com.pushcoin.lib.pcos.PcosError;" );
+			if (fixed || variable) {
+				c.line( 0, "import com.pushcoin.lib.pcos.PcosErrorCode;" );
+			}
+			c.line( 0, "import com.pushcoin.lib.pcos.schema.Codec;" );
+			if (!codecs_.isEmpty()) {
+				c.line( 0, "import com.pushcoin.lib.pcos.schema.Codecs;" );
+			}
+			c.line( 0, "" );
+			c.line( 0, "/**" );
+			c.line( 0, " * Codec of " + owner + ", used by Codecs.forClass in place of a runtime plan." );
+			c.line( 0, " */" );
+			c.line( 0, "public final class " + simple + " implements Codec<" + owner + ">" );
+			c.line( 0, "{" );
+			for (Map.Entry<String, Integer> e : codecs_.entrySet()) {
+				c.line( 1, "private volatile Codec<" + e.getKey() + "> codec" + e.getValue() + "_;" );
+			}
+			if (!codecs_.isEmpty()) {
+				c.line( 0, "" );
+			}
+
+			c.line( 1, "public void encode(" + owner + " value, OutputBlock out) throws PcosError" );
+			c.line( 1, "{" );
+			for (int i = 0; i < members_.size(); ++i) {
+				encode( c, members_.get(i), i );
+			}
+			c.line( 1, "}" );
+			c.line( 0, "" );
+			c.line( 1, "public " + owner + " decode(InputBlock in) throws PcosError" );
+			c.line( 1, "{" );
+			c.line( 2, owner + " value = new " + owner + "();" );
+			c.line( 2, "decode( in, value );" );
+			c.line( 2, "return value;" );
+			c.line( 1, "}" );
+			c.line( 0, "" );
+			c.line( 1, "public void decode(InputBlock in, " + owner + " into) throws PcosError" );
+			c.line( 1, "{" );
+			for (int i = 0; i < members_.size(); ++i) {
+				decode( c, members_.get(i), i );
+			}
+			c.line( 1, "}" );
+
+			// nested codecs are looked up on first use, which lets a class refer to itself
+			for (Map.Entry<String, Integer> e : codecs_.entrySet())
+			{
+				String codec = "Codec<" + e.getKey() + ">", field = "codec" + e.getValue() + "_";
+				c.line( 0, "" );
+				c.line( 1, "private " + codec + " codec" + e.getValue() + "() throws PcosError" );
+				c.line( 1, "{" );
+				c.line( 2, codec + " c = " + field + ";" );
+				c.line( 2, "if (c == null) {" );
+				c.line( 3, field + " = c = Codecs.forClass( " + e.getKey() + ".class );" );
+				c.line( 2, "}" );
+				c.line( 2, "return c;" );
+				c.line( 1, "}" );
+			}
+			if (variable)
+			{
+				c.line( 0, "" );
+				c.line( 1, "private static int arrayLength(InputBlock in) throws PcosError" );
+				c.line( 1, "{" );
+				c.line( 2, "// every element takes at least one octet, which bounds what a corrupt count can allocate" );
+				c.line( 2, "long count = in.readUint();" );
+				c.line( 2, "if (count > in.size()) {" );
+				c.line( 3, "throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, \"array length exceeds block size\" );" );
+				c.line( 2, "}" );
+				c.line( 2, "return (int) count;" );
+				c.line( 1, "}" );
+				c.line( 0, "" );
+				c.line( 1, "private static int writeCount(OutputBlock out, int count) throws PcosError" );
+				c.line( 1, "{" );
+				c.line( 2, "out.writeUint( count );" );
+				c.line( 2, "return count;" );
+				c.line( 1, "}" );
+			}
+			if (fixed)
+			{
+				c.line( 0, "" );
+				c.line( 1, "private static int checkLength(int actual, int fixed) throws PcosError" );
+				c.line( 1, "{" );
+				c.line( 2, "if (actual != fixed) {" );
+				c.line( 3, "throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, \"fixed-length array holds \" + actual + \" elements instead of \" + fixed );" );
+				c.line( 2, "}" );
+				c.line( 2, "return actual;" );
+				c.line( 1, "}" );
+			}
+			c.line( 0, "}" );
+			return c.toString();
+		}
+
+		private void encode(JavaGenerator.Code c, Member m, int i)
+		{
+			String v = "value." + m.name;
+			int indent = 2;
+			if (m.optional)
+			{
+				c.line( 2, "out.writeBool( " + v + " != null );" );
+				c.line( 2, "if (" + v + " != null)" );
+				c.line( 2, "{" );
+				indent = 3;
+			}
+			String n = "n" + i;
+			switch (m.kind)
+			{
+				case SCALAR: c.line( indent, write( m, v ) ); break;
+				case COMPOUND: c.line( indent, write( m, v ) ); break;
+				case BYTES:
+				case NUMBERS:
+				{
+					String method = (m.kind == Kind.BYTES) ? "writeBytes" : "write" + m.primitive.method + "Array";
+					c.line( indent, "int " + n + " = " + count( m, v ) + ";" );
+					c.line( indent, "out." + method + "( " + v + ", 0, " + n + " );" );
+					break;
+				}
+				default:
+				{
+					c.line( indent, "int " + n + " = " + count( m, v ) + ";" );
+					c.line( indent, "for (int i = 0; i < " + n + "; ++i) {" );
+					c.line( indent + 1, write( m, v + "[i]" ) );
+					c.line( indent, "}" );
+				}
+			}
+			if (m.optional) {
+				c.line( 2, "}" );
+			}
+		}
+
+		/**
+		 * Element count of an array field, written first if variable.
+		 */
+		private String count(Member m, String v)
+		{
+			return (m.length > 0) ? "checkLength( " + v + ".length, " + m.length + " )" : "writeCount( out, " + v + ".length )";
+		}
+
+		private String write(Member m, String v)
+		{
+			if (m.codec >= 0) {
+				return "codec" + m.codec + "().encode( " + v + ", out );";
+			}
+			return "out.write" + m.primitive.method + "( " + v + " );";
+		}
+
+		private String read(Member m)
+		{
+			return (m.primitive == Primitive.STRING) ? "in.readString( 0 )" : "in.read" + m.primitive.method + "()";
+		}
+
+		private void decode(JavaGenerator.Code c, Member m, int i)
+		{
+			String v = "into." + m.name;
+			if (m.kind == Kind.SCALAR)
+			{
+				c.line( 2, v + " = " + (m.optional ? "in.readBool() ? " + read( m ) + " : null;" : read( m ) + ";") );
+				return;
+			}
+			int indent = 2;
+			if (m.optional)
+			{
+				c.line( 2, "if (!in.readBool()) {" );
+				c.line( 3, v + " = null;" );
+				c.line( 2, "}" );
+				c.line( 2, "else" );
+				c.line( 2, "{" );
+				indent = 3;
+			}
+			if (m.kind == Kind.COMPOUND) {
+				decodeCompound( c, indent, m, v );
+			}
+			else
+			{
+				String n = "n" + i, a = "a" + i;
+				String element = (m.kind == Kind.BYTES) ? "byte" : (m.kind == Kind.BOOLS) ? "boolean" : m.component;
+				c.line( indent, "int " + n + " = " + ((m.length > 0) ? String.valueOf( m.length ) : "arrayLength( in )") + ";" );
+				c.line( indent, element + "[] " + a + " = " + v + ";" );
+				c.line( indent, "if (" + a + " == null || " + a + ".length != " + n + ") {" );
+				c.line( indent + 1, a + " = new " + element + "[" + n + "];" );
+				c.line( indent, "}" );
+				if (m.kind == Kind.BYTES) {
+					c.line( indent, "in.readBytes( " + a + ", 0, " + n + " );" );
+				}
+				else if (m.kind == Kind.NUMBERS) {
+					c.line( indent, "in.read" + m.primitive.method + "Array( " + a + ", 0, " + n + " );" );
+				}
+				else if (m.codec < 0)
+				{
+					c.line( indent, "for (int i = 0; i < " + n + "; ++i) {" );
+					c.line( indent + 1, a + "[i] = " + read( m ) + ";" );
+					c.line( indent, "}" );
+				}
+				else
+				{
+					c.line( indent, "for (int i = 0; i < " + n + "; ++i)" );
+					c.line( indent, "{" );
+					decodeCompound( c, indent + 1, m, a + "[i]" );
+					c.line( indent, "}" );
+				}
+				c.line( indent, v + " = " + a + ";" );
+			}
+			if (m.optional) {
+				c.line( 2, "}" );
+			}
+		}
+
+		/**
+		 * Decodes into the instance already there, if any.
+		 */
+		private void decodeCompound(JavaGenerator.Code c, int indent, Member m, String v)
+		{
+			String codec = "codec" + m.codec + "()";
+			c.line( indent, "if (" + v + " == null) {" );
+			c.line( indent + 1, v + " = " + codec + ".decode( in );" );
+			c.line( indent, "}" );
+			c.line( indent, "else {" );
+			c.line( indent + 1, codec + ".decode( in, " + v + " );" );
+			c.line( indent, "}" );
+		}
+	}
+}
@@ -0,0 +1,97 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.PcosErrorCode;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Runtime codecs, for message types which are not known at build time.
+ *
+ * A codec is planned once per type -- fields, PCOS types and accessors are
+ * resolved up front -- after which encoding and decoding run the plan
+ * without any further lookups. Classes marked PcosCodec and compiled with
+ * CodecProcessor get a generated codec instead, where it could write one.
+ */
+public final class Codecs
+{
+	private static final ConcurrentMap<Class<?>, Codec<?>> BY_CLASS_ = new ConcurrentHashMap<Class<?>, Codec<?>>();
+
+	private Codecs() {}
+
+	/**
+	 * Codec of a class with PcosField-annotated fields and a no-argument
+	 * constructor. Codecs are cached, so this is cheap after the first call.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Codec<T> forClass(Class<T> type) throws PcosError
+	{
+		Codec<?> codec = BY_CLASS_.get( type );
+		if (codec == null)
+		{
+			codec = generated( type );
+			if (codec == null) {
+				codec = Plans.forClass( type );
+			}
+			Codec<?> raced = BY_CLASS_.putIfAbsent( type, codec );
+			if (raced != null) {
+				codec = raced;
+			}
+		}
+		return (Codec<T>) codec;
+	}
+
+	/**
+	 * Codec written by CodecProcessor at build time, or null if there is none.
+	 */
+	private static Codec<?> generated(Class<?> type) throws PcosError
+	{
+		Class<?> codec;
+		try {
+			codec = Class.forName( CodecProcessor.codecName( type.getName() ), true, type.getClassLoader() );
+		}
+		catch (ClassNotFoundException e) {
+			return null;
+		}
+		try {
+			return (Codec<?>) codec.newInstance();
+		}
+		catch (Exception e) {
+			throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "cannot instantiate " + codec.getName() + ": " + e );
+		}
+	}
+
+	/**
+	 * Codec of a compound type of a schema, working on DynamicRecords.
+	 * Each call plans the type anew; keep the codec for as long as the schema is in use.
+	 */
+	public static Codec<DynamicRecord> forType(Schema schema, String typeName) throws PcosError
+	{
+		for (SchemaType t : schema.compoundTypes())
+		{
+			if (t.name.equals( typeName )) {
+				return Plans.forType( t );
+			}
+		}
+		throw Plans.error( "schema has no compound type '" + typeName + "'" );
+	}
+}
@@ -0,0 +1,79 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import java.util.Map;
+
+/**
+ * Value of a compound type known only at runtime, see Codecs.forType().
+ *
+ * Fields hold boxed primitives (Integer for int, Long for uint, long and
+ * ulong, Double, Boolean, Byte), String, byte[], int[], long[], double[],
+ * boolean[], Object[] of strings or records, or nested DynamicRecords.
+ * An absent optional field is null.
+ */
+public final class DynamicRecord
+{
+	private final String type_;
+	// field name => index into values_, shared by all records of the type
+	private final Map<String, Integer> index_;
+	final Object[] values;
+
+	DynamicRecord(String type, Map<String, Integer> index)
+	{
+		type_ = type;
+		index_ = index;
+		values = new Object[index.size()];
+	}
+
+	public String typeName()
+	{
+		return type_;
+	}
+
+	public Object get(String field)
+	{
+		return values[indexOf( field )];
+	}
+
+	public DynamicRecord set(String field, Object value)
+	{
+		values[indexOf( field )] = value;
+		return this;
+	}
+
+	private int indexOf(String field)
+	{
+		Integer i = index_.get( field );
+		if (i == null) {
+			throw new IllegalArgumentException( "type " + type_ + " has no field " + field );
+		}
+		return i;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder s = new StringBuilder( type_ ).append( " {" );
+		for (Map.Entry<String, Integer> e : index_.entrySet()) {
+			s.append( ' ' ).append( e.getKey() ).append( '=' ).append( values[e.getValue()] ).append( ';' );
+		}
+		return s.append( " }" ).toString();
+	}
+}
@@ -0,0 +1,65 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+/**
+ * Type of a field or alias: a primitive or compound element type, optionally
+ * made into a fixed- or variable-length array.
+ */
+final class FieldType
+{
+	static final int SCALAR = -1;
+	static final int VARIABLE = 0;
+
+	// as written in the schema, resolved by Schema
+	final String name;
+	final int line;
+	// SCALAR, VARIABLE or the fixed element count
+	int arrayLength;
+
+	Primitive primitive;
+	SchemaType compound;
+
+	FieldType(String name, int arrayLength, int line)
+	{
+		this.name = name;
+		this.arrayLength = arrayLength;
+		this.line = line;
+	}
+
+	boolean isArray()
+	{
+		return arrayLength != SCALAR;
+	}
+
+	/**
+	 * Octets this type always takes on the wire, or -1 if that varies.
+	 */
+	int wireSize()
+	{
+		if (arrayLength == VARIABLE) {
+			return -1;
+		}
+		int element = (primitive != null) ? primitive.wireSize : compound.wireSize();
+		if (element < 0) {
+			return -1;
+		}
+		return (arrayLength == SCALAR) ? element : element * arrayLength;
+	}
+}
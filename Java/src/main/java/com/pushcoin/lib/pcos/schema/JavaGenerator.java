@@ -0,0 +1,505 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a Java class per compound type of a schema.
+ *
+ * Each class has public fields, encode(OutputBlock) and decode(InputBlock).
+ * Fields are encoded with straight-line primitive calls; arrays of numbers
+ * go through the bulk array methods. decode() fills the instance in place
+ * and reuses the arrays and nested instances it holds, so decoding a
+ * message shape seen before allocates nothing but strings.
+ */
+public final class JavaGenerator
+{
+	// Java keywords, plus the parameter and loop names used by the generated code
+	private static final Set<String> KEYWORDS_ = new HashSet<String>( Arrays.asList(
+		"abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+		"continue", "default", "do", "double", "else", "enum", "extends", "false", "final", "finally",
+		"float", "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long",
+		"native", "new", "null", "package", "private", "protected", "public", "return", "short", "static",
+		"strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient", "true", "try",
+		"void", "volatile", "while", "in", "out", "i" ) );
+
+	private final String package_;
+
+	/**
+	 * @param packageName package of the generated classes; empty for the default package
+	 */
+	public JavaGenerator(String packageName)
+	{
+		package_ = packageName;
+	}
+
+	/**
+	 * Java sources keyed by class name.
+	 */
+	public Map<String, String> generate(Schema schema) throws PcosError
+	{
+		Map<String, String> sources = new LinkedHashMap<String, String>();
+		for (SchemaType t : schema.compoundTypes())
+		{
+			String name = className( t.name );
+			if (sources.containsKey( name )) {
+				throw Schema.error( t.source, t.line, "type '" + t.name + "' maps to the same class as another type: " + name );
+			}
+			sources.put( name, generate( t ) );
+		}
+		return sources;
+	}
+
+	private String generate(SchemaType t) throws PcosError
+	{
+		Map<SchemaField, String> names = fieldNames( t );
+		boolean varArrays = false, consts = false;
+		for (SchemaField f : t.fields)
+		{
+			varArrays |= f.type.arrayLength == FieldType.VARIABLE;
+			consts |= f.constValue != null;
+		}
+
+		Code c = new Code();
+		c.line( 0, "// Generated by the PCOS schema compiler from " + fileName( t.source ) + ". Do not edit." );
+		c.line( 0, "" );
+		if (package_.length() > 0)
+		{
+			c.line( 0, "package " + package_ + ";" );
+			c.line( 0, "" );
+		}
+		c.line( 0, "import com.pushcoin.lib.pcos.InputBlock;" );
+		c.line( 0, "import com.pushcoin.lib.pcos.OutputBlock;" );
+		c.line( 0, "import com.pushcoin.lib.pcos.PcosError;" );
+		if (varArrays || consts) {
+			c.line( 0, "import com.pushcoin.lib.pcos.PcosErrorCode;" );
+		}
+		c.line( 0, "" );
+		c.line( 0, "/**" );
+		c.line( 0, " * PCOS type " + t.name + "." );
+		c.line( 0, " *" );
+		c.line( 0, " * Instances are mutable and meant to be reused: decode() overwrites the" );
+		c.line( 0, " * fields in place, keeping the arrays and nested instances it already holds." );
+		if (varArrays) {
+			c.line( 0, " * A variable-length array holds as many elements as its count field says." );
+		}
+		if (consts) {
+			c.line( 0, " * Constant fields are checked, not stored, by decode()." );
+		}
+		c.line( 0, " */" );
+		c.line( 0, "public final class " + className( t.name ) );
+		c.line( 0, "{" );
+
+		if (t.wireSize() >= 0)
+		{
+			c.line( 1, "// every field has a fixed size on the wire" );
+			c.line( 1, "public static final int WIRE_SIZE = " + t.wireSize() + ";" );
+			c.line( 0, "" );
+		}
+		for (SchemaField f : t.fields) {
+			declare( c, f, names.get( f ) );
+		}
+
+		// fixed arrays of compounds are filled up front, so a new instance encodes as is
+		boolean filled = false;
+		for (SchemaField f : t.fields)
+		{
+			FieldType ft = f.type;
+			if (ft.compound == null || ft.arrayLength <= 0) {
+				continue;
+			}
+			if (!filled)
+			{
+				c.line( 0, "" );
+				c.line( 1, "public " + className( t.name ) + "()" );
+				c.line( 1, "{" );
+				filled = true;
+			}
+			c.line( 2, "for (int i = 0; i < " + ft.arrayLength + "; ++i) {" );
+			c.line( 3, names.get( f ) + "[i] = new " + javaType( ft ) + "();" );
+			c.line( 2, "}" );
+		}
+		if (filled) {
+			c.line( 1, "}" );
+		}
+
+		c.line( 0, "" );
+		c.line( 1, "public void encode(OutputBlock out) throws PcosError" );
+		c.line( 1, "{" );
+		for (SchemaField f : t.fields) {
+			encode( c, f, names.get( f ) );
+		}
+		c.line( 1, "}" );
+
+		c.line( 0, "" );
+		c.line( 1, "public " + className( t.name ) + " decode(InputBlock in) throws PcosError" );
+		c.line( 1, "{" );
+		for (SchemaField f : t.fields) {
+			decode( c, f, names.get( f ) );
+		}
+		c.line( 2, "return this;" );
+		c.line( 1, "}" );
+
+		if (varArrays)
+		{
+			c.line( 0, "" );
+			c.line( 1, "private static int arrayLength(InputBlock in) throws PcosError" );
+			c.line( 1, "{" );
+			c.line( 2, "// every element takes at least one octet, which bounds what a corrupt count can allocate" );
+			c.line( 2, "long count = in.readUint();" );
+			c.line( 2, "if (count > in.size()) {" );
+			c.line( 3, "throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, \"array length exceeds block size\" );" );
+			c.line( 2, "}" );
+			c.line( 2, "return (int) count;" );
+			c.line( 1, "}" );
+		}
+		c.line( 0, "}" );
+		return c.toString();
+	}
+
+	private void declare(Code c, SchemaField f, String n)
+	{
+		FieldType t = f.type;
+		String element = javaType( t );
+		if (f.optional) {
+			c.line( 1, "public boolean " + presence( n ) + ";" );
+		}
+		if (t.arrayLength == FieldType.SCALAR)
+		{
+			String init = (t.compound != null) ? " = new " + element + "()" : constant( f );
+			c.line( 1, "public " + (f.constValue != null ? "final " : "") + element + " " + n + init + ";" );
+		}
+		else if (t.arrayLength == FieldType.VARIABLE)
+		{
+			c.line( 1, "public " + element + "[] " + n + " = new " + element + "[0];" );
+			c.line( 1, "public int " + count( n ) + ";" );
+		}
+		else if (f.constValue != null) {
+			c.line( 1, "public final byte[] " + n + " = " + constant( f ) + ";" );
+		}
+		else {
+			c.line( 1, "public final " + element + "[] " + n + " = new " + element + "[" + t.arrayLength + "];" );
+		}
+	}
+
+	private void encode(Code c, SchemaField f, String n)
+	{
+		FieldType t = f.type;
+		int indent = 2;
+		if (f.optional)
+		{
+			c.line( 2, "out.writeBool( " + presence( n ) + " );" );
+			c.line( 2, "if (" + presence( n ) + ") {" );
+			indent = 3;
+		}
+
+		if (t.arrayLength == FieldType.SCALAR) {
+			c.line( indent, write( t, n ) );
+		}
+		else
+		{
+			boolean variable = t.arrayLength == FieldType.VARIABLE;
+			String len = variable ? count( n ) : String.valueOf( t.arrayLength );
+			if (t.primitive != null && t.primitive.bulk) {
+				c.line( indent, "out.write" + t.primitive.method + (variable ? "VarArray( " : "Array( ") + n + ", 0, " + len + " );" );
+			}
+			else
+			{
+				if (variable) {
+					c.line( indent, "out.writeUint( " + len + " );" );
+				}
+				if (t.primitive == Primitive.BYTE) {
+					c.line( indent, "out.writeBytes( " + n + ", 0, " + len + " );" );
+				}
+				else
+				{
+					c.line( indent, "for (int i = 0; i < " + len + "; ++i) {" );
+					c.line( indent + 1, write( t, n + "[i]" ) );
+					c.line( indent, "}" );
+				}
+			}
+		}
+
+		if (f.optional) {
+			c.line( 2, "}" );
+		}
+	}
+
+	private void decode(Code c, SchemaField f, String n)
+	{
+		FieldType t = f.type;
+		int indent = 2;
+		if (f.optional)
+		{
+			c.line( 2, presence( n ) + " = in.readBool();" );
+			c.line( 2, "if (" + presence( n ) + ") {" );
+			indent = 3;
+		}
+
+		if (f.constValue != null) {
+			checkConstant( c, indent, f, n );
+		}
+		else if (t.arrayLength == FieldType.SCALAR)
+		{
+			if (t.compound != null) {
+				c.line( indent, n + ".decode( in );" );
+			}
+			else {
+				c.line( indent, n + " = " + read( t ) + ";" );
+			}
+		}
+		else
+		{
+			String len = String.valueOf( t.arrayLength );
+			if (t.arrayLength == FieldType.VARIABLE)
+			{
+				String element = javaType( t );
+				len = count( n );
+				c.line( indent, len + " = arrayLength( in );" );
+				c.line( indent, "if (" + n + ".length < " + len + ") {" );
+				if (t.compound != null) {
+					// keep the instances decoded into before
+					c.line( indent + 1, n + " = java.util.Arrays.copyOf( " + n + ", " + len + " );" );
+				}
+				else {
+					c.line( indent + 1, n + " = new " + element + "[" + len + "];" );
+				}
+				c.line( indent, "}" );
+			}
+
+			if (t.primitive != null && t.primitive.bulk) {
+				c.line( indent, "in.read" + t.primitive.method + "Array( " + n + ", 0, " + len + " );" );
+			}
+			else if (t.primitive == Primitive.BYTE) {
+				c.line( indent, "in.readBytes( " + n + ", 0, " + len + " );" );
+			}
+			else if (t.compound != null && t.arrayLength == FieldType.VARIABLE)
+			{
+				c.line( indent, "for (int i = 0; i < " + len + "; ++i)" );
+				c.line( indent, "{" );
+				c.line( indent + 1, "if (" + n + "[i] == null) {" );
+				c.line( indent + 2, n + "[i] = new " + javaType( t ) + "();" );
+				c.line( indent + 1, "}" );
+				c.line( indent + 1, n + "[i].decode( in );" );
+				c.line( indent, "}" );
+			}
+			else
+			{
+				c.line( indent, "for (int i = 0; i < " + len + "; ++i) {" );
+				if (t.compound != null) {
+					c.line( indent + 1, n + "[i].decode( in );" );
+				}
+				else {
+					c.line( indent + 1, n + "[i] = " + read( t ) + ";" );
+				}
+				c.line( indent, "}" );
+			}
+		}
+
+		if (f.optional) {
+			c.line( 2, "}" );
+		}
+	}
+
+	/**
+	 * Reads a constant field and fails unless it matches; the field itself
+	 * is final and keeps its value.
+	 */
+	private static void checkConstant(Code c, int indent, SchemaField f, String n)
+	{
+		FieldType t = f.type;
+		String mismatch;
+		if (t.isArray())
+		{
+			c.line( indent, "for (int i = 0; i < " + t.arrayLength + "; ++i) {" );
+			mismatch = "in.readByte() != " + n + "[i]";
+			++indent;
+		}
+		else if (t.primitive == Primitive.STRING) {
+			mismatch = "!" + n + ".equals( in.readString( 0 ) )";
+		}
+		else {
+			mismatch = read( t ) + " != " + n;
+		}
+		c.line( indent, "if (" + mismatch + ") {" );
+		c.line( indent + 1, "throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, \"field '" + f.name + "' does not hold its constant value\" );" );
+		c.line( indent, "}" );
+		if (t.isArray()) {
+			c.line( indent - 1, "}" );
+		}
+	}
+
+	/**
+	 * Schema path without its directories, so generated files do not depend
+	 * on where the schema was checked out.
+	 */
+	private static String fileName(String source)
+	{
+		return source.substring( Math.max( source.lastIndexOf( '/' ), source.lastIndexOf( '\\' ) ) + 1 );
+	}
+
+	private static String write(FieldType t, String value)
+	{
+		if (t.compound != null) {
+			return value + ".encode( out );";
+		}
+		return "out.write" + t.primitive.method + "( " + value + " );";
+	}
+
+	private static String read(FieldType t)
+	{
+		return (t.primitive == Primitive.STRING) ? "in.readString( 0 )" : "in.read" + t.primitive.method + "()";
+	}
+
+	private String javaType(FieldType t)
+	{
+		return (t.compound != null) ? className( t.compound.name ) : t.primitive.javaType;
+	}
+
+	/**
+	 * Field initializer for const=..., or "" if there is none.
+	 */
+	private static String constant(SchemaField f)
+	{
+		String v = f.constValue;
+		if (v == null) {
+			return "";
+		}
+		if (f.type.isArray())
+		{
+			// fixed byte array spelled as a string
+			StringBuilder bytes = new StringBuilder( "{ " );
+			for (int i = 1; i < v.length() - 1; ++i) {
+				bytes.append( (i > 1) ? ", " : "" ).append( (int) (byte) v.charAt(i) );
+			}
+			return bytes.append( " }" ).toString();
+		}
+		switch (f.type.primitive)
+		{
+			case BYTE: return " = (byte) " + v;
+			case LONG:
+			case UINT:
+			case ULONG: return " = " + v + "L";
+			default: return " = " + v;
+		}
+	}
+
+	private Map<SchemaField, String> fieldNames(SchemaType t) throws PcosError
+	{
+		Map<SchemaField, String> names = new LinkedHashMap<SchemaField, String>();
+		Set<String> taken = new HashSet<String>();
+		for (SchemaField f : t.fields)
+		{
+			String n = memberName( f.name );
+			boolean clash = !taken.add( n );
+			if (f.optional) {
+				clash |= !taken.add( presence( n ) );
+			}
+			if (f.type.arrayLength == FieldType.VARIABLE) {
+				clash |= !taken.add( count( n ) );
+			}
+			if (clash) {
+				throw Schema.error( t.source, f.type.line, "field '" + f.name + "' clashes with another member of " + className( t.name ) );
+			}
+			names.put( f, n );
+		}
+		return names;
+	}
+
+	private static String presence(String member)
+	{
+		return "has" + Character.toUpperCase( member.charAt(0) ) + member.substring(1);
+	}
+
+	private static String count(String member)
+	{
+		return member + "Count";
+	}
+
+	/**
+	 * data_segment_meta => DataSegmentMeta
+	 */
+	static String className(String name)
+	{
+		String camel = camelCase( name );
+		return Character.toUpperCase( camel.charAt(0) ) + camel.substring(1);
+	}
+
+	/**
+	 * state_code => stateCode
+	 */
+	static String memberName(String name)
+	{
+		String camel = camelCase( name );
+		camel = Character.toLowerCase( camel.charAt(0) ) + camel.substring(1);
+		return KEYWORDS_.contains( camel ) ? camel + "_" : camel;
+	}
+
+	private static String camelCase(String name)
+	{
+		StringBuilder out = new StringBuilder();
+		boolean upper = false;
+		for (int i = 0; i < name.length(); ++i)
+		{
+			char ch = name.charAt(i);
+			if (ch == '_' && out.length() > 0) {
+				upper = true;
+			}
+			else if (ch != '_')
+			{
+				out.append( upper ? Character.toUpperCase( ch ) : ch );
+				upper = false;
+			}
+		}
+		return (out.length() > 0) ? out.toString() : "_";
+	}
+
+	/**
+	 * Source text indented with tabs.
+	 */
+	static final class Code
+	{
+		private final StringBuilder text_ = new StringBuilder();
+
+		void line(int indent, String s)
+		{
+			if (s.length() > 0)
+			{
+				for (int i = 0; i < indent; ++i) {
+					text_.append( '\t' );
+				}
+				text_.append( s );
+			}
+			text_.append( '\n' );
+		}
+
+		@Override
+		public String toString()
+		{
+			return text_.toString();
+		}
+	}
+}
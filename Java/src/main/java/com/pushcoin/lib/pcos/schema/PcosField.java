@@ -0,0 +1,54 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field carried by the runtime codec (Codecs.forClass).
+ *
+ * The PCOS type follows from the Java type: int => int, long => long,
+ * double, boolean => bool, byte, String => string, arrays of those and
+ * classes with PcosField fields of their own => compound. Boxed types and
+ * references may be optional, in which case null means absent.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface PcosField
+{
+	/**
+	 * Position of the field on the wire, unique within the class.
+	 */
+	int order();
+
+	/**
+	 * PCOS type where the Java type allows several, e.g. "uint" or "ulong" for a long.
+	 */
+	String type() default "";
+
+	/**
+	 * Element count of a fixed-length array; arrays are variable-length by default.
+	 */
+	int length() default 0;
+
+	boolean optional() default false;
+}
@@ -0,0 +1,821 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.OutputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.PcosErrorCode;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds encode/decode plans: one step per field, with accessors, PCOS types
+ * and nested codecs resolved up front, so that running a plan involves no
+ * lookups. Scalar fields -- primitives, boxed types and strings -- are moved
+ * by PrimitiveStep; only arrays and compounds go through a Value.
+ */
+final class Plans
+{
+	private Plans() {}
+
+	static <T> Codec<T> forClass(final Class<T> type) throws PcosError
+	{
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+		{
+			for (Field f : c.getDeclaredFields())
+			{
+				if (f.isAnnotationPresent( PcosField.class )) {
+					fields.add( f );
+				}
+			}
+		}
+		if (fields.isEmpty()) {
+			throw error( type.getName() + " has no @PcosField fields" );
+		}
+		Collections.sort( fields, new Comparator<Field>() {
+			public int compare(Field a, Field b) {
+				int x = a.getAnnotation( PcosField.class ).order(), y = b.getAnnotation( PcosField.class ).order();
+				return (x < y) ? -1 : (x == y) ? 0 : 1;
+			}
+		});
+
+		Step[] steps = new Step[fields.size()];
+		for (int i = 0; i < steps.length; ++i)
+		{
+			Field f = fields.get(i);
+			if (i > 0 && f.getAnnotation( PcosField.class ).order() == fields.get(i-1).getAnnotation( PcosField.class ).order()) {
+				throw error( type.getName() + ": fields " + fields.get(i-1).getName() + " and " + f.getName() + " have the same order" );
+			}
+			steps[i] = fieldStep( type, f );
+		}
+
+		final Constructor<T> ctor;
+		try
+		{
+			ctor = type.getDeclaredConstructor();
+			ctor.setAccessible( true );
+		}
+		catch (NoSuchMethodException e) {
+			throw error( type.getName() + " needs a no-argument constructor" );
+		}
+		return new PlanCodec<T>( steps ) {
+			@Override
+			T newInstance() throws PcosError
+			{
+				try {
+					return ctor.newInstance();
+				}
+				catch (Exception e) {
+					throw new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "cannot instantiate " + type.getName() + ": " + e );
+				}
+			}
+		};
+	}
+
+	static Codec<DynamicRecord> forType(SchemaType type)
+	{
+		final String name = type.name;
+		final Map<String, Integer> index = new LinkedHashMap<String, Integer>();
+		Step[] steps = new Step[type.fields.size()];
+		for (int i = 0; i < steps.length; ++i)
+		{
+			SchemaField f = type.fields.get(i);
+			index.put( f.name, i );
+			steps[i] = new SlotStep( i, value( f.type ), f.optional );
+		}
+		return new PlanCodec<DynamicRecord>( steps ) {
+			@Override
+			DynamicRecord newInstance()
+			{
+				return new DynamicRecord( name, index );
+			}
+		};
+	}
+
+	private static Step fieldStep(Class<?> owner, Field f) throws PcosError
+	{
+		PcosField ann = f.getAnnotation( PcosField.class );
+		String where = owner.getName() + "." + f.getName();
+		if (Modifier.isStatic( f.getModifiers() ) || Modifier.isFinal( f.getModifiers() )) {
+			throw error( where + " must be neither static nor final" );
+		}
+		f.setAccessible( true );
+
+		Class<?> jt = f.getType();
+		if (jt.isPrimitive())
+		{
+			if (ann.optional()) {
+				throw error( where + " is a Java primitive and cannot be optional; use the boxed type" );
+			}
+			return new PrimitiveStep( f, primitive( jt, ann.type(), where ), false );
+		}
+		if (!jt.isArray())
+		{
+			Primitive p = primitive( jt, ann.type(), where );
+			if (p != null)
+			{
+				if (ann.length() != 0) {
+					throw error( where + " is not an array but has a length" );
+				}
+				return new PrimitiveStep( f, p, ann.optional() );
+			}
+		}
+		return new FieldStep( f, javaValue( jt, ann, where ), ann.optional() );
+	}
+
+	/**
+	 * Value codec for a Java type, following the PcosField rules.
+	 */
+	private static Value javaValue(Class<?> jt, PcosField ann, String where) throws PcosError
+	{
+		if (!jt.isArray())
+		{
+			if (ann.length() != 0) {
+				throw error( where + " is not an array but has a length" );
+			}
+			Primitive p = primitive( jt, ann.type(), where );
+			return (p != null) ? new Scalar( p ) : compound( jt, where );
+		}
+
+		Class<?> component = jt.getComponentType();
+		Primitive p = primitive( component, ann.type(), where );
+		int length = ann.length();
+		if (length < 0) {
+			throw error( where + " has a negative length" );
+		}
+		if (p == Primitive.BYTE && component.isPrimitive()) {
+			return new Bytes( length );
+		}
+		if (p == Primitive.BOOL && component.isPrimitive()) {
+			return new Bools( length );
+		}
+		if (p != null && p.bulk && component.isPrimitive()) {
+			return new Numbers( p, length );
+		}
+		if (component.isPrimitive() || component.isArray()) {
+			throw error( where + ": arrays of " + component.getName() + " are not supported" );
+		}
+		return new Objects( (p != null) ? new Scalar( p ) : compound( component, where ), component, length );
+	}
+
+	private static Value compound(Class<?> jt, String where) throws PcosError
+	{
+		for (Class<?> c = jt; c != null && c != Object.class; c = c.getSuperclass())
+		{
+			for (Field f : c.getDeclaredFields())
+			{
+				if (f.isAnnotationPresent( PcosField.class )) {
+					return new Compound( jt );
+				}
+			}
+		}
+		throw error( where + ": " + jt.getName() + " has no @PcosField fields" );
+	}
+
+	/**
+	 * PCOS primitive of a Java type, or null for a compound.
+	 */
+	private static Primitive primitive(Class<?> jt, String declared, String where) throws PcosError
+	{
+		Primitive p;
+		if (jt == int.class || jt == Integer.class) {
+			p = Primitive.INT;
+		}
+		else if (jt == long.class || jt == Long.class) {
+			p = Primitive.LONG;
+		}
+		else if (jt == double.class || jt == Double.class) {
+			p = Primitive.DOUBLE;
+		}
+		else if (jt == boolean.class || jt == Boolean.class) {
+			p = Primitive.BOOL;
+		}
+		else if (jt == byte.class || jt == Byte.class) {
+			p = Primitive.BYTE;
+		}
+		else if (jt == String.class) {
+			p = Primitive.STRING;
+		}
+		else
+		{
+			if (declared.length() > 0) {
+				throw error( where + ": type \"" + declared + "\" does not fit " + jt.getName() );
+			}
+			return null;
+		}
+
+		if (declared.length() > 0 && !declared.equals( p.keyword ))
+		{
+			Primitive d = Primitive.forKeyword( declared );
+			if (d == null || !d.javaType.equals( p.javaType )) {
+				throw error( where + ": type \"" + declared + "\" does not fit " + jt.getName() );
+			}
+			p = d;
+		}
+		return p;
+	}
+
+	private static Value value(FieldType t)
+	{
+		Value element = (t.compound != null) ? new RecordValue( forType( t.compound ) ) : new Scalar( t.primitive );
+		if (!t.isArray()) {
+			return element;
+		}
+		int length = t.arrayLength;
+		if (t.primitive == Primitive.BYTE) {
+			return new Bytes( length );
+		}
+		if (t.primitive == Primitive.BOOL) {
+			return new Bools( length );
+		}
+		if (t.primitive != null && t.primitive.bulk) {
+			return new Numbers( t.primitive, length );
+		}
+		return new Objects( element, Object.class, length );
+	}
+
+	static PcosError error(String reason)
+	{
+		return new PcosError( PcosErrorCode.ERR_BAD_SCHEMA, reason );
+	}
+
+	/**
+	 * Element count of a variable-length array; every element takes at least
+	 * one octet, which bounds what a corrupt count can allocate.
+	 */
+	static int arrayLength(InputBlock in) throws PcosError
+	{
+		long count = in.readUint();
+		if (count > in.size()) {
+			throw new PcosError( PcosErrorCode.ERR_MALFORMED_MESSAGE, "array length exceeds block size" );
+		}
+		return (int) count;
+	}
+
+	static int checkLength(int actual, int fixed) throws PcosError
+	{
+		if (fixed > 0 && actual != fixed) {
+			throw new PcosError( PcosErrorCode.ERR_ARG_OUT_OF_RANGE, "fixed-length array holds " + actual + " elements instead of " + fixed );
+		}
+		return actual;
+	}
+
+	private static PcosError inaccessible(Field f, Exception e)
+	{
+		return new PcosError( PcosErrorCode.ERR_INTERNAL_ERROR, "cannot access " + f + ": " + e );
+	}
+
+	abstract static class PlanCodec<T> implements Codec<T>
+	{
+		private final Step[] steps_;
+
+		PlanCodec(Step[] steps)
+		{
+			steps_ = steps;
+		}
+
+		abstract T newInstance() throws PcosError;
+
+		public void encode(T value, OutputBlock out) throws PcosError
+		{
+			for (Step s : steps_) {
+				s.encode( value, out );
+			}
+		}
+
+		public T decode(InputBlock in) throws PcosError
+		{
+			T value = newInstance();
+			decode( in, value );
+			return value;
+		}
+
+		public void decode(InputBlock in, T into) throws PcosError
+		{
+			for (Step s : steps_) {
+				s.decode( in, into );
+			}
+		}
+	}
+
+	/**
+	 * Moves one field between an object and the wire.
+	 */
+	abstract static class Step
+	{
+		abstract void encode(Object owner, OutputBlock out) throws PcosError;
+		abstract void decode(InputBlock in, Object owner) throws PcosError;
+	}
+
+	/**
+	 * Scalar field: Java primitives go through the typed Field accessors,
+	 * boxed types and String are converted here rather than through a Value.
+	 */
+	static final class PrimitiveStep extends Step
+	{
+		private final Field field_;
+		private final Primitive type_;
+		private final boolean boxed_;
+		private final boolean optional_;
+
+		PrimitiveStep(Field field, Primitive type, boolean optional)
+		{
+			field_ = field;
+			type_ = type;
+			boxed_ = !field.getType().isPrimitive();
+			optional_ = optional;
+		}
+
+		@Override
+		void encode(Object owner, OutputBlock out) throws PcosError
+		{
+			try
+			{
+				if (boxed_) {
+					encodeBoxed( field_.get(owner), out );
+					return;
+				}
+				switch (type_)
+				{
+					case INT: out.writeInt( field_.getInt(owner) ); break;
+					case UINT: out.writeUint( field_.getLong(owner) ); break;
+					case ULONG: out.writeUlong( field_.getLong(owner) ); break;
+					case LONG: out.writeLong( field_.getLong(owner) ); break;
+					case DOUBLE: out.writeDouble( field_.getDouble(owner) ); break;
+					case BOOL: out.writeBool( field_.getBoolean(owner) ); break;
+					default: out.writeByte( field_.getByte(owner) );
+				}
+			}
+			catch (IllegalAccessException e) {
+				throw inaccessible( field_, e );
+			}
+		}
+
+		private void encodeBoxed(Object v, OutputBlock out) throws PcosError
+		{
+			if (optional_)
+			{
+				out.writeBool( v != null );
+				if (v == null) {
+					return;
+				}
+			}
+			switch (type_)
+			{
+				case INT: out.writeInt( (Integer) v ); break;
+				case UINT: out.writeUint( (Long) v ); break;
+				case ULONG: out.writeUlong( (Long) v ); break;
+				case LONG: out.writeLong( (Long) v ); break;
+				case DOUBLE: out.writeDouble( (Double) v ); break;
+				case BOOL: out.writeBool( (Boolean) v ); break;
+				case BYTE: out.writeByte( (Byte) v ); break;
+				default: out.writeString( (String) v );
+			}
+		}
+
+		@Override
+		void decode(InputBlock in, Object owner) throws PcosError
+		{
+			try
+			{
+				if (boxed_) {
+					field_.set( owner, (optional_ && !in.readBool()) ? null : decodeBoxed( in ) );
+					return;
+				}
+				switch (type_)
+				{
+					case INT: field_.setInt( owner, in.readInt() ); break;
+					case UINT: field_.setLong( owner, in.readUint() ); break;
+					case ULONG: field_.setLong( owner, in.readUlong() ); break;
+					case LONG: field_.setLong( owner, in.readLong() ); break;
+					case DOUBLE: field_.setDouble( owner, in.readDouble() ); break;
+					case BOOL: field_.setBoolean( owner, in.readBool() ); break;
+					default: field_.setByte( owner, in.readByte() );
+				}
+			}
+			catch (IllegalAccessException e) {
+				throw inaccessible( field_, e );
+			}
+		}
+
+		private Object decodeBoxed(InputBlock in) throws PcosError
+		{
+			switch (type_)
+			{
+				case INT: return Integer.valueOf( in.readInt() );
+				case UINT: return Long.valueOf( in.readUint() );
+				case ULONG: return Long.valueOf( in.readUlong() );
+				case LONG: return Long.valueOf( in.readLong() );
+				case DOUBLE: return Double.valueOf( in.readDouble() );
+				case BOOL: return Boolean.valueOf( in.readBool() );
+				case BYTE: return Byte.valueOf( in.readByte() );
+				default: return in.readString( 0 );
+			}
+		}
+	}
+
+	/**
+	 * Array or compound field of a Java object; null means absent if optional.
+	 */
+	static final class FieldStep extends Step
+	{
+		private final Field field_;
+		private final Value value_;
+		private final boolean optional_;
+
+		FieldStep(Field field, Value value, boolean optional)
+		{
+			field_ = field;
+			value_ = value;
+			optional_ = optional;
+		}
+
+		@Override
+		void encode(Object owner, OutputBlock out) throws PcosError
+		{
+			Object v;
+			try {
+				v = field_.get( owner );
+			}
+			catch (IllegalAccessException e) {
+				throw inaccessible( field_, e );
+			}
+			if (optional_)
+			{
+				out.writeBool( v != null );
+				if (v == null) {
+					return;
+				}
+			}
+			value_.write( out, v );
+		}
+
+		@Override
+		void decode(InputBlock in, Object owner) throws PcosError
+		{
+			try
+			{
+				if (optional_ && !in.readBool()) {
+					field_.set( owner, null );
+				}
+				else {
+					field_.set( owner, value_.read( in, field_.get(owner) ) );
+				}
+			}
+			catch (IllegalAccessException e) {
+				throw inaccessible( field_, e );
+			}
+		}
+	}
+
+	static final class SlotStep extends Step
+	{
+		private final int slot_;
+		private final Value value_;
+		private final boolean optional_;
+
+		SlotStep(int slot, Value value, boolean optional)
+		{
+			slot_ = slot;
+			value_ = value;
+			optional_ = optional;
+		}
+
+		@Override
+		void encode(Object owner, OutputBlock out) throws PcosError
+		{
+			Object v = ((DynamicRecord) owner).values[slot_];
+			if (optional_)
+			{
+				out.writeBool( v != null );
+				if (v == null) {
+					return;
+				}
+			}
+			value_.write( out, v );
+		}
+
+		@Override
+		void decode(InputBlock in, Object owner) throws PcosError
+		{
+			Object[] values = ((DynamicRecord) owner).values;
+			values[slot_] = (optional_ && !in.readBool()) ? null : value_.read( in, values[slot_] );
+		}
+	}
+
+	/**
+	 * Codec of a single (possibly array) value. read() may return reuse,
+	 * filled in, when it has the right shape.
+	 */
+	abstract static class Value
+	{
+		abstract void write(OutputBlock out, Object v) throws PcosError;
+		abstract Object read(InputBlock in, Object reuse) throws PcosError;
+	}
+
+	static final class Scalar extends Value
+	{
+		private final Primitive type_;
+
+		Scalar(Primitive type)
+		{
+			type_ = type;
+		}
+
+		@Override
+		void write(OutputBlock out, Object v) throws PcosError
+		{
+			switch (type_)
+			{
+				case INT: out.writeInt( ((Number) v).intValue() ); break;
+				case UINT: out.writeUint( ((Number) v).longValue() ); break;
+				case ULONG: out.writeUlong( ((Number) v).longValue() ); break;
+				case LONG: out.writeLong( ((Number) v).longValue() ); break;
+				case DOUBLE: out.writeDouble( ((Number) v).doubleValue() ); break;
+				case BOOL: out.writeBool( (Boolean) v ); break;
+				case BYTE: out.writeByte( ((Number) v).byteValue() ); break;
+				default: out.writeString( (String) v );
+			}
+		}
+
+		@Override
+		Object read(InputBlock in, Object reuse) throws PcosError
+		{
+			switch (type_)
+			{
+				case INT: return in.readInt();
+				case UINT: return in.readUint();
+				case ULONG: return in.readUlong();
+				case LONG: return in.readLong();
+				case DOUBLE: return in.readDouble();
+				case BOOL: return in.readBool();
+				case BYTE: return in.readByte();
+				default: return in.readString( 0 );
+			}
+		}
+	}
+
+	static final class Bytes extends Value
+	{
+		private final int fixed_;
+
+		Bytes(int fixed)
+		{
+			fixed_ = fixed;
+		}
+
+		@Override
+		void write(OutputBlock out, Object v) throws PcosError
+		{
+			byte[] b = (byte[]) v;
+			if (fixed_ == 0) {
+				out.writeUint( b.length );
+			}
+			out.writeBytes( b, 0, checkLength( b.length, fixed_ ) );
+		}
+
+		@Override
+		Object read(InputBlock in, Object reuse) throws PcosError
+		{
+			int n = (fixed_ > 0) ? fixed_ : arrayLength( in );
+			byte[] b = (reuse instanceof byte[] && ((byte[]) reuse).length == n) ? (byte[]) reuse : new byte[n];
+			in.readBytes( b, 0, n );
+			return b;
+		}
+	}
+
+	static final class Bools extends Value
+	{
+		private final int fixed_;
+
+		Bools(int fixed)
+		{
+			fixed_ = fixed;
+		}
+
+		@Override
+		void write(OutputBlock out, Object v) throws PcosError
+		{
+			boolean[] b = (boolean[]) v;
+			if (fixed_ == 0) {
+				out.writeUint( b.length );
+			}
+			for (int i = 0; i < checkLength( b.length, fixed_ ); ++i) {
+				out.writeBool( b[i] );
+			}
+		}
+
+		@Override
+		Object read(InputBlock in, Object reuse) throws PcosError
+		{
+			int n = (fixed_ > 0) ? fixed_ : arrayLength( in );
+			boolean[] b = (reuse instanceof boolean[] && ((boolean[]) reuse).length == n) ? (boolean[]) reuse : new boolean[n];
+			for (int i = 0; i < n; ++i) {
+				b[i] = in.readBool();
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * int[], long[] and double[] through the bulk array methods.
+	 */
+	static final class Numbers extends Value
+	{
+		private final Primitive type_;
+		private final int fixed_;
+
+		Numbers(Primitive type, int fixed)
+		{
+			type_ = type;
+			fixed_ = fixed;
+		}
+
+		@Override
+		void write(OutputBlock out, Object v) throws PcosError
+		{
+			int n = checkLength( Array.getLength( v ), fixed_ );
+			if (fixed_ == 0) {
+				out.writeUint( n );
+			}
+			switch (type_)
+			{
+				case INT: out.writeIntArray( (int[]) v, 0, n ); break;
+				case UINT: out.writeUintArray( (long[]) v, 0, n ); break;
+				case ULONG: out.writeUlongArray( (long[]) v, 0, n ); break;
+				case LONG: out.writeLongArray( (long[]) v, 0, n ); break;
+				default: out.writeDoubleArray( (double[]) v, 0, n );
+			}
+		}
+
+		@Override
+		Object read(InputBlock in, Object reuse) throws PcosError
+		{
+			int n = (fixed_ > 0) ? fixed_ : arrayLength( in );
+			switch (type_)
+			{
+				case INT:
+				{
+					int[] a = (reuse instanceof int[] && ((int[]) reuse).length == n) ? (int[]) reuse : new int[n];
+					in.readIntArray( a, 0, n );
+					return a;
+				}
+				case DOUBLE:
+				{
+					double[] a = (reuse instanceof double[] && ((double[]) reuse).length == n) ? (double[]) reuse : new double[n];
+					in.readDoubleArray( a, 0, n );
+					return a;
+				}
+				default:
+				{
+					long[] a = (reuse instanceof long[] && ((long[]) reuse).length == n) ? (long[]) reuse : new long[n];
+					if (type_ == Primitive.UINT) {
+						in.readUintArray( a, 0, n );
+					}
+					else if (type_ == Primitive.ULONG) {
+						in.readUlongArray( a, 0, n );
+					}
+					else {
+						in.readLongArray( a, 0, n );
+					}
+					return a;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Arrays of strings or compounds, element by element.
+	 */
+	static final class Objects extends Value
+	{
+		private final Value element_;
+		private final Class<?> component_;
+		private final int fixed_;
+
+		Objects(Value element, Class<?> component, int fixed)
+		{
+			element_ = element;
+			component_ = component;
+			fixed_ = fixed;
+		}
+
+		@Override
+		void write(OutputBlock out, Object v) throws PcosError
+		{
+			Object[] a = (Object[]) v;
+			if (fixed_ == 0) {
+				out.writeUint( a.length );
+			}
+			for (int i = 0; i < checkLength( a.length, fixed_ ); ++i) {
+				element_.write( out, a[i] );
+			}
+		}
+
+		@Override
+		Object read(InputBlock in, Object reuse) throws PcosError
+		{
+			int n = (fixed_ > 0) ? fixed_ : arrayLength( in );
+			Object[] a = (reuse instanceof Object[] && ((Object[]) reuse).length == n) ? (Object[]) reuse : (Object[]) Array.newInstance( component_, n );
+			for (int i = 0; i < n; ++i) {
+				a[i] = element_.read( in, a[i] );
+			}
+			return a;
+		}
+	}
+
+	/**
+	 * Nested Java object; its codec is looked up on first use, which also
+	 * lets a class refer to itself through an optional field.
+	 */
+	static final class Compound extends Value
+	{
+		private final Class<?> type_;
+		private volatile Codec<Object> codec_;
+
+		Compound(Class<?> type)
+		{
+			type_ = type;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Codec<Object> codec() throws PcosError
+		{
+			Codec<Object> c = codec_;
+			if (c == null) {
+				codec_ = c = (Codec<Object>) Codecs.forClass( type_ );
+			}
+			return c;
+		}
+
+		@Override
+		void write(OutputBlock out, Object v) throws PcosError
+		{
+			codec().encode( v, out );
+		}
+
+		@Override
+		Object read(InputBlock in, Object reuse) throws PcosError
+		{
+			if (reuse == null) {
+				return codec().decode( in );
+			}
+			codec().decode( in, reuse );
+			return reuse;
+		}
+	}
+
+	static final class RecordValue extends Value
+	{
+		private final Codec<DynamicRecord> codec_;
+
+		RecordValue(Codec<DynamicRecord> codec)
+		{
+			codec_ = codec;
+		}
+
+		@Override
+		void write(OutputBlock out, Object v) throws PcosError
+		{
+			codec_.encode( (DynamicRecord) v, out );
+		}
+
+		@Override
+		Object read(InputBlock in, Object reuse) throws PcosError
+		{
+			if (reuse instanceof DynamicRecord)
+			{
+				codec_.decode( in, (DynamicRecord) reuse );
+				return reuse;
+			}
+			return codec_.decode( in );
+		}
+	}
+}
@@ -0,0 +1,63 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+/**
+ * PCOS primitive types and the InputBlock/OutputBlock calls that carry them.
+ */
+enum Primitive
+{
+	BYTE("byte", "byte", "Byte", 1, false),
+	BOOL("bool", "boolean", "Bool", 1, false),
+	INT("int", "int", "Int", -1, true),
+	UINT("uint", "long", "Uint", -1, true),
+	LONG("long", "long", "Long", -1, true),
+	ULONG("ulong", "long", "Ulong", -1, true),
+	DOUBLE("double", "double", "Double", 8, true),
+	STRING("string", "String", "String", -1, false);
+
+	final String keyword;
+	final String javaType;
+	// suffix of the readXxx/writeXxx methods
+	final String method;
+	// octets on the wire, -1 if variable
+	final int wireSize;
+	// has readXxxArray/writeXxxArray bulk methods
+	final boolean bulk;
+
+	private Primitive(String keyword, String javaType, String method, int wireSize, boolean bulk)
+	{
+		this.keyword = keyword;
+		this.javaType = javaType;
+		this.method = method;
+		this.wireSize = wireSize;
+		this.bulk = bulk;
+	}
+
+	static Primitive forKeyword(String keyword)
+	{
+		for (Primitive p : values())
+		{
+			if (p.keyword.equals( keyword )) {
+				return p;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,259 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.InputBlock;
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads selected fields of a compound type, skipping over the rest.
+ *
+ * Paths name fields with dots through nested compounds, as in "home.city".
+ * Skipped fields are stepped over by type -- varints by their last octet,
+ * strings and byte arrays by their length, fixed-size compounds in a single
+ * jump -- so nothing is decoded or allocated for them.
+ *
+ * A projection is immutable and can be shared between threads.
+ */
+public final class Projection
+{
+	/**
+	 * Receives each selected field, with the block positioned on its first
+	 * octet. The field is read with the usual readXxx calls; if left
+	 * untouched it is skipped. Absent optional fields are not visited.
+	 */
+	public interface Visitor
+	{
+		void field(int index, InputBlock in) throws PcosError;
+	}
+
+	private final Node root_;
+	private final int count_;
+
+	private Projection(Node root, int count)
+	{
+		root_ = root;
+		count_ = count;
+	}
+
+	/**
+	 * Projection of the given paths of a compound type. Visitor indexes
+	 * follow the order of paths, whatever the order of the fields on the wire.
+	 */
+	public static Projection of(Schema schema, String typeName, String... paths) throws PcosError
+	{
+		SchemaType type = null;
+		for (SchemaType t : schema.compoundTypes())
+		{
+			if (t.name.equals( typeName )) {
+				type = t;
+			}
+		}
+		if (type == null) {
+			throw Plans.error( "schema has no compound type '" + typeName + "'" );
+		}
+		if (paths.length == 0) {
+			throw Plans.error( "projection of '" + typeName + "' selects no fields" );
+		}
+
+		Node root = new Node( type );
+		for (int i = 0; i < paths.length; ++i) {
+			root.select( paths[i], paths[i], i );
+		}
+		return new Projection( root, paths.length );
+	}
+
+	/**
+	 * Walks a block positioned at the start of the projected type, stopping
+	 * right after the last selected field.
+	 */
+	public void read(InputBlock in, Visitor visitor) throws PcosError
+	{
+		walk( root_, in, visitor, count_ );
+	}
+
+	private static int walk(Node node, InputBlock in, Visitor visitor, int remaining) throws PcosError
+	{
+		final List<SchemaField> fields = node.type.fields;
+		for (int i = 0; i <= node.last; ++i)
+		{
+			SchemaField f = fields.get( i );
+			boolean present = !f.optional || in.readBool();
+			if (node.targets[i] >= 0)
+			{
+				--remaining;
+				if (present)
+				{
+					int pos = in.readingPosition();
+					visitor.field( node.targets[i], in );
+					if (remaining > 0 && in.readingPosition() == pos) {
+						skip( in, f.type );
+					}
+				}
+			}
+			else if (node.children[i] != null)
+			{
+				if (present) {
+					remaining = walk( node.children[i], in, visitor, remaining );
+				}
+				else {
+					remaining -= node.children[i].count;
+				}
+			}
+			else if (present) {
+				skip( in, f.type );
+			}
+			if (remaining == 0) {
+				return 0;
+			}
+		}
+
+		// more fields selected past this compound: step over its tail
+		for (int i = node.last + 1; i < fields.size(); ++i) {
+			skipField( in, fields.get( i ) );
+		}
+		return remaining;
+	}
+
+	private static void skipField(InputBlock in, SchemaField f) throws PcosError
+	{
+		if (!f.optional || in.readBool()) {
+			skip( in, f.type );
+		}
+	}
+
+	/**
+	 * Steps over a value of the given type.
+	 */
+	static void skip(InputBlock in, FieldType t) throws PcosError
+	{
+		int size = t.wireSize();
+		if (size >= 0)
+		{
+			in.skipBytes( size );
+			return;
+		}
+
+		if (!t.isArray())
+		{
+			skipElement( in, t );
+			return;
+		}
+
+		long n = (t.arrayLength == FieldType.VARIABLE) ? Plans.arrayLength( in ) : t.arrayLength;
+		int element = (t.primitive != null) ? t.primitive.wireSize : t.compound.wireSize();
+		if (element >= 0)
+		{
+			in.skipBytes( n * element );
+			return;
+		}
+		for (long i = 0; i < n; ++i) {
+			skipElement( in, t );
+		}
+	}
+
+	private static void skipElement(InputBlock in, FieldType t) throws PcosError
+	{
+		if (t.compound != null)
+		{
+			for (SchemaField f : t.compound.fields) {
+				skipField( in, f );
+			}
+			return;
+		}
+		switch (t.primitive)
+		{
+			case BYTE: case BOOL: in.skipBytes( 1 ); break;
+			case DOUBLE: in.skipDouble(); break;
+			case STRING: in.skipByteStr(); break;
+			default: in.skipVarInt(); break;
+		}
+	}
+
+	/**
+	 * Fields of one compound on the way to the selected ones.
+	 */
+	private static final class Node
+	{
+		final SchemaType type;
+		// per field: visitor index, or -1
+		final int[] targets;
+		// per field: nested compound holding selected fields
+		final Node[] children;
+		// last field holding a selection, and the number of selections below
+		int last = -1;
+		int count;
+
+		Node(SchemaType type)
+		{
+			this.type = type;
+			targets = new int[type.fields.size()];
+			Arrays.fill( targets, -1 );
+			children = new Node[targets.length];
+		}
+
+		void select(String path, String rest, int index) throws PcosError
+		{
+			int dot = rest.indexOf( '.' );
+			String name = (dot < 0) ? rest : rest.substring( 0, dot );
+			int i = indexOf( name );
+			if (i < 0) {
+				throw Plans.error( "projection path '" + path + "': type '" + type.name + "' has no field '" + name + "'" );
+			}
+
+			if (dot < 0)
+			{
+				if (targets[i] >= 0 || children[i] != null) {
+					throw Plans.error( "projection path '" + path + "' overlaps another path" );
+				}
+				targets[i] = index;
+			}
+			else
+			{
+				FieldType t = type.fields.get( i ).type;
+				if (t.compound == null || t.isArray()) {
+					throw Plans.error( "projection path '" + path + "': field '" + name + "' is not a compound" );
+				}
+				if (targets[i] >= 0) {
+					throw Plans.error( "projection path '" + path + "' overlaps another path" );
+				}
+				if (children[i] == null) {
+					children[i] = new Node( t.compound );
+				}
+				children[i].select( path, rest.substring( dot + 1 ), index );
+			}
+			last = Math.max( last, i );
+			++count;
+		}
+
+		private int indexOf(String name)
+		{
+			for (int i = 0; i < targets.length; ++i)
+			{
+				if (type.fields.get( i ).name.equals( name )) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.PcosError;
+import com.pushcoin.lib.pcos.PcosErrorCode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Set of PCOS type declarations, possibly spread over several files.
+ *
+ * Types may be referenced before they are declared; references are
+ * resolved, and the schema validated, once all sources have been added.
+ */
+public final class Schema
+{
+	private final Map<String, SchemaType> types_ = new LinkedHashMap<String, SchemaType>();
+	private boolean resolved_;
+
+	/**
+	 * Adds the declarations in text. The source name is used in error messages.
+	 */
+	public Schema parse(String text, String source) throws PcosError
+	{
+		List<SchemaType> parsed = new ArrayList<SchemaType>();
+		SchemaParser.parse( text, source, parsed );
+		for (SchemaType t : parsed)
+		{
+			SchemaType previous = types_.get( t.name );
+			if (previous != null || Primitive.forKeyword( t.name ) != null)
+			{
+				String where = (previous != null) ? ", already declared at " + previous.source + ":" + previous.line : "";
+				throw error( t.source, t.line, "type '" + t.name + "' redefined" + where );
+			}
+			types_.put( t.name, t );
+		}
+		resolved_ = false;
+		return this;
+	}
+
+	/**
+	 * Adds the declarations in a UTF-8 schema file.
+	 */
+	public Schema parse(File file) throws PcosError, IOException
+	{
+		InputStream in = new FileInputStream( file );
+		try
+		{
+			ByteArrayOutputStream text = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			for (int n; (n = in.read( chunk )) > 0; ) {
+				text.write( chunk, 0, n );
+			}
+			return parse( text.toString( "UTF-8" ), file.getPath() );
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Encoded size of the named compound type, or -1 if it varies, as with
+	 * strings, varints, variable arrays or optional fields. Arrays of a
+	 * fixed-size type can be decoded in parallel ranges; see
+	 * ArrayBlockDecoder.
+	 */
+	public int wireSize(String typeName) throws PcosError
+	{
+		resolve();
+		SchemaType t = types_.get( typeName );
+		if (t == null || !t.isCompound()) {
+			throw Plans.error( "schema has no compound type '" + typeName + "'" );
+		}
+		return t.wireSize();
+	}
+
+	/**
+	 * Compound types in declaration order, with all references resolved.
+	 */
+	List<SchemaType> compoundTypes() throws PcosError
+	{
+		resolve();
+		List<SchemaType> compounds = new ArrayList<SchemaType>();
+		for (SchemaType t : types_.values())
+		{
+			if (t.isCompound()) {
+				compounds.add( t );
+			}
+		}
+		return compounds;
+	}
+
+	private void resolve() throws PcosError
+	{
+		if (resolved_) {
+			return;
+		}
+		for (SchemaType t : types_.values())
+		{
+			if (!t.isCompound())
+			{
+				resolve( t, t.alias, new HashSet<String>() );
+				continue;
+			}
+			for (SchemaField f : t.fields)
+			{
+				resolve( t, f.type, new HashSet<String>() );
+				checkConst( t, f );
+			}
+		}
+		for (SchemaType t : types_.values())
+		{
+			if (t.isCompound()) {
+				checkNotRecursive( t, t, new HashSet<String>() );
+			}
+		}
+		resolved_ = true;
+	}
+
+	/**
+	 * Binds a type reference to a primitive or compound type, expanding aliases.
+	 */
+	private void resolve(SchemaType owner, FieldType ref, Set<String> aliases) throws PcosError
+	{
+		if (ref.primitive != null || ref.compound != null) {
+			return;
+		}
+		Primitive p = Primitive.forKeyword( ref.name );
+		if (p != null)
+		{
+			ref.primitive = p;
+			return;
+		}
+		SchemaType target = types_.get( ref.name );
+		if (target == null) {
+			throw error( owner.source, ref.line, "unknown type '" + ref.name + "'" );
+		}
+		if (target.isCompound())
+		{
+			ref.compound = target;
+			return;
+		}
+
+		if (!aliases.add( target.name )) {
+			throw error( owner.source, ref.line, "alias '" + target.name + "' refers to itself" );
+		}
+		resolve( target, target.alias, aliases );
+		if (ref.isArray() && target.alias.isArray()) {
+			throw error( owner.source, ref.line, "arrays of arrays are not supported: '" + ref.name + "' is an array" );
+		}
+		ref.primitive = target.alias.primitive;
+		ref.compound = target.alias.compound;
+		if (!ref.isArray()) {
+			ref.arrayLength = target.alias.arrayLength;
+		}
+	}
+
+	private void checkNotRecursive(SchemaType root, SchemaType t, Set<String> visiting) throws PcosError
+	{
+		if (!visiting.add( t.name )) {
+			throw error( root.source, root.line, "recursive type '" + root.name + "'" );
+		}
+		for (SchemaField f : t.fields)
+		{
+			if (f.type.compound != null) {
+				checkNotRecursive( root, f.type.compound, visiting );
+			}
+		}
+		visiting.remove( t.name );
+	}
+
+	/**
+	 * Constants are supported on scalar primitives and on fixed byte arrays
+	 * given as a string of matching length, as in magic : byte[4], const="PCOS".
+	 */
+	private static void checkConst(SchemaType owner, SchemaField f) throws PcosError
+	{
+		if (f.constValue == null) {
+			return;
+		}
+		FieldType t = f.type;
+		boolean quoted = f.constValue.startsWith( "\"" );
+		boolean ok;
+		if (t.primitive == Primitive.BYTE && t.arrayLength > 0) {
+			ok = quoted && f.constValue.length() - 2 == t.arrayLength;
+		}
+		else if (t.primitive == null || t.isArray()) {
+			ok = false;
+		}
+		else {
+			ok = quoted == (t.primitive == Primitive.STRING);
+		}
+		if (!ok) {
+			throw error( owner.source, t.line, "invalid constant " + f.constValue + " for field '" + f.name + "'" );
+		}
+	}
+
+	static PcosError error(String source, int line, String reason)
+	{
+		return new PcosError( PcosErrorCode.ERR_BAD_SCHEMA, source + ":" + line + ": " + reason );
+	}
+}
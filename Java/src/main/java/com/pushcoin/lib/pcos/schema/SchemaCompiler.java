@@ -0,0 +1,123 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles PCOS schema files into Java codecs.
+ *
+ *   java -cp pcos.jar com.pushcoin.lib.pcos.schema.SchemaCompiler \
+ *       -p com.example.messages -d src/generated/java payments.pcos ...
+ *
+ * All files given form one schema, so types may refer to types declared in
+ * other files.
+ */
+public final class SchemaCompiler
+{
+	private SchemaCompiler() {}
+
+	/**
+	 * Generates a class per compound type under outputDir, in the directory
+	 * of packageName. Returns the files written.
+	 */
+	public static List<File> compile(List<File> schemaFiles, File outputDir, String packageName) throws PcosError, IOException
+	{
+		Schema schema = new Schema();
+		for (File f : schemaFiles) {
+			schema.parse( f );
+		}
+		Map<String, String> sources = new JavaGenerator( packageName ).generate( schema );
+
+		File dir = (packageName.length() > 0) ? new File( outputDir, packageName.replace( '.', File.separatorChar ) ) : outputDir;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException( "cannot create directory " + dir );
+		}
+		List<File> written = new ArrayList<File>();
+		for (Map.Entry<String, String> source : sources.entrySet())
+		{
+			File out = new File( dir, source.getKey() + ".java" );
+			OutputStream os = new FileOutputStream( out );
+			try {
+				os.write( source.getValue().getBytes( "UTF-8" ) );
+			}
+			finally {
+				os.close();
+			}
+			written.add( out );
+		}
+		return written;
+	}
+
+	public static void main(String[] args)
+	{
+		String packageName = "";
+		File outputDir = new File( "." );
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; ++i)
+		{
+			if ("-p".equals( args[i] ) && i + 1 < args.length) {
+				packageName = args[++i];
+			}
+			else if ("-d".equals( args[i] ) && i + 1 < args.length) {
+				outputDir = new File( args[++i] );
+			}
+			else if (args[i].startsWith( "-" )) {
+				usage();
+			}
+			else {
+				files.add( new File( args[i] ) );
+			}
+		}
+		if (files.isEmpty()) {
+			usage();
+		}
+
+		try
+		{
+			for (File written : compile( files, outputDir, packageName )) {
+				System.out.println( written.getPath() );
+			}
+		}
+		catch (PcosError e)
+		{
+			System.err.println( e.getMessage() );
+			System.exit( 1 );
+		}
+		catch (IOException e)
+		{
+			System.err.println( "I/O error: " + e.getMessage() );
+			System.exit( 1 );
+		}
+	}
+
+	private static void usage()
+	{
+		System.err.println( "usage: SchemaCompiler [-p package] [-d output-dir] schema-file..." );
+		System.exit( 2 );
+	}
+}
@@ -0,0 +1,271 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import com.pushcoin.lib.pcos.PcosError;
+
+import java.util.List;
+
+/**
+ * Recursive-descent parser of the PCOS IDL:
+ *
+ *   type account_id : uint;
+ *   type address { street : string; zip : byte[5]; note : string, optional; };
+ *
+ * Comments start with // or # and run to the end of the line.
+ */
+final class SchemaParser
+{
+	private static final int EOF_ = -1;
+	private static final int IDENT_ = 0;
+	private static final int NUMBER_ = 1;
+	private static final int STRING_ = 2;
+	private static final int PUNCT_ = 3;
+
+	private final String text_;
+	private final String source_;
+	private int pos_;
+	private int line_ = 1;
+
+	// current token
+	private int kind_;
+	private String token_;
+	private int tokenLine_;
+
+	private SchemaParser(String text, String source)
+	{
+		text_ = text;
+		source_ = source;
+	}
+
+	static void parse(String text, String source, List<SchemaType> into) throws PcosError
+	{
+		SchemaParser p = new SchemaParser( text, source );
+		p.next();
+		while (p.kind_ != EOF_) {
+			into.add( p.typeDecl() );
+		}
+	}
+
+	private SchemaType typeDecl() throws PcosError
+	{
+		expectWord( "type" );
+		int line = tokenLine_;
+		String name = identifier();
+		if (accept( ":" ))
+		{
+			SchemaType alias = new SchemaType( name, typeRef(), source_, line );
+			expect( ";" );
+			return alias;
+		}
+
+		SchemaType compound = new SchemaType( name, null, source_, line );
+		expect( "{" );
+		while (!accept( "}" )) {
+			compound.fields.add( field() );
+		}
+		accept( ";" );
+		if (compound.fields.isEmpty()) {
+			throw error( line, "type '" + name + "' has no fields" );
+		}
+		return compound;
+	}
+
+	private SchemaField field() throws PcosError
+	{
+		String name = identifier();
+		expect( ":" );
+		FieldType type = typeRef();
+		boolean optional = false;
+		String constValue = null;
+		while (accept( "," ))
+		{
+			if (acceptWord( "optional" )) {
+				optional = true;
+			}
+			else if (acceptWord( "const" ))
+			{
+				expect( "=" );
+				if (kind_ == PUNCT_ || kind_ == EOF_) {
+					throw error( tokenLine_, "constant value expected" );
+				}
+				constValue = token_;
+				next();
+			}
+			else {
+				throw error( tokenLine_, "unknown field attribute '" + token_ + "'" );
+			}
+		}
+		expect( ";" );
+		return new SchemaField( name, type, optional, constValue );
+	}
+
+	private FieldType typeRef() throws PcosError
+	{
+		int line = tokenLine_;
+		String name = identifier();
+		int arrayLength = FieldType.SCALAR;
+		if (accept( "[" ))
+		{
+			arrayLength = FieldType.VARIABLE;
+			if (kind_ == NUMBER_)
+			{
+				try {
+					arrayLength = Integer.parseInt( token_ );
+				} catch (NumberFormatException e) {
+					arrayLength = 0;
+				}
+				if (arrayLength <= 0) {
+					throw error( tokenLine_, "array length must be a positive integer" );
+				}
+				next();
+			}
+			expect( "]" );
+		}
+		return new FieldType( name, arrayLength, line );
+	}
+
+	private String identifier() throws PcosError
+	{
+		if (kind_ != IDENT_) {
+			throw error( tokenLine_, "identifier expected, found " + describe() );
+		}
+		String name = token_;
+		next();
+		return name;
+	}
+
+	private void expectWord(String word) throws PcosError
+	{
+		if (!acceptWord( word )) {
+			throw error( tokenLine_, "'" + word + "' expected, found " + describe() );
+		}
+	}
+
+	private boolean acceptWord(String word) throws PcosError
+	{
+		if (kind_ == IDENT_ && token_.equals( word ))
+		{
+			next();
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(String punct) throws PcosError
+	{
+		if (!accept( punct )) {
+			throw error( tokenLine_, "'" + punct + "' expected, found " + describe() );
+		}
+	}
+
+	private boolean accept(String punct) throws PcosError
+	{
+		if (kind_ == PUNCT_ && token_.equals( punct ))
+		{
+			next();
+			return true;
+		}
+		return false;
+	}
+
+	private String describe()
+	{
+		return (kind_ == EOF_) ? "end of input" : "'" + token_ + "'";
+	}
+
+	/**
+	 * Advances to the next token, skipping whitespace and comments.
+	 */
+	private void next() throws PcosError
+	{
+		final String t = text_;
+		for (;;)
+		{
+			if (pos_ == t.length())
+			{
+				kind_ = EOF_;
+				token_ = null;
+				tokenLine_ = line_;
+				return;
+			}
+			char c = t.charAt( pos_ );
+			if (c == '\n') {
+				++line_;
+			}
+			if (Character.isWhitespace( c )) {
+				++pos_;
+			}
+			else if (c == '#' || t.startsWith( "//", pos_ ))
+			{
+				while (pos_ < t.length() && t.charAt( pos_ ) != '\n') {
+					++pos_;
+				}
+			}
+			else {
+				break;
+			}
+		}
+
+		tokenLine_ = line_;
+		final int start = pos_;
+		char c = t.charAt( pos_ );
+		if (Character.isLetter( c ) || c == '_')
+		{
+			while (pos_ < t.length() && (Character.isLetterOrDigit( t.charAt(pos_) ) || t.charAt(pos_) == '_')) {
+				++pos_;
+			}
+			kind_ = IDENT_;
+		}
+		else if (Character.isDigit( c ) || c == '-' || c == '.')
+		{
+			++pos_;
+			while (pos_ < t.length() && (Character.isLetterOrDigit( t.charAt(pos_) ) || t.charAt(pos_) == '.')) {
+				++pos_;
+			}
+			kind_ = NUMBER_;
+		}
+		else if (c == '"')
+		{
+			++pos_;
+			while (pos_ < t.length() && t.charAt( pos_ ) != '"' && t.charAt( pos_ ) != '\n') {
+				++pos_;
+			}
+			if (pos_ == t.length() || t.charAt( pos_ ) != '"') {
+				throw error( line_, "unterminated string" );
+			}
+			++pos_;
+			kind_ = STRING_;
+		}
+		else if (":;{}[],=".indexOf( c ) >= 0)
+		{
+			++pos_;
+			kind_ = PUNCT_;
+		}
+		else {
+			throw error( line_, "unexpected character '" + c + "'" );
+		}
+		token_ = t.substring( start, pos_ );
+	}
+
+	private PcosError error(int line, String reason)
+	{
+		return Schema.error( source_, line, reason );
+	}
+}
@@ -0,0 +1,74 @@
+// Copyright (c) 2012 PushCoin, Inc.
+//
+// GNU General Public Licence (GPL)
+// 
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; either version 2 of the License, or (at your option) any later
+// version.
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+// details.
+// You should have received a copy of the GNU General Public License along with
+// this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+// Place, Suite 330, Boston, MA  02111-1307  USA
+//
+// __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
+
+package com.pushcoin.lib.pcos.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A `type` declaration: either an alias of another type or a compound type.
+ */
+final class SchemaType
+{
+	final String name;
+	final String source;
+	final int line;
+	// set for aliases only
+	final FieldType alias;
+	final List<SchemaField> fields = new ArrayList<SchemaField>();
+
+	private int wireSize_ = Integer.MIN_VALUE;
+
+	SchemaType(String name, FieldType alias, String source, int line)
+	{
+		this.name = name;
+		this.alias = alias;
+		this.source = source;
+		this.line = line;
+	}
+
+	boolean isCompound()
+	{
+		return alias == null;
+	}
+
+	/**
+	 * Encoded size of a compound type whose fields are all of fixed size,
+	 * or -1 if it varies.
+	 */
+	int wireSize()
+	{
+		if (wireSize_ == Integer.MIN_VALUE)
+		{
+			int size = 0;
+			for (SchemaField f : fields)
+			{
+				int fieldSize = f.optional ? -1 : f.type.wireSize();
+				if (fieldSize < 0)
+				{
+					size = -1;
+					break;
+				}
+				size += fieldSize;
+			}
+			wireSize_ = size;
+		}
+		return wireSize_;
+	}
+}
@@ -17,8 +17,29 @@
 // __author__  = '''Slawomir Lisznianski <sl@pushcoin.com>'''
 
 import com.pushcoin.lib.pcos.*;
+import com.pushcoin.lib.pcos.log.MessageLog;
+import com.pushcoin.lib.pcos.schema.Codec;
+import com.pushcoin.lib.pcos.schema.Codecs;
+import com.pushcoin.lib.pcos.schema.DynamicRecord;
+import com.pushcoin.lib.pcos.schema.JavaGenerator;
+import com.pushcoin.lib.pcos.schema.PcosCodec;
+import com.pushcoin.lib.pcos.schema.PcosField;
+import com.pushcoin.lib.pcos.schema.Projection;
+import com.pushcoin.lib.pcos.schema.Schema;
+import com.pushcoin.lib.pcos.schema.SchemaCompiler;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
 import java.util.Map.Entry;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
 
 public final class TestPcos
 {
@@ -52,9 +73,1697 @@ public final class TestPcos
 		return doc.toBytes();
 	}
 	
+	private static void testWriteTo() throws Exception
+	{
+		OutputDocument doc = new DocumentWriter( "Test" );
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeString( varstr );
+		doc.addBlock( bo );
+		byte[] wire = doc.toBytes();
+		assert doc.size() == wire.length;
+
+		byte[] arr = new byte[ wire.length + 2 ];
+		assert doc.writeTo( arr, 2 ) == wire.length;
+		assert Arrays.equals( Arrays.copyOfRange(arr, 2, arr.length), wire );
+
+		ByteBuffer direct = ByteBuffer.allocateDirect( wire.length );
+		doc.writeTo( direct );
+		assert !direct.hasRemaining();
+		direct.flip();
+		byte[] fromDirect = new byte[ wire.length ];
+		direct.get( fromDirect );
+		assert Arrays.equals( fromDirect, wire );
+
+		Pipe pipe = Pipe.open();
+		assert doc.writeTo( pipe.sink() ) == wire.length;
+		ByteBuffer received = ByteBuffer.allocate( wire.length );
+		while (received.hasRemaining()) {
+			pipe.source().read( received );
+		}
+		assert Arrays.equals( received.array(), wire );
+		pipe.sink().close();
+		pipe.source().close();
+	}
+
+	private static void testFrameDecoder( byte[] input ) throws Exception
+	{
+		OutputDocument other = new DocumentWriter( "Other" );
+		OutputBlock hd = new BlockWriter( "Hd" );
+		hd.writeUint( 7 );
+		other.addBlock( hd );
+		byte[] second = other.toBytes();
+		byte[] empty = new DocumentWriter( "Ping" ).toBytes();
+
+		byte[] stream = new byte[ input.length + second.length + empty.length ];
+		System.arraycopy( input, 0, stream, 0, input.length );
+		System.arraycopy( second, 0, stream, input.length, second.length );
+		System.arraycopy( empty, 0, stream, input.length + second.length, empty.length );
+
+		// one byte at a time: each message surfaces exactly on its last byte
+		FrameDecoder decoder = new FrameDecoder( 4096, 8 );
+		int messages = 0, fed = 0;
+		long expected = -1;
+		for (int i = 0; i < stream.length; ++i)
+		{
+			decoder.feed( stream, i, 1 );
+			++fed;
+			DocumentReader doc = decoder.poll();
+			if (expected < 0 && decoder.messageLength() >= 0)
+			{
+				expected = decoder.messageLength();
+				assert decoder.bytesNeeded() == expected - fed;
+			}
+			if (doc == null) {
+				assert decoder.bytesNeeded() > 0;
+				continue;
+			}
+			// an empty message is complete on the byte that reveals its length
+			assert fed == (expected < 0 ? empty.length : expected);
+			if (messages == 0) {
+				checkDatatypes( doc );
+			}
+			else if (messages == 1) {
+				assert doc.getBlock( "Hd" ).readUint() == 7;
+			}
+			else {
+				assert "Ping".equals( doc.getDocumentName() ) && doc.getBlockCount() == 0;
+			}
+			++messages;
+			fed = 0;
+			expected = -1;
+		}
+		assert messages == 3 && decoder.buffered() == 0;
+
+		// whole stream in one piece
+		decoder.feed( ByteBuffer.wrap( stream ) );
+		assert decoder.poll() != null && decoder.poll() != null && decoder.poll() != null;
+		assert decoder.poll() == null;
+
+		// straight off a non-blocking channel
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking( false );
+		assert decoder.readFrom( pipe.source() ) == 0;
+		pipe.sink().write( ByteBuffer.wrap( stream, 0, input.length + 3 ) );
+		while (decoder.buffered() < input.length + 3) {
+			decoder.readFrom( pipe.source() );
+		}
+		checkDatatypes( decoder.poll() );
+		assert decoder.poll() == null;
+		pipe.sink().write( ByteBuffer.wrap( stream, input.length + 3, second.length - 3 ) );
+		pipe.sink().close();
+		while (decoder.readFrom( pipe.source() ) >= 0) {
+		}
+		assert decoder.poll().getBlock( "Hd" ).readUint() == 7;
+		pipe.source().close();
+
+		// rejected as soon as the enumeration gives the length away
+		decoder = new FrameDecoder( input.length - 1 );
+		decoder.feed( input, 0, input.length - 2 );
+		try {
+			decoder.poll();
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE.code;
+		}
+
+		// ... and before a large feed is buffered for it
+		OutputDocument big = new DocumentWriter( "Big" );
+		BlockWriter payload = new BlockWriter( "Pl" );
+		payload.writeBytes( new byte[1 << 20] );
+		big.addBlock( payload );
+		byte[] bigWire = big.toBytes();
+		decoder = new FrameDecoder( 4096, 64 );
+		try {
+			decoder.feed( bigWire, 0, bigWire.length );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE.code && decoder.buffered() <= 64;
+		}
+
+		decoder = new FrameDecoder( 4096 );
+		decoder.feed( new byte[] { 'P', 'C', 'O', 'X', 0 }, 0, 5 );
+		try {
+			decoder.poll();
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_BAD_MAGIC.code;
+		}
+
+		// every reader parses the header alike: flags are handed on, not checked ...
+		byte[] flagged = second.clone();
+		flagged[ProtocolTag.PROTOCOL_MAGIC_LEN] = 0x21;
+		assert new DocumentReader( flagged ).getFlags() == 0x21;
+		assert DocumentReader.peek( flagged, 0, flagged.length, new DocumentHeader() ).getFlags() == 0x21;
+		decoder = new FrameDecoder( 4096 );
+		decoder.feed( flagged, 0, flagged.length );
+		DocumentReader doc = decoder.poll();
+		assert doc.getFlags() == 0x21 && doc.getBlock( "Hd" ).readUint() == 7;
+
+		// ... and a nameless block is malformed to all of them
+		byte[] nameless = { 'P', 'C', 'O', 'S', 0, 1, 'X', 1, 0, 0, 0 };
+		for (int reader = 0; reader < 3; ++reader)
+		{
+			try
+			{
+				if (reader == 0) {
+					new DocumentReader( nameless );
+				}
+				else if (reader == 1) {
+					DocumentReader.peek( nameless, 0, nameless.length, new DocumentHeader() );
+				}
+				else
+				{
+					decoder = new FrameDecoder( 4096 );
+					decoder.feed( nameless, 0, nameless.length );
+					decoder.poll();
+				}
+				assert false;
+			}
+			catch (PcosError e) {
+				assert e.getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code && e.getMessage().contains( "without a name" );
+			}
+		}
+	}
+
+	private static void fillStreamed( OutputBlock blk, int i ) throws PcosError
+	{
+		blk.writeUint( i );
+		blk.writeString( varstr );
+		byte[] payload = new byte[ 100 * i ];
+		Arrays.fill( payload, (byte) i );
+		blk.writeByteStr( payload );
+		blk.writeDouble( i * 0.5 );
+	}
+
+	private static void testStreamingWriter() throws Exception
+	{
+		OutputDocument reference = new DocumentWriter( "Export" );
+		for (int i = 0; i < 5; ++i)
+		{
+			OutputBlock blk = new BlockWriter( "B" + i );
+			fillStreamed( blk, i );
+			reference.addBlock( blk );
+		}
+		byte[] expected = reference.toBytes();
+
+		File dir = new File( System.getProperty( "java.io.tmpdir" ), "pcos-spool-test" );
+		dir.mkdirs();
+		BufferPool pool = new BufferPool( 64, 1024, 4 );
+		// small chunks and limit, so that most of the data ends up in the file
+		StreamingDocumentWriter doc = new StreamingDocumentWriter( "Export", pool, 64, 256, dir );
+		for (int i = 0; i < 5; ++i) {
+			fillStreamed( doc.addBlock( "B" + i ), i );
+		}
+		assert doc.size() == expected.length && doc.spilled();
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		assert doc.writeTo( stream ) == expected.length;
+		assert Arrays.equals( stream.toByteArray(), expected );
+		// again, through a channel
+		stream.reset();
+		assert doc.writeTo( Channels.newChannel( stream ) ) == expected.length;
+		assert Arrays.equals( stream.toByteArray(), expected );
+		doc.close();
+		assert dir.list().length == 0;
+
+		// all in memory
+		doc = new StreamingDocumentWriter( "Export" );
+		for (int i = 0; i < 5; ++i) {
+			fillStreamed( doc.addBlock( "B" + i ), i );
+		}
+		stream.reset();
+		doc.writeTo( stream );
+		assert !doc.spilled() && Arrays.equals( stream.toByteArray(), expected );
+
+		OutputBlock early = doc.addBlock( "X" );
+		doc.addBlock( "Y" );
+		early.writeUint( 1 );
+		try {
+			doc.size();
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_INTERNAL_ERROR.code;
+		}
+		doc.close();
+		dir.delete();
+	}
+
+	/**
+	 * Sink remembering the number and largest size of writes, and
+	 * keeping the bytes only while asked to.
+	 */
+	private static final class CountingSink extends OutputStream
+	{
+		final ByteArrayOutputStream kept = new ByteArrayOutputStream();
+		boolean keep = true;
+		boolean broken;
+		int writes;
+		int largest;
+
+		@Override
+		public void write( int b ) throws IOException
+		{
+			write( new byte[] { (byte) b }, 0, 1 );
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException
+		{
+			if (broken) {
+				throw new IOException( "sink closed" );
+			}
+			++writes;
+			largest = Math.max( largest, len );
+			if (keep) {
+				kept.write( b, off, len );
+			}
+		}
+	}
+
+	private static int chunkOf( BlockWriter bw ) throws Exception
+	{
+		java.lang.reflect.Field buf = BlockWriter.class.getDeclaredField( "buf_" );
+		buf.setAccessible( true );
+		return ((byte[]) buf.get( bw )).length;
+	}
+
+	private static void testStreamedBlock() throws Exception
+	{
+		// fields larger than the chunk, and a string whose pairs straddle it
+		byte[] payload = new byte[1000];
+		for (int i = 0; i < payload.length; ++i) {
+			payload[i] = (byte) i;
+		}
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 300; ++i) {
+			text.append( "a\u00e9\u20ac\ud83d\ude00" );
+		}
+		long[] values = new long[500];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = (long) i << (i % 60);
+		}
+
+		BlockWriter reference = new BlockWriter( "Bo" );
+		CountingSink sink = new CountingSink();
+		BlockWriter streamed = new BlockWriter( "Bo", sink, 64 );
+		for (BlockWriter bw : new BlockWriter[] { reference, streamed })
+		{
+			bw.writeUint( 7 );
+			bw.writeBytes( payload );
+			bw.writeString( text.toString() );
+			bw.writeLongArray( values, 0, values.length );
+			bw.writeDouble( 0.5 );
+		}
+		assert streamed.size() == reference.size();
+		streamed.flush();
+		assert Arrays.equals( sink.kept.toByteArray(), reference.toBytes() );
+		assert chunkOf( streamed ) == 64 && sink.largest <= 64;
+
+		// small values wait for the chunk to fill
+		sink.writes = 0;
+		for (int i = 0; i < 30; ++i) {
+			streamed.writeUint( i );
+		}
+		assert sink.writes == 0;
+		streamed.flush();
+		assert sink.writes == 1;
+
+		// past 2 GB without holding any of it
+		sink.keep = false;
+		byte[] mb = new byte[1 << 20];
+		long before = streamed.size();
+		for (int i = 0; i < 2100; ++i) {
+			streamed.writeBytes( mb );
+		}
+		assert streamed.size() - before == 2100L << 20 && streamed.size() > Integer.MAX_VALUE;
+		assert chunkOf( streamed ) == 64;
+
+		sink.broken = true;
+		try {
+			streamed.writeBytes( payload );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_INTERNAL_ERROR.code;
+			assert e.getCause() instanceof IOException;
+		}
+	}
+
+	private static OutputDocument logged( int i ) throws PcosError
+	{
+		OutputDocument doc = new DocumentWriter( (i % 3 == 0) ? "Settle" : "Refund" );
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeUint( i );
+		bo.writeString( varstr );
+		doc.addBlock( bo );
+		return doc;
+	}
+
+	private static void testMessageLog() throws Exception
+	{
+		File dir = new File( System.getProperty( "java.io.tmpdir" ), "pcos-log-test" );
+		dir.mkdirs();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		final int single = logged( 0 ).size();
+
+		// room for four messages per segment (after its 8-byte header), every third one indexed
+		final int segment = 8 + single * 4 + 2;
+		MessageLog log = new MessageLog( dir, segment, 3 );
+		for (int i = 0; i < 10; ++i) {
+			assert log.append( logged( i ) ) == i;
+		}
+		byte[] raw = logged( 10 ).toBytes();
+		assert log.append( raw, 0, raw.length ) == 10;
+		assert dir.list().length == 3;
+
+		DocumentReader doc = new DocumentReader();
+		for (int i = 10; i >= 0; --i) {
+			assert log.read( i, doc ).getBlock( "Bo" ).readUint() == i;
+		}
+		assert Arrays.equals( log.find( "Settle" ), new long[] { 0, 3, 6, 9 } );
+		assert log.find( "None" ).length == 0;
+
+		final long[] seen = new long[2];
+		MessageLog.Visitor counter = new MessageLog.Visitor() {
+			public void visit( long sequence, DocumentReader d ) throws PcosError
+			{
+				assert d.getBlock( "Bo" ).readUint() == sequence;
+				++seen[0];
+				seen[1] = sequence;
+			}
+		};
+		log.replay( 2, counter );
+		assert seen[0] == 9 && seen[1] == 10;
+		log.close();
+
+		// a crash in the middle of writing message 11
+		File last = new File( dir, String.format( "%020d", 8 ) + ".pcos" );
+		RandomAccessFile torn = new RandomAccessFile( last, "rw" );
+		torn.seek( 8 + 3 * single );
+		torn.write( logged( 11 ).toBytes(), 0, single - 3 );
+		torn.close();
+
+		log = new MessageLog( dir, segment, 3 );
+		assert log.nextSequence() == 11;
+		assert Arrays.equals( log.find( "Settle" ), new long[] { 0, 3, 6, 9 } );
+		assert log.append( logged( 11 ) ) == 11;
+		log.close();
+
+		log = new MessageLog( dir, segment, 3 );
+		assert log.nextSequence() == 12 && log.read( 11, doc ).getBlock( "Bo" ).readUint() == 11;
+		seen[0] = 0;
+		log.replay( 0, counter );
+		assert seen[0] == 12;
+		log.close();
+
+		// the recorded end of data lost: the enumerations alone find the messages
+		torn = new RandomAccessFile( new File( dir, String.format( "%020d", 0 ) + ".pcos" ), "rw" );
+		torn.writeInt( 0 );
+		torn.close();
+		log = new MessageLog( dir, segment, 3 );
+		assert log.nextSequence() == 12 && log.read( 3, doc ).getBlock( "Bo" ).readUint() == 3;
+		try {
+			log.read( 12, doc );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE.code;
+		}
+		log.close();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+
+		// the id index holds a run of eight messages, not each message
+		log = new MessageLog( dir, 1 << 16, 8 );
+		long[] settled = new long[34];
+		for (int i = 0; i < 100; ++i)
+		{
+			log.append( logged( i ) );
+			if (i % 3 == 0) {
+				settled[i / 3] = i;
+			}
+		}
+		assert Arrays.equals( log.find( "Settle" ), settled ) && log.find( "Refund" ).length == 66;
+		java.lang.reflect.Field byId = MessageLog.class.getDeclaredField( "byId_" );
+		byId.setAccessible( true );
+		assert ((Map<?, ?>) byId.get( log )).get( "Settle" ) instanceof long[];
+		assert ((long[]) ((Map<?, ?>) byId.get( log )).get( "Settle" ))[0] == 13;
+		log.close();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static void testLargeDocument( byte[] input ) throws Exception
+	{
+		File file = File.createTempFile( "pcos-large", ".pcos" );
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		FileChannel channel = raf.getChannel();
+
+		// an ordinary message, paged 16 bytes at a time and 3 bytes into the file
+		raf.seek( 3 );
+		raf.write( input );
+		checkDatatypes( new LargeDocumentReader( channel, 3, 16 ) );
+
+		// a sparse 3 GB block followed by a small one
+		final long big = 3L << 30;
+		BlockWriter tail = new BlockWriter( "Tail" );
+		tail.writeUint( 42 );
+		byte[] payload = new byte[ 40 ];
+		Arrays.fill( payload, (byte) 7 );
+		tail.writeByteStr( payload );
+		tail.writeString( varstr );
+		BlockWriter hd = new BlockWriter( "Hd" );
+		hd.writeBytes( ProtocolTag.PROTOCOL_MAGIC );
+		hd.writeByte( ProtocolTag.PROTOCOL_FLAGS );
+		hd.writeString( "Archive" );
+		hd.writeUint( 2 );
+		hd.writeString( "Big" ); hd.writeUint( big );
+		hd.writeString( "Tail" ); hd.writeUint( tail.size() );
+		raf.setLength( 0 );
+		raf.seek( 0 );
+		raf.write( hd.toBytes() );
+		raf.seek( hd.size() + big - 8 );
+		raf.writeDouble( 2.5 );
+		raf.write( tail.toBytes() );
+
+		LargeDocumentReader doc = new LargeDocumentReader( channel, 0, 32 );
+		assert "Archive".equals( doc.getDocumentName() ) && doc.getBlockCount() == 2;
+		assert doc.getMessageLength() == file.length() && doc.getBlockLength( "Big" ) == big;
+		PagedBlockReader blk = doc.getBlock( "Tail" );
+		assert blk.readUint() == 42;
+		// longer than a page
+		assert Arrays.equals( blk.readByteStr( 0 ), payload );
+		assert varstr.equals( blk.readString( 0 ) );
+		assert blk.position() == blk.length();
+
+		blk = doc.getBlock( "Big" );
+		assert blk.size() == Integer.MAX_VALUE;
+		blk.skipBytes( big - 8 );
+		assert blk.position() == big - 8 && blk.readDouble() == 2.5;
+		try {
+			blk.readByte();
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code;
+		}
+		blk.seek( 12345 );
+		assert blk.readUlong() == 0;
+
+		raf.close();
+		file.delete();
+	}
+
+	private static void testSharedDocument( byte[] input ) throws Exception
+	{
+		final SharedDocument doc = new SharedDocument( input );
+		assert "Test".equals( doc.getDocumentName() ) && doc.getMessageLength() == input.length;
+
+		// cursors of the same block are independent
+		InputBlock a = doc.getBlock( "Bo" ), b = doc.getBlock( BlockKey.of( "Bo" ) );
+		assert a != b;
+		a.readByte();
+		checkBlock( b );
+		assert a.readBytes( 3 ) != null;
+
+		ByteBuffer direct = ByteBuffer.allocateDirect( input.length );
+		direct.put( input ).flip();
+		checkDatatypes( new SharedDocument( direct ) );
+
+		// many threads over one parse
+		final SharedDocument shared = new SharedDocument( direct );
+		final int[] failures = new int[1];
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; ++t)
+		{
+			workers[t] = new Thread() {
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < 2000; ++i) {
+							checkBlock( (i & 1) == 0 ? doc.getBlock( "Bo" ) : shared.getBlock( "Bo" ) );
+						}
+					}
+					catch (Throwable e)
+					{
+						synchronized (failures) {
+							++failures[0];
+						}
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for (Thread w : workers) {
+			w.join();
+		}
+		assert failures[0] == 0;
+
+		try {
+			doc.getBlock( "None" );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_BLOCK_NOT_FOUND.code;
+		}
+	}
+
+	private static void testParallelDecode() throws Exception
+	{
+		final int ticks = 10000;
+		Schema schema = new Schema().parse( "type px { value : double; side : byte; };\ntype acc { id : uint; };", "px.pcos" );
+		assert schema.wireSize( "px" ) == 9 && schema.wireSize( "acc" ) == -1;
+
+		OutputDocument doc = new DocumentWriter( "Batch" );
+		for (int a = 0; a < 8; ++a)
+		{
+			BlockWriter acc = new BlockWriter( "Acc" + a );
+			acc.writeUint( 1000 + a );
+			acc.writeString( "statement " + a );
+			doc.addBlock( acc );
+		}
+		BlockWriter px = new BlockWriter( "Px" );
+		px.writeUint( ticks );
+		for (int i = 0; i < ticks; ++i)
+		{
+			px.writeDouble( i * 0.5 );
+			px.writeByte( i & 1 );
+		}
+		doc.addBlock( px );
+		SharedDocument shared = new SharedDocument( doc.toBytes() );
+
+		BlockDecoder<Object> statement = new BlockDecoder<Object>() {
+			public Object decode( InputBlock in ) throws PcosError {
+				return in.readUint() + ":" + in.readString( 0 );
+			}
+		};
+		final int[] ranges = new int[1];
+		ArrayBlockDecoder<Object> prices = new ArrayBlockDecoder<Object>( schema.wireSize( "px" ), 1024 ) {
+			protected Object newResult( int count ) {
+				return new double[count];
+			}
+			protected void decodeRange( InputBlock in, int from, int to, Object result ) throws PcosError
+			{
+				synchronized (ranges) {
+					++ranges[0];
+				}
+				double[] dst = (double[]) result;
+				for (int i = from; i < to; ++i)
+				{
+					double v = in.readDouble();
+					dst[i] = (in.readByte() == 1) ? -v : v;
+				}
+			}
+		};
+		Map<String, BlockDecoder<Object>> decoders = new java.util.LinkedHashMap<String, BlockDecoder<Object>>();
+		decoders.put( "Px", prices );
+		for (int a = 7; a >= 0; --a) {
+			decoders.put( "Acc" + a, statement );
+		}
+
+		java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool( 4 );
+		try
+		{
+			Map<String, Object> out = shared.decodeBlocks( decoders, pool );
+			assert out.keySet().toString().equals( decoders.keySet().toString() );
+			assert out.get( "Acc3" ).equals( "1003:statement 3" );
+			double[] values = (double[]) out.get( "Px" );
+			assert values.length == ticks && ranges[0] == 10;
+			for (int i = 0; i < ticks; ++i) {
+				assert values[i] == ((i & 1) == 1 ? -i * 0.5 : i * 0.5);
+			}
+
+			// same results one after another, on the calling thread
+			java.util.concurrent.Executor inline = new java.util.concurrent.Executor() {
+				public void execute( Runnable task ) {
+					task.run();
+				}
+			};
+			assert Arrays.equals( (double[]) shared.decodeBlocks( decoders, inline ).get( "Px" ), values );
+			assert Arrays.equals( (double[]) prices.decode( shared.getBlock( "Px" ) ), values );
+
+			// a decoder error surfaces after all tasks are done
+			Map<String, BlockDecoder<Object>> bad = new java.util.HashMap<String, BlockDecoder<Object>>( decoders );
+			bad.put( "Acc0", prices );
+			try {
+				shared.decodeBlocks( bad, pool );
+				assert false;
+			}
+			catch (PcosError e) {
+				assert e.getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code;
+			}
+			bad.put( "Acc0", statement );
+			bad.put( "None", statement );
+			try {
+				shared.decodeBlocks( bad, pool );
+				assert false;
+			}
+			catch (PcosError e) {
+				assert e.getCode() == PcosErrorCode.ERR_BLOCK_NOT_FOUND.code;
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void testWriterPool() throws Exception
+	{
+		final WriterPool pool = new WriterPool( 4096, 4 );
+		PooledWriter w = pool.acquire( "Resp" );
+		BlockWriter b = w.addBlock( "Bo" );
+		b.writeUint( 7 ); b.writeString( "ok" );
+		byte[] first = w.toBytes();
+		DocumentWriter plain = new DocumentWriter( "Resp" );
+		BlockWriter pb = new BlockWriter( "Bo" );
+		pb.writeUint( 7 ); pb.writeString( "ok" );
+		plain.addBlock( pb );
+		assert Arrays.equals( first, plain.toBytes() );
+		w.release();
+		assert pool.retainedBytes() > 0;
+
+		// the same thread gets the same writer and block back, emptied
+		PooledWriter again = pool.acquire( "Other" );
+		assert again == w && pool.localHits() == 1 && pool.retainedBytes() == 0;
+		assert again.addBlock( "Hd" ) == b && b.name().equals( "Hd" ) && b.size() == 0;
+		DocumentReader r = new DocumentReader( again.toBytes() );
+		assert r.getDocumentName().equals( "Other" ) && r.getBlockCount() == 1 && r.getBlock( "Hd" ).size() == 0;
+
+		// a huge message does not stay pinned
+		b.writeBytes( new byte[100000] );
+		again.release();
+		assert pool.trimmed() == 1 && pool.retainedBytes() < 4096;
+		try {
+			again.release();
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_INTERNAL_ERROR.code;
+		}
+
+		// one writer stays with the thread, four fit the overflow, the rest are dropped
+		PooledWriter[] many = new PooledWriter[7];
+		for (int i = 0; i < many.length; ++i) {
+			many[i] = pool.acquire( "Resp" );
+		}
+		for (PooledWriter m : many) {
+			m.release();
+		}
+		assert pool.dropped() == 2;
+		for (int i = 0; i < 5; ++i) {
+			pool.acquire( "Resp" );
+		}
+		assert pool.sharedHits() == 4;
+
+		// many threads, each mostly served by its own cached writer
+		final int[] failures = new int[1];
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; ++t)
+		{
+			workers[t] = new Thread() {
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < 1000; ++i)
+						{
+							PooledWriter pw = pool.acquire( "Resp" );
+							pw.addBlock( "Bo" ).writeUint( i );
+							pw.addBlock( "Tl" ).writeString( getName() );
+							DocumentReader dr = new DocumentReader( pw.toBytes() );
+							if (dr.getBlock( "Bo" ).readUint() != i || !dr.getBlock( "Tl" ).readString( 0 ).equals( getName() )) {
+								throw new AssertionError();
+							}
+							pw.release();
+						}
+					}
+					catch (Throwable e)
+					{
+						synchronized (failures) {
+							++failures[0];
+						}
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assert failures[0] == 0 && pool.hitRate() > 0.9;
+	}
+
+	private static void testTryParse( byte[] input ) throws Exception
+	{
+		DecodeStatus st = new DecodeStatus();
+		DocumentReader doc = new DocumentReader();
+		assert doc.tryParse( input, 0, input.length, st ) && st.ok() && st.error() == null;
+		checkDatatypes( doc );
+
+		// every prefix fails, with the same code the throwing API reports
+		for (int cut = 0; cut < input.length; ++cut)
+		{
+			st.clear();
+			assert !doc.tryParse( input, 0, cut, st );
+			assert st.offset() >= 0 && st.offset() <= cut && st.reason() != null;
+			try {
+				new DocumentReader( input, 0, cut );
+				assert false;
+			}
+			catch (PcosError e) {
+				assert e.getCode() == st.error().code && e.getMessage().equals( st.reason() );
+				// the throwing API keeps its stack trace
+				assert e.getStackTrace().length > 0;
+			}
+		}
+
+		byte[] bad = input.clone();
+		bad[2] = 'x';
+		assert !doc.tryParse( bad, 0, bad.length, st.clear() ) && st.error() == PcosErrorCode.ERR_BAD_MAGIC && st.offset() == 0;
+		// a failed status sticks until cleared
+		assert !doc.tryParse( input, 0, input.length, st ) && st.error() == PcosErrorCode.ERR_BAD_MAGIC;
+		try {
+			st.check();
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_BAD_MAGIC.code;
+		}
+
+		// buffer offsets do not include the array offset
+		byte[] padded = new byte[bad.length + 3];
+		System.arraycopy( bad, 0, padded, 3, bad.length );
+		ByteBuffer slice = ByteBuffer.wrap( padded, 3, bad.length ).slice();
+		assert !doc.tryParse( slice, st.clear() ) && st.error() == PcosErrorCode.ERR_BAD_MAGIC && st.offset() == 0;
+		ByteBuffer direct = ByteBuffer.allocateDirect( input.length );
+		direct.put( input ).flip();
+		assert doc.tryParse( direct, st.clear() );
+		checkDatatypes( doc );
+		direct.limit( input.length - 1 );
+		assert !doc.tryParse( direct, st ) && st.error() == PcosErrorCode.ERR_MALFORMED_MESSAGE;
+
+		// primitives, run to the end of the block
+		BlockWriter bw = new BlockWriter( "Bo" );
+		bw.writeUint( 300 ); bw.writeInt( -7 ); bw.writeLong( -5 ); bw.writeUlong( 1L << 40 );
+		bw.writeDouble( 2.5 ); bw.writeByte( 9 ); bw.writeByteStr( new byte[] {1, 2, 3} );
+		byte[] wire = bw.toBytes();
+		ByteBuffer directBlock = ByteBuffer.allocateDirect( wire.length );
+		directBlock.put( wire ).flip();
+		InputBlock[] blocks = { new BlockReader( wire, 0, wire.length, "Bo" ), new ByteBufferBlockReader( directBlock, "Bo" ) };
+		for (InputBlock in : blocks)
+		{
+			st.clear();
+			assert in.tryReadUint( st ) == 300 && in.tryReadInt( st ) == -7 && in.tryReadLong( st ) == -5;
+			assert in.tryReadUlong( st ) == 1L << 40 && in.tryReadDouble( st ) == 2.5 && in.tryReadByte( st ) == 9;
+			assert in.trySkipBytes( in.tryReadUint( st ), st ) && st.ok();
+			int end = in.readingPosition();
+			assert in.tryReadUint( st ) == 0 && !st.ok() && st.error() == PcosErrorCode.ERR_MALFORMED_MESSAGE && st.offset() == end;
+			assert in.tryReadByte( st ) == 0 && in.readingPosition() == end;
+		}
+
+		// strings and byte-sequences, heap buffers decoding out of their array
+		BlockWriter sw = new BlockWriter( "Bo" );
+		sw.writeBool( true ); sw.writeByteStr( new byte[] {4, 5} ); sw.writeString( "r\u00e9sum\u00e9" );
+		sw.writeByte( 6 ); sw.writeByte( 7 ); sw.writeString( "too long" ); sw.writeUint( 9 );
+		byte[] strs = sw.toBytes();
+		ByteBuffer directStrs = ByteBuffer.allocateDirect( strs.length );
+		directStrs.put( strs ).flip();
+		InputBlock[] strBlocks = { new BlockReader( strs, 0, strs.length, "Bo" ), new ByteBufferBlockReader( directStrs, "Bo" ),
+			new ByteBufferBlockReader( ByteBuffer.wrap( strs ), "Bo" ) };
+		for (InputBlock in : strBlocks) {
+			checkTryStrings( in, st.clear() );
+		}
+
+		st.clear();
+		InputBlock in = new BlockReader( wire, 0, wire.length, "Bo" );
+		assert !in.trySkipBytes( wire.length + 1, st ) && st.offset() == in.readingPosition();
+		in = new BlockReader( new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1}, 0, 6, "Bo" );
+		assert in.tryReadUint( st.clear() ) == 0 && !st.ok() && in.readingPosition() == 0;
+
+		// a paged reader reports positions within the block, not the page
+		File file = File.createTempFile( "pcos-try", ".pcos" );
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		try
+		{
+			OutputDocument out = new DocumentWriter( "Test" );
+			out.addBlock( bw );
+			raf.write( out.toBytes() );
+			PagedBlockReader paged = new LargeDocumentReader( raf.getChannel(), 0, 4 ).getBlock( "Bo" );
+			assert paged.trySkipBytes( wire.length - 2, st.clear() ) && paged.tryReadByte( st ) == 2;
+			assert paged.tryReadDouble( st ) == 0 && st.offset() == wire.length - 1;
+
+			raf.setLength( 0 );
+			OutputDocument strDoc = new DocumentWriter( "Test" );
+			strDoc.addBlock( sw );
+			raf.write( strDoc.toBytes() );
+			checkTryStrings( new LargeDocumentReader( raf.getChannel(), 0, 4 ).getBlock( "Bo" ), st.clear() );
+		}
+		finally
+		{
+			raf.close();
+			file.delete();
+		}
+	}
+
+	// inputs for testTryParity: each fails at least one of the reads
+	private static final byte[][] PARITY_INPUTS = {
+		{},
+		{(byte) 0x80},
+		{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1},
+		{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1},
+		{5, 'a', 'b'},
+		{3, 'a', 'b', 'c'},
+		{1, 2, 3, 4, 5, 6, 7},
+		{2, (byte) 0xc3, (byte) 0xa9, 0, 0, 0, 0, 0},
+	};
+	private static final int PARITY_OPS = 11;
+
+	/**
+	 * Read number op of PARITY_OPS, through the throwing API if st is null.
+	 */
+	private static Object parityRead( InputBlock in, int op, DecodeStatus st ) throws PcosError
+	{
+		switch (op)
+		{
+		case 0: return st == null ? in.readBool() : in.tryReadBool( st );
+		case 1: return st == null ? in.readByte() : in.tryReadByte( st );
+		case 2: return st == null ? in.readBytes( 4 ) : in.tryReadBytes( 4, st );
+		case 3: return st == null ? in.readByteStr( 2 ) : in.tryReadByteStr( 2, st );
+		case 4: return st == null ? in.readInt() : in.tryReadInt( st );
+		case 5: return st == null ? in.readUint() : in.tryReadUint( st );
+		case 6: return st == null ? in.readLong() : in.tryReadLong( st );
+		case 7: return st == null ? in.readUlong() : in.tryReadUlong( st );
+		case 8: return st == null ? in.readDouble() : in.tryReadDouble( st );
+		case 9: return st == null ? in.readString( 2 ) : in.tryReadString( 2, st );
+		default:
+			if (st == null)
+			{
+				in.skipBytes( 4 );
+				return true;
+			}
+			return in.trySkipBytes( 4, st );
+		}
+	}
+
+	/**
+	 * Fresh readers of every kind over wire; file backs the paged one.
+	 */
+	private static InputBlock[] parityReaders( byte[] wire, RandomAccessFile file ) throws Exception
+	{
+		ByteBuffer direct = ByteBuffer.allocateDirect( wire.length );
+		direct.put( wire ).flip();
+		file.setLength( 0 );
+		file.write( wire );
+		return new InputBlock[] { new BlockReader( wire, 0, wire.length, "Bo" ),
+			new ByteBufferBlockReader( ByteBuffer.wrap( wire ), "Bo" ), new ByteBufferBlockReader( direct, "Bo" ),
+			new PagedBlockReader( file.getChannel(), 0, wire.length, 4, "Bo" ) };
+	}
+
+	/**
+	 * readXxx and tryReadXxx are separate code paths (see InputBlock); every
+	 * read either succeeds in both with the same value and position, or
+	 * fails in both with the same error code, leaving the same position.
+	 */
+	private static void testTryParity() throws Exception
+	{
+		File file = File.createTempFile( "pcos-parity", ".pcos" );
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		DecodeStatus st = new DecodeStatus();
+		int failures = 0;
+		try
+		{
+			for (byte[] wire : PARITY_INPUTS)
+			{
+				for (int op = 0; op < PARITY_OPS; ++op)
+				{
+					InputBlock[] thrown = parityReaders( wire, raf );
+					for (int r = 0; r < thrown.length; ++r)
+					{
+						Object expected = null;
+						PcosError error = null;
+						try {
+							expected = parityRead( thrown[r], op, null );
+						}
+						catch (PcosError e) {
+							error = e;
+						}
+						// built after the throwing pass, which may have left the file mapped
+						InputBlock tried = parityReaders( wire, raf )[r];
+						Object actual = parityRead( tried, op, st.clear() );
+						assert tried.readingPosition() == thrown[r].readingPosition();
+						if (error != null)
+						{
+							++failures;
+							assert !st.ok() && st.error().code == error.getCode() && error.getMessage().equals( st.reason() );
+						}
+						else if (expected instanceof byte[]) {
+							assert st.ok() && Arrays.equals( (byte[]) expected, (byte[]) actual );
+						}
+						else {
+							assert st.ok() && (expected == null ? actual == null : expected.equals( actual ));
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			raf.close();
+			file.delete();
+		}
+		assert failures > PARITY_INPUTS.length * PARITY_OPS;
+	}
+
+	private static void checkTryStrings( InputBlock in, DecodeStatus st )
+	{
+		assert in.tryReadBool( st ) && Arrays.equals( in.tryReadByteStr( 0, st ), new byte[] {4, 5} );
+		assert in.tryReadString( 8, st ).equals( "r\u00e9sum\u00e9" ) && st.ok();
+		assert Arrays.equals( in.tryReadBytes( 2, st ), new byte[] {6, 7} ) && in.tryReadBytes( 0, st ) == null;
+		// maxlen is checked before the bytes are read
+		int at = in.readingPosition();
+		assert in.tryReadString( 7, st ) == null && st.error() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE && st.offset() == at;
+		assert in.tryReadByteStr( 0, st ) == null && st.error() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE;
+		// as with readString(), the length has been read
+		in.skipBytes( "too long".length() );
+		// a length running past the end
+		assert in.tryReadByteStr( 0, st.clear() ) == null && st.error() == PcosErrorCode.ERR_MALFORMED_MESSAGE;
+		assert in.tryReadBytes( 1, st.clear() ) == null && st.error() == PcosErrorCode.ERR_MALFORMED_MESSAGE;
+		assert !in.tryReadBool( st.clear() ) && !st.ok();
+	}
+
+	private static void testReuseReader( byte[] input ) throws PcosError
+	{
+		OutputDocument other = new DocumentWriter( "Other" );
+		OutputBlock hd = new BlockWriter( "Hd" );
+		hd.writeUint( 7 );
+		other.addBlock( hd );
+		byte[] second = other.toBytes();
+
+		// two messages back to back, as read off a stream
+		byte[] stream = new byte[ input.length + second.length ];
+		System.arraycopy( input, 0, stream, 0, input.length );
+		System.arraycopy( second, 0, stream, input.length, second.length );
+
+		DocumentReader reader = new DocumentReader();
+		reader.reset( stream, 0, input.length );
+		InputBlock cursor = reader.getBlock( "Bo" );
+		checkDatatypes( reader );
+
+		reader.reset( stream, input.length, second.length );
+		assert "Other".equals( reader.getDocumentName() );
+		assert reader.getBlockCount() == 1;
+		assert reader.getBlocks().keySet().contains( "Hd" );
+		// the cursor object is reused for the new message
+		assert reader.getBlock( "Hd" ) == cursor;
+		assert reader.getBlock( BlockKey.of("Hd") ) == cursor;
+		assert reader.getBlock( new byte[]{'x', 'H', 'd'}, 1, 2 ) == cursor;
+		assert "Hd".equals( cursor.name() );
+		assert cursor.readUint() == 7;
+
+		try {
+			reader.getBlock( "Bo" );
+			assert false;
+		} catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_BLOCK_NOT_FOUND.code;
+		}
+
+		reader.reset( ByteBuffer.wrap(input).asReadOnlyBuffer() );
+		checkDatatypes( reader );
+	}
+
+	private static void testPeekDispatch( byte[] input ) throws PcosError
+	{
+		DocumentHeader header = DocumentReader.peek( input, 0, input.length, new DocumentHeader() );
+		assert "Test".equals( header.getMessageId() );
+		assert header.getMessageId() == header.getMessageId();
+		assert header.messageIdEquals( new byte[]{'T', 'e', 's', 't'} );
+		assert header.getBlockCount() == 1;
+		assert header.getMessageLength() == input.length;
+		assert header.getDataOffset() == input.length - new DocumentReader( input ).getBlock("Bo").size();
+
+		MessageDispatcher<String> dispatcher = new MessageDispatcher<String>( "dropped" );
+		dispatcher.register( "Ping", "ping-handler" ).register( "Test", "test-handler" );
+		assert "test-handler".equals( dispatcher.lookup(header) );
+
+		OutputDocument unknown = new DocumentWriter( "Unknown" );
+		byte[] wire = unknown.toBytes();
+		assert "dropped".equals( dispatcher.lookup(DocumentReader.peek(wire, 0, wire.length, header)) );
+
+		// the id limit counts UTF-8 bytes: 100 chars of 2 bytes each are too long
+		StringBuilder wide = new StringBuilder();
+		for (int i = 0; i < 100; ++i) {
+			wide.append( '\u00e9' );
+		}
+		try {
+			dispatcher.register( wide.toString(), "wide-handler" );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE.code;
+		}
+		dispatcher.register( wide.substring( 0, 64 ), "wide-handler" );
+	}
+
+	private static void testPooledWriter() throws PcosError
+	{
+		BufferPool pool = new BufferPool();
+		BlockWriter bo = new BlockWriter( "Bo", pool );
+		bo.writeString( varstr );
+		bo.writeUlong( 1L << 40 );
+		byte[] first = bo.toBytes();
+		byte[] backing = bo.array();
+		assert bo.asByteBuffer().remaining() == first.length;
+
+		// released buffer is handed out again for the next message
+		bo.release();
+		assert bo.size() == 0;
+		bo.writeString( varstr );
+		bo.writeUlong( 1L << 40 );
+		assert bo.array() == backing;
+		assert Arrays.equals( bo.toBytes(), first );
+	}
+
+	private static void testVarIntExtremes() throws PcosError
+	{
+		OutputBlock bo = new BlockWriter( "Bo" );
+		long[] longs = { 0, -1, 1L << 62, Long.MAX_VALUE, Long.MIN_VALUE };
+		int[] ints = { 1 << 30, -(1 << 30), Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (long v : longs) {
+			bo.writeLong( v );
+		}
+		for (int v : ints) {
+			bo.writeInt( v );
+		}
+		bo.writeUlong( -1L );
+		bo.writeUint( 0xffffffffL );
+
+		OutputDocument doc = new DocumentWriter( "Test" );
+		doc.addBlock( bo );
+		byte[] wire = doc.toBytes();
+		InputBlock bi = new DocumentReader( wire ).getBlock( "Bo" );
+		for (long v : longs) {
+			assert bi.readLong() == v;
+		}
+		for (int v : ints) {
+			assert bi.readInt() == v;
+		}
+		assert bi.readUlong() == -1L;
+		assert bi.readUint() == 0xffffffffL;
+	}
+
+	private static void testWriteStrings() throws Exception
+	{
+		// ASCII, 2- and 3-octet chars, a surrogate pair and unpaired surrogates
+		String[] strings = { "acct-1001", "Z\u00fcrich", "\u20ac 12,50", "\u65e5\u672c", "pay \ud83d\udcb3",
+			"\ud83d", "x\udcb3y", "\ud83d\ud83d\udcb3", "" };
+		OutputBlock bo = new BlockWriter( "Bo" );
+		for (String s : strings) {
+			bo.writeString( s );
+		}
+		InputBlock bi = new BlockReader( bo.toBytes(), 0, (int) bo.size(), "Bo" );
+		for (String s : strings)
+		{
+			// same octets as the JDK encoder, unpaired surrogates included
+			byte[] expected = s.getBytes( ProtocolTag.PROTOCOL_CHARSET );
+			byte[] actual = bi.readByteStr( 0 );
+			assert Arrays.equals( (actual == null) ? new byte[0] : actual, expected ) : s;
+		}
+	}
+
+	private static void testArrays() throws PcosError
+	{
+		int[] ints = { 0, -1, 64, Integer.MIN_VALUE, Integer.MAX_VALUE };
+		long[] ulongs = { 0, 127, 128, 1L << 40, -1L };
+		double[] ladder = { 99.5, 99.75, 100.0, 100.25, 100.5, 100.75, 101.0 };
+
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeIntArray( ints, 0, ints.length );
+		bo.writeLongVarArray( ulongs, 1, 4 );
+		bo.writeUlongVarArray( ulongs, 0, ulongs.length );
+		bo.writeDoubleArray( ladder, 0, ladder.length );
+		bo.writeUintVarArray( ulongs, 0, 0 );
+		byte[] wire = bo.toBytes();
+
+		ByteBuffer direct = ByteBuffer.allocateDirect( wire.length );
+		direct.put( wire ).flip();
+		InputBlock[] readers = { new BlockReader( wire, 0, wire.length, "Bo" ), new ByteBufferBlockReader( direct, "Bo" ) };
+		for (InputBlock bi : readers)
+		{
+			int[] intsIn = new int[ints.length];
+			bi.readIntArray( intsIn, 0, ints.length );
+			assert Arrays.equals( intsIn, ints );
+
+			long[] longsIn = new long[8];
+			assert bi.readLongVarArray( longsIn, 2 ) == 4;
+			assert Arrays.equals( Arrays.copyOfRange(longsIn, 2, 6), Arrays.copyOfRange(ulongs, 1, 5) );
+			assert bi.readUlongVarArray( longsIn, 0 ) == ulongs.length;
+			assert Arrays.equals( Arrays.copyOf(longsIn, ulongs.length), ulongs );
+
+			double[] ladderIn = new double[ladder.length];
+			bi.readDoubleArray( ladderIn, 0, ladder.length );
+			assert Arrays.equals( ladderIn, ladder );
+			assert bi.readUintVarArray( longsIn, 0 ) == 0;
+		}
+
+		// element count beyond the destination is refused
+		InputBlock bi = new BlockReader( wire, 0, wire.length, "Bo" );
+		bi.readIntArray( new int[ints.length], 0, ints.length );
+		try
+		{
+			bi.readLongVarArray( new long[3], 0 );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE.code;
+		}
+	}
+
+	/**
+	 * Value of a counter a reader keeps with assertions enabled, cleared after reading.
+	 */
+	private static long takeCounter( Class<?> reader, String name ) throws Exception
+	{
+		java.lang.reflect.Field counter = reader.getDeclaredField( name );
+		counter.setAccessible( true );
+		long val = counter.getLong( null );
+		counter.setLong( null, 0 );
+		return val;
+	}
+
+	private static void testBulkVarIntParity() throws Exception
+	{
+		// an array filling its block to the last byte still goes word by word
+		long[] small = new long[1024];
+		for (int i = 0; i < small.length; ++i) {
+			small[i] = (i * 37) % 128;
+		}
+		for (int octets = 1; octets <= 2; ++octets)
+		{
+			long[] shifted = small.clone();
+			for (int i = 0; octets == 2 && i < shifted.length; ++i) {
+				shifted[i] = 128 + shifted[i] * 100;
+			}
+			BlockWriter packed = new BlockWriter( "Bo" );
+			packed.writeUintArray( shifted, 0, shifted.length );
+			byte[] bytes = packed.toBytes();
+			ByteBuffer direct = ByteBuffer.allocateDirect( bytes.length );
+			direct.put( bytes ).flip();
+			InputBlock[] readers = { new BlockReader( bytes, 0, bytes.length, "Bo" ), new ByteBufferBlockReader( direct, "Bo" ) };
+			for (InputBlock in : readers)
+			{
+				takeCounter( in.getClass(), "batchedValues_" );
+				long[] back = new long[shifted.length];
+				in.readUintArray( back, 0, back.length );
+				assert Arrays.equals( back, shifted ) && takeCounter( in.getClass(), "batchedValues_" ) == shifted.length;
+			}
+		}
+
+		// int arrays are read in chunks that fit even at 5 octets a value,
+		// then, once less than 5 bytes are left, with a check per value
+		int[] ints = new int[1000];
+		for (int i = 0; i < ints.length; ++i) {
+			ints[i] = (i % 2 == 0) ? i % 64 : -(i % 64);
+		}
+		BlockWriter intBlock = new BlockWriter( "Bo" );
+		intBlock.writeIntArray( ints, 0, ints.length );
+		byte[] intWire = intBlock.toBytes();
+		ByteBuffer intDirect = ByteBuffer.allocateDirect( intWire.length );
+		intDirect.put( intWire ).flip();
+		InputBlock[] intReaders = { new BlockReader( intWire, 0, intWire.length, "Bo" ), new ByteBufferBlockReader( intDirect, "Bo" ) };
+		for (InputBlock in : intReaders)
+		{
+			takeCounter( in.getClass(), "batchedValues_" );
+			int[] back = new int[ints.length];
+			in.readIntArray( back, 0, back.length );
+			assert Arrays.equals( back, ints ) && takeCounter( in.getClass(), "batchedValues_" ) >= ints.length - 4;
+		}
+
+		// runs of 1- and 2-octet values take the word-at-a-time path, the rest does not
+		java.util.Random rnd = new java.util.Random( 42 );
+		long[] values = new long[1000];
+		for (int i = 0; i < values.length; ++i)
+		{
+			switch ((i / 16) % 4)
+			{
+				case 0: values[i] = rnd.nextInt( 128 ); break;
+				case 1: values[i] = 128 + rnd.nextInt( 16256 ); break;
+				case 2: values[i] = rnd.nextLong() >>> rnd.nextInt( 64 ); break;
+				default: values[i] = -rnd.nextInt( 1000 );
+			}
+		}
+		OutputBlock bo = new BlockWriter( "Bo" );
+		bo.writeUlongArray( values, 0, values.length );
+		bo.writeLongArray( values, 0, values.length );
+		byte[] wire = bo.toBytes();
+
+		ByteBuffer direct = ByteBuffer.allocateDirect( wire.length );
+		direct.put( wire ).flip();
+		// the buffer's byte order must not matter
+		ByteBuffer little = ByteBuffer.wrap( wire ).order( java.nio.ByteOrder.LITTLE_ENDIAN );
+		InputBlock[] readers = { new BlockReader( wire, 0, wire.length, "Bo" ),
+			new ByteBufferBlockReader( direct, "Bo" ), new ByteBufferBlockReader( little, "Bo" ) };
+		for (InputBlock bulk : readers)
+		{
+			InputBlock scalar = new BlockReader( wire, 0, wire.length, "Bo" );
+			long[] decoded = new long[values.length];
+			bulk.readUlongArray( decoded, 0, values.length );
+			for (int i = 0; i < values.length; ++i) {
+				assert decoded[i] == scalar.readUlong() && decoded[i] == values[i];
+			}
+			bulk.readLongArray( decoded, 0, values.length );
+			for (int i = 0; i < values.length; ++i) {
+				assert decoded[i] == scalar.readLong() && decoded[i] == values[i];
+			}
+			assert bulk.readingPosition() == wire.length;
+		}
+
+		double[] ladder = { 99.5, -0.25, 1e300 };
+		bo = new BlockWriter( "Bo" );
+		bo.writeDoubleArray( ladder, 0, ladder.length );
+		bo.writeIntArray( new int[] { 1, -200, 70000 }, 0, 3 );
+		wire = bo.toBytes();
+		double[] ladderIn = new double[ladder.length];
+		int[] intsIn = new int[3];
+		InputBlock swapped = new ByteBufferBlockReader( ByteBuffer.wrap( wire ).order( java.nio.ByteOrder.LITTLE_ENDIAN ), "Bo" );
+		swapped.readDoubleArray( ladderIn, 0, ladder.length );
+		swapped.readIntArray( intsIn, 0, 3 );
+		assert Arrays.equals( ladderIn, ladder ) && intsIn[1] == -200 && intsIn[2] == 70000;
+
+		// a batch running past the end of the block is refused, whichever path reads it
+		InputBlock cut = new ByteBufferBlockReader( ByteBuffer.wrap( wire, 0, wire.length - 1 ).slice(), "Bo" );
+		cut.readDoubleArray( ladderIn, 0, ladder.length );
+		try {
+			cut.readIntArray( intsIn, 0, 3 );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code;
+		}
+
+		// batch sizes are checked before they are multiplied out
+		try {
+			new BlockWriter( "Bo" ).writeDoubleArray( ladder, 0, Integer.MAX_VALUE / 4 );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE.code;
+		}
+	}
+
+	private static void testSchemaCompiler() throws Exception
+	{
+		String text =
+			"type account_id : uint;\n" +
+			"type tick { price : double; qty : int; };\n" +
+			"type quote\n" +
+			"{\n" +
+			"  magic : byte[4], const=\"PCOS\";\n" +
+			"  version : byte, const=3;\n" +
+			"  account : account_id;  // alias\n" +
+			"  ladder : double[7];\n" +
+			"  ticks : tick[];\n" +
+			"  note : string, optional;\n" +
+			"};\n";
+		Map<String, String> sources = new JavaGenerator( "com.example" ).generate( new Schema().parse( text, "quote.pcos" ) );
+		assert sources.keySet().equals( new HashSet<String>(Arrays.asList("Tick", "Quote")) );
+		assert sources.get( "Quote" ).contains( "in.readDoubleArray( ladder, 0, 7 );" );
+
+		// the generated code compiles and encodes exactly what hand-written calls do
+		File dir = File.createTempFile( "pcos-gen", "" );
+		assert dir.delete() && dir.mkdirs();
+		File schemaFile = new File( new File( dir, "schemas" ), "quote.pcos" );
+		assert schemaFile.getParentFile().mkdirs();
+		java.io.FileOutputStream fos = new java.io.FileOutputStream( schemaFile );
+		fos.write( text.getBytes( "UTF-8" ) );
+		fos.close();
+		File srcDir = new File( dir, "src" ), classes = new File( dir, "classes" );
+		assert classes.mkdirs();
+		java.util.List<File> written = SchemaCompiler.compile( Arrays.asList( schemaFile ), srcDir, "com.example" );
+		String[] args = new String[written.size() + 4];
+		args[0] = "-d"; args[1] = classes.getPath();
+		args[2] = "-cp"; args[3] = System.getProperty( "java.class.path" );
+		for (int i = 0; i < written.size(); ++i)
+		{
+			args[4 + i] = written.get( i ).getPath();
+			RandomAccessFile raf = new RandomAccessFile( written.get( i ), "r" );
+			byte[] content = new byte[(int) raf.length()];
+			raf.readFully( content );
+			raf.close();
+			String generated = new String( content, "UTF-8" );
+			// no absolute paths, so the output is the same on every machine
+			assert generated.startsWith( "// Generated by the PCOS schema compiler from quote.pcos. Do not edit." );
+		}
+		javax.tools.JavaCompiler javac = javax.tools.ToolProvider.getSystemJavaCompiler();
+		assert javac != null : "tests need a JDK";
+		ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+		assert javac.run( null, diagnostics, diagnostics, args ) == 0 : diagnostics.toString();
+
+		ClassLoader loader = new java.net.URLClassLoader( new java.net.URL[] { classes.toURI().toURL() }, TestPcos.class.getClassLoader() );
+		Class<?> quoteClass = loader.loadClass( "com.example.Quote" ), tickClass = loader.loadClass( "com.example.Tick" );
+		double[] ladder = { 99.5, 99.75, 100.0, 100.25, 100.5, 100.75, 101.0 };
+		Object quote = quoteClass.newInstance();
+		quoteClass.getField( "account" ).setLong( quote, 1001 );
+		System.arraycopy( ladder, 0, quoteClass.getField( "ladder" ).get( quote ), 0, ladder.length );
+		Object ticks = java.lang.reflect.Array.newInstance( tickClass, 2 );
+		for (int i = 0; i < 2; ++i)
+		{
+			Object tick = tickClass.newInstance();
+			tickClass.getField( "price" ).setDouble( tick, 1.5 * i );
+			tickClass.getField( "qty" ).setInt( tick, -5 * i );
+			java.lang.reflect.Array.set( ticks, i, tick );
+		}
+		quoteClass.getField( "ticks" ).set( quote, ticks );
+		quoteClass.getField( "ticksCount" ).setInt( quote, 2 );
+		quoteClass.getField( "hasNote" ).setBoolean( quote, true );
+		quoteClass.getField( "note" ).set( quote, "r\u00e9sum\u00e9" );
+		BlockWriter generatedOut = new BlockWriter( "Bo" );
+		quoteClass.getMethod( "encode", OutputBlock.class ).invoke( quote, generatedOut );
+
+		BlockWriter hand = new BlockWriter( "Bo" );
+		hand.writeBytes( "PCOS".getBytes( "US-ASCII" ) );
+		hand.writeByte( 3 );
+		hand.writeUint( 1001 );
+		hand.writeDoubleArray( ladder, 0, ladder.length );
+		hand.writeUint( 2 );
+		for (int i = 0; i < 2; ++i)
+		{
+			hand.writeDouble( 1.5 * i );
+			hand.writeInt( -5 * i );
+		}
+		hand.writeBool( true );
+		hand.writeString( "r\u00e9sum\u00e9" );
+		byte[] wire = hand.toBytes();
+		assert Arrays.equals( generatedOut.toBytes(), wire );
+
+		java.lang.reflect.Method decode = quoteClass.getMethod( "decode", InputBlock.class );
+		Object back = decode.invoke( quoteClass.newInstance(), new BlockReader( wire, 0, wire.length, "Bo" ) );
+		assert quoteClass.getField( "account" ).getLong( back ) == 1001;
+		assert Arrays.equals( (double[]) quoteClass.getField( "ladder" ).get( back ), ladder );
+		assert quoteClass.getField( "ticksCount" ).getInt( back ) == 2;
+		Object tick1 = java.lang.reflect.Array.get( quoteClass.getField( "ticks" ).get( back ), 1 );
+		assert tickClass.getField( "price" ).getDouble( tick1 ) == 1.5 && tickClass.getField( "qty" ).getInt( tick1 ) == -5;
+		assert quoteClass.getField( "note" ).get( back ).equals( "r\u00e9sum\u00e9" );
+
+		// constants are checked on decode, not overwritten
+		for (int at : new int[] { 1, 4 })
+		{
+			byte[] bad = wire.clone();
+			bad[at] ^= 1;
+			Object target = quoteClass.newInstance();
+			try
+			{
+				decode.invoke( target, new BlockReader( bad, 0, bad.length, "Bo" ) );
+				assert false;
+			}
+			catch (java.lang.reflect.InvocationTargetException e) {
+				assert ((PcosError) e.getCause()).getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code;
+			}
+			assert Arrays.equals( (byte[]) quoteClass.getField( "magic" ).get( target ), "PCOS".getBytes( "US-ASCII" ) );
+			assert quoteClass.getField( "version" ).getByte( target ) == 3;
+		}
+		deleteTree( dir );
+
+		try
+		{
+			new JavaGenerator( "" ).generate( new Schema().parse("type a {\n x : b;\n};", "bad.pcos") );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getMessage().equals( "bad.pcos:2: unknown type 'b'" );
+		}
+	}
+
+	private static void deleteTree( File f )
+	{
+		File[] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children) {
+				deleteTree( c );
+			}
+		}
+		f.delete();
+	}
+
+	static class Tick
+	{
+		@PcosField(order = 0) double price;
+		@PcosField(order = 1) int qty;
+	}
+
+	@PcosCodec
+	static class Quote
+	{
+		@PcosField(order = 2) String symbol;
+		@PcosField(order = 1, type = "uint") long account;
+		@PcosField(order = 3, length = 3) double[] ladder;
+		@PcosField(order = 4) Tick[] ticks;
+		@PcosField(order = 5, optional = true) Long expiry;
+		@PcosField(order = 6, optional = true) Tick last;
+	}
+
+	// private fields leave a class to the runtime plan rather than a generated codec
+	@PcosCodec
+	static class PlannedQuote
+	{
+		@PcosField(order = 2) private String symbol;
+		@PcosField(order = 1, type = "uint") private long account;
+		@PcosField(order = 3, length = 3) private double[] ladder;
+		@PcosField(order = 4) private Tick[] ticks;
+		@PcosField(order = 5, optional = true) private Long expiry;
+		@PcosField(order = 6, optional = true) private Tick last;
+	}
+
+	private static void testRuntimeCodec() throws PcosError
+	{
+		Quote q = new Quote();
+		q.account = 1001;
+		q.symbol = "EURUSD";
+		q.ladder = new double[] { 1.08, 1.09, 1.1 };
+		q.ticks = new Tick[] { new Tick(), new Tick() };
+		q.ticks[1].qty = -5;
+
+		Codec<Quote> codec = Codecs.forClass( Quote.class );
+		assert Codecs.forClass( Quote.class ) == codec;
+		BlockWriter bo = new BlockWriter( "Bo" );
+		codec.encode( q, bo );
+		byte[] wire = bo.toBytes();
+
+		// same bytes as the equivalent hand-written calls, in annotation order
+		BlockWriter hand = new BlockWriter( "Bo" );
+		hand.writeUint( 1001 );
+		hand.writeString( "EURUSD" );
+		hand.writeDoubleArray( q.ladder, 0, 3 );
+		hand.writeUint( 2 );
+		hand.writeDouble( 0 ); hand.writeInt( 0 );
+		hand.writeDouble( 0 ); hand.writeInt( -5 );
+		hand.writeBool( false );
+		hand.writeBool( false );
+		assert Arrays.equals( wire, hand.toBytes() );
+
+		Quote back = codec.decode( new BlockReader(wire, 0, wire.length, "Bo") );
+		assert back.account == 1001 && back.symbol.equals( "EURUSD" ) && back.ticks[1].qty == -5;
+		assert back.expiry == null && back.last == null && Arrays.equals( back.ladder, q.ladder );
+
+		// the generated codec and the runtime plan agree, optional fields included
+		assert codec.getClass().getName().equals( "TestPcos_Quote_PcosCodec" );
+		Codec<PlannedQuote> planned = Codecs.forClass( PlannedQuote.class );
+		assert !planned.getClass().getName().endsWith( "_PcosCodec" );
+		// without PcosCodec a class is not processed at all
+		assert !Codecs.forClass( Tick.class ).getClass().getName().endsWith( "_PcosCodec" );
+		q.expiry = 1L << 40;
+		q.last = q.ticks[1];
+		PlannedQuote pq = new PlannedQuote();
+		pq.account = q.account;
+		pq.symbol = q.symbol;
+		pq.ladder = q.ladder;
+		pq.ticks = q.ticks;
+		pq.expiry = q.expiry;
+		pq.last = q.last;
+		BlockWriter generatedOut = new BlockWriter( "Bo" ), plannedOut = new BlockWriter( "Bo" );
+		codec.encode( q, generatedOut );
+		planned.encode( pq, plannedOut );
+		byte[] full = generatedOut.toBytes();
+		assert Arrays.equals( full, plannedOut.toBytes() );
+		PlannedQuote pback = planned.decode( new BlockReader(full, 0, full.length, "Bo") );
+		codec.decode( new BlockReader(full, 0, full.length, "Bo"), back );
+		assert pback.expiry == (1L << 40) && back.expiry == (1L << 40);
+		assert pback.last.qty == -5 && back.last.qty == -5 && pback.symbol.equals( back.symbol );
+		try
+		{
+			q.ladder = new double[2];
+			codec.encode( q, new BlockWriter( "Bo" ) );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_ARG_OUT_OF_RANGE.code;
+		}
+		q.ladder = pq.ladder;
+		q.expiry = null;
+		q.last = null;
+
+		// the same message through a schema known only at runtime
+		Schema schema = new Schema().parse(
+			"type tick { price : double; qty : int; };\n" +
+			"type quote { account : uint; symbol : string; ladder : double[3]; ticks : tick[];" +
+			" expiry : long, optional; last : tick, optional; };", "quote.pcos" );
+		Codec<DynamicRecord> dynamic = Codecs.forType( schema, "quote" );
+		DynamicRecord r = dynamic.decode( new BlockReader(wire, 0, wire.length, "Bo") );
+		assert r.get( "account" ).equals( 1001L ) && r.get( "symbol" ).equals( "EURUSD" );
+		assert ((DynamicRecord) ((Object[]) r.get( "ticks" ))[1]).get( "qty" ).equals( -5 );
+		BlockWriter again = new BlockWriter( "Bo" );
+		dynamic.encode( r, again );
+		assert Arrays.equals( wire, again.toBytes() );
+	}
+
+	private static byte[] person( boolean atWork ) throws PcosError
+	{
+		BlockWriter bo = new BlockWriter( "Bo" );
+		bo.writeUint( 7 );
+		bo.writeString( "a memo nobody asked for" );
+		bo.writeUint( 2 );
+		bo.writeString( "x" ); bo.writeString( "yz" );
+		bo.writeString( "Main St" ); bo.writeString( "Chicago" ); bo.writeUint( 60601 );
+		bo.writeBool( atWork );
+		if (atWork) {
+			bo.writeString( "Wacker Dr" ); bo.writeString( "Chicago" ); bo.writeUint( 60606 );
+		}
+		bo.writeDouble( 4.5 );
+		bo.writeInt( -1 ); bo.writeInt( 300 );
+		bo.writeByte( 42 );
+		return bo.toBytes();
+	}
+
+	private static void testProjection() throws PcosError
+	{
+		Schema schema = new Schema().parse(
+			"type addr { street : string; city : string; zip : uint; };\n" +
+			"type person { id : uint; memo : string; tags : string[]; home : addr;" +
+			" work : addr, optional; score : double; grid : int[2]; age : byte; };", "person.pcos" );
+		// listed out of wire order; indexes follow this list
+		Projection p = Projection.of( schema, "person", "age", "home.city", "work.zip", "id" );
+		final Object[] seen = new Object[4];
+		Projection.Visitor visitor = new Projection.Visitor() {
+			public void field( int index, InputBlock in ) throws PcosError
+			{
+				switch (index)
+				{
+					case 0: seen[0] = in.readByte(); break;
+					case 1: seen[1] = in.readString( 0 ); break;
+					case 2: seen[2] = in.readUint(); break;
+					default: break; // left for the projection to skip
+				}
+				if (index == 3) {
+					seen[3] = in.readingPosition();
+				}
+			}
+		};
+
+		byte[] wire = person( false );
+		p.read( new BlockReader(wire, 0, wire.length, "Bo"), visitor );
+		assert seen[0].equals( (byte) 42 ) && seen[1].equals( "Chicago" ) && seen[2] == null;
+		assert seen[3].equals( 0 );
+
+		Arrays.fill( seen, null );
+		wire = person( true );
+		ByteBuffer direct = ByteBuffer.allocateDirect( wire.length );
+		direct.put( wire ).flip();
+		InputBlock in = new ByteBufferBlockReader( direct, "Bo" );
+		p.read( in, visitor );
+		assert seen[0].equals( (byte) 42 ) && seen[1].equals( "Chicago" ) && seen[2].equals( 60606L );
+		// stopped right after the last selected field
+		assert in.readingPosition() == wire.length;
+
+		// skip primitives on their own
+		in = new BlockReader( wire, 0, wire.length, "Bo" );
+		in.skipVarInt(); in.skipByteStr();
+		assert in.readUint() == 2;
+		try {
+			new BlockReader( new byte[] { (byte) 0x81, (byte) 0x82 }, 0, 2, "Bo" ).skipVarInt();
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_MALFORMED_MESSAGE.code;
+		}
+
+		try {
+			Projection.of( schema, "person", "home", "home.zip" );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_BAD_SCHEMA.code;
+		}
+		try {
+			Projection.of( schema, "person", "tags.length" );
+			assert false;
+		}
+		catch (PcosError e) {
+			assert e.getCode() == PcosErrorCode.ERR_BAD_SCHEMA.code;
+		}
+	}
+
 	private static void testReadDatatypes( byte[] input ) throws PcosError
 	{
-		InputDocument doc = new DocumentReader( input );
+		checkDatatypes( new DocumentReader( input ) );
+	}
+
+	private static void testReadDirectBuffer( byte[] input ) throws PcosError
+	{
+		// message sits in the middle of a direct buffer, as received off the network
+		ByteBuffer buf = ByteBuffer.allocateDirect( input.length + 8 );
+		buf.position( 3 );
+		buf.put( input );
+		buf.flip();
+		buf.position( 3 );
+
+		checkDatatypes( new DocumentReader( buf ) );
+		checkDatatypes( new DocumentReader( buf.asReadOnlyBuffer() ) );
+		assert buf.position() == 3;
+	}
+
+	private static void testReadViews( byte[] input ) throws PcosError
+	{
+		ByteBuffer direct = ByteBuffer.allocateDirect( input.length );
+		direct.put( input ).flip();
+		Utf8View heap = checkViews( new DocumentReader( input ).getBlock( "Bo" ) );
+		// equality is on the raw bytes, wherever they live
+		assert heap.equals( checkViews( new DocumentReader( direct ).getBlock( "Bo" ) ) );
+	}
+
+	private static Utf8View checkViews( InputBlock bo ) throws PcosError
+	{
+		bo.readByte();
+		ByteBuffer bytes = bo.readBytesView( rawbytes.length );
+		assert bytes.isReadOnly() && bytes.remaining() == rawbytes.length && bytes.get(2) == rawbytes[2];
+		bo.skipBytes( 2 );
+		bo.readUint(); bo.readUint(); bo.readInt(); bo.readInt();
+		bo.readUlong(); bo.readUlong(); bo.readLong(); bo.readLong();
+		bo.readDouble();
+
+		ByteBuffer str = bo.readByteStrView( rawbytes.length );
+		assert str.remaining() == rawbytes.length && str.get(0) == rawbytes[0];
+
+		Utf8View view = bo.readUtf8View( 0 );
+		assert view.byteLength() == varstr.length();
+		assert view.contentEquals( varstr ) && !view.contentEquals( "variable strinG" );
+		assert view.hashCode() == varstr.hashCode();
+		assert view.toString().equals( varstr ) && view.charAt(0) == 'v';
+		assert view.asByteBuffer().remaining() == varstr.length();
+		return view;
+	}
+
+	private static void checkDatatypes( InputDocument doc ) throws PcosError
+	{
 		System.out.println( "magic: " + doc.getMagic() );
 		System.out.println( "name: " + doc.getDocumentName() );
 		System.out.println( "blocks: ");
@@ -65,8 +1774,11 @@ public final class TestPcos
 			System.out.println( "  - " + blk.name() + " => " + blk.size() + " (bytes)" );
 		}
 		
-		InputBlock bo = doc.getBlock("Bo");
-		
+		checkBlock( doc.getBlock("Bo") );
+	}
+
+	private static void checkBlock( InputBlock bo ) throws PcosError
+	{
 		assert bo.readByte() == 44;
 		assert Arrays.equals(bo.readBytes(rawbytes.length), rawbytes );
 		assert bo.readBool() == false;
@@ -102,6 +1814,29 @@ public final class TestPcos
 			}
 			System.out.println("size=" + input.length + ", val=" + sb.toString());
 			testReadDatatypes( input );
+			testReadDirectBuffer( input );
+			testReadViews( input );
+			testReuseReader( input );
+			testPeekDispatch( input );
+			testPooledWriter();
+			testVarIntExtremes();
+			testWriteStrings();
+			testArrays();
+			testBulkVarIntParity();
+			testSchemaCompiler();
+			testRuntimeCodec();
+			testProjection();
+			testWriteTo();
+			testFrameDecoder( input );
+			testStreamingWriter();
+			testStreamedBlock();
+			testMessageLog();
+			testLargeDocument( input );
+			testSharedDocument( input );
+			testParallelDecode();
+			testWriterPool();
+			testTryParse( input );
+			testTryParity();
 
 			System.out.println( "All checks out!" );
 			System.exit(0);